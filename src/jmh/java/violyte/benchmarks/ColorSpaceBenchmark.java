@@ -0,0 +1,84 @@
+package violyte.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import violyte.image.ColorSpace;
+import violyte.image.ImageBuffer;
+import violyte.image.PixelFormat;
+
+/**
+ * Benchmarks of color space conversions of a 1080p frame, through the tables against the transfer function.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ColorSpaceBenchmark {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    @Param({"sRGB", "Display P3"})
+    public String space;
+
+    private ColorSpace colorSpace;
+    private int[] argb;
+    private ImageBuffer image;
+    private int[] row;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        colorSpace = ColorSpace.forLabel(space);
+        argb = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = 0xff000000 | (i * 0x9E3779B1) >>> 8;
+        }
+        image = new ImageBuffer(WIDTH, HEIGHT, PixelFormat.RGBA_FLOAT, new float[WIDTH * HEIGHT * 4]);
+        row = new int[WIDTH];
+    }
+
+    @Benchmark
+    public ImageBuffer decode() {
+        colorSpace.decode(argb, 0, image.getFloatData(), 0, argb.length);
+        return image;
+    }
+
+    @Benchmark
+    public int[] encode() {
+        for (int y = 0; y < HEIGHT; y++) {
+            colorSpace.encode(image, y, row);
+        }
+        return row;
+    }
+
+    @Benchmark
+    public int[] encodeWithPow() {
+        float[] pixels = image.getFloatData();
+        for (int y = 0, p = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++, p += 4) {
+                row[x] = 0xff000000 | encode(pixels[p]) << 16 | encode(pixels[p + 1]) << 8 | encode(pixels[p + 2]);
+            }
+        }
+        return row;
+    }
+
+    private static int encode(float linear) {
+        double value = Math.min(Math.max(linear, 0), 1);
+        double encoded = value <= 0.0031308 ? value * 12.92 : 1.055 * Math.pow(value, 1 / 2.4) - 0.055;
+        return (int) Math.round(encoded * 255);
+    }
+}
@@ -0,0 +1,79 @@
+package violyte.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import violyte.nodes.eval.ExecutionContext;
+import violyte.nodes.eval.ExecutionPlan;
+import violyte.nodes.eval.GraphEvaluator;
+import violyte.nodes.model.FrameTime;
+import violyte.nodes.model.NodeGraph;
+
+/**
+ * Benchmarks of full graph evaluation on layered synthetic DAGs.
+ * Run with {@code -prof gc} to check that executing a compiled plan does not allocate once warmed up.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class EvaluationBenchmark {
+    @Param({"1", "16", "256"})
+    public int width;
+
+    @Param({"16", "256"})
+    public int depth;
+
+    private GraphEvaluator evaluator;
+    private ExecutionPlan plan;
+    private ExecutionContext context;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        NodeGraph graph = SyntheticGraphs.layeredDag(width, depth);
+        evaluator = new GraphEvaluator(graph);
+        plan = ExecutionPlan.compile(graph);
+        context = plan.newContext();
+    }
+
+    /**
+     * Evaluate every node of the graph from scratch.
+     */
+    @Benchmark
+    public Map<Integer, Object> evaluateAll() {
+        evaluator.clear();
+        return evaluator.evaluateOutputs();
+    }
+
+    /**
+     * Execute a compiled plan of the graph, reusing the same context.
+     */
+    @Benchmark
+    public Object executePlan() {
+        plan.execute(context, FrameTime.ZERO, null);
+        return context.getOutput(0);
+    }
+
+    /**
+     * Compile the graph into a plan.
+     */
+    @Benchmark
+    public ExecutionPlan compilePlan() {
+        return ExecutionPlan.compile(evaluator.getGraph());
+    }
+}
@@ -0,0 +1,74 @@
+package violyte.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import violyte.image.BufferPool;
+import violyte.image.ImageBuffer;
+import violyte.image.PixelFormat;
+import violyte.nodes.library.ExpressionNode;
+import violyte.nodes.model.FrameTime;
+
+/**
+ * Benchmarks of per-pixel expressions, against the same math written in Java.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ExpressionBenchmark {
+    @Param({"512", "1024"})
+    public int size;
+
+    private final ExpressionNode node = new ExpressionNode();
+    private final FrameTime time = new FrameTime(12, 0.5);
+    private ImageBuffer image;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        float[] pixels = new float[size * size * 4];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (i % 97) / 97f;
+        }
+        image = new ImageBuffer(size, size, PixelFormat.RGBA_FLOAT, pixels);
+    }
+
+    @Benchmark
+    public ImageBuffer expression() {
+        ImageBuffer result = (ImageBuffer) node.evaluate(new Object[]{"a * 0.5 + sin(t) * u", image, 0.0, 0.0, 0.0}, time);
+        BufferPool.getDefault().release(result);
+        return result;
+    }
+
+    @Benchmark
+    public ImageBuffer java() {
+        ImageBuffer result = ImageBuffer.allocate(size, size, PixelFormat.RGBA_FLOAT);
+        float[] source = image.getFloatData();
+        float[] pixels = result.getFloatData();
+        for (int y = 0, p = 0; y < size; y++) {
+            for (int x = 0; x < size; x++, p += 4) {
+                double u = (x + 0.5) / size;
+                for (int channel = 0; channel < 3; channel++) {
+                    pixels[p + channel] = (float) (source[p + channel] * 0.5 + Math.sin(time.seconds()) * u);
+                }
+                pixels[p + 3] = source[p + 3];
+            }
+        }
+        BufferPool.getDefault().release(result);
+        return result;
+    }
+}
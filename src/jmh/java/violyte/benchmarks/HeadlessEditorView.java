@@ -0,0 +1,105 @@
+package violyte.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import violyte.nodes.model.NodeGraph.NodeInstance;
+import violyte.nodes.presenter.NodeEditorContract;
+
+/**
+ * View stand-in that keeps node positions in memory instead of displaying them.
+ * Nodes are treated as fixed-size boxes for rectangle selection.
+ */
+public class HeadlessEditorView implements NodeEditorContract.View {
+    public static final double NODE_WIDTH = 120;
+    public static final double NODE_HEIGHT = 60;
+
+    private final Map<Integer, double[]> positions = new HashMap<>();
+    private long updateCount;
+    private String clipboardText;
+
+    /**
+     * Number of view updates received, to keep them from being optimized away.
+     */
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    @Override
+    public void displayNode(NodeInstance instance) {
+        positions.put(instance.getId(), new double[]{instance.getX(), instance.getY()});
+    }
+
+    @Override
+    public void removeNodeDisplay(int nodeId) {
+        positions.remove(nodeId);
+    }
+
+    @Override
+    public void updateNodePosition(int nodeId, double x, double y) {
+        double[] position = positions.get(nodeId);
+        if (position != null) {
+            position[0] = x;
+            position[1] = y;
+            updateCount++;
+        }
+    }
+
+    @Override
+    public void displayConnection(int connectionId, int sourceNodeId, int sourceOutput,
+                                  int targetNodeId, int targetInput) {
+        updateCount++;
+    }
+
+    @Override
+    public void removeConnectionDisplay(int connectionId) {
+        updateCount++;
+    }
+
+    @Override
+    public void setNodeSelected(int nodeId, boolean selected) {
+        updateCount++;
+    }
+
+    @Override
+    public void showNodeSelectionMenu(double x, double y) {
+    }
+
+    @Override
+    public void hideNodeSelectionMenu() {
+    }
+
+    @Override
+    public void updateSelectionRectangle(double x, double y, double width, double height) {
+        updateCount++;
+    }
+
+    @Override
+    public void setSelectionRectangleVisible(boolean visible) {
+    }
+
+    @Override
+    public List<Integer> getNodesInRectangle(double x, double y, double width, double height) {
+        List<Integer> intersectingNodes = new ArrayList<>();
+        for (Map.Entry<Integer, double[]> entry : positions.entrySet()) {
+            double[] position = entry.getValue();
+            if (position[0] < x + width && position[0] + NODE_WIDTH > x &&
+                position[1] < y + height && position[1] + NODE_HEIGHT > y) {
+                intersectingNodes.add(entry.getKey());
+            }
+        }
+        return intersectingNodes;
+    }
+
+    @Override
+    public String getClipboardText() {
+        return clipboardText;
+    }
+
+    @Override
+    public void setClipboardText(String text) {
+        clipboardText = text;
+    }
+}
@@ -0,0 +1,49 @@
+package violyte.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import violyte.nodes.layout.LayeredLayout;
+import violyte.nodes.model.NodeGraph;
+
+/**
+ * Benchmarks of the automatic layout of densely connected graphs.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class LayoutBenchmark {
+    @Param({"1000", "10000"})
+    public int nodeCount;
+
+    @Param({"2", "4"})
+    public int fanIn;
+
+    private NodeGraph graph;
+    private final LayeredLayout layout = new LayeredLayout();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        graph = SyntheticGraphs.dense(nodeCount, fanIn);
+    }
+
+    @Benchmark
+    public LayeredLayout.Placement layout() {
+        return layout.compute(graph.snapshot());
+    }
+}
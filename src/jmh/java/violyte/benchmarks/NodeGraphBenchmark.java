@@ -0,0 +1,101 @@
+package violyte.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import violyte.nodes.model.NodeGraph;
+import violyte.nodes.model.NodeGraph.NodeInstance;
+
+/**
+ * Benchmarks of the node graph model.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class NodeGraphBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Lookup {
+        @Param({"100", "1000", "10000"})
+        public int nodeCount;
+
+        public NodeGraph graph;
+        private int nextId;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            graph = SyntheticGraphs.grid(nodeCount);
+        }
+
+        int nextId() {
+            nextId = nextId % nodeCount + 1;
+            return nextId;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class DenseGraph {
+        public static final int REMOVED_NODES = 100;
+
+        @Param({"1000", "10000"})
+        public int nodeCount;
+
+        @Param({"4", "16"})
+        public int fanIn;
+
+        public NodeGraph graph;
+        public List<NodeInstance> toRemove;
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            graph = SyntheticGraphs.dense(nodeCount, fanIn);
+            List<NodeInstance> nodes = graph.getNodes();
+            int start = (nodeCount - REMOVED_NODES) / 2;
+            toRemove = nodes.subList(start, start + REMOVED_NODES);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public NodeInstance getNodeById(Lookup state) {
+        return state.graph.getNodeById(state.nextId());
+    }
+
+    /**
+     * Change a parameter of a node, then check whether the graph changed.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long editAndHash(Lookup state) {
+        NodeInstance instance = state.graph.getNodeById(state.nextId());
+        state.graph.setParameter(instance, 0, state.nextId);
+        return state.graph.getStructuralHash();
+    }
+
+    /**
+     * Remove {@value DenseGraph#REMOVED_NODES} nodes from the middle of a densely connected graph.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Measurement(iterations = 20, batchSize = 1)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public NodeGraph removeNodes(DenseGraph state) {
+        state.graph.removeNodes(state.toRemove);
+        return state.graph;
+    }
+}
@@ -0,0 +1,76 @@
+package violyte.benchmarks;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import violyte.nodes.model.NodeGraph;
+import violyte.nodes.presenter.NodeEditorPresenter;
+
+/**
+ * Benchmarks of the node editor presenter against a headless view.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class PresenterBenchmark {
+    @Param({"10", "1000", "10000"})
+    public int nodeCount;
+
+    private HeadlessEditorView view;
+    private NodeEditorPresenter presenter;
+    private double gridSize;
+    private double direction = 1;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        NodeGraph graph = SyntheticGraphs.grid(nodeCount);
+        view = new HeadlessEditorView();
+        presenter = new NodeEditorPresenter(view, graph, Set.of());
+        for (NodeGraph.NodeInstance instance : graph.getNodes()) {
+            view.displayNode(instance);
+        }
+        gridSize = SyntheticGraphs.columns(nodeCount) * SyntheticGraphs.NODE_SPACING;
+
+        // Select every node
+        presenter.onSelectionRectangleStarted(-1, -1);
+        presenter.onSelectionRectangleDragged(gridSize + 1, gridSize + 1);
+        presenter.onSelectionRectangleFinished();
+    }
+
+    /**
+     * Drag every node of the graph by one pixel, going back and forth.
+     */
+    @Benchmark
+    public long dragSelection() {
+        direction = -direction;
+        presenter.onNodeDragged(1, direction, direction);
+        return view.getUpdateCount();
+    }
+
+    /**
+     * Drag a rubber-band rectangle over a quarter of the graph.
+     */
+    @Benchmark
+    public long rubberBandSelection() {
+        presenter.onSelectionRectangleStarted(-1, -1);
+        presenter.onSelectionRectangleDragged(gridSize / 2, gridSize / 2);
+        presenter.onSelectionRectangleFinished();
+        return view.getUpdateCount();
+    }
+}
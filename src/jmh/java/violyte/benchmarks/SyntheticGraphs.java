@@ -0,0 +1,110 @@
+package violyte.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import violyte.nodes.model.Node;
+import violyte.nodes.model.NodeGraph;
+import violyte.nodes.model.NodeGraph.NodeInstance;
+import violyte.nodes.model.NodeInput;
+
+/**
+ * Builders for the synthetic graphs used by the benchmarks.
+ */
+public final class SyntheticGraphs {
+    public static final double NODE_SPACING = 150;
+
+    private SyntheticGraphs() {
+    }
+
+    /**
+     * Build a graph of unconnected nodes laid out on a square grid.
+     * @param nodeCount The number of nodes
+     */
+    public static NodeGraph grid(int nodeCount) {
+        NodeGraph graph = new NodeGraph();
+        int columns = columns(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            graph.addNode(new SumNode(), (i % columns) * NODE_SPACING, (i / columns) * NODE_SPACING);
+        }
+        return graph;
+    }
+
+    /**
+     * Build a graph where each node is connected to several random earlier nodes.
+     * @param nodeCount The number of nodes
+     * @param fanIn The number of incoming connections of each node
+     */
+    public static NodeGraph dense(int nodeCount, int fanIn) {
+        NodeGraph graph = grid(nodeCount);
+        List<NodeInstance> nodes = graph.getNodes();
+        Random random = new Random(42);
+        for (int i = 1; i < nodes.size(); i++) {
+            for (int k = 0; k < fanIn; k++) {
+                graph.connectNodes(nodes.get(random.nextInt(i)), 0, nodes.get(i), k % 2);
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Build a layered DAG where each node sums two nodes of the previous layer.
+     * @param width The number of nodes per layer
+     * @param depth The number of layers
+     */
+    public static NodeGraph layeredDag(int width, int depth) {
+        NodeGraph graph = new NodeGraph();
+        List<NodeInstance> previous = new ArrayList<>();
+        for (int layer = 0; layer < depth; layer++) {
+            List<NodeInstance> current = new ArrayList<>();
+            for (int i = 0; i < width; i++) {
+                NodeInstance instance = graph.addNode(new SumNode(), layer * NODE_SPACING, i * NODE_SPACING);
+                if (!previous.isEmpty()) {
+                    graph.connectNodes(previous.get(i), 0, instance, 0);
+                    graph.connectNodes(previous.get((i + 1) % width), 0, instance, 1);
+                }
+                current.add(instance);
+            }
+            previous = current;
+        }
+        return graph;
+    }
+
+    /**
+     * Number of grid columns used to lay out the given number of nodes.
+     */
+    public static int columns(int nodeCount) {
+        return Math.max(1, (int) Math.ceil(Math.sqrt(nodeCount)));
+    }
+
+    /**
+     * Node summing its two integer inputs.
+     */
+    public static class SumNode extends Node<Integer> {
+        private final NodeInput<Integer> a = new NodeInput<>("A", 1);
+        private final NodeInput<Integer> b = new NodeInput<>("B", 1);
+
+        @Override
+        public String getLabel() {
+            return "Sum";
+        }
+
+        @Override
+        public Class<?> getOutputType() {
+            return Integer.class;
+        }
+
+        @Override
+        public NodeInput<?>[] getInputs() {
+            return new NodeInput<?>[]{a, b};
+        }
+
+        @Override
+        public Integer execute() {
+            Integer valA = a.getValue();
+            Integer valB = b.getValue();
+            return (valA != null ? valA : 0) + (valB != null ? valB : 0);
+        }
+    }
+}
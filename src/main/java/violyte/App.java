@@ -1,14 +1,32 @@
 package violyte;
 
+import java.util.EnumSet;
 import java.util.Set;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.scene.Scene;
+import javafx.scene.control.SplitPane;
 import javafx.stage.Stage;
+import violyte.image.ImageBuffer;
+import violyte.nodes.eval.DiskCache;
+import violyte.nodes.eval.GraphEvaluator;
+import violyte.nodes.library.ExpressionNode;
+import violyte.nodes.library.ReadImageNode;
+import violyte.nodes.library.SplitChannelsNode;
+import violyte.nodes.library.TimeNode;
+import violyte.nodes.library.WriteImageNode;
 import violyte.nodes.model.Node;
 import violyte.nodes.model.NodeGraph;
+import violyte.nodes.model.NodeGraph.Connection;
+import violyte.nodes.model.NodeGraph.EventType;
+import violyte.nodes.model.NodeGraph.NodeGraphListener;
+import violyte.nodes.model.NodeGraph.NodeInstance;
 import violyte.nodes.model.NodeInput;
+import violyte.nodes.model.SelectionModel;
+import violyte.nodes.monitoring.PulseMonitor;
 import violyte.nodes.presenter.NodeEditorPresenter;
+import violyte.nodes.view.ImageViewer;
 import violyte.nodes.view.NodeEditorViewImpl;
 
 /**
@@ -20,7 +38,8 @@ public class App extends Application {
         primaryStage.setTitle("Violyte");
 
         // Create available node types
-        Set<Node<?>> availableNodes = Set.of(new MyNode(), new AnotherNode());
+        Set<Node<?>> availableNodes = Set.of(new MyNode(), new AnotherNode(), new TimeNode(),
+            new ReadImageNode(), new WriteImageNode(), new SplitChannelsNode(), new ExpressionNode());
 
         // Create Model
         NodeGraph model = new NodeGraph();
@@ -30,11 +49,18 @@ public class App extends Application {
         view.getStylesheets().add(getClass().getResource("/styles.css").toExternalForm());
 
         // Create Presenter and wire it to View and Model
-        NodeEditorPresenter presenter = new NodeEditorPresenter(view, model, availableNodes);
+        NodeEditorPresenter presenter = new NodeEditorPresenter(view, model, availableNodes, Platform::runLater);
         view.setPresenter(presenter);
 
+        // Show the image produced by the selected node
+        ImageViewer viewer = new ImageViewer();
+        showSelectedImage(model, presenter.getSelection(), viewer);
+
         // Create Scene
-        Scene scene = new Scene(view, 800, 600);
+        SplitPane root = new SplitPane(view, viewer);
+        root.setDividerPositions(0.6);
+        Scene scene = new Scene(root, 1200, 600);
+        PulseMonitor.install(scene);
         primaryStage.setScene(scene);
         primaryStage.show();
 
@@ -43,6 +69,62 @@ public class App extends Application {
         model.addNode(new AnotherNode(), 400, 200);
     }
 
+    /**
+     * Display the image output of the selected node in a viewer, again whenever the graph changes.
+     * Nodes are evaluated on the JavaFX thread, after the events of an edit have all been delivered, through the
+     * disk cache shared with the command line renderer.
+     */
+    private static void showSelectedImage(NodeGraph model, SelectionModel selection, ImageViewer viewer) {
+        GraphEvaluator evaluator = new GraphEvaluator(model);
+        evaluator.setDiskCache(DiskCache.getDefault());
+        boolean[] scheduled = new boolean[1];
+        Runnable refresh = () -> {
+            scheduled[0] = false;
+            NodeInstance instance = selection.getCount() == 1 ? model.getNodeById(selection.getSelectedIds()[0]) : null;
+            // Nodes that cannot output an image, such as writers, are not evaluated just for being selected
+            if (instance == null || !instance.getNode().getOutputs()[0].type().isAssignableFrom(ImageBuffer.class)) {
+                return;
+            }
+            try {
+                if (evaluator.evaluate(instance) instanceof ImageBuffer image) {
+                    viewer.display(image);
+                }
+            } catch (RuntimeException e) {
+                // An incomplete graph keeps the last frame on screen
+            }
+        };
+        Runnable schedule = () -> {
+            if (!scheduled[0]) {
+                scheduled[0] = true;
+                Platform.runLater(refresh);
+            }
+        };
+
+        selection.addListener((selected, deselected) -> schedule.run());
+        model.addListener(new NodeGraphListener() {
+            @Override
+            public void onNodeRemoved(NodeInstance instance) {
+                schedule.run();
+            }
+
+            @Override
+            public void onConnectionAdded(Connection connection) {
+                schedule.run();
+            }
+
+            @Override
+            public void onConnectionRemoved(Connection connection) {
+                schedule.run();
+            }
+
+            @Override
+            public void onParameterChanged(NodeInstance instance) {
+                schedule.run();
+            }
+        }, EnumSet.of(EventType.NODE_REMOVED, EventType.CONNECTION_ADDED, EventType.CONNECTION_REMOVED,
+            EventType.PARAMETER_CHANGED));
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
@@ -51,14 +133,19 @@ public class App extends Application {
      * Example node implementation.
      */
     private static class MyNode extends Node<Integer> {
-        private final NodeInput<Integer> input1 = new NodeInput<>("A");
-        private final NodeInput<Integer> input2 = new NodeInput<>("B");
+        private final NodeInput<Integer> input1 = new NodeInput<>("A", Integer.class);
+        private final NodeInput<Integer> input2 = new NodeInput<>("B", Integer.class);
 
         @Override
         public String getLabel() {
             return "My Node";
         }
 
+        @Override
+        public Class<?> getOutputType() {
+            return Integer.class;
+        }
+
         @Override
         public NodeInput<?>[] getInputs() {
             return new NodeInput[]{input1, input2};
@@ -76,13 +163,18 @@ public class App extends Application {
      * Another example node.
      */
     private static class AnotherNode extends Node<String> {
-        private final NodeInput<String> input = new NodeInput<>("Text");
+        private final NodeInput<String> input = new NodeInput<>("Text", String.class);
 
         @Override
         public String getLabel() {
             return "Another Node";
         }
 
+        @Override
+        public Class<?> getOutputType() {
+            return String.class;
+        }
+
         @Override
         public NodeInput<?>[] getInputs() {
             return new NodeInput[]{input};
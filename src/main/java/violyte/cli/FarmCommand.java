@@ -0,0 +1,540 @@
+package violyte.cli;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import violyte.nodes.io.GraphFile;
+
+/**
+ * Renders a range of frames of a saved graph with several local worker processes.
+ * The range is split in chunks of frames, handed out to the {@link WorkerCommand workers} as they become idle,
+ * so that fast workers take more chunks. A chunk running much longer than the others is also given to an idle
+ * worker, the first one to finish it winning. The chunk of a worker that dies is handed out again and the worker
+ * restarted. Completed chunks are recorded in a checkpoint file, and skipped when the command is run again with
+ * the same graph and options.
+ */
+public class FarmCommand {
+    static final String USAGE = """
+        Usage: violyte farm <graph file> [options]
+
+        Options:
+          -o, --output <dir>                Output directory (default: current directory)
+          -s, --set <node>.<input>=<value>  Set a parameter, the input being an index or a label
+          -f, --frames <first>-<last>       Frames to render, inclusive (default: 0-0)
+          -r, --rate <fps>                  Frames per second (default: 24)
+          -c, --cache <dir>                 Directory of the persistent output cache, shared by the workers
+                                            (default: ~/.violyte/cache)
+              --no-cache                    Do not read or write the persistent output cache
+          -w, --workers <count>             Number of worker processes (default: up to 4)
+          -j, --jobs <count>                Maximum number of frames rendered at once by each worker
+                                            (default: number of processors divided by the number of workers)
+          -k, --chunk <frames>              Number of frames handed out at once (default: 4)
+              --heap <size>                 Maximum heap of each worker, e.g. 2g (default: the JVM default)
+              --checkpoint <file>           File recording the completed chunks (default: .violyte-farm in the
+                                            output directory)
+              --restart                     Render every frame, ignoring the checkpoint
+        """;
+
+    /** Name of the checkpoint file in the output directory. */
+    static final String CHECKPOINT_NAME = ".violyte-farm";
+
+    /** Factor of the expected duration of a chunk beyond which it is given to another worker as well. */
+    private static final double STRAGGLER_FACTOR = 2;
+    /** Number of times a chunk is handed out after failing to render. */
+    private static final int MAX_RETRIES = 2;
+    /** Interval at which the workers are checked for stragglers. */
+    private static final long POLL_MILLIS = 500;
+    /** Time given to the workers to quit before they are killed. */
+    private static final long QUIT_MILLIS = 5000;
+
+    private Path graphFile;
+    private Path outputDirectory = Path.of(".");
+    private final List<String> parameters = new ArrayList<>();
+    private int firstFrame;
+    private int lastFrame;
+    private double frameRate = 24;
+    private Path cacheDirectory;
+    private boolean useCache = true;
+    private int workerCount = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private int jobs;
+    private int chunkSize = 4;
+    private String heap;
+    private Path checkpointFile;
+    private boolean restart;
+
+    /**
+     * Parse the arguments of the command.
+     * @param args The arguments following the command name
+     * @return The parsed command
+     * @throws IllegalArgumentException If the arguments are invalid
+     */
+    public static FarmCommand parse(String[] args) {
+        FarmCommand command = new FarmCommand();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "-o", "--output" -> command.outputDirectory = Path.of(RenderCommand.value(args, ++i, arg));
+                case "-s", "--set" -> command.parameters.add(RenderCommand.value(args, ++i, arg));
+                case "-f", "--frames" -> command.setFrames(RenderCommand.value(args, ++i, arg));
+                case "-r", "--rate" -> command.frameRate = Double.parseDouble(RenderCommand.value(args, ++i, arg));
+                case "-c", "--cache" -> command.cacheDirectory = Path.of(RenderCommand.value(args, ++i, arg));
+                case "--no-cache" -> command.useCache = false;
+                case "-w", "--workers" -> command.workerCount = Integer.parseInt(RenderCommand.value(args, ++i, arg));
+                case "-j", "--jobs" -> command.jobs = Integer.parseInt(RenderCommand.value(args, ++i, arg));
+                case "-k", "--chunk" -> command.chunkSize = Integer.parseInt(RenderCommand.value(args, ++i, arg));
+                case "--heap" -> command.heap = RenderCommand.value(args, ++i, arg);
+                case "--checkpoint" -> command.checkpointFile = Path.of(RenderCommand.value(args, ++i, arg));
+                case "--restart" -> command.restart = true;
+                case "-h", "--help" -> throw new IllegalArgumentException("\n" + USAGE);
+                default -> {
+                    if (arg.startsWith("-") || command.graphFile != null) {
+                        throw new IllegalArgumentException("Unexpected argument '" + arg + "'");
+                    }
+                    command.graphFile = Path.of(arg);
+                }
+            }
+        }
+
+        if (command.graphFile == null) {
+            throw new IllegalArgumentException("No graph file given");
+        } else if (command.lastFrame < command.firstFrame) {
+            throw new IllegalArgumentException("The last frame comes before the first frame");
+        } else if (command.frameRate <= 0 || command.workerCount < 1 || command.jobs < 0 || command.chunkSize < 1) {
+            throw new IllegalArgumentException("The frame rate, number of workers, jobs and chunk size must be positive");
+        } else if (command.heap != null) {
+            SequenceCommand.parseSize(command.heap);
+        }
+        if (command.jobs == 0) {
+            command.jobs = Math.max(1, Runtime.getRuntime().availableProcessors() / command.workerCount);
+        }
+        if (command.checkpointFile == null) {
+            command.checkpointFile = command.outputDirectory.resolve(CHECKPOINT_NAME);
+        }
+        return command;
+    }
+
+    /**
+     * Run the command.
+     * @return The exit status, 0 if every frame was rendered
+     * @throws IOException If the graph or the checkpoint cannot be read, or a worker cannot be started
+     */
+    public int run() throws IOException, InterruptedException {
+        // Report a broken graph or parameter here rather than from every worker
+        InputRef.setParameters(GraphFile.read(graphFile), parameters);
+        Files.createDirectories(outputDirectory);
+        String key = checkpointKey();
+        BitSet completed = readCheckpoint(key);
+        int skipped = completed.cardinality();
+        if (skipped > 0) {
+            System.err.println("violyte: " + skipped + " frames already rendered, according to " + checkpointFile);
+        }
+
+        Deque<Chunk> pending = new ArrayDeque<>();
+        for (int frame = completed.nextClearBit(0); frame <= lastFrame - firstFrame; ) {
+            int end = Math.min(frame + chunkSize, lastFrame - firstFrame + 1);
+            int next = completed.nextSetBit(frame);
+            if (next >= 0 && next < end) {
+                end = next;
+            }
+            pending.add(new Chunk(firstFrame + frame, firstFrame + end - 1));
+            frame = completed.nextClearBit(end);
+        }
+        if (pending.isEmpty()) {
+            return 0;
+        }
+
+        try (Writer checkpoint = openCheckpoint(key)) {
+            Coordinator coordinator = new Coordinator(pending, checkpoint);
+            try {
+                coordinator.run();
+            } finally {
+                coordinator.stopWorkers();
+            }
+            for (List<String> files : coordinator.files.values()) {
+                files.forEach(System.out::println);
+            }
+            for (Chunk chunk : coordinator.failed) {
+                System.err.println("violyte: failed to render frames " + chunk.first + "-" + chunk.last + ": "
+                    + chunk.failure);
+            }
+            if (coordinator.remaining > 0) {
+                System.err.println("violyte: " + coordinator.remaining + " chunks of frames left unrendered");
+            }
+            return coordinator.remaining == 0 && coordinator.failed.isEmpty() ? 0 : 1;
+        }
+    }
+
+    /**
+     * Identify what the checkpoint applies to: the content of the graph file, and the options changing the
+     * rendered frames.
+     */
+    private String checkpointKey() throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(Files.readAllBytes(graphFile));
+            digest.update(String.join("\n", parameters).getBytes(StandardCharsets.UTF_8));
+            digest.update(Double.toString(frameRate).getBytes(StandardCharsets.UTF_8));
+            digest.update(outputDirectory.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Read the frames completed by a previous run, if the checkpoint was written for the same key.
+     * @return The completed frames, relative to the first frame
+     */
+    private BitSet readCheckpoint(String key) throws IOException {
+        BitSet completed = new BitSet();
+        if (restart || !Files.exists(checkpointFile)) {
+            return completed;
+        }
+        List<String> lines = Files.readAllLines(checkpointFile, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals("key " + key)) {
+            return completed;
+        }
+        for (String line : lines.subList(1, lines.size())) {
+            String[] words = line.split(" ");
+            // A line cut short by a crash is ignored
+            if (words.length != 3 || !words[0].equals("done")) {
+                continue;
+            }
+            try {
+                int first = Math.max(Integer.parseInt(words[1]), firstFrame);
+                int last = Math.min(Integer.parseInt(words[2]), lastFrame);
+                if (first <= last) {
+                    completed.set(first - firstFrame, last - firstFrame + 1);
+                }
+            } catch (NumberFormatException e) {
+                // Same as a line cut short
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Open the checkpoint for appending, starting it over if it was written for another key.
+     */
+    private Writer openCheckpoint(String key) throws IOException {
+        Path parent = checkpointFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        boolean sameKey = !restart && Files.exists(checkpointFile)
+            && Files.readAllLines(checkpointFile, StandardCharsets.UTF_8).stream().findFirst()
+                .filter(("key " + key)::equals).isPresent();
+        if (sameKey) {
+            return Files.newBufferedWriter(checkpointFile, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        }
+        Writer writer = Files.newBufferedWriter(checkpointFile, StandardCharsets.UTF_8);
+        writer.write("key " + key + "\n");
+        writer.flush();
+        return writer;
+    }
+
+    private void setFrames(String range) {
+        int separator = range.indexOf('-', 1);
+        firstFrame = Integer.parseInt(separator < 0 ? range : range.substring(0, separator));
+        lastFrame = separator < 0 ? firstFrame : Integer.parseInt(range.substring(separator + 1));
+    }
+
+    private List<String> workerCommand() {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (heap != null) {
+            command.add("-Xmx" + heap);
+        }
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), Main.class.getName(), "worker",
+            graphFile.toString(), "-o", outputDirectory.toString(), "-r", Double.toString(frameRate),
+            "-j", Integer.toString(jobs)));
+        for (String parameter : parameters) {
+            command.add("-s");
+            command.add(parameter);
+        }
+        if (!useCache) {
+            command.add("--no-cache");
+        } else if (cacheDirectory != null) {
+            command.add("-c");
+            command.add(cacheDirectory.toString());
+        }
+        return command;
+    }
+
+    /**
+     * Range of frames handed out to a worker at once.
+     */
+    private static final class Chunk {
+        final int first;
+        final int last;
+        /** Number of workers rendering the chunk. */
+        int runners;
+        int failures;
+        boolean completed;
+        String failure;
+
+        Chunk(int first, int last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        int frameCount() {
+            return last - first + 1;
+        }
+    }
+
+    /**
+     * Line read from a worker, or the end of its output when the line is null.
+     */
+    private record Message(Worker worker, String line) {
+    }
+
+    /**
+     * Worker process, and the chunk it renders.
+     */
+    private static final class Worker {
+        final Process process;
+        final Writer commands;
+        boolean ready;
+        Chunk chunk;
+        long startNanos;
+        /** Files written for the current chunk, kept until the chunk is done. */
+        final List<String[]> files = new ArrayList<>();
+
+        Worker(Process process) {
+            this.process = process;
+            this.commands = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        void send(String command) {
+            try {
+                commands.write(command + "\n");
+                commands.flush();
+            } catch (IOException e) {
+                // The worker died, which its reader reports
+            }
+        }
+    }
+
+    /**
+     * Hands out the chunks to the workers, on the thread running the command.
+     * The output of each worker is read by a thread of its own, forwarding the lines to a single queue.
+     */
+    private final class Coordinator {
+        final Deque<Chunk> pending;
+        final Writer checkpoint;
+        final List<Chunk> failed = new ArrayList<>();
+        final List<Worker> workers = new ArrayList<>();
+        final BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+        final Map<Integer, List<String>> files = new TreeMap<>();
+        /** Render durations per frame of the completed chunks, in nanoseconds. */
+        final List<Long> frameNanos = new ArrayList<>();
+        int remaining;
+        int restartsLeft;
+
+        Coordinator(Deque<Chunk> pending, Writer checkpoint) {
+            this.pending = pending;
+            this.checkpoint = checkpoint;
+            this.remaining = pending.size();
+            this.restartsLeft = workerCount * 2;
+        }
+
+        void run() throws IOException, InterruptedException {
+            for (int i = 0; i < Math.min(workerCount, pending.size()); i++) {
+                workers.add(start());
+            }
+            while (remaining > 0 && !workers.isEmpty()) {
+                handOut();
+                Message message = messages.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                while (message != null) {
+                    handle(message);
+                    message = messages.poll();
+                }
+            }
+        }
+
+        Worker start() throws IOException {
+            Process process = new ProcessBuilder(workerCommand())
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+            Worker worker = new Worker(process);
+            Thread reader = new Thread(() -> {
+                try (BufferedReader output = new BufferedReader(
+                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = output.readLine()) != null) {
+                        messages.add(new Message(worker, line));
+                    }
+                } catch (IOException e) {
+                    // Same as the end of the output
+                }
+                messages.add(new Message(worker, null));
+            }, "Farm worker " + process.pid());
+            reader.setDaemon(true);
+            reader.start();
+            return worker;
+        }
+
+        /**
+         * Give a chunk to every idle worker: a pending one, or else a straggler not already rendered twice.
+         */
+        void handOut() {
+            for (Worker worker : workers) {
+                if (!worker.ready || worker.chunk != null) {
+                    continue;
+                }
+                Chunk chunk = pending.poll();
+                if (chunk == null) {
+                    chunk = straggler();
+                }
+                if (chunk == null) {
+                    return;
+                }
+                chunk.runners++;
+                worker.chunk = chunk;
+                worker.startNanos = System.nanoTime();
+                worker.files.clear();
+                worker.send("render " + chunk.first + " " + chunk.last);
+            }
+        }
+
+        /**
+         * Find a chunk rendered by a single worker for longer than expected from the chunks completed so far.
+         */
+        Chunk straggler() {
+            if (frameNanos.isEmpty()) {
+                return null;
+            }
+            long[] sorted = frameNanos.stream().mapToLong(Long::longValue).sorted().toArray();
+            long median = sorted[sorted.length / 2];
+            long now = System.nanoTime();
+            Chunk slowest = null;
+            long slowestNanos = 0;
+            for (Worker worker : workers) {
+                Chunk chunk = worker.chunk;
+                if (chunk == null || chunk.runners > 1) {
+                    continue;
+                }
+                long elapsed = now - worker.startNanos;
+                if (elapsed > STRAGGLER_FACTOR * median * chunk.frameCount() && elapsed > slowestNanos) {
+                    slowest = chunk;
+                    slowestNanos = elapsed;
+                }
+            }
+            return slowest;
+        }
+
+        void handle(Message message) throws IOException {
+            Worker worker = message.worker;
+            if (message.line == null) {
+                died(worker);
+                return;
+            }
+            // The path of a file and the message of a failure come last, and may contain spaces
+            String[] words = message.line.split(" ", message.line.startsWith("file ") ? 3 : 4);
+            switch (words[0]) {
+                case "ready" -> worker.ready = true;
+                case "file" -> worker.files.add(words);
+                case "done" -> {
+                    Chunk chunk = release(worker);
+                    if (chunk != null && !chunk.completed) {
+                        chunk.completed = true;
+                        remaining--;
+                        frameNanos.add((System.nanoTime() - worker.startNanos) / chunk.frameCount());
+                        for (String[] file : worker.files) {
+                            files.computeIfAbsent(Integer.parseInt(file[1]), k -> new ArrayList<>()).add(file[2]);
+                        }
+                        checkpoint.write("done " + chunk.first + " " + chunk.last + "\n");
+                        checkpoint.flush();
+                    }
+                }
+                case "failed" -> {
+                    Chunk chunk = release(worker);
+                    if (chunk != null && !chunk.completed && chunk.runners == 0) {
+                        chunk.failure = words.length > 3 ? words[3] : "unknown error";
+                        if (++chunk.failures > MAX_RETRIES) {
+                            failed.add(chunk);
+                            remaining--;
+                        } else {
+                            pending.add(chunk);
+                        }
+                    }
+                }
+                default -> System.err.println("violyte: unexpected answer from a worker '" + message.line + "'");
+            }
+        }
+
+        /**
+         * Hand out again the chunk of a worker that died, and start another worker in its place.
+         */
+        void died(Worker worker) throws IOException {
+            workers.remove(worker);
+            Chunk chunk = release(worker);
+            if (chunk != null && !chunk.completed && chunk.runners == 0) {
+                pending.addFirst(chunk);
+            }
+            if (remaining > 0 && restartsLeft > 0) {
+                restartsLeft--;
+                System.err.println("violyte: worker " + worker.process.pid() + " stopped, starting another one");
+                workers.add(start());
+            } else if (workers.isEmpty()) {
+                System.err.println("violyte: every worker stopped");
+            }
+        }
+
+        /**
+         * Take the chunk of a worker back.
+         * @return The chunk, or null if the worker had none
+         */
+        Chunk release(Worker worker) {
+            Chunk chunk = worker.chunk;
+            worker.chunk = null;
+            if (chunk != null) {
+                chunk.runners--;
+            }
+            return chunk;
+        }
+
+        /**
+         * Ask the workers to quit, killing those still rendering a chunk completed by another worker.
+         */
+        void stopWorkers() throws InterruptedException {
+            for (Worker worker : workers) {
+                if (worker.chunk != null) {
+                    worker.process.destroy();
+                } else {
+                    worker.send("quit");
+                }
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(QUIT_MILLIS);
+            for (Worker worker : workers) {
+                long wait = deadline - System.nanoTime();
+                if (!worker.process.waitFor(Math.max(wait, 0), TimeUnit.NANOSECONDS)) {
+                    worker.process.destroyForcibly();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package violyte.cli;
+
+import java.util.List;
+
+import violyte.nodes.io.GraphFile;
+import violyte.nodes.model.NodeGraph;
+import violyte.nodes.model.NodeGraph.NodeInstance;
+import violyte.nodes.model.NodeInput;
+
+/**
+ * Reference to a node input given on the command line as {@code <node id>.<input index or label>}.
+ */
+record InputRef(int nodeId, int inputIndex, NodeInput<?> input) {
+
+    /**
+     * Resolve a reference against a graph.
+     * @throws IllegalArgumentException If the reference is malformed or does not match any input
+     */
+    static InputRef resolve(NodeGraph graph, String text) {
+        int separator = text.indexOf('.');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Expected <node>.<input>, got '" + text + "'");
+        }
+
+        NodeInstance instance = graph.getNodeById(Integer.parseInt(text.substring(0, separator)));
+        if (instance == null) {
+            throw new IllegalArgumentException("Unknown node in '" + text + "'");
+        }
+
+        String name = text.substring(separator + 1);
+        NodeInput<?>[] inputs = instance.getNode().getInputs();
+        for (int i = 0; i < inputs.length; i++) {
+            if (inputs[i].getLabel().equals(name) || String.valueOf(i).equals(name)) {
+                return new InputRef(instance.getId(), i, inputs[i]);
+            }
+        }
+        throw new IllegalArgumentException("Unknown input in '" + text + "'");
+    }
+
+    /**
+     * Apply {@code <node>.<input>=<value>} assignments to the parameters of a graph.
+     * @throws IllegalArgumentException If an assignment is malformed or does not match any input
+     */
+    static void setParameters(NodeGraph graph, List<String> assignments) {
+        for (String assignment : assignments) {
+            int separator = assignment.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected <node>.<input>=<value>, got '" + assignment + "'");
+            }
+            InputRef ref = resolve(graph, assignment.substring(0, separator));
+            GraphFile.setParameter(graph, graph.getNodeById(ref.nodeId()), ref.inputIndex(),
+                assignment.substring(separator + 1));
+        }
+    }
+}
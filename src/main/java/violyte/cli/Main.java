@@ -0,0 +1,47 @@
+package violyte.cli;
+
+import java.util.Arrays;
+
+/**
+ * Command-line entry point, running without JavaFX.
+ */
+public final class Main {
+    private static final String USAGE = """
+        Usage: violyte <command> [options]
+
+        Commands:
+          render    Render the output nodes of a saved graph to files
+          sequence  Render a range of frames of a saved graph to files
+          farm      Render a range of frames with several local worker processes
+        """;
+
+    private Main() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0 || args[0].equals("-h") || args[0].equals("--help")) {
+            System.out.print(USAGE);
+            return;
+        }
+
+        String[] commandArgs = Arrays.copyOfRange(args, 1, args.length);
+        int status;
+        try {
+            status = switch (args[0]) {
+                case "render" -> RenderCommand.parse(commandArgs).run();
+                case "sequence" -> SequenceCommand.parse(commandArgs).run();
+                case "farm" -> FarmCommand.parse(commandArgs).run();
+                case "worker" -> WorkerCommand.parse(commandArgs).run();
+                default -> throw new IllegalArgumentException("Unknown command '" + args[0] + "'");
+            };
+        } catch (IllegalArgumentException e) {
+            System.err.println("violyte: " + e.getMessage());
+            System.err.print(USAGE);
+            status = 2;
+        } catch (Exception e) {
+            System.err.println("violyte: " + e.getMessage());
+            status = 1;
+        }
+        System.exit(status);
+    }
+}
@@ -0,0 +1,46 @@
+package violyte.cli;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import violyte.image.ImageBuffer;
+import violyte.image.ImageFiles;
+
+/**
+ * Writes node outputs to files, choosing the file format from the type of the output.
+ * Images are written as PNG files, any other value as text.
+ * Files are written under a temporary name then renamed, so that a file is never seen half written, even when
+ * several processes render the same frame.
+ */
+public class OutputWriter {
+
+    /**
+     * Write a node output to a file.
+     * @param value The node output
+     * @param directory The directory to write to
+     * @param baseName The file name, without extension
+     * @return The written file
+     * @throws IOException If the file cannot be written
+     */
+    public Path write(Object value, Path directory, String baseName) throws IOException {
+        String extension = value instanceof ImageBuffer ? ".png" : ".txt";
+        Path file = directory.resolve(baseName + extension);
+        // The extension is kept, since it chooses the image format
+        Path temporary = directory.resolve("." + baseName + "." + ProcessHandle.current().pid() + "."
+            + Thread.currentThread().threadId() + extension);
+        try {
+            if (value instanceof ImageBuffer image) {
+                ImageFiles.write(image, temporary);
+            } else {
+                Files.writeString(temporary, String.valueOf(value), StandardCharsets.UTF_8);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,202 @@
+package violyte.cli;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import violyte.image.BufferPool;
+import violyte.nodes.eval.DiskCache;
+import violyte.nodes.eval.ExecutionContext;
+import violyte.nodes.eval.ExecutionPlan;
+import violyte.nodes.eval.ParameterSet;
+import violyte.nodes.io.GraphFile;
+import violyte.nodes.io.ParameterValues;
+import violyte.nodes.model.FrameTime;
+import violyte.nodes.model.NodeGraph;
+
+/**
+ * Renders the output nodes of a saved graph to files.
+ * The graph is loaded and compiled once, then rendered once per input file on a pool of worker threads,
+ * each thread reusing its own execution context.
+ */
+public class RenderCommand {
+    static final String USAGE = """
+        Usage: violyte render <graph file> [options] [input files...]
+
+        Options:
+          -o, --output <dir>                Output directory (default: current directory)
+          -s, --set <node>.<input>=<value>  Set a parameter, the input being an index or a label
+          -i, --input <node>.<input>        Parameter receiving the path of each input file
+          -c, --cache <dir>                 Directory of the persistent output cache, shared with the editor
+                                            (default: ~/.violyte/cache)
+              --no-cache                    Do not read or write the persistent output cache
+          -j, --jobs <count>                Number of worker threads (default: number of processors)
+        """;
+
+    private Path graphFile;
+    private Path outputDirectory = Path.of(".");
+    private final List<String> parameters = new ArrayList<>();
+    private String inputParameter;
+    private final List<Path> inputFiles = new ArrayList<>();
+    private Path cacheDirectory;
+    private boolean useCache = true;
+    private int jobs = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Parse the arguments of the command.
+     * @param args The arguments following the command name
+     * @return The parsed command
+     * @throws IllegalArgumentException If the arguments are invalid
+     */
+    public static RenderCommand parse(String[] args) {
+        RenderCommand command = new RenderCommand();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "-o", "--output" -> command.outputDirectory = Path.of(value(args, ++i, arg));
+                case "-s", "--set" -> command.parameters.add(value(args, ++i, arg));
+                case "-i", "--input" -> command.inputParameter = value(args, ++i, arg);
+                case "-c", "--cache" -> command.cacheDirectory = Path.of(value(args, ++i, arg));
+                case "--no-cache" -> command.useCache = false;
+                case "-j", "--jobs" -> command.jobs = Integer.parseInt(value(args, ++i, arg));
+                case "-h", "--help" -> throw new IllegalArgumentException("\n" + USAGE);
+                default -> {
+                    if (arg.startsWith("-")) {
+                        throw new IllegalArgumentException("Unknown option '" + arg + "'");
+                    } else if (command.graphFile == null) {
+                        command.graphFile = Path.of(arg);
+                    } else {
+                        command.inputFiles.add(Path.of(arg));
+                    }
+                }
+            }
+        }
+
+        if (command.graphFile == null) {
+            throw new IllegalArgumentException("No graph file given");
+        } else if (!command.inputFiles.isEmpty() && command.inputParameter == null) {
+            throw new IllegalArgumentException("Input files given without --input parameter");
+        } else if (command.jobs < 1) {
+            throw new IllegalArgumentException("The number of jobs must be at least 1");
+        }
+        return command;
+    }
+
+    /**
+     * Run the command.
+     * @return The exit status, 0 if every render succeeded
+     * @throws IOException If the graph cannot be loaded
+     */
+    public int run() throws IOException, InterruptedException {
+        NodeGraph graph = GraphFile.read(graphFile);
+        InputRef.setParameters(graph, parameters);
+
+        ExecutionPlan plan = ExecutionPlan.compile(graph);
+        BufferPool pool = BufferPool.getDefault();
+        DiskCache diskCache = openCache(useCache, cacheDirectory);
+        ThreadLocal<ExecutionContext> contexts = ThreadLocal.withInitial(() -> {
+            ExecutionContext context = plan.newContext();
+            context.setRecycler(pool::recycle);
+            context.setDiskCache(diskCache);
+            return context;
+        });
+        Files.createDirectories(outputDirectory);
+
+        List<RenderJob> renderJobs = new ArrayList<>();
+        if (inputParameter == null) {
+            renderJobs.add(new RenderJob(contexts, new ParameterSet(), ""));
+        } else {
+            InputRef ref = InputRef.resolve(graph, inputParameter);
+            for (Path inputFile : inputFiles) {
+                Object value = ParameterValues.parse(inputFile.toString(), ref.input().getParameterValue());
+                ParameterSet overrides = new ParameterSet().set(ref.nodeId(), ref.inputIndex(), value);
+                renderJobs.add(new RenderJob(contexts, overrides, stripExtension(inputFile) + "."));
+            }
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(jobs, renderJobs.size()));
+        int failures = 0;
+        try {
+            List<Future<List<Path>>> results = workers.invokeAll(renderJobs);
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    for (Path written : results.get(i).get()) {
+                        System.out.println(written);
+                    }
+                } catch (ExecutionException e) {
+                    failures++;
+                    String name = inputFiles.isEmpty() ? graphFile.toString() : inputFiles.get(i).toString();
+                    System.err.println("violyte: failed to render " + name + ": " + e.getCause());
+                }
+            }
+        } finally {
+            workers.shutdown();
+        }
+        return failures == 0 ? 0 : 1;
+    }
+
+    /**
+     * Open the persistent output cache chosen by the cache options.
+     * @return The cache, or null when disabled
+     */
+    static DiskCache openCache(boolean useCache, Path directory) {
+        if (!useCache) {
+            return null;
+        }
+        return directory != null ? new DiskCache(directory, DiskCache.DEFAULT_CAPACITY) : DiskCache.getDefault();
+    }
+
+    static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    private static String stripExtension(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * A single render of the plan, writing the output nodes to files.
+     */
+    private class RenderJob implements Callable<List<Path>> {
+        private final ThreadLocal<ExecutionContext> contexts;
+        private final ParameterSet overrides;
+        private final String prefix;
+
+        RenderJob(ThreadLocal<ExecutionContext> contexts, ParameterSet overrides, String prefix) {
+            this.contexts = contexts;
+            this.overrides = overrides;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public List<Path> call() throws IOException {
+            ExecutionContext context = contexts.get();
+            context.setParameters(overrides);
+            context.getPlan().execute(context, FrameTime.ZERO, null);
+
+            OutputWriter writer = new OutputWriter();
+            List<Path> written = new ArrayList<>();
+            try {
+                for (int i = 0; i < context.getOutputCount(); i++) {
+                    String name = prefix + "node" + context.getOutputNodeId(i);
+                    written.add(writer.write(context.getOutput(i), outputDirectory, name));
+                }
+            } finally {
+                context.releaseOutputs();
+            }
+            return written;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package violyte.cli;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import violyte.nodes.eval.ExecutionPlan;
+import violyte.nodes.eval.ParameterSet;
+import violyte.nodes.eval.SequenceRenderer;
+import violyte.nodes.io.GraphFile;
+import violyte.nodes.model.FrameTime;
+import violyte.nodes.model.NodeGraph;
+
+/**
+ * Renders a range of frames of a saved graph to files.
+ * Nodes that do not depend on time are evaluated once for the whole sequence.
+ */
+public class SequenceCommand {
+    static final String USAGE = """
+        Usage: violyte sequence <graph file> [options]
+
+        Options:
+          -o, --output <dir>                Output directory (default: current directory)
+          -s, --set <node>.<input>=<value>  Set a parameter, the input being an index or a label
+          -f, --frames <first>-<last>       Frames to render, inclusive (default: 0-0)
+          -r, --rate <fps>                  Frames per second (default: 24)
+          -c, --cache <dir>                 Directory of the persistent output cache, shared with the editor
+                                            (default: ~/.violyte/cache)
+              --no-cache                    Do not read or write the persistent output cache
+          -j, --jobs <count>                Maximum number of frames rendered at once (default: number of processors)
+          -m, --memory <size>               Memory budget of the frames in flight, e.g. 512m or 4g (default: half the heap)
+        """;
+
+    private Path graphFile;
+    private Path outputDirectory = Path.of(".");
+    private final List<String> parameters = new ArrayList<>();
+    private int firstFrame;
+    private int lastFrame;
+    private double frameRate = 24;
+    private Path cacheDirectory;
+    private boolean useCache = true;
+    private int jobs = Runtime.getRuntime().availableProcessors();
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+
+    /**
+     * Parse the arguments of the command.
+     * @param args The arguments following the command name
+     * @return The parsed command
+     * @throws IllegalArgumentException If the arguments are invalid
+     */
+    public static SequenceCommand parse(String[] args) {
+        SequenceCommand command = new SequenceCommand();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "-o", "--output" -> command.outputDirectory = Path.of(RenderCommand.value(args, ++i, arg));
+                case "-s", "--set" -> command.parameters.add(RenderCommand.value(args, ++i, arg));
+                case "-f", "--frames" -> command.setFrames(RenderCommand.value(args, ++i, arg));
+                case "-r", "--rate" -> command.frameRate = Double.parseDouble(RenderCommand.value(args, ++i, arg));
+                case "-c", "--cache" -> command.cacheDirectory = Path.of(RenderCommand.value(args, ++i, arg));
+                case "--no-cache" -> command.useCache = false;
+                case "-j", "--jobs" -> command.jobs = Integer.parseInt(RenderCommand.value(args, ++i, arg));
+                case "-m", "--memory" -> command.memoryBudget = parseSize(RenderCommand.value(args, ++i, arg));
+                case "-h", "--help" -> throw new IllegalArgumentException("\n" + USAGE);
+                default -> {
+                    if (arg.startsWith("-") || command.graphFile != null) {
+                        throw new IllegalArgumentException("Unexpected argument '" + arg + "'");
+                    }
+                    command.graphFile = Path.of(arg);
+                }
+            }
+        }
+
+        if (command.graphFile == null) {
+            throw new IllegalArgumentException("No graph file given");
+        } else if (command.lastFrame < command.firstFrame) {
+            throw new IllegalArgumentException("The last frame comes before the first frame");
+        } else if (command.frameRate <= 0 || command.jobs < 1) {
+            throw new IllegalArgumentException("The frame rate and number of jobs must be positive");
+        }
+        return command;
+    }
+
+    /**
+     * Run the command.
+     * @return The exit status, 0 if every frame was rendered
+     * @throws IOException If the graph cannot be loaded
+     */
+    public int run() throws IOException, InterruptedException {
+        NodeGraph graph = GraphFile.read(graphFile);
+        InputRef.setParameters(graph, parameters);
+
+        ExecutionPlan plan = ExecutionPlan.compile(graph);
+        Files.createDirectories(outputDirectory);
+
+        OutputWriter writer = new OutputWriter();
+        SequenceRenderer renderer = new SequenceRenderer(plan, frameRate, jobs, memoryBudget);
+        renderer.setDiskCache(RenderCommand.openCache(useCache, cacheDirectory));
+        Map<Integer, Throwable> failures = renderer.render(firstFrame, lastFrame, new ParameterSet(), (time, outputs) -> {
+            for (Map.Entry<Integer, Object> output : outputs.entrySet()) {
+                Path written = writer.write(output.getValue(), outputDirectory, frameName(output.getKey(), time));
+                System.out.println(written);
+            }
+        });
+
+        for (Map.Entry<Integer, Throwable> failure : failures.entrySet()) {
+            System.err.println("violyte: failed to render frame " + failure.getKey() + ": " + failure.getValue());
+        }
+        return failures.isEmpty() ? 0 : 1;
+    }
+
+    private void setFrames(String range) {
+        int separator = range.indexOf('-', 1);
+        firstFrame = Integer.parseInt(separator < 0 ? range : range.substring(0, separator));
+        lastFrame = separator < 0 ? firstFrame : Integer.parseInt(range.substring(separator + 1));
+    }
+
+    static String frameName(int nodeId, FrameTime time) {
+        return String.format(Locale.ROOT, "node%d.%04d", nodeId, time.frame());
+    }
+
+    /**
+     * Parse a size in bytes, with an optional k, m or g suffix.
+     */
+    static long parseSize(String text) {
+        String value = text.trim().toLowerCase(Locale.ROOT);
+        long unit = switch (value.isEmpty() ? ' ' : value.charAt(value.length() - 1)) {
+            case 'k' -> 1L << 10;
+            case 'm' -> 1L << 20;
+            case 'g' -> 1L << 30;
+            default -> 1;
+        };
+        if (unit > 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        return Long.parseLong(value) * unit;
+    }
+}
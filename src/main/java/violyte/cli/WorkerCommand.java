@@ -0,0 +1,143 @@
+package violyte.cli;
+
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import violyte.nodes.eval.ExecutionPlan;
+import violyte.nodes.eval.ParameterSet;
+import violyte.nodes.eval.SequenceRenderer;
+import violyte.nodes.io.GraphFile;
+import violyte.nodes.model.NodeGraph;
+
+/**
+ * Render process started by {@link FarmCommand}, rendering the chunks of frames it is sent.
+ * The graph is loaded and compiled once, then the worker reads commands from its standard input, one per line,
+ * and answers on its standard output:
+ * <ul>
+ *     <li>{@code render <first> <last>} renders a range of frames, answered by a {@code file <frame> <path>} line
+ *     per written file then by {@code done <first> <last>}, or by {@code failed <first> <last> <message>}</li>
+ *     <li>{@code quit}, or the end of the input, stops the worker</li>
+ * </ul>
+ * {@code ready} is written once the graph is compiled. Anything else written by the graph goes to the standard
+ * error, so that it cannot be mistaken for an answer.
+ */
+public class WorkerCommand {
+    static final String USAGE = """
+        Usage: violyte worker <graph file> [options]
+
+        Internal command, started by 'violyte farm'. Takes the options of 'violyte sequence' except --frames.
+        """;
+
+    private Path graphFile;
+    private Path outputDirectory = Path.of(".");
+    private final List<String> parameters = new ArrayList<>();
+    private double frameRate = 24;
+    private Path cacheDirectory;
+    private boolean useCache = true;
+    private int jobs = Runtime.getRuntime().availableProcessors();
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+
+    /**
+     * Parse the arguments of the command.
+     * @param args The arguments following the command name
+     * @return The parsed command
+     * @throws IllegalArgumentException If the arguments are invalid
+     */
+    public static WorkerCommand parse(String[] args) {
+        WorkerCommand command = new WorkerCommand();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "-o", "--output" -> command.outputDirectory = Path.of(RenderCommand.value(args, ++i, arg));
+                case "-s", "--set" -> command.parameters.add(RenderCommand.value(args, ++i, arg));
+                case "-r", "--rate" -> command.frameRate = Double.parseDouble(RenderCommand.value(args, ++i, arg));
+                case "-c", "--cache" -> command.cacheDirectory = Path.of(RenderCommand.value(args, ++i, arg));
+                case "--no-cache" -> command.useCache = false;
+                case "-j", "--jobs" -> command.jobs = Integer.parseInt(RenderCommand.value(args, ++i, arg));
+                case "-m", "--memory" -> command.memoryBudget = SequenceCommand.parseSize(RenderCommand.value(args, ++i, arg));
+                case "-h", "--help" -> throw new IllegalArgumentException("\n" + USAGE);
+                default -> {
+                    if (arg.startsWith("-") || command.graphFile != null) {
+                        throw new IllegalArgumentException("Unexpected argument '" + arg + "'");
+                    }
+                    command.graphFile = Path.of(arg);
+                }
+            }
+        }
+
+        if (command.graphFile == null) {
+            throw new IllegalArgumentException("No graph file given");
+        } else if (command.frameRate <= 0 || command.jobs < 1) {
+            throw new IllegalArgumentException("The frame rate and number of jobs must be positive");
+        }
+        return command;
+    }
+
+    /**
+     * Run the command, until told to quit.
+     * @return The exit status
+     * @throws IOException If the graph cannot be loaded
+     */
+    public int run() throws IOException, InterruptedException {
+        PrintStream answers = new PrintStream(new FileOutputStream(FileDescriptor.out), false, StandardCharsets.UTF_8);
+        System.setOut(System.err);
+
+        NodeGraph graph = GraphFile.read(graphFile);
+        InputRef.setParameters(graph, parameters);
+        ExecutionPlan plan = ExecutionPlan.compile(graph);
+        Files.createDirectories(outputDirectory);
+
+        OutputWriter writer = new OutputWriter();
+        SequenceRenderer renderer = new SequenceRenderer(plan, frameRate, jobs, memoryBudget);
+        renderer.setDiskCache(RenderCommand.openCache(useCache, cacheDirectory));
+        answer(answers, "ready");
+
+        BufferedReader commands = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = commands.readLine()) != null && !line.equals("quit")) {
+            String[] words = line.split(" ");
+            if (words.length != 3 || !words[0].equals("render")) {
+                System.err.println("violyte worker: unexpected command '" + line + "'");
+                continue;
+            }
+            int first = Integer.parseInt(words[1]);
+            int last = Integer.parseInt(words[2]);
+            Map<Integer, Throwable> failures = renderer.render(first, last, new ParameterSet(), (time, outputs) -> {
+                for (Map.Entry<Integer, Object> output : outputs.entrySet()) {
+                    Path written = writer.write(output.getValue(), outputDirectory,
+                        SequenceCommand.frameName(output.getKey(), time));
+                    answer(answers, "file " + time.frame() + " " + written);
+                }
+            });
+
+            if (failures.isEmpty()) {
+                answer(answers, "done " + first + " " + last);
+            } else {
+                Map.Entry<Integer, Throwable> failure = failures.entrySet().iterator().next();
+                String message = "frame " + failure.getKey() + ": " + failure.getValue();
+                answer(answers, "failed " + first + " " + last + " " + message.replace('\n', ' '));
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Write an answer line, from any rendering thread.
+     */
+    private static void answer(PrintStream answers, String line) {
+        synchronized (answers) {
+            answers.println(line);
+            answers.flush();
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package violyte.image;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of image buffers and pixel arrays, so that evaluating a graph again reuses the memory of the previous
+ * evaluation instead of allocating multi-megabyte arrays that end up in the old generation.
+ * <p>
+ * Buffers are bucketed by format and dimensions, plain arrays by type and length. Each thread keeps a few
+ * released buffers per bucket for itself, up to a sixteenth of the capacity, before handing them to the shared
+ * buckets, so parallel workers rarely contend on the pool lock. The pool never holds more than its capacity,
+ * extra buffers are left to the garbage collector. Buffers kept by threads that have terminated are dropped
+ * the next time statistics are taken or the pool is trimmed.
+ * <p>
+ * The pool does not know who else holds a released buffer: a buffer must only be released once nothing reads
+ * it anymore, and the pixels of an acquired buffer are undefined.
+ */
+public class BufferPool {
+    private static final int LOCAL_BUCKETS = 8;
+    private static final int LOCAL_DEPTH = 4;
+    private static final long FLOAT_ARRAY = 0x7eL << 56;
+    private static final long INT_ARRAY = 0x7fL << 56;
+
+    private static volatile BufferPool defaultPool;
+
+    private final ConcurrentLinkedQueue<LocalCache> allLocalCaches = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<LocalCache> localCaches = ThreadLocal.withInitial(() -> {
+        LocalCache cache = new LocalCache(Thread.currentThread());
+        allLocalCaches.add(cache);
+        return cache;
+    });
+    private final SharedBuckets shared = new SharedBuckets();
+    private volatile long capacity;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+    private final AtomicLong bytesInUse = new AtomicLong();
+    private final AtomicLong highWaterMark = new AtomicLong();
+    private final AtomicLong bytesPooled = new AtomicLong();
+    private final MemoryGovernor.Consumer memoryConsumer = new MemoryConsumer();
+
+    /**
+     * Constructor.
+     * @param capacity The maximum memory held by the shared buckets of the pool, in bytes
+     */
+    public BufferPool(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Retrieve the pool used by {@link ImageBuffer#allocate(int, int, PixelFormat)} and by renders.
+     * It can hold up to a quarter of the maximum heap size, and is the first to give memory back to the default
+     * {@link MemoryGovernor}.
+     */
+    public static BufferPool getDefault() {
+        BufferPool pool = defaultPool;
+        if (pool == null) {
+            synchronized (BufferPool.class) {
+                pool = defaultPool;
+                if (pool == null) {
+                    pool = new BufferPool(Runtime.getRuntime().maxMemory() / 4);
+                    MemoryGovernor.getDefault().register(pool.memoryConsumer);
+                    defaultPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Change the maximum memory held by the shared buckets, discarding pooled buffers above it.
+     * @param capacity The new capacity, in bytes
+     */
+    public void setCapacity(long capacity) {
+        this.capacity = capacity;
+        trim(capacity);
+    }
+
+    /**
+     * Draw an image buffer from the pool, allocating it if no buffer of this size and format is pooled.
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param format The pixel format of the image
+     * @return A buffer with undefined pixels
+     */
+    public ImageBuffer acquire(int width, int height, PixelFormat format) {
+        Object pooled = take(imageKey(width, height, format));
+        if (pooled != null) {
+            return (ImageBuffer) pooled;
+        }
+
+        int length = format.getLength(width, height);
+        return format.isFloatingPoint()
+            ? new ImageBuffer(width, height, format, new float[length])
+            : new ImageBuffer(width, height, format, new int[length]);
+    }
+
+    /**
+     * Draw a float array of the given length from the pool. Its content is undefined.
+     */
+    public float[] acquireFloats(int length) {
+        Object pooled = take(FLOAT_ARRAY | length);
+        return pooled != null ? (float[]) pooled : new float[length];
+    }
+
+    /**
+     * Draw an int array of the given length from the pool. Its content is undefined.
+     */
+    public int[] acquireInts(int length) {
+        Object pooled = take(INT_ARRAY | length);
+        return pooled != null ? (int[]) pooled : new int[length];
+    }
+
+    /**
+     * Return an image buffer to the pool.
+     * @param buffer A buffer that nothing reads anymore
+     */
+    public void release(ImageBuffer buffer) {
+        put(imageKey(buffer.getWidth(), buffer.getHeight(), buffer.getFormat()), buffer, buffer.getByteSize());
+    }
+
+    /**
+     * Return a float array to the pool.
+     * @param array An array that nothing reads anymore
+     */
+    public void release(float[] array) {
+        put(FLOAT_ARRAY | array.length, array, (long) array.length * Float.BYTES);
+    }
+
+    /**
+     * Return an int array to the pool.
+     * @param array An array that nothing reads anymore
+     */
+    public void release(int[] array) {
+        put(INT_ARRAY | array.length, array, (long) array.length * Integer.BYTES);
+    }
+
+    /**
+     * Return a node output to the pool if it is a buffer or an array, ignoring any other value.
+     * Suitable as the recycler of an execution context.
+     */
+    public void recycle(Object value) {
+        if (value instanceof ImageBuffer buffer) {
+            release(buffer);
+        } else if (value instanceof float[] array) {
+            release(array);
+        } else if (value instanceof int[] array) {
+            release(array);
+        }
+    }
+
+    /**
+     * Discard pooled buffers until the pool holds at most the given memory.
+     * Buffers of the shared buckets go first, then the ones kept by each thread.
+     * @param maxBytes The memory the pool may keep, in bytes
+     * @return The memory discarded, in bytes
+     */
+    public long trim(long maxBytes) {
+        long freed = purgeTerminatedThreads();
+        long sharedFreed = shared.trim(Math.max(0, maxBytes - localBytes()));
+        bytesPooled.addAndGet(-sharedFreed);
+        freed += sharedFreed;
+
+        for (LocalCache cache : allLocalCaches) {
+            if (bytesPooled.get() <= maxBytes) {
+                break;
+            }
+            long drained = cache.drain();
+            bytesPooled.addAndGet(-drained);
+            freed += drained;
+        }
+        return freed;
+    }
+
+    /**
+     * Take a snapshot of the statistics of this pool.
+     */
+    public Statistics getStatistics() {
+        purgeTerminatedThreads();
+        return new Statistics(
+            acquired.sum(), reused.sum(), released.sum(), discarded.sum(),
+            bytesInUse.get(), highWaterMark.get(), bytesPooled.get()
+        );
+    }
+
+    private Object take(long key) {
+        acquired.increment();
+        Object pooled = localCaches.get().take(key);
+        if (pooled == null) {
+            pooled = shared.take(key);
+        }
+
+        long size = pooled != null ? sizeOf(pooled) : sizeOf(key);
+        if (pooled != null) {
+            reused.increment();
+            bytesPooled.addAndGet(-size);
+        }
+        long inUse = bytesInUse.addAndGet(size);
+        highWaterMark.accumulateAndGet(inUse, Math::max);
+        return pooled;
+    }
+
+    private void put(long key, Object value, long size) {
+        released.increment();
+        bytesInUse.addAndGet(-size);
+
+        long available = capacity - bytesPooled.get();
+        if (size <= available && (localCaches.get().put(key, value, size, capacity / 16)
+                || shared.put(key, value, size, available))) {
+            bytesPooled.addAndGet(size);
+        } else {
+            discarded.increment();
+        }
+    }
+
+    /**
+     * Drop the buffers kept by threads that have terminated.
+     * @return The memory dropped, in bytes
+     */
+    private long purgeTerminatedThreads() {
+        long freed = 0;
+        for (Iterator<LocalCache> it = allLocalCaches.iterator(); it.hasNext();) {
+            LocalCache cache = it.next();
+            Thread owner = cache.owner.get();
+            if (owner == null || !owner.isAlive()) {
+                it.remove();
+                freed += cache.drain();
+            }
+        }
+        bytesPooled.addAndGet(-freed);
+        return freed;
+    }
+
+    private long localBytes() {
+        long total = 0;
+        for (LocalCache cache : allLocalCaches) {
+            total += cache.getBytes();
+        }
+        return total;
+    }
+
+    private static long imageKey(int width, int height, PixelFormat format) {
+        return ((long) (format.ordinal() + 1) << 56) | ((long) width << 28) | height;
+    }
+
+    /**
+     * Compute the size of the value stored under a key, from the key alone.
+     */
+    private static long sizeOf(long key) {
+        long type = key & (0xffL << 56);
+        if (type == FLOAT_ARRAY || type == INT_ARRAY) {
+            return (key & 0xffffffffL) * Integer.BYTES;
+        }
+        PixelFormat format = PixelFormat.values()[(int) (type >>> 56) - 1];
+        int width = (int) ((key >>> 28) & 0xfffffff);
+        int height = (int) (key & 0xfffffff);
+        return (long) format.getLength(width, height) * Integer.BYTES;
+    }
+
+    private static long sizeOf(Object value) {
+        if (value instanceof ImageBuffer buffer) {
+            return buffer.getByteSize();
+        } else if (value instanceof float[] array) {
+            return (long) array.length * Float.BYTES;
+        }
+        return (long) ((int[]) value).length * Integer.BYTES;
+    }
+
+    /**
+     * Statistics of a buffer pool. Memory amounts are in bytes.
+     * @param acquired The number of buffers drawn from the pool
+     * @param reused The number of acquired buffers that were pooled rather than allocated
+     * @param released The number of buffers returned to the pool
+     * @param discarded The number of returned buffers left to the garbage collector because the pool was full
+     * @param bytesInUse The memory of the buffers acquired and not released yet, which goes below zero when
+     *                   buffers allocated outside of the pool are released to it
+     * @param highWaterMark The highest value reached by {@code bytesInUse}
+     * @param bytesPooled The memory of the buffers waiting in the pool, including the per-thread caches
+     */
+    public record Statistics(long acquired, long reused, long released, long discarded,
+                             long bytesInUse, long highWaterMark, long bytesPooled) {
+    }
+
+    /**
+     * Pooled buffers as seen by a memory governor, which can discard them at no cost.
+     */
+    private final class MemoryConsumer implements MemoryGovernor.Consumer {
+        @Override
+        public String getName() {
+            return "buffer pool";
+        }
+
+        @Override
+        public int getPriority() {
+            return MemoryGovernor.PRIORITY_FREE;
+        }
+
+        @Override
+        public long getUsage() {
+            return bytesPooled.get();
+        }
+
+        @Override
+        public long release(long bytes) {
+            return trim(Math.max(0, bytesPooled.get() - bytes));
+        }
+    }
+
+    /**
+     * Buffers kept by a single thread, a few per bucket, for the buckets it used last.
+     * Only its thread uses it, except when the pool is trimmed, so its lock is almost never contended.
+     */
+    private static final class LocalCache {
+        private final WeakReference<Thread> owner;
+        private final long[] keys = new long[LOCAL_BUCKETS];
+        private final Object[][] values = new Object[LOCAL_BUCKETS][LOCAL_DEPTH];
+        private final int[] counts = new int[LOCAL_BUCKETS];
+        private long bytes;
+
+        LocalCache(Thread owner) {
+            this.owner = new WeakReference<>(owner);
+        }
+
+        synchronized long getBytes() {
+            return bytes;
+        }
+
+        synchronized Object take(long key) {
+            for (int i = 0; i < LOCAL_BUCKETS; i++) {
+                if (keys[i] == key && counts[i] > 0) {
+                    Object value = values[i][--counts[i]];
+                    values[i][counts[i]] = null;
+                    bytes -= sizeOf(key);
+                    return value;
+                }
+            }
+            return null;
+        }
+
+        synchronized boolean put(long key, Object value, long size, long maxBytes) {
+            if (bytes + size > maxBytes) {
+                return false;
+            }
+
+            int free = -1;
+            for (int i = 0; i < LOCAL_BUCKETS; i++) {
+                if (keys[i] == key) {
+                    if (counts[i] == LOCAL_DEPTH) {
+                        return false;
+                    }
+                    values[i][counts[i]++] = value;
+                    bytes += size;
+                    return true;
+                } else if (free < 0 && counts[i] == 0) {
+                    free = i;
+                }
+            }
+            if (free < 0) {
+                return false;
+            }
+            keys[free] = key;
+            values[free][counts[free]++] = value;
+            bytes += size;
+            return true;
+        }
+
+        synchronized long drain() {
+            for (int i = 0; i < LOCAL_BUCKETS; i++) {
+                Arrays.fill(values[i], null);
+                counts[i] = 0;
+            }
+            long drained = bytes;
+            bytes = 0;
+            return drained;
+        }
+    }
+
+    /**
+     * Buckets shared by every thread, in an open-addressing table keyed by primitive longs.
+     */
+    private static final class SharedBuckets {
+        private long[] keys = new long[64];
+        private Object[][] values = new Object[64][];
+        private int[] counts = new int[64];
+        private int used;
+
+        synchronized Object take(long key) {
+            int index = indexOf(key);
+            if (keys[index] != key || counts[index] == 0) {
+                return null;
+            }
+            Object value = values[index][--counts[index]];
+            values[index][counts[index]] = null;
+            return value;
+        }
+
+        synchronized boolean put(long key, Object value, long size, long available) {
+            if (size > available) {
+                return false;
+            }
+            int index = indexOf(key);
+            if (keys[index] != key) {
+                if ((used + 1) * 2 > keys.length) {
+                    grow();
+                    index = indexOf(key);
+                }
+                keys[index] = key;
+                values[index] = new Object[4];
+                used++;
+            }
+            if (counts[index] == values[index].length) {
+                values[index] = Arrays.copyOf(values[index], counts[index] * 2);
+            }
+            values[index][counts[index]++] = value;
+            return true;
+        }
+
+        synchronized long trim(long maxBytes) {
+            long total = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    total += sizeOf(keys[i]) * counts[i];
+                }
+            }
+
+            long freed = 0;
+            for (int i = 0; i < keys.length && total - freed > maxBytes; i++) {
+                while (keys[i] != 0 && counts[i] > 0 && total - freed > maxBytes) {
+                    values[i][--counts[i]] = null;
+                    freed += sizeOf(keys[i]);
+                }
+            }
+            return freed;
+        }
+
+        private int indexOf(long key) {
+            int mask = keys.length - 1;
+            int index = Long.hashCode(key * 0x9e3779b97f4a7c15L) & mask;
+            while (keys[index] != 0 && keys[index] != key) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            Object[][] oldValues = values;
+            int[] oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            values = new Object[oldKeys.length * 2][];
+            counts = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int index = indexOf(oldKeys[i]);
+                    keys[index] = oldKeys[i];
+                    values[index] = oldValues[i];
+                    counts[index] = oldCounts[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package violyte.image;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Color spaces that images can be read in, written in and displayed in.
+ * <p>
+ * Graphs work in linear light with the primaries of sRGB: pixels are converted from the color space of a file
+ * when it is read, and to the color space of a file or display when they leave the graph. A color space is a
+ * transfer function followed by a change of primaries, so the conversions are separable: the transfer
+ * functions go through tables computed once per transfer function, and the primaries through a 3x3 matrix
+ * computed once per color space, so no pixel calls {@link Math#pow(double, double)}.
+ */
+public enum ColorSpace {
+    /** The standard color space of 8-bit images and most displays. */
+    SRGB("sRGB", Primaries.REC709, Transfer.SRGB),
+    /** Linear light with the sRGB primaries, the working space of graphs. */
+    LINEAR("Linear", Primaries.REC709, Transfer.LINEAR),
+    /** The sRGB primaries with the transfer function of HD video cameras. */
+    REC709("Rec.709", Primaries.REC709, Transfer.REC709),
+    /** The sRGB primaries with a pure 2.2 power curve, used by many displays. */
+    GAMMA_22("Gamma 2.2", Primaries.REC709, Transfer.GAMMA_22),
+    /** The wide gamut of UHD video, with the Rec.709 transfer function. */
+    REC2020("Rec.2020", Primaries.REC2020, Transfer.REC709),
+    /** Linear light with the primaries of UHD video. */
+    LINEAR_REC2020("Linear Rec.2020", Primaries.REC2020, Transfer.LINEAR),
+    /** The wide gamut of recent displays, with the sRGB transfer function. */
+    DISPLAY_P3("Display P3", Primaries.DISPLAY_P3, Transfer.SRGB);
+
+    private final String label;
+    private final Transfer transfer;
+    /** Conversion from the primaries of this space to the working primaries, null if they are the same. */
+    private final float[] toWorking;
+    /** Conversion from the working primaries to the primaries of this space, null if they are the same. */
+    private final float[] fromWorking;
+
+    ColorSpace(String label, Primaries primaries, Transfer transfer) {
+        this.label = label;
+        this.transfer = transfer;
+        if (primaries == Primaries.REC709) {
+            this.toWorking = null;
+            this.fromWorking = null;
+        } else {
+            double[] working = Primaries.REC709.toXyz();
+            double[] toWorking = multiply(invert(working), primaries.toXyz());
+            this.toWorking = toFloats(toWorking);
+            this.fromWorking = toFloats(invert(toWorking));
+        }
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Check whether this space holds linear light, so that its values only differ from the working space by
+     * their primaries.
+     */
+    public boolean isLinear() {
+        return transfer == Transfer.LINEAR;
+    }
+
+    /**
+     * Find a color space by its label, ignoring case.
+     * @param label The label of the color space, such as {@code sRGB}
+     * @return The color space
+     * @throws IllegalArgumentException If no color space has this label
+     */
+    public static ColorSpace forLabel(String label) {
+        for (ColorSpace space : values()) {
+            if (space.label.equalsIgnoreCase(label.trim())) {
+                return space;
+            }
+        }
+        throw new IllegalArgumentException("Unknown color space '" + label + "', expected one of "
+            + Arrays.stream(values()).map(ColorSpace::getLabel).collect(Collectors.joining(", ")));
+    }
+
+    /**
+     * Convert 8-bit pixels of this space to working pixels.
+     * @param argb The pixels, packed as 8-bit alpha, red, green and blue
+     * @param offset The index of the first pixel to convert
+     * @param rgba The {@link PixelFormat#RGBA_FLOAT} pixels to write
+     * @param rgbaOffset The index of the first float to write
+     * @param count The number of pixels to convert
+     */
+    public void decode(int[] argb, int offset, float[] rgba, int rgbaOffset, int count) {
+        float[] table = transfer.byteDecodeTable;
+        for (int i = 0, o = rgbaOffset; i < count; i++, o += 4) {
+            int pixel = argb[offset + i];
+            rgba[o] = table[(pixel >> 16) & 0xff];
+            rgba[o + 1] = table[(pixel >> 8) & 0xff];
+            rgba[o + 2] = table[pixel & 0xff];
+            rgba[o + 3] = (pixel >>> 24) / 255f;
+        }
+        if (toWorking != null) {
+            convert(toWorking, rgba, rgbaOffset, count);
+        }
+    }
+
+    /**
+     * Convert the float pixels of an image from this space to the working space, in place.
+     * Gray images only go through the transfer function, and the alpha channel is left as is.
+     * @param image An {@link PixelFormat#RGBA_FLOAT} or {@link PixelFormat#GRAY_FLOAT} image
+     * @throws IllegalArgumentException If the image does not hold floats
+     */
+    public void decode(ImageBuffer image) {
+        if (!image.getFormat().isFloatingPoint()) {
+            throw new IllegalArgumentException("Cannot decode " + image + " in place");
+        }
+        float[] pixels = image.getFloatData();
+        int stride = image.getFormat().getChannels();
+        int channels = Math.min(stride, 3);
+        if (transfer != Transfer.LINEAR) {
+            for (int p = 0; p < pixels.length; p += stride) {
+                for (int c = 0; c < channels; c++) {
+                    pixels[p + c] = transfer.decode(pixels[p + c]);
+                }
+            }
+        }
+        if (toWorking != null && stride == 4) {
+            convert(toWorking, pixels, 0, pixels.length / 4);
+        }
+    }
+
+    /**
+     * Convert a row of working pixels to 8-bit pixels of this space, as written to files or shown on screen.
+     * Values are clipped to [0, 1]. {@link PixelFormat#ARGB_INT} images are taken to hold sRGB pixels already.
+     * @param image The image to convert
+     * @param y The row to convert
+     * @param row The pixels to write, packed as 8-bit alpha, red, green and blue
+     */
+    public void encode(ImageBuffer image, int y, int[] row) {
+        int width = image.getWidth();
+        switch (image.getFormat()) {
+            case RGBA_FLOAT -> {
+                float[] pixels = image.getFloatData();
+                for (int x = 0, offset = y * width * 4; x < width; x++, offset += 4) {
+                    float r = pixels[offset];
+                    float g = pixels[offset + 1];
+                    float b = pixels[offset + 2];
+                    if (fromWorking != null) {
+                        float[] m = fromWorking;
+                        float cr = m[0] * r + m[1] * g + m[2] * b;
+                        float cg = m[3] * r + m[4] * g + m[5] * b;
+                        b = m[6] * r + m[7] * g + m[8] * b;
+                        r = cr;
+                        g = cg;
+                    }
+                    row[x] = toByte(pixels[offset + 3]) << 24
+                        | transfer.encode(r) << 16 | transfer.encode(g) << 8 | transfer.encode(b);
+                }
+            }
+            case GRAY_FLOAT -> {
+                float[] pixels = image.getFloatData();
+                for (int x = 0, offset = y * width; x < width; x++) {
+                    int gray = transfer.encode(pixels[offset + x]);
+                    row[x] = 0xff000000 | gray << 16 | gray << 8 | gray;
+                }
+            }
+            case ARGB_INT -> {
+                System.arraycopy(image.getIntData(), y * width, row, 0, width);
+                if (this != SRGB) {
+                    // Back to linear floats, then to this space
+                    ImageBuffer linear = new ImageBuffer(width, 1, PixelFormat.RGBA_FLOAT, new float[width * 4]);
+                    SRGB.decode(row, 0, linear.getFloatData(), 0, width);
+                    encode(linear, 0, row);
+                }
+            }
+        }
+    }
+
+    /**
+     * Convert working pixels to the primaries of this space, in place, without applying its transfer function.
+     */
+    void toPrimaries(float[] rgba, int offset, int count) {
+        if (fromWorking != null) {
+            convert(fromWorking, rgba, offset, count);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+
+    private static void convert(float[] m, float[] rgba, int offset, int count) {
+        for (int i = 0, o = offset; i < count; i++, o += 4) {
+            float r = rgba[o];
+            float g = rgba[o + 1];
+            float b = rgba[o + 2];
+            rgba[o] = m[0] * r + m[1] * g + m[2] * b;
+            rgba[o + 1] = m[3] * r + m[4] * g + m[5] * b;
+            rgba[o + 2] = m[6] * r + m[7] * g + m[8] * b;
+        }
+    }
+
+    private static int toByte(float value) {
+        if (!(value > 0)) {
+            return 0;
+        } else if (value >= 1) {
+            return 255;
+        }
+        return Math.round(value * 255);
+    }
+
+    private static double[] multiply(double[] a, double[] b) {
+        double[] result = new double[9];
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < 3; column++) {
+                for (int k = 0; k < 3; k++) {
+                    result[row * 3 + column] += a[row * 3 + k] * b[k * 3 + column];
+                }
+            }
+        }
+        return result;
+    }
+
+    private static double[] invert(double[] m) {
+        double[] cofactors = {
+            m[4] * m[8] - m[5] * m[7], m[2] * m[7] - m[1] * m[8], m[1] * m[5] - m[2] * m[4],
+            m[5] * m[6] - m[3] * m[8], m[0] * m[8] - m[2] * m[6], m[2] * m[3] - m[0] * m[5],
+            m[3] * m[7] - m[4] * m[6], m[1] * m[6] - m[0] * m[7], m[0] * m[4] - m[1] * m[3]
+        };
+        double determinant = m[0] * cofactors[0] + m[1] * cofactors[3] + m[2] * cofactors[6];
+        for (int i = 0; i < 9; i++) {
+            cofactors[i] /= determinant;
+        }
+        return cofactors;
+    }
+
+    private static float[] toFloats(double[] values) {
+        float[] floats = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            floats[i] = (float) values[i];
+        }
+        return floats;
+    }
+
+    /**
+     * Chromaticities of the red, green and blue primaries, all with the D65 white point.
+     */
+    private enum Primaries {
+        REC709(0.64, 0.33, 0.30, 0.60, 0.15, 0.06),
+        REC2020(0.708, 0.292, 0.170, 0.797, 0.131, 0.046),
+        DISPLAY_P3(0.680, 0.320, 0.265, 0.690, 0.150, 0.060);
+
+        private static final double WHITE_X = 0.3127;
+        private static final double WHITE_Y = 0.3290;
+
+        private final double[] chromaticities;
+
+        Primaries(double... chromaticities) {
+            this.chromaticities = chromaticities;
+        }
+
+        /**
+         * Compute the matrix from RGB to CIE XYZ, scaled so that white has a luminance of 1.
+         */
+        double[] toXyz() {
+            double[] primaries = new double[9];
+            for (int i = 0; i < 3; i++) {
+                double x = chromaticities[i * 2];
+                double y = chromaticities[i * 2 + 1];
+                primaries[i] = x / y;
+                primaries[3 + i] = 1;
+                primaries[6 + i] = (1 - x - y) / y;
+            }
+            double[] white = {WHITE_X / WHITE_Y, 1, (1 - WHITE_X - WHITE_Y) / WHITE_Y};
+            double[] inverse = invert(primaries);
+            for (int i = 0; i < 3; i++) {
+                double scale = inverse[i * 3] * white[0] + inverse[i * 3 + 1] * white[1] + inverse[i * 3 + 2] * white[2];
+                for (int row = 0; row < 3; row++) {
+                    primaries[row * 3 + i] *= scale;
+                }
+            }
+            return primaries;
+        }
+    }
+
+    /**
+     * Transfer functions between encoded values and linear light, with their tables.
+     * Encoding to 8 bits looks up the exponent and top mantissa bits of the linear value, so that the table is
+     * as precise in the shadows, where power curves are steep, as in the highlights. Decoding floats interpolates
+     * between {@link #DECODE_TABLE_SIZE} encoded values, and values outside [0, 1] fall back to the function.
+     */
+    private enum Transfer {
+        LINEAR,
+        SRGB,
+        REC709,
+        GAMMA_22;
+
+        /** Linear values below this one encode to 0 with every transfer function. */
+        private static final float ENCODE_MIN = 0x1p-20f;
+        /** The bits of {@link #ENCODE_MIN}, and of 1. */
+        private static final int ENCODE_MIN_BITS = 0x35800000;
+        private static final int ONE_BITS = 0x3f800000;
+        /** Mantissa bits dropped by the encode table, leaving 1024 entries per power of two. */
+        private static final int ENCODE_SHIFT = 13;
+        private static final int ENCODE_TABLE_SIZE = (ONE_BITS - ENCODE_MIN_BITS) >>> ENCODE_SHIFT;
+        private static final int DECODE_TABLE_SIZE = 4096;
+
+        private final float[] byteDecodeTable = new float[256];
+        private final byte[] byteEncodeTable = new byte[ENCODE_TABLE_SIZE];
+        private final float[] decodeTable = new float[DECODE_TABLE_SIZE + 1];
+
+        Transfer() {
+            for (int i = 0; i < byteDecodeTable.length; i++) {
+                byteDecodeTable[i] = (float) toLinear(i / 255.0);
+            }
+            for (int i = 0; i < byteEncodeTable.length; i++) {
+                // The middle of the range of values sharing the entry
+                float linear = Float.intBitsToFloat(ENCODE_MIN_BITS + (i << ENCODE_SHIFT) + (1 << ENCODE_SHIFT - 1));
+                byteEncodeTable[i] = (byte) Math.round(fromLinear(linear) * 255);
+            }
+            for (int i = 0; i < decodeTable.length; i++) {
+                decodeTable[i] = (float) toLinear((double) i / DECODE_TABLE_SIZE);
+            }
+        }
+
+        int encode(float linear) {
+            if (!(linear >= ENCODE_MIN)) {
+                return 0;
+            } else if (linear >= 1) {
+                return 255;
+            }
+            return byteEncodeTable[(Float.floatToRawIntBits(linear) - ENCODE_MIN_BITS) >>> ENCODE_SHIFT] & 0xff;
+        }
+
+        float decode(float value) {
+            if (!(value >= 0 && value < 1)) {
+                return this == LINEAR || Float.isNaN(value) ? value
+                    : (float) (Math.signum(value) * toLinear(Math.abs(value)));
+            }
+            float position = value * DECODE_TABLE_SIZE;
+            int index = (int) position;
+            float fraction = position - index;
+            return decodeTable[index] + (decodeTable[index + 1] - decodeTable[index]) * fraction;
+        }
+
+        double toLinear(double value) {
+            return switch (this) {
+                case LINEAR -> value;
+                case SRGB -> value <= 0.04045 ? value / 12.92 : Math.pow((value + 0.055) / 1.055, 2.4);
+                case REC709 -> value < 0.081 ? value / 4.5 : Math.pow((value + 0.099) / 1.099, 1 / 0.45);
+                case GAMMA_22 -> Math.pow(value, 2.2);
+            };
+        }
+
+        double fromLinear(double value) {
+            return switch (this) {
+                case LINEAR -> value;
+                case SRGB -> value <= 0.0031308 ? value * 12.92 : 1.055 * Math.pow(value, 1 / 2.4) - 0.055;
+                case REC709 -> value < 0.018 ? value * 4.5 : 1.099 * Math.pow(value, 0.45) - 0.099;
+                case GAMMA_22 -> Math.pow(value, 1 / 2.2);
+            };
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package violyte.image;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Cache of decoded image files, keyed by path and color space, and invalidated when the modification time or size
+ * of a file changes.
+ * Frames can be decoded ahead of time on a pool of background threads, so that the next frame of a sequence is
+ * ready by the time it is needed. Least recently used frames are returned to the default {@link BufferPool}
+ * once the cache holds more than its capacity.
+ */
+public class FrameCache {
+    /** The color spaces a file can be cached in, null being its default space. */
+    private static final List<ColorSpace> SPACES = Stream.concat(Stream.of((ColorSpace) null),
+        Arrays.stream(ColorSpace.values())).toList();
+
+    private static volatile FrameCache defaultCache;
+
+    private final ExecutorService decoders;
+    private final int decoderCount;
+    private final LinkedHashMap<Key, Entry> frames = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, Pending> pending = new HashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder prefetched = new LongAdder();
+    private long capacity;
+    private long bytesCached;
+    private volatile long decodeNanos;
+    private final MemoryGovernor.Consumer memoryConsumer = new MemoryConsumer();
+    private volatile MemoryGovernor governor;
+
+    /**
+     * Constructor.
+     * @param capacity The maximum memory held by decoded frames, in bytes
+     * @param decoders The number of background threads decoding prefetched frames
+     */
+    public FrameCache(long capacity, int decoders) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.capacity = capacity;
+        this.decoderCount = decoders;
+        this.decoders = Executors.newFixedThreadPool(decoders, runnable -> {
+            Thread thread = new Thread(runnable, "frame-decoder-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Retrieve the cache used by image nodes.
+     * It can hold up to an eighth of the maximum heap size, and decodes on half of the available processors.
+     * Its frames, including the ones read ahead, count towards the budget of the default {@link MemoryGovernor}.
+     */
+    public static FrameCache getDefault() {
+        FrameCache cache = defaultCache;
+        if (cache == null) {
+            synchronized (FrameCache.class) {
+                cache = defaultCache;
+                if (cache == null) {
+                    cache = new FrameCache(Runtime.getRuntime().maxMemory() / 8,
+                        Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+                    cache.governor = MemoryGovernor.getDefault();
+                    cache.governor.register(cache.memoryConsumer);
+                    defaultCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    public int getDecoderCount() {
+        return decoderCount;
+    }
+
+    /**
+     * Retrieve the time taken to decode a frame, averaged over the last frames.
+     * @return The average decode time, in nanoseconds, or 0 before the first decode
+     */
+    public long getAverageDecodeTime() {
+        return decodeNanos;
+    }
+
+    public synchronized long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Change the maximum memory held by decoded frames, evicting frames above it.
+     * @param capacity The new capacity, in bytes
+     */
+    public synchronized void setCapacity(long capacity) {
+        this.capacity = capacity;
+        evict();
+    }
+
+    /**
+     * Read an image file in its default color space, decoding it unless it is cached.
+     * @see #read(Path, ColorSpace)
+     */
+    public ImageBuffer read(Path file) throws IOException {
+        return read(file, null);
+    }
+
+    /**
+     * Read an image file, decoding it unless it is cached.
+     * If the frame is being decoded in the background, this waits for it instead of decoding it again.
+     * @param file The file to read
+     * @param space The color space of the file, or null for its default, see {@link ImageFiles#read(Path, ColorSpace)}
+     * @return A copy of the decoded frame in the working space, drawn from the default pool and owned by the caller
+     * @throws IOException If the file cannot be read or decoded
+     */
+    public ImageBuffer read(Path file, ColorSpace space) throws IOException {
+        Key key = Key.of(file, space);
+        Entry entry = retain(key, Stamp.of(key.path()));
+        try {
+            ImageBuffer image = entry.image;
+            ImageBuffer copy = ImageBuffer.allocate(image.getWidth(), image.getHeight(), image.getFormat());
+            if (image.getFormat().isFloatingPoint()) {
+                System.arraycopy(image.getFloatData(), 0, copy.getFloatData(), 0, image.getFloatData().length);
+            } else {
+                System.arraycopy(image.getIntData(), 0, copy.getIntData(), 0, image.getIntData().length);
+            }
+            return copy;
+        } finally {
+            release(entry);
+        }
+    }
+
+    /**
+     * Start decoding an image file in the background, unless it is cached or already being decoded.
+     * Missing files are ignored, as are requests made while every decoder is busy.
+     * @param file The file that will be read soon
+     * @param space The color space of the file, or null for its default
+     */
+    public void prefetch(Path file, ColorSpace space) {
+        Key key = Key.of(file, space);
+        Stamp stamp;
+        try {
+            stamp = Stamp.of(key.path());
+        } catch (IOException e) {
+            return;
+        }
+
+        Pending request;
+        synchronized (this) {
+            Entry entry = frames.get(key);
+            if ((entry != null && entry.stamp.equals(stamp)) || pending.containsKey(key)
+                    || pending.size() >= decoderCount * 2) {
+                return;
+            }
+            request = new Pending(stamp);
+            pending.put(key, request);
+        }
+        prefetched.increment();
+        decoders.execute(() -> load(key, request));
+    }
+
+    /**
+     * Discard the cached frames of a file, in every color space, for instance after writing to it.
+     * @param file The file that changed
+     */
+    public synchronized void invalidate(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        for (ColorSpace space : SPACES) {
+            Entry entry = frames.remove(new Key(path, space));
+            if (entry != null) {
+                discard(entry);
+            }
+        }
+    }
+
+    /**
+     * Discard least recently used frames until the cache holds at most the given memory.
+     * @param maxBytes The memory the cache may keep, in bytes
+     * @return The memory discarded, in bytes
+     */
+    public synchronized long trim(long maxBytes) {
+        long before = bytesCached;
+        Iterator<Entry> it = frames.values().iterator();
+        while (bytesCached > maxBytes && it.hasNext()) {
+            Entry entry = it.next();
+            it.remove();
+            discard(entry);
+        }
+        return before - bytesCached;
+    }
+
+    /**
+     * Discard every cached frame.
+     */
+    public synchronized void clear() {
+        for (Entry entry : frames.values()) {
+            discard(entry);
+        }
+        frames.clear();
+    }
+
+    /**
+     * Take a snapshot of the statistics of this cache.
+     */
+    public synchronized Statistics getStatistics() {
+        return new Statistics(hits.sum(), misses.sum(), prefetched.sum(), frames.size(), bytesCached);
+    }
+
+    /**
+     * Find the cached frame of a file and mark it as being read, decoding it on this thread if needed.
+     */
+    private Entry retain(Key key, Stamp stamp) throws IOException {
+        Pending request;
+        boolean decode = false;
+        synchronized (this) {
+            Entry entry = frames.get(key);
+            if (entry != null && entry.stamp.equals(stamp)) {
+                entry.readers++;
+                hits.increment();
+                return entry;
+            }
+            misses.increment();
+
+            request = pending.get(key);
+            if (request == null || !request.stamp.equals(stamp)) {
+                request = new Pending(stamp);
+                pending.put(key, request);
+                decode = true;
+            }
+            request.waiters++;
+        }
+
+        if (decode) {
+            load(key, request);
+        }
+        try {
+            return request.future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            } else if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new UncheckedIOException(new IOException("Cannot decode " + key, e.getCause()));
+        }
+    }
+
+    private synchronized void release(Entry entry) {
+        if (--entry.readers == 0 && entry.evicted) {
+            BufferPool.getDefault().release(entry.image);
+        }
+    }
+
+    /**
+     * Decode a frame and store it, handing it to every thread waiting for it.
+     */
+    private void load(Key key, Pending request) {
+        ImageBuffer image;
+        long start = System.nanoTime();
+        try {
+            image = ImageFiles.read(key.path(), key.space());
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                pending.remove(key, request);
+            }
+            request.future.completeExceptionally(e);
+            return;
+        }
+
+        Entry entry = new Entry(request.stamp, image);
+        synchronized (this) {
+            long elapsed = System.nanoTime() - start;
+            decodeNanos = decodeNanos == 0 ? elapsed : (decodeNanos * 3 + elapsed) / 4;
+
+            // Waiters are counted as readers right away, so the frame cannot be recycled before they copy it
+            entry.readers = request.waiters;
+            if (!pending.remove(key, request)) {
+                // The file changed while it was decoded, only the waiters get this version
+                entry.evicted = true;
+                if (entry.readers == 0) {
+                    BufferPool.getDefault().release(image);
+                }
+                request.future.complete(entry);
+                return;
+            }
+
+            Entry previous = frames.put(key, entry);
+            if (previous != null) {
+                discard(previous);
+            }
+            bytesCached += image.getByteSize();
+            evict();
+        }
+        request.future.complete(entry);
+
+        MemoryGovernor governor = this.governor;
+        if (governor != null) {
+            governor.check();
+        }
+    }
+
+    /**
+     * Evict least recently used frames until the cache fits in its capacity. Must hold the lock.
+     */
+    private void evict() {
+        trim(capacity);
+    }
+
+    /**
+     * Forget a frame removed from the cache, recycling it unless a thread is still reading it. Must hold the lock.
+     */
+    private void discard(Entry entry) {
+        bytesCached -= entry.image.getByteSize();
+        entry.evicted = true;
+        if (entry.readers == 0) {
+            BufferPool.getDefault().release(entry.image);
+        }
+    }
+
+    /**
+     * Statistics of a frame cache.
+     * @param hits The number of reads served from the cache
+     * @param misses The number of reads that had to decode or wait for a decode
+     * @param prefetched The number of frames decoded in the background
+     * @param frames The number of cached frames
+     * @param bytesCached The memory held by cached frames, in bytes
+     */
+    public record Statistics(long hits, long misses, long prefetched, int frames, long bytesCached) {
+    }
+
+    /**
+     * Cached frames as seen by a memory governor, which can have them decoded again.
+     */
+    private final class MemoryConsumer implements MemoryGovernor.Consumer {
+        @Override
+        public String getName() {
+            return "frame cache";
+        }
+
+        @Override
+        public int getPriority() {
+            return MemoryGovernor.PRIORITY_DECODED;
+        }
+
+        @Override
+        public long getUsage() {
+            synchronized (FrameCache.this) {
+                return bytesCached;
+            }
+        }
+
+        @Override
+        public long release(long bytes) {
+            return trim(Math.max(0, getUsage() - bytes));
+        }
+    }
+
+    /**
+     * File decoded in a color space, null standing for the default space of the file.
+     */
+    private record Key(Path path, ColorSpace space) {
+        static Key of(Path file, ColorSpace space) {
+            return new Key(file.toAbsolutePath().normalize(), space);
+        }
+    }
+
+    /**
+     * Version of a file, which changes when the file is written.
+     */
+    private record Stamp(FileTime modified, long size) {
+        static Stamp of(Path file) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return new Stamp(attributes.lastModifiedTime(), attributes.size());
+        }
+    }
+
+    /**
+     * Decoded frame. Its reader count and eviction flag are guarded by the cache lock.
+     */
+    private static final class Entry {
+        final Stamp stamp;
+        final ImageBuffer image;
+        int readers;
+        boolean evicted;
+
+        Entry(Stamp stamp, ImageBuffer image) {
+            this.stamp = stamp;
+            this.image = image;
+        }
+    }
+
+    /**
+     * Frame being decoded, with the number of threads waiting for it.
+     */
+    private static final class Pending {
+        final Stamp stamp;
+        final CompletableFuture<Entry> future = new CompletableFuture<>();
+        int waiters;
+
+        Pending(Stamp stamp) {
+            this.stamp = stamp;
+        }
+    }
+}
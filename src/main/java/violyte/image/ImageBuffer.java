@@ -0,0 +1,101 @@
+package violyte.image;
+
+/**
+ * Pixels of an image, stored in a plain array.
+ * Buffers are usually drawn from a {@link BufferPool} with {@link #allocate(int, int, PixelFormat)}, and
+ * returned to it by the evaluation once no node reads them anymore.
+ */
+public final class ImageBuffer {
+    private final int width;
+    private final int height;
+    private final PixelFormat format;
+    private final float[] floatData;
+    private final int[] intData;
+
+    /**
+     * Wrap a float array into an image buffer.
+     * @throws IllegalArgumentException If the format does not use floats or the array has the wrong length
+     */
+    public ImageBuffer(int width, int height, PixelFormat format, float[] data) {
+        this(width, height, format, data, null);
+        if (!format.isFloatingPoint() || data.length != format.getLength(width, height)) {
+            throw new IllegalArgumentException("Invalid float data for a " + width + "x" + height + " " + format + " image");
+        }
+    }
+
+    /**
+     * Wrap an int array into an image buffer.
+     * @throws IllegalArgumentException If the format does not use ints or the array has the wrong length
+     */
+    public ImageBuffer(int width, int height, PixelFormat format, int[] data) {
+        this(width, height, format, null, data);
+        if (format.isFloatingPoint() || data.length != format.getLength(width, height)) {
+            throw new IllegalArgumentException("Invalid int data for a " + width + "x" + height + " " + format + " image");
+        }
+    }
+
+    private ImageBuffer(int width, int height, PixelFormat format, float[] floatData, int[] intData) {
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.floatData = floatData;
+        this.intData = intData;
+    }
+
+    /**
+     * Draw a buffer from the default pool. Its pixels are undefined.
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param format The pixel format of the image
+     * @return A buffer of the given size and format
+     */
+    public static ImageBuffer allocate(int width, int height, PixelFormat format) {
+        return BufferPool.getDefault().acquire(width, height, format);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public PixelFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Retrieve the pixels of a floating-point buffer.
+     * @throws IllegalStateException If the format of this buffer does not use floats
+     */
+    public float[] getFloatData() {
+        if (floatData == null) {
+            throw new IllegalStateException(format + " buffers do not hold floats");
+        }
+        return floatData;
+    }
+
+    /**
+     * Retrieve the pixels of an int buffer.
+     * @throws IllegalStateException If the format of this buffer does not use ints
+     */
+    public int[] getIntData() {
+        if (intData == null) {
+            throw new IllegalStateException(format + " buffers do not hold ints");
+        }
+        return intData;
+    }
+
+    /**
+     * Retrieve the memory used by the pixels of this buffer, in bytes.
+     */
+    public long getByteSize() {
+        return (long) format.getLength(width, height) * Integer.BYTES;
+    }
+
+    @Override
+    public String toString() {
+        return "ImageBuffer[" + width + "x" + height + " " + format + "]";
+    }
+}
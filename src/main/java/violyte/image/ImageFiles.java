@@ -0,0 +1,350 @@
+package violyte.image;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * Reads and writes image files.
+ * Files are memory mapped, so decoders read straight from the page cache instead of copying the file through
+ * stream buffers. Portable float maps ({@code .pfm}) hold float pixels, linear unless told otherwise, any other
+ * extension supported by {@link ImageIO} (PNG, JPEG, BMP, TIFF...) holds 8-bit pixels, sRGB unless told
+ * otherwise. Pixels are converted to and from the linear working space of graphs, see {@link ColorSpace}.
+ */
+public final class ImageFiles {
+    private static final String FLOAT_EXTENSION = "pfm";
+
+    private ImageFiles() {
+    }
+
+    /**
+     * Check whether images can be read from and written to files with the extension of the given path.
+     */
+    public static boolean isSupported(Path file) {
+        String extension = extensionOf(file);
+        return extension.equals(FLOAT_EXTENSION) || ImageIO.getImageWritersBySuffix(extension).hasNext();
+    }
+
+    /**
+     * Read an image file in its default color space into a buffer drawn from the default pool.
+     * @param file The file to read
+     * @return An {@link PixelFormat#RGBA_FLOAT} or {@link PixelFormat#GRAY_FLOAT} buffer, in linear light
+     * @throws IOException If the file cannot be read or decoded
+     */
+    public static ImageBuffer read(Path file) throws IOException {
+        return read(file, null);
+    }
+
+    /**
+     * Read an image file into a buffer drawn from the default pool, converting it to the working space.
+     * @param file The file to read
+     * @param space The color space of the pixels of the file, or null for sRGB, or linear for float files
+     * @return An {@link PixelFormat#RGBA_FLOAT} or {@link PixelFormat#GRAY_FLOAT} buffer, in linear light
+     * @throws IOException If the file cannot be read or decoded
+     */
+    public static ImageBuffer read(Path file, ColorSpace space) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be mapped");
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (extensionOf(file).equals(FLOAT_EXTENSION)) {
+                ImageBuffer image = readFloatMap(data, file);
+                if (space != null && space != ColorSpace.LINEAR) {
+                    space.decode(image);
+                }
+                return image;
+            }
+            return toBuffer(decode(data, file), space != null ? space : ColorSpace.SRGB);
+        }
+    }
+
+    /**
+     * Write an image to a file, replacing it if it exists.
+     * Float pixels are converted to 8-bit sRGB unless the file is a portable float map, which drops alpha.
+     * @param image The image to write
+     * @param file The file to write, its extension choosing the file format
+     * @throws IOException If the file cannot be written or its extension is not supported
+     */
+    public static void write(ImageBuffer image, Path file) throws IOException {
+        write(image, file, null);
+    }
+
+    /**
+     * Write an image to a file in a color space, replacing it if it exists.
+     * Portable float maps only take linear spaces, as they hold linear light by convention.
+     * @param image The image to write
+     * @param file The file to write, its extension choosing the file format
+     * @param space The color space to write, or null for sRGB, or linear for float files
+     * @throws IOException If the file cannot be written or its extension is not supported
+     * @throws IllegalArgumentException If a portable float map is to be written in a non-linear space
+     */
+    public static void write(ImageBuffer image, Path file, ColorSpace space) throws IOException {
+        String extension = extensionOf(file);
+        if (extension.equals(FLOAT_EXTENSION) && space != null && !space.isLinear()) {
+            throw new IllegalArgumentException("Portable float maps hold linear light, not " + space);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (extension.equals(FLOAT_EXTENSION)) {
+                writeFloatMap(image, channel, space);
+                return;
+            }
+
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            if (!ImageIO.write(toImage(image, extension, space != null ? space : ColorSpace.SRGB), extension, out)) {
+                throw new IOException("No image writer for " + file);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Replace each run of {@code #} in a file name pattern with the zero-padded frame number.
+     * @param pattern A path such as {@code plate.####.png}
+     * @param frame The frame number
+     * @return The path of the frame, or the pattern itself if it holds no {@code #}
+     */
+    public static String resolveFrame(String pattern, int frame) {
+        int start = pattern.indexOf('#');
+        if (start < 0) {
+            return pattern;
+        }
+        int end = start;
+        while (end < pattern.length() && pattern.charAt(end) == '#') {
+            end++;
+        }
+        String number = String.format(Locale.ROOT, "%0" + (end - start) + "d", frame);
+        return resolveFrame(pattern.substring(0, start) + number + pattern.substring(end), frame);
+    }
+
+    /**
+     * Check whether a file name pattern refers to a sequence of frames.
+     */
+    public static boolean isSequence(String pattern) {
+        return pattern != null && pattern.indexOf('#') >= 0;
+    }
+
+    private static BufferedImage decode(ByteBuffer data, Path file) throws IOException {
+        try (ImageInputStream input = new ByteBufferInputStream(data)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + file);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static ImageBuffer toBuffer(BufferedImage image, ColorSpace space) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        ImageBuffer buffer = ImageBuffer.allocate(width, height, PixelFormat.RGBA_FLOAT);
+        float[] pixels = buffer.getFloatData();
+        int[] row = new int[width];
+
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            space.decode(row, 0, pixels, y * width * 4, width);
+        }
+        return buffer;
+    }
+
+    private static BufferedImage toImage(ImageBuffer buffer, String extension, ColorSpace space) {
+        int width = buffer.getWidth();
+        int height = buffer.getHeight();
+        // Formats such as JPEG and BMP cannot store alpha
+        boolean alpha = !(extension.equals("jpg") || extension.equals("jpeg") || extension.equals("bmp"));
+        BufferedImage image = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+
+        for (int y = 0; y < height; y++) {
+            space.encode(buffer, y, row);
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    /**
+     * Read a portable float map: a text header followed by rows of floats, from the bottom row up.
+     */
+    private static ImageBuffer readFloatMap(ByteBuffer data, Path file) throws IOException {
+        String type = readToken(data, file);
+        int width = parseInt(readToken(data, file), file);
+        int height = parseInt(readToken(data, file), file);
+        double scale = parseDouble(readToken(data, file), file);
+        int channels = switch (type) {
+            case "PF" -> 3;
+            case "Pf" -> 1;
+            default -> throw new IOException("Not a portable float map: " + file);
+        };
+
+        long expected = (long) width * height * channels * Float.BYTES;
+        if (width <= 0 || height <= 0 || data.remaining() < expected) {
+            throw new IOException("Truncated portable float map: " + file);
+        }
+        FloatBuffer floats = data.order(scale < 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN).asFloatBuffer();
+
+        if (channels == 1) {
+            ImageBuffer buffer = ImageBuffer.allocate(width, height, PixelFormat.GRAY_FLOAT);
+            float[] pixels = buffer.getFloatData();
+            for (int y = height - 1; y >= 0; y--) {
+                floats.get(pixels, y * width, width);
+            }
+            return buffer;
+        }
+
+        ImageBuffer buffer = ImageBuffer.allocate(width, height, PixelFormat.RGBA_FLOAT);
+        float[] pixels = buffer.getFloatData();
+        float[] row = new float[width * 3];
+        for (int y = height - 1; y >= 0; y--) {
+            floats.get(row);
+            int offset = y * width * 4;
+            for (int x = 0; x < row.length; x += 3) {
+                pixels[offset++] = row[x];
+                pixels[offset++] = row[x + 1];
+                pixels[offset++] = row[x + 2];
+                pixels[offset++] = 1f;
+            }
+        }
+        return buffer;
+    }
+
+    private static void writeFloatMap(ImageBuffer buffer, FileChannel channel, ColorSpace space) throws IOException {
+        int width = buffer.getWidth();
+        int height = buffer.getHeight();
+        boolean gray = buffer.getFormat() == PixelFormat.GRAY_FLOAT;
+        int channels = gray ? 1 : 3;
+        byte[] header = ((gray ? "Pf" : "PF") + "\n" + width + " " + height + "\n-1.0\n").getBytes(StandardCharsets.US_ASCII);
+
+        long size = header.length + (long) width * height * channels * Float.BYTES;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Image is too large to be mapped: " + buffer);
+        }
+        MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        data.put(header);
+        FloatBuffer floats = data.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+
+        float[] row = new float[width * channels];
+        float[] rgba = gray ? null : new float[width * 4];
+        for (int y = height - 1; y >= 0; y--) {
+            switch (buffer.getFormat()) {
+                case GRAY_FLOAT -> System.arraycopy(buffer.getFloatData(), y * width, row, 0, width);
+                case RGBA_FLOAT -> System.arraycopy(buffer.getFloatData(), y * width * 4, rgba, 0, rgba.length);
+                case ARGB_INT -> ColorSpace.SRGB.decode(buffer.getIntData(), y * width, rgba, 0, width);
+            }
+            if (!gray) {
+                if (space != null) {
+                    space.toPrimaries(rgba, 0, width);
+                }
+                for (int x = 0, offset = 0; x < row.length; x += 3, offset += 4) {
+                    row[x] = rgba[offset];
+                    row[x + 1] = rgba[offset + 1];
+                    row[x + 2] = rgba[offset + 2];
+                }
+            }
+            floats.put(row);
+        }
+        data.force();
+    }
+
+    private static String readToken(ByteBuffer data, Path file) throws IOException {
+        StringBuilder token = new StringBuilder();
+        while (data.hasRemaining()) {
+            char c = (char) data.get();
+            if (Character.isWhitespace(c)) {
+                if (!token.isEmpty()) {
+                    return token.toString();
+                }
+            } else if (token.length() < 32) {
+                token.append(c);
+            } else {
+                break;
+            }
+        }
+        throw new IOException("Invalid portable float map header: " + file);
+    }
+
+    private static int parseInt(String token, Path file) throws IOException {
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid portable float map header: " + file, e);
+        }
+    }
+
+    private static double parseDouble(String token, Path file) throws IOException {
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid portable float map header: " + file, e);
+        }
+    }
+
+    private static String extensionOf(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    /**
+     * Image input stream reading a mapped file in place.
+     */
+    private static final class ByteBufferInputStream extends ImageInputStreamImpl {
+        private final ByteBuffer data;
+
+        ByteBufferInputStream(ByteBuffer data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            if (streamPos >= data.limit()) {
+                return -1;
+            }
+            bitOffset = 0;
+            return data.get((int) streamPos++) & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (streamPos >= data.limit()) {
+                return -1;
+            }
+            bitOffset = 0;
+            int count = (int) Math.min(length, data.limit() - streamPos);
+            data.get((int) streamPos, bytes, offset, count);
+            streamPos += count;
+            return count;
+        }
+
+        @Override
+        public long length() {
+            return data.limit();
+        }
+    }
+}
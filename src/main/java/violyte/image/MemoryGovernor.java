@@ -0,0 +1,356 @@
+package violyte.image;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.NotificationEmitter;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Single memory budget shared by the caches and pools of the application, which would otherwise each stay
+ * within their own capacity while adding up to more than the heap.
+ * <p>
+ * Caches register as {@link Consumer}s with a priority. When their total usage goes over the budget, or when
+ * a garbage collection leaves the old generation fuller than {@link #PRESSURE_RATIO} of its maximum, consumers
+ * are asked to release memory, lowest priority first, until the usage fits again. Consumers call
+ * {@link #check()} after growing, renderers size their parallelism with {@link #getHeadroom()}.
+ * <p>
+ * Memory outside of the heap, such as the pixels of the viewer, has its own budget. The default governor is
+ * published through JMX as {@code violyte:type=MemoryGovernor}.
+ */
+public class MemoryGovernor implements MemoryGovernorMXBean {
+    /** Priority of memory that is not in use, such as pooled buffers. */
+    public static final int PRIORITY_FREE = 0;
+    /** Priority of data read from files, which costs a decode to get back. */
+    public static final int PRIORITY_DECODED = 10;
+    /** Priority of computed results, which cost an evaluation to get back. */
+    public static final int PRIORITY_COMPUTED = 20;
+    /** Priority of memory that cannot be released, only accounted for. */
+    public static final int PRIORITY_PINNED = Integer.MAX_VALUE;
+
+    /** Share of the old generation above which a garbage collection triggers a reclaim. */
+    public static final double PRESSURE_RATIO = 0.85;
+
+    private static final String OBJECT_NAME = "violyte:type=MemoryGovernor";
+
+    private static volatile MemoryGovernor defaultGovernor;
+
+    /** Consumers are held weakly, so that registering a short-lived cache does not keep it alive. */
+    private final List<WeakReference<Consumer>> consumers = new CopyOnWriteArrayList<>();
+    private final LongAdder releasedBytes = new LongAdder();
+    private volatile long heapBudget;
+    private volatile long offHeapBudget;
+
+    /**
+     * Constructor.
+     * @param heapBudget The heap memory consumers may hold, in bytes
+     * @param offHeapBudget The memory outside of the heap consumers may hold, in bytes
+     */
+    public MemoryGovernor(long heapBudget, long offHeapBudget) {
+        this.heapBudget = heapBudget;
+        this.offHeapBudget = offHeapBudget;
+    }
+
+    /**
+     * Retrieve the governor of the default pools and caches.
+     * Its heap budget is three quarters of the maximum heap size, and its budget outside of the heap the maximum
+     * heap size, the default limit of direct buffers. It reclaims memory after garbage collections that leave
+     * the old generation under pressure.
+     */
+    public static MemoryGovernor getDefault() {
+        MemoryGovernor governor = defaultGovernor;
+        if (governor == null) {
+            synchronized (MemoryGovernor.class) {
+                governor = defaultGovernor;
+                if (governor == null) {
+                    long maxMemory = Runtime.getRuntime().maxMemory();
+                    governor = new MemoryGovernor(maxMemory / 4 * 3, maxMemory);
+                    governor.watchCollections();
+                    governor.registerManagement();
+                    defaultGovernor = governor;
+                }
+            }
+        }
+        return governor;
+    }
+
+    @Override
+    public long getHeapBudget() {
+        return heapBudget;
+    }
+
+    /**
+     * Change the heap memory consumers may hold, releasing memory above it.
+     */
+    @Override
+    public void setHeapBudget(long heapBudget) {
+        this.heapBudget = heapBudget;
+        reclaim();
+    }
+
+    @Override
+    public long getOffHeapBudget() {
+        return offHeapBudget;
+    }
+
+    /**
+     * Change the memory outside of the heap consumers may hold, releasing memory above it.
+     */
+    @Override
+    public void setOffHeapBudget(long offHeapBudget) {
+        this.offHeapBudget = offHeapBudget;
+        reclaim();
+    }
+
+    /**
+     * Add a consumer to the budget. It stays registered as long as something else references it.
+     * @param consumer The consumer to add
+     */
+    public void register(Consumer consumer) {
+        consumers.add(new WeakReference<>(consumer));
+    }
+
+    /**
+     * Remove a consumer from the budget.
+     * @param consumer The consumer to remove
+     */
+    public void unregister(Consumer consumer) {
+        consumers.removeIf(reference -> reference.get() == null || reference.get() == consumer);
+    }
+
+    @Override
+    public long getHeapUsage() {
+        return usage(false);
+    }
+
+    @Override
+    public long getOffHeapUsage() {
+        return usage(true);
+    }
+
+    @Override
+    public Map<String, Long> getUsageByConsumer() {
+        Map<String, Long> usage = new TreeMap<>();
+        for (Consumer consumer : getConsumers()) {
+            usage.merge(consumer.getName(), consumer.getUsage(), Long::sum);
+        }
+        return usage;
+    }
+
+    /**
+     * Retrieve the heap memory that new work, such as more frames rendered at once, can use.
+     * This is the budget, without the memory consumers cannot release, and without the memory that stayed
+     * in use after the last garbage collection unless consumers can release it.
+     * @return The headroom, in bytes, never negative
+     */
+    @Override
+    public long getHeadroom() {
+        long pinned = 0;
+        long releasable = 0;
+        for (Consumer consumer : getConsumers()) {
+            if (!consumer.isOffHeap()) {
+                if (consumer.getPriority() == PRIORITY_PINNED) {
+                    pinned += consumer.getUsage();
+                } else {
+                    releasable += consumer.getUsage();
+                }
+            }
+        }
+
+        long live = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                MemoryUsage usage = pool.getCollectionUsage() != null ? pool.getCollectionUsage() : pool.getUsage();
+                live += usage.getUsed();
+            }
+        }
+        long free = Runtime.getRuntime().maxMemory() - live + releasable;
+        return Math.max(0, Math.min(heapBudget - pinned, free));
+    }
+
+    @Override
+    public long getReleasedBytes() {
+        return releasedBytes.sum();
+    }
+
+    /**
+     * Take a snapshot of the memory held by the consumers and by the buffers of the JVM.
+     */
+    public Usage getUsage() {
+        long direct = 0;
+        long mapped = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            switch (pool.getName()) {
+                case "direct" -> direct = pool.getMemoryUsed();
+                case "mapped" -> mapped = pool.getMemoryUsed();
+                default -> {
+                }
+            }
+        }
+        return new Usage(heapBudget, getHeapUsage(), offHeapBudget, getOffHeapUsage(), getUsageByConsumer(),
+            direct, mapped);
+    }
+
+    /**
+     * Reclaim memory if the consumers hold more than the budgets. Cheap enough to call after each allocation
+     * of a cache. Must not be called while holding a lock a consumer takes to release memory.
+     */
+    public void check() {
+        if (getHeapUsage() > heapBudget || getOffHeapUsage() > offHeapBudget) {
+            reclaim();
+        }
+    }
+
+    @Override
+    public long reclaim() {
+        return release(false, getHeapUsage() - heapBudget) + release(true, getOffHeapUsage() - offHeapBudget);
+    }
+
+    /**
+     * Ask consumers of the heap or of the memory outside of it to release memory, lowest priority first.
+     * @param offHeap Whether to release memory outside of the heap
+     * @param bytes The memory to release
+     * @return The memory released
+     */
+    private synchronized long release(boolean offHeap, long bytes) {
+        List<Consumer> candidates = new ArrayList<>();
+        for (Consumer consumer : getConsumers()) {
+            if (consumer.isOffHeap() == offHeap && consumer.getPriority() != PRIORITY_PINNED) {
+                candidates.add(consumer);
+            }
+        }
+        candidates.sort(Comparator.comparingInt(Consumer::getPriority));
+
+        long released = 0;
+        for (Consumer consumer : candidates) {
+            if (released >= bytes) {
+                break;
+            }
+            released += consumer.release(bytes - released);
+        }
+        releasedBytes.add(released);
+        return released;
+    }
+
+    private long usage(boolean offHeap) {
+        long usage = 0;
+        for (Consumer consumer : getConsumers()) {
+            if (consumer.isOffHeap() == offHeap) {
+                usage += consumer.getUsage();
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * Retrieve the consumers still registered, dropping the ones that were garbage collected.
+     */
+    private List<Consumer> getConsumers() {
+        List<Consumer> live = new ArrayList<>(consumers.size());
+        for (Iterator<WeakReference<Consumer>> it = consumers.iterator(); it.hasNext();) {
+            WeakReference<Consumer> reference = it.next();
+            Consumer consumer = reference.get();
+            if (consumer != null) {
+                live.add(consumer);
+            } else {
+                consumers.remove(reference);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Reclaim memory when a garbage collection leaves a heap pool above its pressure threshold.
+     */
+    private void watchCollections() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            long max = pool.getUsage().getMax();
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported() && max > 0) {
+                pool.setCollectionUsageThreshold((long) (max * PRESSURE_RATIO));
+            }
+        }
+        NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+        emitter.addNotificationListener((notification, handback) -> {
+            MemoryNotificationInfo info = MemoryNotificationInfo.from(
+                (CompositeData) notification.getUserData());
+            long excess = info.getUsage().getUsed() - (long) (info.getUsage().getMax() * PRESSURE_RATIO);
+            release(false, Math.max(excess, getHeapUsage() - heapBudget));
+        }, notification -> notification.getType().equals(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED),
+            null);
+    }
+
+    private void registerManagement() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            // Already registered by another class loader, the governor still works without it
+        }
+    }
+
+    /**
+     * Holder of memory that the governor accounts for and can ask to release it.
+     * Methods can be called from any thread.
+     */
+    public interface Consumer {
+        /**
+         * Retrieve the name of the consumer in the usage breakdown. Consumers can share a name.
+         */
+        String getName();
+
+        /**
+         * Retrieve the priority of the memory of this consumer, lower priorities being released first.
+         * @return A priority such as {@link #PRIORITY_DECODED}, or {@link #PRIORITY_PINNED} if the memory
+         *         cannot be released
+         */
+        int getPriority();
+
+        /**
+         * Check whether the memory of this consumer is outside of the heap.
+         */
+        default boolean isOffHeap() {
+            return false;
+        }
+
+        /**
+         * Retrieve the memory held by this consumer, in bytes.
+         */
+        long getUsage();
+
+        /**
+         * Release memory, or schedule its release by the thread using the consumer.
+         * Memory only scheduled for release is not counted, so that the governor asks the next consumers.
+         * @param bytes The memory to release, in bytes
+         * @return The memory released, which may be less or more than requested
+         */
+        long release(long bytes);
+    }
+
+    /**
+     * Memory usage of the consumers of a governor and of the buffers of the JVM. Memory amounts are in bytes.
+     * @param heapBudget The heap memory consumers may hold
+     * @param heapUsage The heap memory held by consumers
+     * @param offHeapBudget The memory outside of the heap consumers may hold
+     * @param offHeapUsage The memory outside of the heap held by consumers
+     * @param consumers The memory held by each consumer, by name
+     * @param directBuffers The memory of every direct buffer of the JVM, registered or not
+     * @param mappedBuffers The memory of every mapped file of the JVM, such as the files of the disk cache
+     */
+    public record Usage(long heapBudget, long heapUsage, long offHeapBudget, long offHeapUsage,
+                        Map<String, Long> consumers, long directBuffers, long mappedBuffers) {
+    }
+}
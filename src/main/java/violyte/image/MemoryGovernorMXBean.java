@@ -0,0 +1,48 @@
+package violyte.image;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link MemoryGovernor}, registered as {@code violyte:type=MemoryGovernor}.
+ * Memory amounts are in bytes.
+ */
+public interface MemoryGovernorMXBean {
+    long getHeapBudget();
+
+    void setHeapBudget(long heapBudget);
+
+    long getOffHeapBudget();
+
+    void setOffHeapBudget(long offHeapBudget);
+
+    /**
+     * Retrieve the heap memory held by the registered consumers.
+     */
+    long getHeapUsage();
+
+    /**
+     * Retrieve the memory outside of the heap held by the registered consumers.
+     */
+    long getOffHeapUsage();
+
+    /**
+     * Retrieve the memory held by each registered consumer, by name.
+     */
+    Map<String, Long> getUsageByConsumer();
+
+    /**
+     * Retrieve the heap memory that new work can use, see {@link MemoryGovernor#getHeadroom()}.
+     */
+    long getHeadroom();
+
+    /**
+     * Retrieve the memory released by consumers at the request of the governor since it was created.
+     */
+    long getReleasedBytes();
+
+    /**
+     * Ask consumers to release memory until their usage fits in the budgets.
+     * @return The memory released
+     */
+    long reclaim();
+}
@@ -0,0 +1,52 @@
+package violyte.image;
+
+/**
+ * Memory layout of the pixels of an {@link ImageBuffer}.
+ */
+public enum PixelFormat {
+    /**
+     * Four interleaved float channels (red, green, blue, alpha) per pixel, in linear light.
+     */
+    RGBA_FLOAT(4, true),
+
+    /**
+     * A single float channel per pixel.
+     */
+    GRAY_FLOAT(1, true),
+
+    /**
+     * One int per pixel, packed as 8-bit alpha, red, green and blue.
+     */
+    ARGB_INT(1, false);
+
+    private final int channels;
+    private final boolean floatingPoint;
+
+    PixelFormat(int channels, boolean floatingPoint) {
+        this.channels = channels;
+        this.floatingPoint = floatingPoint;
+    }
+
+    /**
+     * Retrieve the number of array elements used by each pixel.
+     */
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * Check whether pixels are stored in a float array rather than an int array.
+     */
+    public boolean isFloatingPoint() {
+        return floatingPoint;
+    }
+
+    /**
+     * Retrieve the number of array elements needed by an image of this format.
+     * @param width The width of the image
+     * @param height The height of the image
+     */
+    public int getLength(int width, int height) {
+        return Math.multiplyExact(Math.multiplyExact(width, height), channels);
+    }
+}
@@ -0,0 +1,130 @@
+package violyte.image;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Reads the frames of an image sequence, decoding the frames expected next in the background.
+ * The playback direction and step are predicted from the frames requested so far, and the number of frames
+ * read ahead grows with the decode time relative to the time between requests, within a share of the
+ * capacity of the {@link FrameCache}. A jump farther than {@link #SEEK_DISTANCE} frames is a seek: it does
+ * not change the prediction, so scrubbing resumes read-ahead from the new position at once.
+ */
+public class SequenceReader {
+    /**
+     * The distance, in frames, above which a request is considered a seek rather than playback.
+     */
+    public static final int SEEK_DISTANCE = 16;
+
+    private static final int MAX_DEPTH = 32;
+
+    private final String pattern;
+    private final ColorSpace colorSpace;
+    private final FrameCache cache;
+
+    private boolean started;
+    private int lastFrame;
+    private long lastRequest;
+    private double velocity = 1;
+    private long intervalNanos;
+    private long frameBytes;
+
+    /**
+     * Constructor.
+     * @param pattern The file name pattern of the sequence, where runs of {@code #} stand for the frame number
+     * @param cache The cache decoding and keeping frames
+     */
+    public SequenceReader(String pattern, FrameCache cache) {
+        this(pattern, null, cache);
+    }
+
+    /**
+     * Constructor.
+     * @param pattern The file name pattern of the sequence, where runs of {@code #} stand for the frame number
+     * @param colorSpace The color space of the files, or null for their default
+     * @param cache The cache decoding and keeping frames
+     */
+    public SequenceReader(String pattern, ColorSpace colorSpace, FrameCache cache) {
+        this.pattern = pattern;
+        this.colorSpace = colorSpace;
+        this.cache = cache;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public ColorSpace getColorSpace() {
+        return colorSpace;
+    }
+
+    /**
+     * Read a frame of the sequence, and start decoding the frames predicted to be read next.
+     * @param frame The frame number
+     * @return A copy of the decoded frame, owned by the caller
+     * @throws IOException If the frame cannot be read or decoded
+     */
+    public ImageBuffer read(int frame) throws IOException {
+        int step;
+        int depth;
+        synchronized (this) {
+            record(frame, System.nanoTime());
+            step = getStep();
+            depth = getDepth();
+        }
+
+        // Queued before decoding the requested frame, so that decoders work while this thread does
+        for (int i = 1; i <= depth; i++) {
+            cache.prefetch(pathOf(frame + step * i), colorSpace);
+        }
+
+        ImageBuffer image = cache.read(pathOf(frame), colorSpace);
+        synchronized (this) {
+            frameBytes = image.getByteSize();
+        }
+        return image;
+    }
+
+    /**
+     * Retrieve the predicted distance between consecutive requests, negative when playing backwards.
+     */
+    public synchronized int getStep() {
+        int step = (int) Math.round(velocity);
+        return step != 0 ? step : (velocity < 0 ? -1 : 1);
+    }
+
+    /**
+     * Retrieve the number of frames currently read ahead.
+     * Enough frames are requested to cover the decode time at the current playback speed, without taking
+     * more than half of the cache capacity.
+     */
+    public synchronized int getDepth() {
+        long decodeNanos = cache.getAverageDecodeTime();
+        int depth = decodeNanos == 0 || intervalNanos == 0
+            ? 1
+            : (int) Math.min(MAX_DEPTH, (decodeNanos + intervalNanos - 1) / intervalNanos + 1);
+
+        if (frameBytes > 0) {
+            depth = (int) Math.min(depth, cache.getCapacity() / 2 / frameBytes);
+        }
+        return Math.max(depth, 0);
+    }
+
+    private void record(int frame, long now) {
+        if (started) {
+            int delta = frame - lastFrame;
+            if (delta != 0 && Math.abs(delta) <= SEEK_DISTANCE) {
+                velocity = (velocity + delta) / 2;
+                long interval = now - lastRequest;
+                intervalNanos = intervalNanos == 0 ? interval : (intervalNanos * 3 + interval) / 4;
+            }
+        }
+        started = true;
+        lastFrame = frame;
+        lastRequest = now;
+    }
+
+    private Path pathOf(int frame) {
+        return Path.of(ImageFiles.resolveFrame(pattern, frame));
+    }
+}
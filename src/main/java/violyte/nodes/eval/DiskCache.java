@@ -0,0 +1,539 @@
+package violyte.nodes.eval;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import violyte.image.ImageBuffer;
+import violyte.image.PixelFormat;
+import violyte.nodes.model.FrameTime;
+import violyte.nodes.model.Node;
+
+/**
+ * Persistent cache of node outputs, shared by every process using the same directory.
+ * Outputs are keyed by a hash of the node type, its parameter values, the state it describes, the time when
+ * it depends on time, and the keys of its upstream outputs, so a key identifies a result regardless of the
+ * graph it was computed in. Only outputs that took at least {@link #getMinimumCost()} to compute are written.
+ * <p>
+ * Each output is stored in its own memory-mapped file. The least recently used files are deleted once the
+ * cache holds more than its capacity. Files written by another process are found when they are looked up, and
+ * the directory is scanned again before evicting, so that processes sharing it keep all of its files within the
+ * capacity.
+ * I/O failures are never reported to evaluations: a failed read is a miss, a failed write is skipped.
+ */
+public class DiskCache {
+    /**
+     * The capacity of the default cache, in bytes.
+     */
+    public static final long DEFAULT_CAPACITY = 4L << 30;
+
+    private static final int MAGIC = 0x564c4331;
+    private static final String SUFFIX = ".out";
+    private static final byte IMAGE = 1;
+    private static final byte STRING = 2;
+    private static final byte INTEGER = 3;
+    private static final byte LONG = 4;
+    private static final byte FLOAT = 5;
+    private static final byte DOUBLE = 6;
+    private static final byte BOOLEAN = 7;
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static volatile DiskCache defaultCache;
+
+    private final Path directory;
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private long capacity;
+    private long bytesCached;
+    private volatile long minimumCost = 50_000_000;
+
+    /**
+     * Constructor. Files already in the directory are indexed, oldest first.
+     * @param directory The directory holding the cached outputs, created when needed
+     * @param capacity The maximum size of the cached outputs, in bytes
+     */
+    public DiskCache(Path directory, long capacity) {
+        this.directory = directory;
+        this.capacity = capacity;
+        evict();
+    }
+
+    /**
+     * Retrieve the cache shared by the editor and the command line renderer.
+     * It is stored in the directory named by the {@code violyte.cache} system property, or in
+     * {@code .violyte/cache} in the home directory, and holds up to {@link #DEFAULT_CAPACITY} bytes.
+     */
+    public static DiskCache getDefault() {
+        DiskCache cache = defaultCache;
+        if (cache == null) {
+            synchronized (DiskCache.class) {
+                cache = defaultCache;
+                if (cache == null) {
+                    String directory = System.getProperty("violyte.cache");
+                    cache = new DiskCache(directory != null
+                        ? Path.of(directory)
+                        : Path.of(System.getProperty("user.home"), ".violyte", "cache"), DEFAULT_CAPACITY);
+                    defaultCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public synchronized long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Change the maximum size of the cached outputs, deleting the least recently used ones above it.
+     * @param capacity The new capacity, in bytes
+     */
+    public void setCapacity(long capacity) {
+        synchronized (this) {
+            this.capacity = capacity;
+        }
+        evict();
+    }
+
+    /**
+     * Retrieve the time a node must take to compute its outputs for them to be written.
+     * @return The minimum cost, in nanoseconds
+     */
+    public long getMinimumCost() {
+        return minimumCost;
+    }
+
+    /**
+     * Change the time a node must take to compute its outputs for them to be written.
+     * Cheap outputs are faster to recompute than to read back.
+     * @param nanos The minimum cost, in nanoseconds
+     */
+    public void setMinimumCost(long nanos) {
+        this.minimumCost = nanos;
+    }
+
+    /**
+     * Compute the key of the outputs of a node.
+     * @param node The node being executed
+     * @param values One value per input, as bound for the execution
+     * @param sourceKeys The output key of the source of each connected input, null for unconnected inputs
+     * @param time The time at which the node is evaluated
+     * @return The key of the node, or null if its outputs cannot be cached, because a parameter has a type
+     *         that cannot be hashed or the node describes no reusable state
+     */
+    public String keyOf(Node<?> node, Object[] values, String[] sourceKeys, FrameTime time) {
+        String state = node.describeState(values, time);
+        if (state == null) {
+            return null;
+        }
+
+        MessageDigest digest = DIGESTS.get();
+        digest.reset();
+        update(digest, node.getClass().getName());
+        update(digest, state);
+        if (node.isTimeDependent(values, time)) {
+            update(digest, time.frame() + "@" + time.seconds());
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (sourceKeys[i] != null) {
+                update(digest, "<" + sourceKeys[i]);
+            } else {
+                String parameter = describe(values[i]);
+                if (parameter == null) {
+                    return null;
+                }
+                update(digest, parameter);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Retrieve the key of one output of a node.
+     * @param key The key of the node, as returned by {@link #keyOf(Node, Object[], String[], FrameTime)}
+     * @param output The index of the output
+     */
+    public static String outputKey(String key, int output) {
+        return key + "-" + output;
+    }
+
+    /**
+     * Read the requested outputs of a node.
+     * @param key The key of the node
+     * @param requested One flag per output
+     * @param outputs One value per output, filled for each requested output when every one of them is cached
+     * @return True if every requested output was read
+     */
+    public boolean read(String key, boolean[] requested, Object[] outputs) {
+        for (int i = 0; i < requested.length; i++) {
+            if (requested[i] && !contains(outputKey(key, i) + SUFFIX)) {
+                misses.increment();
+                return false;
+            }
+        }
+
+        for (int i = 0; i < requested.length; i++) {
+            if (requested[i]) {
+                Object value = load(outputKey(key, i) + SUFFIX);
+                if (value == null) {
+                    for (int j = 0; j < i; j++) {
+                        outputs[j] = null;
+                    }
+                    misses.increment();
+                    return false;
+                }
+                outputs[i] = value;
+            }
+        }
+        hits.increment();
+        return true;
+    }
+
+    /**
+     * Write the requested outputs of a node, unless one of them has a type that cannot be stored.
+     * @param key The key of the node
+     * @param requested One flag per output
+     * @param outputs One value per output
+     */
+    public void write(String key, boolean[] requested, Object[] outputs) {
+        for (int i = 0; i < requested.length; i++) {
+            if (requested[i] && encodedSize(outputs[i]) < 0) {
+                return;
+            }
+        }
+        for (int i = 0; i < requested.length; i++) {
+            if (requested[i]) {
+                store(outputKey(key, i) + SUFFIX, outputs[i]);
+            }
+        }
+        writes.increment();
+        evict();
+    }
+
+    /**
+     * Delete every cached output.
+     */
+    public void clear() {
+        List<String> names;
+        synchronized (this) {
+            names = new ArrayList<>(files.keySet());
+            files.clear();
+            bytesCached = 0;
+        }
+        for (String name : names) {
+            delete(name);
+        }
+    }
+
+    /**
+     * Take a snapshot of the statistics of this cache.
+     */
+    public synchronized Statistics getStatistics() {
+        return new Statistics(hits.sum(), misses.sum(), writes.sum(), files.size(), bytesCached);
+    }
+
+    private boolean contains(String name) {
+        synchronized (this) {
+            if (files.containsKey(name)) {
+                return true;
+            }
+        }
+        // Possibly written by another process since the directory was scanned
+        try {
+            long size = Files.size(directory.resolve(name));
+            synchronized (this) {
+                if (files.putIfAbsent(name, size) == null) {
+                    bytesCached += size;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Decode a cached output, forgetting its file if it cannot be read, and mark it as the most recently used.
+     */
+    private Object load(String name) {
+        Path file = directory.resolve(name);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            Object value = decode(buffer);
+            synchronized (this) {
+                // Only a lookup moves an entry to the end of the access order
+                files.get(name);
+            }
+            try {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                // Only the order of eviction after a restart is affected
+            }
+            return value;
+        } catch (IOException | RuntimeException e) {
+            forget(name);
+            return null;
+        }
+    }
+
+    /**
+     * Write an output to a temporary file, then move it in place so that readers never see a partial file.
+     */
+    private void store(String name, Object value) {
+        long size = 4 + encodedSize(value);
+        Path target = directory.resolve(name);
+        Path temporary = directory.resolve(name + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createDirectories(directory);
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MAGIC);
+                encode(value, buffer);
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                // Left for the next clear
+            }
+            return;
+        }
+
+        synchronized (this) {
+            Long previous = files.put(name, size);
+            bytesCached += size - (previous != null ? previous : 0);
+        }
+    }
+
+    /**
+     * Index the files of the directory, forgetting the ones deleted meanwhile. Files this cache did not know of
+     * come first, oldest first, followed by the known ones in their order of use.
+     */
+    private void rescan() {
+        List<Path> existing = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            list.filter(file -> file.getFileName().toString().endsWith(SUFFIX)).forEach(existing::add);
+        } catch (IOException e) {
+            // Nothing cached yet
+        }
+        Map<String, Long> sizes = new HashMap<>();
+        Map<String, FileTime> times = new HashMap<>();
+        for (Path file : existing) {
+            try {
+                String name = file.getFileName().toString();
+                sizes.put(name, Files.size(file));
+                times.put(name, Files.getLastModifiedTime(file));
+            } catch (IOException e) {
+                // Deleted by another process meanwhile
+            }
+        }
+
+        synchronized (this) {
+            List<String> known = new ArrayList<>(files.keySet());
+            List<String> found = new ArrayList<>(sizes.keySet());
+            found.removeAll(files.keySet());
+            found.sort(Comparator.comparing(times::get));
+            files.clear();
+            bytesCached = 0;
+            for (List<String> names : List.of(found, known)) {
+                for (String name : names) {
+                    Long size = sizes.get(name);
+                    if (size != null) {
+                        files.put(name, size);
+                        bytesCached += size;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete the least recently used files until the cache fits in its capacity, including the files written by
+     * other processes.
+     */
+    private void evict() {
+        rescan();
+        List<String> victims = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+            while (bytesCached > capacity && it.hasNext()) {
+                Map.Entry<String, Long> entry = it.next();
+                it.remove();
+                bytesCached -= entry.getValue();
+                victims.add(entry.getKey());
+            }
+        }
+        for (String name : victims) {
+            delete(name);
+        }
+    }
+
+    private void forget(String name) {
+        synchronized (this) {
+            Long size = files.remove(name);
+            if (size != null) {
+                bytesCached -= size;
+            }
+        }
+        delete(name);
+    }
+
+    private void delete(String name) {
+        try {
+            Files.deleteIfExists(directory.resolve(name));
+        } catch (IOException e) {
+            // Still mapped by a reader, or removed by another process
+        }
+    }
+
+    private static void update(MessageDigest digest, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+
+    /**
+     * Describe a parameter value as text, or return null for types whose text does not identify the value.
+     */
+    private static String describe(Object value) {
+        if (value == null) {
+            return "null";
+        } else if (value instanceof String || value instanceof Integer || value instanceof Long
+                || value instanceof Float || value instanceof Double || value instanceof Boolean) {
+            return value.getClass().getSimpleName() + ":" + value;
+        } else if (value instanceof Enum<?> constant) {
+            return constant.getDeclaringClass().getName() + ":" + constant.name();
+        }
+        return null;
+    }
+
+    /**
+     * Compute the number of bytes needed to store a value after the header, or -1 if it cannot be stored.
+     */
+    private static long encodedSize(Object value) {
+        if (value instanceof ImageBuffer image) {
+            return 13 + image.getByteSize();
+        } else if (value instanceof String text) {
+            return 5 + text.getBytes(StandardCharsets.UTF_8).length;
+        } else if (value instanceof Integer || value instanceof Float) {
+            return 5;
+        } else if (value instanceof Long || value instanceof Double) {
+            return 9;
+        } else if (value instanceof Boolean) {
+            return 2;
+        }
+        return -1;
+    }
+
+    private static void encode(Object value, MappedByteBuffer buffer) {
+        if (value instanceof ImageBuffer image) {
+            buffer.put(IMAGE).putInt(image.getFormat().ordinal()).putInt(image.getWidth()).putInt(image.getHeight());
+            if (image.getFormat().isFloatingPoint()) {
+                buffer.asFloatBuffer().put(image.getFloatData());
+            } else {
+                buffer.asIntBuffer().put(image.getIntData());
+            }
+        } else if (value instanceof String text) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            buffer.put(STRING).putInt(bytes.length).put(bytes);
+        } else if (value instanceof Integer number) {
+            buffer.put(INTEGER).putInt(number);
+        } else if (value instanceof Long number) {
+            buffer.put(LONG).putLong(number);
+        } else if (value instanceof Float number) {
+            buffer.put(FLOAT).putFloat(number);
+        } else if (value instanceof Double number) {
+            buffer.put(DOUBLE).putDouble(number);
+        } else if (value instanceof Boolean flag) {
+            buffer.put(BOOLEAN).put((byte) (flag ? 1 : 0));
+        }
+    }
+
+    /**
+     * Decode a stored value, drawing images from the default buffer pool.
+     * @throws IllegalStateException If the file is not a cached output
+     */
+    private static Object decode(MappedByteBuffer buffer) {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalStateException("Not a cached output");
+            }
+            return switch (buffer.get()) {
+                case IMAGE -> {
+                    PixelFormat format = PixelFormat.values()[buffer.getInt()];
+                    ImageBuffer image = ImageBuffer.allocate(buffer.getInt(), buffer.getInt(), format);
+                    if (format.isFloatingPoint()) {
+                        buffer.asFloatBuffer().get(image.getFloatData());
+                    } else {
+                        buffer.asIntBuffer().get(image.getIntData());
+                    }
+                    yield image;
+                }
+                case STRING -> {
+                    byte[] bytes = new byte[buffer.getInt()];
+                    buffer.get(bytes);
+                    yield new String(bytes, StandardCharsets.UTF_8);
+                }
+                case INTEGER -> buffer.getInt();
+                case LONG -> buffer.getLong();
+                case FLOAT -> buffer.getFloat();
+                case DOUBLE -> buffer.getDouble();
+                case BOOLEAN -> buffer.get() != 0;
+                default -> throw new IllegalStateException("Unknown value type");
+            };
+        } catch (BufferUnderflowException e) {
+            throw new IllegalStateException("Truncated cached output", e);
+        }
+    }
+
+    /**
+     * Statistics of a disk cache.
+     * @param hits The number of nodes whose outputs were read from the cache
+     * @param misses The number of nodes whose outputs were not cached
+     * @param writes The number of nodes whose outputs were written
+     * @param files The number of cached outputs
+     * @param bytesCached The size of the cached outputs, in bytes
+     */
+    public record Statistics(long hits, long misses, long writes, int files, long bytesCached) {
+    }
+}
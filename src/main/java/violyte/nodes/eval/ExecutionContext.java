@@ -0,0 +1,167 @@
+package violyte.nodes.eval;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reusable state of the executions of a plan on a single thread.
+ * Every array needed by an execution is allocated once here, so executing a plan again with the same
+ * context does not allocate. A context must not be used by several threads at once.
+ */
+public final class ExecutionContext {
+    final ExecutionPlan plan;
+    final Object[] results;
+    final Object[][] inputValues;
+    final Object[][] outputValues;
+    final Object[][] parameters;
+    final int[] owners;
+    final int[] pendingUses;
+    final int[] pendingOwnerUses;
+    final Object[] ownedValues;
+    final String[] valueKeys;
+    /** Whether each slot depended on time during the last execution. */
+    final boolean[] timeDependent;
+    ValueRecycler recycler;
+    DiskCache diskCache;
+
+    ExecutionContext(ExecutionPlan plan, int[][] sources, Object[][] planParameters, int[] outputBase) {
+        int count = sources.length;
+        int valueCount = outputBase[count];
+        this.plan = plan;
+        this.results = new Object[valueCount];
+        this.inputValues = new Object[count][];
+        this.outputValues = new Object[count][];
+        this.parameters = new Object[count][];
+        this.owners = new int[valueCount];
+        this.pendingUses = new int[valueCount];
+        this.pendingOwnerUses = new int[valueCount];
+        this.ownedValues = new Object[valueCount];
+        this.valueKeys = new String[valueCount];
+        this.timeDependent = new boolean[count];
+
+        for (int slot = 0; slot < count; slot++) {
+            inputValues[slot] = new Object[sources[slot].length];
+            outputValues[slot] = new Object[outputBase[slot + 1] - outputBase[slot]];
+            parameters[slot] = planParameters[slot].clone();
+        }
+    }
+
+    /**
+     * Retrieve the plan this context executes.
+     */
+    public ExecutionPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * Set the parameter values used by the next executions.
+     * @param overrides Parameter values replacing the ones captured when the plan was compiled
+     */
+    public void setParameters(ParameterSet overrides) {
+        plan.resolveParameters(overrides, parameters);
+    }
+
+    /**
+     * Set the receiver of intermediate outputs once their last consumer has run.
+     * @param recycler The recycler, or null to simply drop released outputs
+     */
+    public void setRecycler(ValueRecycler recycler) {
+        this.recycler = recycler;
+    }
+
+    /**
+     * Set the persistent cache outputs are read from and written to.
+     * @param diskCache The cache, or null to always execute nodes
+     */
+    public void setDiskCache(DiskCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    public int getOutputCount() {
+        return plan.getOutputValues().length;
+    }
+
+    /**
+     * Retrieve the ID of an output node of the plan.
+     * @param index The index of the output, between 0 and {@link #getOutputCount()}
+     */
+    public int getOutputNodeId(int index) {
+        return plan.getOutputNode(index).getId();
+    }
+
+    /**
+     * Retrieve the value produced by an output node, its first output, during the last execution.
+     * @param index The index of the output, between 0 and {@link #getOutputCount()}
+     */
+    public Object getOutput(int index) {
+        return results[plan.getOutputValues()[index]];
+    }
+
+    /**
+     * Retrieve the values produced by every output node during the last execution.
+     * @return The output values by node ID
+     */
+    public Map<Integer, Object> getOutputs() {
+        Map<Integer, Object> outputs = new LinkedHashMap<>();
+        for (int i = 0; i < getOutputCount(); i++) {
+            outputs.put(getOutputNodeId(i), getOutput(i));
+        }
+        return outputs;
+    }
+
+    /**
+     * Check whether the outputs of the last execution depended on time, through a node found to depend on it
+     * with its input values. Those outputs are only valid for the time they were computed at.
+     */
+    public boolean isTimeDependent() {
+        for (boolean dynamic : timeDependent) {
+            if (dynamic) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hand the outputs of the last execution to the recycler, once the caller is done with them.
+     */
+    public void releaseOutputs() {
+        // Merged group instances can make several outputs the same value, each counting one use
+        for (int value : plan.getOutputValues()) {
+            if (pendingUses[value] > 0 && pendingUses[value] != Integer.MAX_VALUE) {
+                if (--pendingUses[value] == 0) {
+                    results[value] = null;
+                }
+                if (pendingOwnerUses[owners[value]] != Integer.MAX_VALUE) {
+                    release(owners[value]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Count down one use of an owned value, recycling it after its last use.
+     */
+    void release(int owner) {
+        if (--pendingOwnerUses[owner] == 0) {
+            Object value = ownedValues[owner];
+            ownedValues[owner] = null;
+            if (value != null && recycler != null) {
+                recycler.recycle(value);
+            }
+        }
+    }
+
+    /**
+     * Forget the results of the last execution without recycling them.
+     */
+    void reset() {
+        Arrays.fill(results, null);
+        Arrays.fill(ownedValues, null);
+        Arrays.fill(timeDependent, false);
+        if (diskCache != null) {
+            Arrays.fill(valueKeys, null);
+        }
+    }
+}
@@ -0,0 +1,595 @@
+package violyte.nodes.eval;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import violyte.nodes.model.FrameTime;
+import violyte.nodes.model.NodeGraph;
+import violyte.nodes.model.NodeGraph.NodeInstance;
+import violyte.nodes.model.NodeGroup.Port;
+import violyte.nodes.model.NodeInput;
+import violyte.nodes.model.NodeOutput;
+import violyte.nodes.model.TypeAdapter;
+import violyte.nodes.model.TypeAdapters;
+
+/**
+ * Immutable evaluation order compiled from a node graph.
+ * Nodes are stored as slots in topological order, and the outputs of all slots are numbered as values, each
+ * input being resolved to the value of its source output, so a plan can be executed many times, and from several
+ * threads at once, without walking the graph again. Only the outputs something is connected to are computed,
+ * plus the first output of the nodes without downstream connections, which are the outputs of the plan.
+ * Group instances are flattened into the nodes of their group, so a plan only ever executes plain nodes.
+ * Parameter values are captured when the plan is compiled, and so are the {@link TypeAdapter adapters} of
+ * connections between ports of different types, so executing a plan never looks up a conversion.
+ * <p>
+ * Slots whose node and upstream nodes do not depend on time are marked static, so that a sequence of frames
+ * can compute them once with {@link #executeStatic(ParameterSet)} and only recompute the other slots per frame.
+ * Since a node can depend on time through its input values, such as an expression received on a wire, each
+ * execution checks static slots again with their bound inputs, and recomputes those found to depend on time.
+ * <p>
+ * The plan also knows how many inputs consume each value. During an execution, a value is dropped as soon as
+ * its last consumer has run, and handed to the {@link ValueRecycler} of the context when no other live value
+ * is the same object, so that only the true working set of the graph is kept alive.
+ */
+public final class ExecutionPlan {
+    static final int UNCONNECTED = -1;
+
+    private final NodeInstance[] nodes;
+    private final int[] outputBase;
+    private final int[][] sources;
+    private final TypeAdapter<Object, Object>[][] adapters;
+    private final Object[][] parameters;
+    private final boolean[] timeDependent;
+    /** Slot computing each value. */
+    private final int[] valueSlots;
+    private final int[] useCounts;
+    private final boolean[][] requested;
+    private final int[] outputValues;
+    private final NodeInstance[] outputNodes;
+    private final int[][] bindings;
+
+    private ExecutionPlan(NodeInstance[] nodes, int[] outputBase, int[][] sources,
+                          TypeAdapter<Object, Object>[][] adapters, Object[][] parameters,
+                          boolean[] timeDependent, int[] outputValues, NodeInstance[] outputNodes,
+                          int[][] bindings) {
+        this.nodes = nodes;
+        this.outputBase = outputBase;
+        this.sources = sources;
+        this.adapters = adapters;
+        this.parameters = parameters;
+        this.timeDependent = timeDependent;
+        this.outputValues = outputValues;
+        this.outputNodes = outputNodes;
+        this.bindings = bindings;
+
+        this.valueSlots = new int[outputBase[nodes.length]];
+        for (int slot = 0; slot < nodes.length; slot++) {
+            Arrays.fill(valueSlots, outputBase[slot], outputBase[slot + 1], slot);
+        }
+
+        // Liveness: a value stays alive until each of its consumers has run, plan outputs until they are released
+        this.useCounts = new int[outputBase[nodes.length]];
+        for (int slot = 0; slot < nodes.length; slot++) {
+            for (int source : sources[slot]) {
+                if (source != UNCONNECTED) {
+                    useCounts[source]++;
+                }
+            }
+        }
+        for (int value : outputValues) {
+            useCounts[value]++;
+        }
+
+        // Outputs nothing consumes are never computed
+        this.requested = new boolean[nodes.length][];
+        for (int slot = 0; slot < nodes.length; slot++) {
+            requested[slot] = new boolean[outputBase[slot + 1] - outputBase[slot]];
+            for (int output = 0; output < requested[slot].length; output++) {
+                requested[slot][output] = useCounts[outputBase[slot] + output] > 0;
+            }
+        }
+    }
+
+    /**
+     * Compile a node graph into an execution plan.
+     * Group instances are expanded into the nodes of their group, and instances of the same group fed by
+     * the same sources and parameters share one copy of the group's nodes.
+     * @param graph The graph to compile
+     * @return The compiled plan
+     * @throws IllegalStateException If the graph contains a cycle, or a group contains an instance of itself
+     * @throws IllegalArgumentException If a connection links ports whose types cannot be converted
+     */
+    public static ExecutionPlan compile(NodeGraph graph) {
+        return compile(GraphFlattener.flatten(graph, null));
+    }
+
+    /**
+     * Compile a node graph into a plan computing the given outputs.
+     * @param graph The graph to compile
+     * @param outputs The node outputs that are the outputs of the plan
+     * @return The compiled plan, whose outputs are in the order of the given ports
+     */
+    static ExecutionPlan compile(NodeGraph graph, List<Port> outputs) {
+        return compile(GraphFlattener.flatten(graph, outputs));
+    }
+
+    private static ExecutionPlan compile(GraphFlattener flat) {
+        int count = flat.instances.size();
+
+        // Count incoming edges
+        int[][] downstream = new int[count][];
+        int[] downstreamCounts = new int[count];
+        int[] incomingCounts = new int[count];
+        for (int i = 0; i < count; i++) {
+            downstream[i] = new int[2];
+        }
+        for (int target = 0; target < count; target++) {
+            for (int source : flat.sourceEntries.get(target)) {
+                if (source == UNCONNECTED) {
+                    continue;
+                }
+                if (downstreamCounts[source] == downstream[source].length) {
+                    downstream[source] = Arrays.copyOf(downstream[source], downstreamCounts[source] * 2);
+                }
+                downstream[source][downstreamCounts[source]++] = target;
+                incomingCounts[target]++;
+            }
+        }
+
+        // Kahn's topological sort
+        int[] order = new int[count];
+        int ordered = 0;
+        Deque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < count; i++) {
+            if (incomingCounts[i] == 0) {
+                ready.add(i);
+            }
+        }
+        while (!ready.isEmpty()) {
+            int index = ready.poll();
+            order[ordered++] = index;
+            for (int k = 0; k < downstreamCounts[index]; k++) {
+                int target = downstream[index][k];
+                if (--incomingCounts[target] == 0) {
+                    ready.add(target);
+                }
+            }
+        }
+        if (ordered < count) {
+            throw new IllegalStateException("The graph contains a cycle");
+        }
+
+        // Only the entries the outputs depend on are kept, which drops the unused parts of groups
+        boolean[] live = new boolean[count];
+        Deque<Integer> pending = new ArrayDeque<>();
+        for (int[] output : flat.outputs) {
+            pending.add(output[0]);
+        }
+        while (!pending.isEmpty()) {
+            int index = pending.poll();
+            if (!live[index]) {
+                live[index] = true;
+                for (int source : flat.sourceEntries.get(index)) {
+                    if (source != UNCONNECTED) {
+                        pending.add(source);
+                    }
+                }
+            }
+        }
+
+        // Copies of the same node with the same inputs are merged, in topological order so that their
+        // sources are merged first. Inputs exposed by a group may be overridden per instance, so they
+        // prevent merging unless a wire feeds them.
+        Map<NodeInstance, Integer> copies = new IdentityHashMap<>();
+        for (int index = 0; index < count; index++) {
+            copies.merge(flat.instances.get(index), 1, Integer::sum);
+        }
+        int[] canonical = new int[count];
+        Map<MergeKey, Integer> merged = new HashMap<>();
+        for (int k = 0; k < count; k++) {
+            int index = order[k];
+            canonical[index] = index;
+            if (!live[index] || copies.get(flat.instances.get(index)) < 2) {
+                continue;
+            }
+            int[] entrySources = flat.sourceEntries.get(index);
+            boolean[] exposed = flat.exposed.get(index);
+            long[] key = new long[entrySources.length];
+            boolean mergeable = true;
+            for (int i = 0; i < entrySources.length; i++) {
+                if (entrySources[i] == UNCONNECTED) {
+                    mergeable &= !exposed[i];
+                    key[i] = UNCONNECTED;
+                } else {
+                    key[i] = ((long) canonical[entrySources[i]] << 32) | flat.sourceOutputs.get(index)[i];
+                }
+            }
+            if (mergeable) {
+                canonical[index] = merged.computeIfAbsent(new MergeKey(flat.instances.get(index), key), mergeKey -> index);
+            }
+        }
+
+        // Lay out the slots in topological order, and the outputs of each slot after those of the previous one
+        int[] slotOf = new int[count];
+        int[] slotOrder = new int[count];
+        int slotCount = 0;
+        Arrays.fill(slotOf, UNCONNECTED);
+        for (int index : order) {
+            if (live[index] && canonical[index] == index) {
+                slotOf[index] = slotCount;
+                slotOrder[slotCount++] = index;
+            }
+        }
+        int[] outputBase = new int[slotCount + 1];
+        for (int slot = 0; slot < slotCount; slot++) {
+            outputBase[slot + 1] = outputBase[slot] + flat.instances.get(slotOrder[slot]).getNode().getOutputs().length;
+        }
+
+        NodeInstance[] nodes = new NodeInstance[slotCount];
+        int[][] sources = new int[slotCount][];
+        @SuppressWarnings("unchecked")
+        TypeAdapter<Object, Object>[][] adapters = (TypeAdapter<Object, Object>[][]) new TypeAdapter<?, ?>[slotCount][];
+        Object[][] parameters = new Object[slotCount][];
+        boolean[] timeDependent = new boolean[slotCount];
+        for (int slot = 0; slot < slotCount; slot++) {
+            int index = slotOrder[slot];
+            NodeInstance instance = flat.instances.get(index);
+            NodeInput<?>[] inputs = instance.getNode().getInputs();
+            int[] entrySources = flat.sourceEntries.get(index);
+
+            nodes[slot] = instance;
+            sources[slot] = new int[inputs.length];
+            adapters[slot] = newAdapters(inputs.length);
+            parameters[slot] = flat.parameters.get(index).clone();
+            timeDependent[slot] = instance.getNode().isTimeDependent();
+            for (int i = 0; i < inputs.length; i++) {
+                if (entrySources[i] == UNCONNECTED) {
+                    sources[slot][i] = UNCONNECTED;
+                    continue;
+                }
+
+                int sourceSlot = slotOf[canonical[entrySources[i]]];
+                int output = flat.sourceOutputs.get(index)[i];
+                sources[slot][i] = outputBase[sourceSlot] + output;
+
+                // Sources come earlier in the plan, so their flag is already known
+                if (timeDependent[sourceSlot]) {
+                    timeDependent[slot] = true;
+                }
+                NodeOutput sourceOutput = nodes[sourceSlot].getNode().getOutputs()[output];
+                adapters[slot][i] = TypeAdapters.getDefault().find(sourceOutput.type(), inputs[i].getType());
+            }
+        }
+
+        int[] outputValues = new int[flat.outputs.size()];
+        for (int i = 0; i < outputValues.length; i++) {
+            int[] output = flat.outputs.get(i);
+            outputValues[i] = outputBase[slotOf[canonical[output[0]]]] + output[1];
+        }
+
+        // Overrides of parameters that did not survive pruning and merging have nothing to apply to
+        int[][] bindings = new int[flat.bindings.size()][];
+        int bindingCount = 0;
+        for (int[] binding : flat.bindings) {
+            int slot = slotOf[canonical[binding[2]]];
+            if (slot != UNCONNECTED) {
+                bindings[bindingCount++] = new int[]{binding[0], binding[1], slot, binding[3]};
+            }
+        }
+
+        return new ExecutionPlan(nodes, outputBase, sources, adapters, parameters, timeDependent, outputValues,
+            flat.outputNodes.toArray(new NodeInstance[0]), Arrays.copyOf(bindings, bindingCount));
+    }
+
+    /**
+     * Create the reusable state needed to execute this plan on one thread.
+     * @return A new context using the parameter values captured at compile time
+     */
+    public ExecutionContext newContext() {
+        return new ExecutionContext(this, sources, parameters, outputBase);
+    }
+
+    /**
+     * Execute the plan with the parameter values captured at compile time.
+     * @return The output of each node without downstream connections, by node ID
+     */
+    public Map<Integer, Object> execute() {
+        return execute(new ParameterSet());
+    }
+
+    /**
+     * Execute the plan at time zero.
+     * @param overrides Parameter values replacing the ones captured at compile time
+     * @return The output of each node without downstream connections, by node ID
+     */
+    public Map<Integer, Object> execute(ParameterSet overrides) {
+        return execute(overrides, FrameTime.ZERO, null);
+    }
+
+    /**
+     * Execute the plan at a given time, with a temporary context.
+     * @param overrides Parameter values replacing the ones captured at compile time
+     * @param time The time at which nodes are evaluated
+     * @param staticResults Results of {@link #executeStatic(ParameterSet)} with the same overrides, to skip
+     *                      every static slot, or null to execute every slot
+     * @return The output of each node without downstream connections, by node ID
+     */
+    public Map<Integer, Object> execute(ParameterSet overrides, FrameTime time, Object[] staticResults) {
+        ExecutionContext context = newContext();
+        context.setParameters(overrides);
+        execute(context, time, staticResults);
+        return context.getOutputs();
+    }
+
+    /**
+     * Execute the plan in a reusable context.
+     * Outputs are read from the context afterwards, and stay valid until the next execution or until
+     * {@link ExecutionContext#releaseOutputs()} is called.
+     * @param context A context created by {@link #newContext()} for this plan
+     * @param time The time at which nodes are evaluated
+     * @param staticResults Results of {@link #executeStatic(ParameterSet)} with the same parameters, to skip
+     *                      every static slot, or null to execute every slot
+     */
+    public void execute(ExecutionContext context, FrameTime time, Object[] staticResults) {
+        if (context.plan != this) {
+            throw new IllegalArgumentException("The context belongs to another plan");
+        }
+        context.reset();
+
+        Object[] results = context.results;
+        int[] owners = context.owners;
+        int[] pendingUses = context.pendingUses;
+        int[] pendingOwnerUses = context.pendingOwnerUses;
+
+        for (int slot = 0; slot < nodes.length; slot++) {
+            int base = outputBase[slot];
+            int end = outputBase[slot + 1];
+            Object[] values = context.inputValues[slot];
+            bindInputs(slot, results, context.parameters[slot], values);
+            boolean dynamic = dependsOnTime(context, slot, values, time);
+            context.timeDependent[slot] = dynamic;
+            if (staticResults != null && !dynamic) {
+                // Static results belong to the caller, they are never released
+                for (int value = base; value < end; value++) {
+                    results[value] = staticResults[value];
+                    owners[value] = value;
+                    pendingUses[value] = Integer.MAX_VALUE;
+                    pendingOwnerUses[value] = Integer.MAX_VALUE;
+                }
+                if (context.diskCache != null) {
+                    // Downstream slots still need the keys of static outputs
+                    computeKey(context, slot, values, time);
+                }
+                Arrays.fill(values, null);
+                continue;
+            }
+
+            int[] inputSources = sources[slot];
+            TypeAdapter<Object, Object>[] slotAdapters = adapters[slot];
+            Object[] slotOutputs = context.outputValues[slot];
+            executeSlot(context, slot, values, time);
+
+            for (int value = base; value < end; value++) {
+                Object result = slotOutputs[value - base];
+                slotOutputs[value - base] = null;
+                if (!requested[slot][value - base]) {
+                    continue;
+                }
+                results[value] = result;
+                pendingUses[value] = useCounts[value];
+
+                // An output returning one of the inputs, or the same object as another output, shares its owner
+                int owner = value;
+                for (int i = 0; i < inputSources.length && result != null; i++) {
+                    if (inputSources[i] != UNCONNECTED && slotAdapters[i] == null && values[i] == result) {
+                        owner = owners[inputSources[i]];
+                        break;
+                    }
+                }
+                for (int other = base; other < value && owner == value && result != null; other++) {
+                    if (results[other] == result) {
+                        owner = owners[other];
+                    }
+                }
+                owners[value] = owner;
+                if (owner == value) {
+                    context.ownedValues[value] = result;
+                    pendingOwnerUses[value] = useCounts[value];
+                } else if (pendingOwnerUses[owner] != Integer.MAX_VALUE) {
+                    pendingOwnerUses[owner] += useCounts[value];
+                }
+            }
+
+            // Release the inputs whose last consumer was this slot
+            for (int i = 0; i < inputSources.length; i++) {
+                int source = inputSources[i];
+                values[i] = null;
+                if (source != UNCONNECTED && pendingUses[source] != Integer.MAX_VALUE) {
+                    if (--pendingUses[source] == 0) {
+                        results[source] = null;
+                    }
+                    if (pendingOwnerUses[owners[source]] != Integer.MAX_VALUE) {
+                        context.release(owners[source]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Execute only the slots that do not depend on time.
+     * @param overrides Parameter values replacing the ones captured at compile time
+     * @return The results of every value, null for the outputs of time-dependent slots and unused outputs
+     */
+    public Object[] executeStatic(ParameterSet overrides) {
+        return executeStatic(overrides, null);
+    }
+
+    /**
+     * Execute only the slots that do not depend on time, reading and writing their outputs in a disk cache.
+     * @param overrides Parameter values replacing the ones captured at compile time
+     * @param diskCache The persistent cache of outputs, or null to always execute nodes
+     * @return The results of every value, null for the outputs of time-dependent slots and unused outputs
+     */
+    public Object[] executeStatic(ParameterSet overrides, DiskCache diskCache) {
+        ExecutionContext context = newContext();
+        context.setParameters(overrides);
+        context.setDiskCache(diskCache);
+
+        Object[] results = new Object[outputBase[nodes.length]];
+        for (int slot = 0; slot < nodes.length; slot++) {
+            if (!timeDependent[slot]) {
+                Object[] slotOutputs = context.outputValues[slot];
+                bindInputs(slot, results, context.parameters[slot], context.inputValues[slot]);
+                executeSlot(context, slot, context.inputValues[slot], FrameTime.ZERO);
+                Arrays.fill(context.inputValues[slot], null);
+                for (int output = 0; output < slotOutputs.length; output++) {
+                    if (requested[slot][output]) {
+                        results[outputBase[slot] + output] = slotOutputs[output];
+                    }
+                    slotOutputs[output] = null;
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Check whether a slot depends on time: when marked so at compile time, when a source did during this
+     * execution, or when its node does with its bound input values.
+     */
+    private boolean dependsOnTime(ExecutionContext context, int slot, Object[] values, FrameTime time) {
+        if (timeDependent[slot]) {
+            return true;
+        }
+        for (int source : sources[slot]) {
+            if (source != UNCONNECTED && context.timeDependent[valueSlots[source]]) {
+                return true;
+            }
+        }
+        return nodes[slot].getNode().isTimeDependent(values, time);
+    }
+
+    /**
+     * Compute the requested outputs of a slot from its bound input values into the output scratch of the
+     * context, through the disk cache of the context when it has one.
+     */
+    private void executeSlot(ExecutionContext context, int slot, Object[] values, FrameTime time) {
+        if (context.diskCache == null) {
+            NodeExecution.execute(nodes[slot], values, time, requested[slot], context.outputValues[slot]);
+        } else {
+            NodeExecution.execute(nodes[slot], values, time, requested[slot], context.outputValues[slot],
+                context.diskCache, computeKey(context, slot, values, time));
+        }
+    }
+
+    /**
+     * Compute the disk cache key of a slot from its parameters and the keys of its sources, and record the
+     * key of each of its outputs in the context.
+     * @return The key of the slot, or null if its outputs cannot be cached
+     */
+    private String computeKey(ExecutionContext context, int slot, Object[] values, FrameTime time) {
+        int[] inputSources = sources[slot];
+        String[] sourceKeys = new String[inputSources.length];
+        String key = null;
+        boolean cacheable = true;
+        for (int i = 0; i < inputSources.length && cacheable; i++) {
+            if (inputSources[i] != UNCONNECTED) {
+                sourceKeys[i] = context.valueKeys[inputSources[i]];
+                cacheable = sourceKeys[i] != null;
+            }
+        }
+        if (cacheable) {
+            key = context.diskCache.keyOf(nodes[slot].getNode(), values, sourceKeys, time);
+        }
+        for (int value = outputBase[slot]; value < outputBase[slot + 1]; value++) {
+            context.valueKeys[value] = key != null ? DiskCache.outputKey(key, value - outputBase[slot]) : null;
+        }
+        return key;
+    }
+
+    /**
+     * Fill the input values of a slot from the values of its sources, converted by the bound adapters,
+     * or from its parameters.
+     */
+    private void bindInputs(int slot, Object[] results, Object[] slotParameters, Object[] values) {
+        int[] inputSources = sources[slot];
+        TypeAdapter<Object, Object>[] slotAdapters = adapters[slot];
+        for (int i = 0; i < inputSources.length; i++) {
+            if (inputSources[i] == UNCONNECTED) {
+                values[i] = slotParameters[i];
+            } else {
+                Object value = results[inputSources[i]];
+                values[i] = slotAdapters[i] == null || value == null ? value : slotAdapters[i].adapt(value);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static TypeAdapter<Object, Object>[] newAdapters(int length) {
+        return (TypeAdapter<Object, Object>[]) new TypeAdapter<?, ?>[length];
+    }
+
+    NodeInstance getOutputNode(int index) {
+        return outputNodes[index];
+    }
+
+    /**
+     * Retrieve the index of the value holding each output of the plan.
+     */
+    int[] getOutputValues() {
+        return outputValues;
+    }
+
+    /**
+     * Fill per-slot parameter arrays with the values captured at compile time and the given overrides.
+     * Overrides apply to top-level nodes, and to the inputs exposed by top-level group instances.
+     */
+    void resolveParameters(ParameterSet overrides, Object[][] target) {
+        for (int slot = 0; slot < nodes.length; slot++) {
+            System.arraycopy(parameters[slot], 0, target[slot], 0, parameters[slot].length);
+        }
+        if (!overrides.isEmpty()) {
+            for (int[] binding : bindings) {
+                if (overrides.contains(binding[0], binding[1])) {
+                    target[binding[2]][binding[3]] = overrides.get(binding[0], binding[1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Retrieve the nodes whose outputs are the outputs of this plan.
+     * @return The output node instances, in the order of the outputs
+     */
+    public NodeInstance[] getOutputNodes() {
+        return outputNodes.clone();
+    }
+
+    /**
+     * Retrieve the number of nodes in this plan.
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * Identity of a copy of a node: the node instance and the canonical source of each input.
+     */
+    private record MergeKey(NodeInstance instance, long[] sources) {
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof MergeKey key && key.instance == instance && Arrays.equals(key.sources, sources);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(instance) * 31 + Arrays.hashCode(sources);
+        }
+    }
+}
@@ -0,0 +1,601 @@
+package violyte.nodes.eval;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import violyte.image.MemoryGovernor;
+import violyte.nodes.model.FrameTime;
+import violyte.nodes.model.GroupNode;
+import violyte.nodes.model.Node;
+import violyte.nodes.model.NodeGraph;
+import violyte.nodes.model.NodeGraph.Connection;
+import violyte.nodes.model.NodeGraph.EventType;
+import violyte.nodes.model.NodeGraph.NodeGraphListener;
+import violyte.nodes.model.NodeGraph.NodeInstance;
+import violyte.nodes.model.NodeGroup;
+import violyte.nodes.model.NodeGroup.Port;
+import violyte.nodes.model.NodeInput;
+import violyte.nodes.model.NodeOutput;
+import violyte.nodes.model.TypeAdapter;
+import violyte.nodes.model.TypeAdapters;
+import violyte.nodes.monitoring.CacheEvictionEvent;
+
+/**
+ * Evaluates the nodes of a graph.
+ * The outputs of each node are cached until the node, one of its connections or one of its upstream nodes changes.
+ * A node only computes the outputs that are connected to another node, plus the one being evaluated.
+ * <p>
+ * Group instances are evaluated with a plan compiled from their group, and the last results of each group are
+ * kept by input values, so instances of a group fed with the same values compute it once.
+ * <p>
+ * Cached outputs count towards the budget of the default {@link MemoryGovernor}. When it asks for memory, the
+ * least recently used outputs are discarded at the end of the next evaluation, since an evaluator is only used
+ * by one thread. Their downstream outputs stay cached, and are still discarded when they change upstream.
+ */
+public class GraphEvaluator {
+    private static final String CACHE_NAME = "evaluator";
+    private static final Input[] NO_INPUTS = new Input[0];
+    private static final Object NOT_COMPUTED = new Object();
+    private static final int GROUP_CACHE_SIZE = 8;
+
+    private final NodeGraph graph;
+    private final Map<Integer, Object[]> outputs;
+    /**
+     * Sources of each node computed since it last changed, kept when its outputs are discarded for memory, so that
+     * a change still reaches the outputs computed from them.
+     */
+    private final Map<Integer, int[]> dependencies;
+    /** Nodes found to depend on time with their input values, kept like {@link #dependencies}. */
+    private final Set<Integer> timeDependent;
+    private final Map<NodeGroup, GroupState> groups;
+    private final Set<NodeGroup> watchedGroups;
+    private final Map<Integer, String> keys;
+    private final MemoryGovernor.Consumer memoryConsumer = new MemoryConsumer();
+    /** Memory of the cached outputs, read by the governor from other threads. */
+    private volatile long bytesCached;
+    /** Memory the governor asked for, released at the end of the next evaluation. */
+    private final AtomicLong releaseRequested = new AtomicLong();
+    private DiskCache diskCache;
+    private FrameTime time;
+
+    public GraphEvaluator(NodeGraph graph) {
+        this.graph = graph;
+        // In access order, least recently used first
+        this.outputs = new LinkedHashMap<>(16, 0.75f, true);
+        this.dependencies = new HashMap<>();
+        this.timeDependent = new HashSet<>();
+        this.groups = new IdentityHashMap<>();
+        this.watchedGroups = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.keys = new HashMap<>();
+        this.time = FrameTime.ZERO;
+
+        graph.addListener(new InvalidationListener(),
+            EnumSet.of(EventType.NODE_REMOVED, EventType.CONNECTION_ADDED, EventType.CONNECTION_REMOVED,
+                EventType.PARAMETER_CHANGED));
+        MemoryGovernor.getDefault().register(memoryConsumer);
+    }
+
+    /**
+     * Evaluate the first output of a node, evaluating its upstream nodes first when their outputs are not cached.
+     * @param instance The node instance to evaluate
+     * @return The first output produced by the node
+     * @throws IllegalStateException If the node is part of a cycle
+     */
+    public Object evaluate(NodeInstance instance) {
+        return evaluate(instance, 0);
+    }
+
+    /**
+     * Evaluate an output of a node, evaluating its upstream nodes first when their outputs are not cached.
+     * @param instance The node instance to evaluate
+     * @param output The index of the output to evaluate
+     * @return The output produced by the node
+     * @throws IllegalArgumentException If the node has no such output
+     * @throws IllegalStateException If the node is part of a cycle
+     */
+    public Object evaluate(NodeInstance instance, int output) {
+        if (output < 0 || output >= instance.getNode().getOutputs().length) {
+            throw new IllegalArgumentException(instance.getNode() + " has no output " + output);
+        }
+        if (isCached(instance.getId(), output)) {
+            return outputs.get(instance.getId())[output];
+        }
+
+        Map<Integer, Input[]> incoming = new HashMap<>();
+        Set<Long> connectedOutputs = new HashSet<>();
+        indexConnections(incoming, connectedOutputs);
+        Set<Integer> inProgress = new HashSet<>();
+        Deque<int[]> stack = new ArrayDeque<>();
+        stack.push(new int[]{instance.getId(), 0, output});
+
+        // Iterative post-order traversal, so that deep graphs cannot overflow the stack
+        while (!stack.isEmpty()) {
+            int[] entry = stack.pop();
+            int nodeId = entry[0];
+            if (isCached(nodeId, entry[2])) {
+                continue;
+            }
+
+            Input[] inputs = incoming.getOrDefault(nodeId, NO_INPUTS);
+            if (entry[1] == 0) {
+                if (!inProgress.add(nodeId)) {
+                    throw new IllegalStateException("Node " + nodeId + " is part of a cycle");
+                }
+                stack.push(new int[]{nodeId, 1, entry[2]});
+                for (Input input : inputs) {
+                    Connection connection = input != null ? input.connection() : null;
+                    if (connection != null && !isCached(connection.getSourceNode(), connection.getSourceOutput())) {
+                        stack.push(new int[]{connection.getSourceNode(), 0, connection.getSourceOutput()});
+                    }
+                }
+            } else {
+                inProgress.remove(nodeId);
+                execute(graph.getNodeById(nodeId), inputs, entry[2], connectedOutputs);
+            }
+        }
+
+        Object result = outputs.get(instance.getId())[output];
+        MemoryGovernor.getDefault().check();
+        releaseRequestedMemory();
+        return result;
+    }
+
+    /**
+     * Evaluate every node that has no downstream connection.
+     * @return The output of each evaluated node, by node ID
+     */
+    public Map<Integer, Object> evaluateOutputs() {
+        Set<Integer> sources = new HashSet<>();
+        for (Connection connection : graph.getConnections()) {
+            sources.add(connection.getSourceNode());
+        }
+
+        Map<Integer, Object> results = new HashMap<>();
+        for (NodeInstance instance : graph.getNodes()) {
+            if (!sources.contains(instance.getId())) {
+                results.put(instance.getId(), evaluate(instance));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Discard the cached output of a node and of every node downstream of it.
+     * Call this after changing a parameter value of the node.
+     * @param nodeId The ID of the node that changed
+     */
+    public void invalidate(int nodeId) {
+        invalidate(nodeId, "invalidated");
+    }
+
+    /**
+     * Set the persistent cache outputs are read from and written to, so that expensive outputs survive
+     * restarts and are shared with the command line renderer.
+     * @param diskCache The cache, or null to always execute nodes
+     */
+    public void setDiskCache(DiskCache diskCache) {
+        this.diskCache = diskCache;
+        groups.clear();
+        keys.clear();
+    }
+
+    public NodeGraph getGraph() {
+        return graph;
+    }
+
+    public FrameTime getTime() {
+        return time;
+    }
+
+    /**
+     * Set the time at which nodes are evaluated.
+     * Only the outputs of time-dependent nodes, and of the nodes downstream of them, are discarded.
+     * @param time The new evaluation time
+     */
+    public void setTime(FrameTime time) {
+        if (time.equals(this.time)) {
+            return;
+        }
+        this.time = time;
+
+        // Not only the cached nodes, since a node discarded for memory can have cached consumers
+        for (int nodeId : new ArrayList<>(timeDependent)) {
+            invalidate(nodeId, "time changed");
+        }
+    }
+
+    /**
+     * Discard every cached output.
+     */
+    public void clear() {
+        for (int nodeId : new ArrayList<>(outputs.keySet())) {
+            evict(nodeId, "cleared");
+        }
+        dependencies.clear();
+        timeDependent.clear();
+        groups.clear();
+    }
+
+    private void invalidate(int nodeId, String reason) {
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(nodeId);
+
+        while (!pending.isEmpty()) {
+            int changedId = pending.pop();
+            if (outputs.containsKey(changedId)) {
+                evict(changedId, reason);
+            }
+            dependencies.remove(changedId);
+            timeDependent.remove(changedId);
+
+            // Find cached nodes that consumed the output of the changed node
+            for (Map.Entry<Integer, int[]> entry : new ArrayList<>(dependencies.entrySet())) {
+                for (int upstreamId : entry.getValue()) {
+                    if (upstreamId == changedId) {
+                        pending.push(entry.getKey());
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isCached(int nodeId, int output) {
+        Object[] values = outputs.get(nodeId);
+        return values != null && values[output] != NOT_COMPUTED;
+    }
+
+    /**
+     * Execute a node, computing the given output and every output connected to another node.
+     */
+    private void execute(NodeInstance instance, Input[] incoming, int output, Set<Long> connectedOutputs) {
+        Node<?> node = instance.getNode();
+        NodeInput<?>[] inputs = node.getInputs();
+        Object[] values = new Object[inputs.length];
+        String[] sourceKeys = new String[inputs.length];
+        boolean cacheable = diskCache != null && !(node instanceof GroupNode);
+        List<Integer> upstreamIds = new ArrayList<>();
+
+        for (int i = 0; i < inputs.length; i++) {
+            Input input = i < incoming.length ? incoming[i] : null;
+            if (input != null) {
+                Connection connection = input.connection();
+                String sourceKey = keys.get(connection.getSourceNode());
+                sourceKeys[i] = sourceKey != null ? DiskCache.outputKey(sourceKey, connection.getSourceOutput()) : null;
+                cacheable &= sourceKey != null;
+                Object value = outputs.get(connection.getSourceNode())[connection.getSourceOutput()];
+                TypeAdapter<Object, Object> adapter = input.adapter();
+                values[i] = adapter == null || value == null ? value : adapter.adapt(value);
+                upstreamIds.add(connection.getSourceNode());
+            } else {
+                values[i] = inputs[i].getParameterValue();
+            }
+        }
+
+        int outputCount = node.getOutputs().length;
+        boolean[] requested = new boolean[outputCount];
+        Object[] results = new Object[outputCount];
+        for (int i = 0; i < outputCount; i++) {
+            requested[i] = i == output || connectedOutputs.contains(outputKey(instance.getId(), i));
+        }
+        boolean dependsOnTime;
+        if (node instanceof GroupNode groupNode) {
+            GroupState state = groupState(groupNode.getGroup());
+            Object[] groupResults = state.evaluate(values);
+            System.arraycopy(groupResults, 0, results, 0, outputCount);
+            dependsOnTime = state.isTimeDependent();
+        } else {
+            dependsOnTime = node.isTimeDependent(values, time);
+            String key = cacheable ? diskCache.keyOf(node, values, sourceKeys, time) : null;
+            NodeExecution.execute(instance, values, time, requested, results, diskCache, key);
+            if (key != null) {
+                keys.put(instance.getId(), key);
+            }
+        }
+        for (int i = 0; i < outputCount; i++) {
+            if (!requested[i]) {
+                results[i] = NOT_COMPUTED;
+            }
+        }
+
+        Object[] previous = outputs.put(instance.getId(), results);
+        bytesCached += sizeOf(results) - (previous != null ? sizeOf(previous) : 0);
+        dependencies.put(instance.getId(), upstreamIds.stream().mapToInt(Integer::intValue).toArray());
+        if (dependsOnTime) {
+            timeDependent.add(instance.getId());
+        } else {
+            timeDependent.remove(instance.getId());
+        }
+    }
+
+    private GroupState groupState(NodeGroup group) {
+        GroupState state = groups.get(group);
+        if (state == null) {
+            watch(group);
+            state = new GroupState(group);
+            groups.put(group, state);
+        }
+        return state;
+    }
+
+    /**
+     * Listen to the graph of a group and of the groups nested in it, so that editing a group discards
+     * the results of its instances.
+     */
+    private void watch(NodeGroup group) {
+        if (!watchedGroups.add(group)) {
+            return;
+        }
+        group.getGraph().addListener(new GroupListener(), EnumSet.complementOf(EnumSet.of(EventType.NODE_MOVED)));
+        for (NodeInstance instance : group.getGraph().getNodes()) {
+            if (instance.getNode() instanceof GroupNode nested) {
+                watch(nested.getGroup());
+            }
+        }
+    }
+
+    private void evict(int nodeId, String reason) {
+        Object[] values = outputs.remove(nodeId);
+        keys.remove(nodeId);
+
+        long size = sizeOf(values);
+        bytesCached -= size;
+
+        CacheEvictionEvent event = new CacheEvictionEvent();
+        if (event.shouldCommit()) {
+            event.cache = CACHE_NAME;
+            event.nodeId = nodeId;
+            event.reason = reason;
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    /**
+     * Discard least recently used outputs until the memory asked for by the governor is released.
+     */
+    private void releaseRequestedMemory() {
+        long requested = releaseRequested.getAndSet(0);
+        if (requested <= 0) {
+            return;
+        }
+        long target = bytesCached - requested;
+        for (int nodeId : new ArrayList<>(outputs.keySet())) {
+            if (bytesCached <= target) {
+                break;
+            }
+            evict(nodeId, "memory pressure");
+        }
+    }
+
+    private static long sizeOf(Object[] values) {
+        long size = 0;
+        for (Object value : values) {
+            size += value != NOT_COMPUTED ? NodeExecution.estimateSize(value) : 0;
+        }
+        return size;
+    }
+
+    private static long outputKey(int nodeId, int output) {
+        return ((long) nodeId << 32) | (output & 0xffffffffL);
+    }
+
+    /**
+     * Index the connections of the graph by target node, each array being indexed by target input,
+     * and collect the outputs connected to another node. The adapter of each connection is bound here,
+     * so that executing a node does not look up conversions.
+     */
+    private void indexConnections(Map<Integer, Input[]> incoming, Set<Long> connectedOutputs) {
+        for (Connection connection : graph.getConnections()) {
+            connectedOutputs.add(outputKey(connection.getSourceNode(), connection.getSourceOutput()));
+            Input[] inputs = incoming.get(connection.getTargetNode());
+            int index = connection.getTargetInput();
+            if (inputs == null || inputs.length <= index) {
+                Input[] grown = new Input[index + 1];
+                if (inputs != null) {
+                    System.arraycopy(inputs, 0, grown, 0, inputs.length);
+                }
+                inputs = grown;
+                incoming.put(connection.getTargetNode(), inputs);
+            }
+            NodeOutput source = graph.getNodeById(connection.getSourceNode()).getNode()
+                .getOutputs()[connection.getSourceOutput()];
+            NodeInput<?> target = graph.getNodeById(connection.getTargetNode()).getNode().getInputs()[index];
+            inputs[index] = new Input(connection, TypeAdapters.getDefault().find(source.type(), target.getType()));
+        }
+    }
+
+    /**
+     * Connection feeding an input, with the conversion of its values, null if they flow unchanged.
+     */
+    private record Input(Connection connection, TypeAdapter<Object, Object> adapter) {
+    }
+
+    /**
+     * Listener that discards cached outputs affected by graph changes.
+     * A new node has no downstream connection yet, and positions do not affect outputs, so it does not
+     * subscribe to added and moved nodes.
+     */
+    private class InvalidationListener implements NodeGraphListener {
+        @Override
+        public void onNodeRemoved(NodeInstance instance) {
+            invalidate(instance.getId(), "node removed");
+        }
+
+        @Override
+        public void onConnectionAdded(Connection connection) {
+            invalidate(connection.getTargetNode(), "connection added");
+        }
+
+        @Override
+        public void onConnectionRemoved(Connection connection) {
+            invalidate(connection.getTargetNode(), "connection removed");
+        }
+
+        @Override
+        public void onParameterChanged(NodeInstance instance) {
+            invalidate(instance.getId(), "parameter changed");
+        }
+    }
+
+    /**
+     * Listener discarding the results of every group instance when a group is edited, since groups may be
+     * nested in each other.
+     */
+    private class GroupListener implements NodeGraphListener {
+        @Override
+        public void onNodeAdded(NodeInstance instance) {
+            if (instance.getNode() instanceof GroupNode nested) {
+                watch(nested.getGroup());
+            }
+            groupChanged();
+        }
+
+        @Override
+        public void onNodeRemoved(NodeInstance instance) {
+            groupChanged();
+        }
+
+        @Override
+        public void onSubgraphAdded(List<NodeInstance> nodes, List<Connection> connections) {
+            for (NodeInstance instance : nodes) {
+                if (instance.getNode() instanceof GroupNode nested) {
+                    watch(nested.getGroup());
+                }
+            }
+            groupChanged();
+        }
+
+        @Override
+        public void onConnectionAdded(Connection connection) {
+            groupChanged();
+        }
+
+        @Override
+        public void onConnectionRemoved(Connection connection) {
+            groupChanged();
+        }
+
+        @Override
+        public void onParameterChanged(NodeInstance instance) {
+            groupChanged();
+        }
+
+        private void groupChanged() {
+            groups.clear();
+            for (NodeInstance instance : graph.getNodes()) {
+                if (instance.getNode() instanceof GroupNode) {
+                    invalidate(instance.getId(), "group changed");
+                }
+            }
+        }
+    }
+
+    /**
+     * Cached outputs as seen by a memory governor, which can have them computed again.
+     */
+    private final class MemoryConsumer implements MemoryGovernor.Consumer {
+        @Override
+        public String getName() {
+            return "node outputs";
+        }
+
+        @Override
+        public int getPriority() {
+            return MemoryGovernor.PRIORITY_COMPUTED;
+        }
+
+        @Override
+        public long getUsage() {
+            return bytesCached;
+        }
+
+        /**
+         * Schedule the release, since outputs can only be discarded by the thread evaluating the graph.
+         * @return 0, as nothing is released before the next evaluation
+         */
+        @Override
+        public long release(long bytes) {
+            long scheduled = Math.min(bytes, bytesCached - releaseRequested.get());
+            if (scheduled > 0) {
+                releaseRequested.addAndGet(scheduled);
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Compiled plan of a group, with its last results by input values.
+     */
+    private final class GroupState {
+        private final NodeGroup group;
+        private final ExecutionPlan plan;
+        private final LinkedHashMap<List<Object>, Object[]> results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Object[]> eldest) {
+                return size() > GROUP_CACHE_SIZE;
+            }
+        };
+
+        /** Whether the outputs depend on time, learned from the executions when the inner nodes are not enough. */
+        private boolean timeDependent;
+
+        GroupState(NodeGroup group) {
+            this.group = group;
+            this.plan = ExecutionPlan.compile(group.getGraph(), group.getOutputs());
+            this.timeDependent = group.isTimeDependent();
+        }
+
+        boolean isTimeDependent() {
+            return timeDependent;
+        }
+
+        /**
+         * Retrieve the outputs of the group for the given input values, executing its plan unless an
+         * instance already did with the same values.
+         */
+        Object[] evaluate(Object[] values) {
+            List<Object> key = new ArrayList<>(Arrays.asList(values));
+            if (timeDependent) {
+                key.add(time);
+            }
+            Object[] cached = results.get(key);
+            if (cached != null) {
+                return cached;
+            }
+
+            ParameterSet parameters = new ParameterSet();
+            List<Port> inputs = group.getInputs();
+            for (int k = 0; k < inputs.size(); k++) {
+                parameters.set(inputs.get(k).nodeId(), inputs.get(k).index(), values[k]);
+            }
+            ExecutionContext context = plan.newContext();
+            context.setParameters(parameters);
+            context.setDiskCache(diskCache);
+            plan.execute(context, time, null);
+            if (!timeDependent && context.isTimeDependent()) {
+                timeDependent = true;
+                key.add(time);
+            }
+
+            Object[] groupOutputs = new Object[context.getOutputCount()];
+            for (int i = 0; i < groupOutputs.length; i++) {
+                groupOutputs[i] = context.getOutput(i);
+            }
+            results.put(key, groupOutputs);
+            return groupOutputs;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package violyte.nodes.eval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import violyte.nodes.model.GroupNode;
+import violyte.nodes.model.Node;
+import violyte.nodes.model.NodeGraph;
+import violyte.nodes.model.NodeGraph.Connection;
+import violyte.nodes.model.NodeGraph.NodeInstance;
+import violyte.nodes.model.NodeGraph.Snapshot;
+import violyte.nodes.model.NodeGroup;
+import violyte.nodes.model.NodeGroup.Port;
+import violyte.nodes.model.NodeInput;
+
+/**
+ * Expansion of a graph and of the groups it instantiates into a flat list of entries, one per inner node
+ * instance, before an {@link ExecutionPlan} is compiled from them.
+ * The inner nodes of a group appear once per instance of the group, with the parameter values and the
+ * sources of that instance, so that the plan sees through group boundaries.
+ * Each graph is read from a single {@link Snapshot}, so a graph edited meanwhile is flattened consistently.
+ */
+final class GraphFlattener {
+    final List<NodeInstance> instances = new ArrayList<>();
+    final List<Object[]> parameters = new ArrayList<>();
+    final List<int[]> sourceEntries = new ArrayList<>();
+    final List<int[]> sourceOutputs = new ArrayList<>();
+    final List<boolean[]> exposed = new ArrayList<>();
+    final List<int[]> bindings = new ArrayList<>();
+    final List<int[]> outputs = new ArrayList<>();
+    final List<NodeInstance> outputNodes = new ArrayList<>();
+
+    private GraphFlattener() {
+    }
+
+    /**
+     * Flatten a graph.
+     * @param graph The graph to flatten
+     * @param outputPorts The node outputs that are the outputs of the plan, or null for the first output of
+     *                    every node without downstream connection
+     * @return The flattened graph
+     * @throws IllegalStateException If a group contains an instance of itself
+     * @throws IllegalArgumentException If a connection refers to a missing output
+     */
+    static GraphFlattener flatten(NodeGraph graph, List<Port> outputPorts) {
+        GraphFlattener flat = new GraphFlattener();
+        Snapshot snapshot = graph.snapshot();
+        Map<Integer, Ports> ports = flat.add(snapshot, true, new HashSet<>());
+
+        if (outputPorts == null) {
+            Set<Integer> upstream = new HashSet<>();
+            for (Connection connection : snapshot.getConnections()) {
+                upstream.add(connection.getSourceNode());
+            }
+            for (NodeInstance instance : snapshot.getNodes()) {
+                Ports nodePorts = ports.get(instance.getId());
+                if (!upstream.contains(instance.getId()) && nodePorts.outputEntries.length > 0) {
+                    flat.outputs.add(new int[]{nodePorts.outputEntries[0], nodePorts.outputIndices[0]});
+                    flat.outputNodes.add(instance);
+                }
+            }
+        } else {
+            for (Port port : outputPorts) {
+                Ports nodePorts = ports.get(port.nodeId());
+                flat.outputs.add(new int[]{nodePorts.outputEntries[port.index()], nodePorts.outputIndices[port.index()]});
+                flat.outputNodes.add(snapshot.getNodeById(port.nodeId()));
+            }
+        }
+        return flat;
+    }
+
+    /**
+     * Add the nodes of a graph as entries, expanding group instances recursively.
+     * Parameters of top-level nodes, and of the inputs exposed by top-level groups, are recorded as bindings
+     * so that they can be overridden when the plan is executed.
+     * @return The ports of each node of the graph, by node ID
+     */
+    private Map<Integer, Ports> add(Snapshot graph, boolean topLevel, Set<NodeGroup> expanding) {
+        Map<Integer, Ports> ports = new HashMap<>();
+        for (NodeInstance instance : graph.getNodes()) {
+            Node<?> node = instance.getNode();
+            NodeInput<?>[] inputs = node.getInputs();
+            if (node instanceof GroupNode groupNode) {
+                ports.put(instance.getId(), addGroup(instance, groupNode, inputs, topLevel, expanding));
+                continue;
+            }
+
+            int entry = instances.size();
+            int outputCount = node.getOutputs().length;
+            Object[] values = new Object[inputs.length];
+            int[] entrySources = new int[inputs.length];
+            Arrays.fill(entrySources, ExecutionPlan.UNCONNECTED);
+            for (int i = 0; i < inputs.length; i++) {
+                values[i] = inputs[i].getParameterValue();
+                if (topLevel) {
+                    bindings.add(new int[]{instance.getId(), i, entry, i});
+                }
+            }
+            instances.add(instance);
+            parameters.add(values);
+            sourceEntries.add(entrySources);
+            sourceOutputs.add(new int[inputs.length]);
+            exposed.add(new boolean[inputs.length]);
+
+            Ports nodePorts = new Ports(inputs.length, outputCount);
+            Arrays.fill(nodePorts.inputEntries, entry);
+            Arrays.fill(nodePorts.outputEntries, entry);
+            for (int i = 0; i < inputs.length; i++) {
+                nodePorts.inputIndices[i] = i;
+            }
+            for (int o = 0; o < outputCount; o++) {
+                nodePorts.outputIndices[o] = o;
+            }
+            ports.put(instance.getId(), nodePorts);
+        }
+
+        for (Connection connection : graph.getConnections()) {
+            Ports source = ports.get(connection.getSourceNode());
+            Ports target = ports.get(connection.getTargetNode());
+            int input = connection.getTargetInput();
+            int output = connection.getSourceOutput();
+            if (input >= target.inputEntries.length) {
+                continue;
+            }
+            if (output < 0 || output >= source.outputEntries.length) {
+                throw new IllegalArgumentException("Node " + connection.getSourceNode() + " has no output " + output);
+            }
+            int entry = target.inputEntries[input];
+            int index = target.inputIndices[input];
+            sourceEntries.get(entry)[index] = source.outputEntries[output];
+            sourceOutputs.get(entry)[index] = source.outputIndices[output];
+            exposed.get(entry)[index] = false;
+        }
+        return ports;
+    }
+
+    private Ports addGroup(NodeInstance instance, GroupNode groupNode, NodeInput<?>[] inputs, boolean topLevel,
+                           Set<NodeGroup> expanding) {
+        NodeGroup group = groupNode.getGroup();
+        if (!expanding.add(group)) {
+            throw new IllegalStateException("Group " + group.getLabel() + " contains an instance of itself");
+        }
+        Map<Integer, Ports> inner = add(group.getGraph().snapshot(), false, expanding);
+        expanding.remove(group);
+
+        List<Port> inputPorts = group.getInputs();
+        List<Port> outputPorts = group.getOutputs();
+        Ports groupPorts = new Ports(inputPorts.size(), outputPorts.size());
+        for (int k = 0; k < inputPorts.size(); k++) {
+            Port port = inputPorts.get(k);
+            Ports innerPorts = inner.get(port.nodeId());
+            int entry = innerPorts.inputEntries[port.index()];
+            int index = innerPorts.inputIndices[port.index()];
+            groupPorts.inputEntries[k] = entry;
+            groupPorts.inputIndices[k] = index;
+
+            // The instance's parameter replaces the one of the inner node, unless a wire feeds the group input
+            parameters.get(entry)[index] = inputs[k].getParameterValue();
+            exposed.get(entry)[index] = true;
+            if (topLevel) {
+                bindings.add(new int[]{instance.getId(), k, entry, index});
+            }
+        }
+        for (int m = 0; m < outputPorts.size(); m++) {
+            Port port = outputPorts.get(m);
+            Ports innerPorts = inner.get(port.nodeId());
+            groupPorts.outputEntries[m] = innerPorts.outputEntries[port.index()];
+            groupPorts.outputIndices[m] = innerPorts.outputIndices[port.index()];
+        }
+        return groupPorts;
+    }
+
+    /**
+     * Entry and index behind each input and output of a node once flattened.
+     */
+    private static final class Ports {
+        final int[] inputEntries;
+        final int[] inputIndices;
+        final int[] outputEntries;
+        final int[] outputIndices;
+
+        Ports(int inputCount, int outputCount) {
+            this.inputEntries = new int[inputCount];
+            this.inputIndices = new int[inputCount];
+            this.outputEntries = new int[outputCount];
+            this.outputIndices = new int[outputCount];
+        }
+    }
+}
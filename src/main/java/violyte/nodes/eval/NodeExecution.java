@@ -0,0 +1,91 @@
+package violyte.nodes.eval;
+
+import violyte.image.ImageBuffer;
+import violyte.nodes.model.FrameTime;
+import violyte.nodes.model.Node;
+import violyte.nodes.model.NodeGraph.NodeInstance;
+import violyte.nodes.monitoring.NodeEvaluationEvent;
+
+/**
+ * Execution of a single node, shared by the evaluators.
+ */
+final class NodeExecution {
+
+    private NodeExecution() {
+    }
+
+    /**
+     * Compute the requested outputs of a node with the given input values, recording a {@link NodeEvaluationEvent}.
+     * @param instance The node instance to execute
+     * @param values One value per input of the node
+     * @param time The time at which the node is evaluated
+     * @param requested One flag per output of the node
+     * @param outputs One value per output of the node, filled for each requested output
+     */
+    static void execute(NodeInstance instance, Object[] values, FrameTime time, boolean[] requested, Object[] outputs) {
+        Node<?> node = instance.getNode();
+
+        NodeEvaluationEvent event = new NodeEvaluationEvent();
+        event.begin();
+        node.evaluate(values, time, requested, outputs);
+        event.end();
+
+        if (event.shouldCommit()) {
+            long size = 0;
+            for (int i = 0; i < outputs.length; i++) {
+                if (requested[i]) {
+                    size += estimateSize(outputs[i]);
+                }
+            }
+            event.nodeId = instance.getId();
+            event.label = node.getLabel();
+            event.outputSize = size;
+            event.commit();
+        }
+    }
+
+    /**
+     * Compute the requested outputs of a node, reading them from a disk cache when it holds them, and writing
+     * them to it when they took long enough to compute.
+     * @param cache The disk cache, or null
+     * @param key The key of the node in the cache, or null if its outputs cannot be cached
+     */
+    static void execute(NodeInstance instance, Object[] values, FrameTime time, boolean[] requested, Object[] outputs,
+                        DiskCache cache, String key) {
+        if (key == null) {
+            execute(instance, values, time, requested, outputs);
+            return;
+        }
+        if (cache.read(key, requested, outputs)) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        execute(instance, values, time, requested, outputs);
+        if (System.nanoTime() - start >= cache.getMinimumCost()) {
+            cache.write(key, requested, outputs);
+        }
+    }
+
+    /**
+     * Roughly estimate the memory used by a node output, in bytes.
+     */
+    static long estimateSize(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof ImageBuffer buffer) {
+            return buffer.getByteSize();
+        } else if (value instanceof byte[] array) {
+            return array.length;
+        } else if (value instanceof int[] array) {
+            return array.length * 4L;
+        } else if (value instanceof float[] array) {
+            return array.length * 4L;
+        } else if (value instanceof double[] array) {
+            return array.length * 8L;
+        } else if (value instanceof CharSequence text) {
+            return text.length() * 2L;
+        }
+        return 16;
+    }
+}
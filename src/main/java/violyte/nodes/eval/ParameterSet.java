@@ -0,0 +1,63 @@
+package violyte.nodes.eval;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parameter values overriding the ones stored in the node inputs for a single execution.
+ */
+public class ParameterSet {
+    private final Map<Long, Object> values;
+
+    public ParameterSet() {
+        this.values = new HashMap<>();
+    }
+
+    /**
+     * Copy constructor.
+     * @param other The parameter set to copy
+     */
+    public ParameterSet(ParameterSet other) {
+        this.values = new HashMap<>(other.values);
+    }
+
+    /**
+     * Set the value of a node input.
+     * @param nodeId The ID of the node
+     * @param inputIndex The index of the input on the node
+     * @param value The value of the input
+     * @return This parameter set
+     */
+    public ParameterSet set(int nodeId, int inputIndex, Object value) {
+        values.put(key(nodeId, inputIndex), value);
+        return this;
+    }
+
+    /**
+     * Check whether this set overrides the value of a node input.
+     * @param nodeId The ID of the node
+     * @param inputIndex The index of the input on the node
+     * @return True if a value has been set for this input
+     */
+    public boolean contains(int nodeId, int inputIndex) {
+        return values.containsKey(key(nodeId, inputIndex));
+    }
+
+    /**
+     * Retrieve the value of a node input.
+     * @param nodeId The ID of the node
+     * @param inputIndex The index of the input on the node
+     * @return The value set for this input, or null if none has been set
+     */
+    public Object get(int nodeId, int inputIndex) {
+        return values.get(key(nodeId, inputIndex));
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    private static long key(int nodeId, int inputIndex) {
+        return ((long) nodeId << 32) | (inputIndex & 0xffffffffL);
+    }
+}
@@ -0,0 +1,154 @@
+package violyte.nodes.eval;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import violyte.image.BufferPool;
+import violyte.image.MemoryGovernor;
+import violyte.nodes.model.FrameTime;
+
+/**
+ * Renders a range of frames of an execution plan.
+ * Slots that do not depend on time are computed once and shared by every frame, only time-dependent slots
+ * are recomputed per frame. Frames are rendered in parallel, with as many frames in flight as the memory
+ * budget and the headroom of the default {@link MemoryGovernor} allow according to the size of the first
+ * rendered frame, so renders started while the caches are full use fewer threads.
+ * Each rendering thread reuses its own {@link ExecutionContext} from one frame to the next, and intermediate
+ * buffers are returned to the default {@link BufferPool} as soon as their last consumer has run.
+ */
+public class SequenceRenderer {
+    private final ExecutionPlan plan;
+    private final double frameRate;
+    private final int threads;
+    private final long memoryBudget;
+    private DiskCache diskCache;
+
+    /**
+     * Constructor.
+     * @param plan The plan to render
+     * @param frameRate The number of frames per second
+     * @param threads The maximum number of frames rendered at once
+     * @param memoryBudget The memory that frames in flight may use, in bytes
+     */
+    public SequenceRenderer(ExecutionPlan plan, double frameRate, int threads, long memoryBudget) {
+        this.plan = plan;
+        this.frameRate = frameRate;
+        this.threads = threads;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Set the persistent cache outputs are read from and written to.
+     * @param diskCache The cache, or null to always execute nodes
+     */
+    public void setDiskCache(DiskCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * Render every frame from {@code firstFrame} to {@code lastFrame}, inclusive.
+     * @param firstFrame The first frame to render
+     * @param lastFrame The last frame to render
+     * @param overrides Parameter values shared by every frame
+     * @param consumer Receiver of the outputs of each frame, called from the rendering threads
+     * @return The failure of each frame that could not be rendered, by frame number
+     * @throws InterruptedException If interrupted while waiting for frames
+     */
+    public Map<Integer, Throwable> render(int firstFrame, int lastFrame, ParameterSet overrides,
+                                          FrameConsumer consumer) throws InterruptedException {
+        Map<Integer, Throwable> failures = new TreeMap<>();
+        if (lastFrame < firstFrame) {
+            return failures;
+        }
+
+        BufferPool pool = BufferPool.getDefault();
+        Object[] staticResults = plan.executeStatic(overrides, diskCache);
+        ThreadLocal<ExecutionContext> contexts = ThreadLocal.withInitial(() -> {
+            ExecutionContext context = plan.newContext();
+            context.setParameters(overrides);
+            context.setRecycler(pool::recycle);
+            context.setDiskCache(diskCache);
+            return context;
+        });
+
+        // Render the first frame alone, adding up the size of every value it produces
+        long[] frameSize = new long[1];
+        try {
+            ExecutionContext context = plan.newContext();
+            context.setParameters(overrides);
+            context.setDiskCache(diskCache);
+            context.setRecycler(value -> {
+                frameSize[0] += NodeExecution.estimateSize(value);
+                pool.recycle(value);
+            });
+            renderFrame(context, FrameTime.of(firstFrame, frameRate), staticResults, consumer);
+        } catch (Exception e) {
+            failures.put(firstFrame, e);
+        }
+
+        int parallelism = getParallelism(frameSize[0]);
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<?>> pending = new ArrayList<>();
+            for (int frame = firstFrame + 1; frame <= lastFrame; frame++) {
+                FrameTime time = FrameTime.of(frame, frameRate);
+                pending.add(workers.submit(() -> {
+                    renderFrame(contexts.get(), time, staticResults, consumer);
+                    return null;
+                }));
+            }
+
+            for (int i = 0; i < pending.size(); i++) {
+                try {
+                    pending.get(i).get();
+                } catch (ExecutionException e) {
+                    failures.put(firstFrame + 1 + i, e.getCause());
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        return failures;
+    }
+
+    /**
+     * Retrieve the number of frames rendered at once for frames of the given size.
+     * @param frameSize The estimated memory used by a frame, in bytes
+     */
+    int getParallelism(long frameSize) {
+        long budget = Math.min(memoryBudget, MemoryGovernor.getDefault().getHeadroom());
+        long affordable = budget / Math.max(1, frameSize);
+        return (int) Math.max(1, Math.min(threads, affordable));
+    }
+
+    private void renderFrame(ExecutionContext context, FrameTime time, Object[] staticResults,
+                             FrameConsumer consumer) throws Exception {
+        plan.execute(context, time, staticResults);
+        try {
+            consumer.accept(time, context.getOutputs());
+        } finally {
+            context.releaseOutputs();
+        }
+    }
+
+    /**
+     * Receiver of the outputs of rendered frames.
+     */
+    @FunctionalInterface
+    public interface FrameConsumer {
+        /**
+         * Handle the outputs of a frame.
+         * Outputs may be recycled once this method returns, so they must not be kept.
+         * @param time The time of the frame
+         * @param outputs The output of each node without downstream connections, by node ID
+         * @throws Exception If the outputs cannot be handled, failing the frame
+         */
+        void accept(FrameTime time, Map<Integer, Object> outputs) throws Exception;
+    }
+}
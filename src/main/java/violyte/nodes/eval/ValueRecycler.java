@@ -0,0 +1,13 @@
+package violyte.nodes.eval;
+
+/**
+ * Receiver of intermediate node outputs that are no longer used by an execution.
+ */
+@FunctionalInterface
+public interface ValueRecycler {
+    /**
+     * Take back a value that no node of the execution will read again.
+     * @param value The released value, never null
+     */
+    void recycle(Object value);
+}
@@ -0,0 +1,584 @@
+package violyte.nodes.expression;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Arithmetic expression over named variables, such as {@code a * 0.5 + sin(t)}, compiled once to a tree of
+ * method handles taking the variable values as a {@code double[]}.
+ * The JVM compiles that tree to bytecode, so evaluating an expression runs within a small factor of the
+ * equivalent Java code, instead of walking a syntax tree. Subexpressions without variables are computed once,
+ * when compiling.
+ * <p>
+ * The syntax is that of GLSL expressions over floats:
+ * <ul>
+ *     <li>operators {@code + - * /}, {@code %} with the sign of the divisor, {@code ^} for powers,
+ *     comparisons and {@code && || !} giving 1 or 0, and {@code condition ? a : b}, evaluating one branch only</li>
+ *     <li>functions {@code sin cos tan asin acos atan atan2 sinh cosh tanh sqrt exp log log2 log10 pow abs sign
+ *     floor ceil round fract min max clamp mix step smoothstep mod hypot}</li>
+ *     <li>constants {@code pi} and {@code e}</li>
+ * </ul>
+ * Compiled expressions are immutable and can be evaluated from any thread.
+ */
+public final class Expression {
+    private static final MethodType EVALUATOR = MethodType.methodType(double.class, double[].class);
+    private static final Map<String, Double> CONSTANTS = Map.of("pi", Math.PI, "e", Math.E);
+    private static final Map<String, MethodHandle> FUNCTIONS;
+    private static final Map<String, MethodHandle> COMPARISONS;
+    private static final MethodHandle ADD;
+    private static final MethodHandle SUBTRACT;
+    private static final MethodHandle MULTIPLY;
+    private static final MethodHandle DIVIDE;
+    private static final MethodHandle MOD;
+    private static final MethodHandle POW;
+    private static final MethodHandle NEGATE;
+    private static final MethodHandle NOT;
+    private static final MethodHandle IS_TRUE;
+    private static final MethodHandle AND;
+    private static final MethodHandle OR;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodType unary = MethodType.methodType(double.class, double.class);
+            MethodType binary = MethodType.methodType(double.class, double.class, double.class);
+            MethodType ternary = MethodType.methodType(double.class, double.class, double.class, double.class);
+            ADD = lookup.findStatic(Expression.class, "add", binary);
+            SUBTRACT = lookup.findStatic(Expression.class, "subtract", binary);
+            MULTIPLY = lookup.findStatic(Expression.class, "multiply", binary);
+            DIVIDE = lookup.findStatic(Expression.class, "divide", binary);
+            MOD = lookup.findStatic(Expression.class, "mod", binary);
+            POW = lookup.findStatic(Math.class, "pow", binary);
+            NEGATE = lookup.findStatic(Expression.class, "negate", unary);
+            NOT = lookup.findStatic(Expression.class, "not", unary);
+            IS_TRUE = lookup.findStatic(Expression.class, "isTrue", MethodType.methodType(boolean.class, double.class));
+            AND = lookup.findStatic(Expression.class, "and", binary);
+            OR = lookup.findStatic(Expression.class, "or", binary);
+            COMPARISONS = Map.of(
+                "<=", lookup.findStatic(Expression.class, "lessOrEqual", binary),
+                ">=", lookup.findStatic(Expression.class, "greaterOrEqual", binary),
+                "==", lookup.findStatic(Expression.class, "equal", binary),
+                "!=", lookup.findStatic(Expression.class, "notEqual", binary),
+                "<", lookup.findStatic(Expression.class, "lessThan", binary),
+                ">", lookup.findStatic(Expression.class, "greaterThan", binary));
+
+            FUNCTIONS = Map.ofEntries(
+                Map.entry("sin", lookup.findStatic(Math.class, "sin", unary)),
+                Map.entry("cos", lookup.findStatic(Math.class, "cos", unary)),
+                Map.entry("tan", lookup.findStatic(Math.class, "tan", unary)),
+                Map.entry("asin", lookup.findStatic(Math.class, "asin", unary)),
+                Map.entry("acos", lookup.findStatic(Math.class, "acos", unary)),
+                Map.entry("atan", lookup.findStatic(Math.class, "atan", unary)),
+                Map.entry("atan2", lookup.findStatic(Math.class, "atan2", binary)),
+                Map.entry("sinh", lookup.findStatic(Math.class, "sinh", unary)),
+                Map.entry("cosh", lookup.findStatic(Math.class, "cosh", unary)),
+                Map.entry("tanh", lookup.findStatic(Math.class, "tanh", unary)),
+                Map.entry("sqrt", lookup.findStatic(Math.class, "sqrt", unary)),
+                Map.entry("exp", lookup.findStatic(Math.class, "exp", unary)),
+                Map.entry("log", lookup.findStatic(Math.class, "log", unary)),
+                Map.entry("log2", lookup.findStatic(Expression.class, "log2", unary)),
+                Map.entry("log10", lookup.findStatic(Math.class, "log10", unary)),
+                Map.entry("pow", POW),
+                Map.entry("abs", lookup.findStatic(Math.class, "abs", unary)),
+                Map.entry("sign", lookup.findStatic(Math.class, "signum", unary)),
+                Map.entry("floor", lookup.findStatic(Math.class, "floor", unary)),
+                Map.entry("ceil", lookup.findStatic(Math.class, "ceil", unary)),
+                Map.entry("round", lookup.findStatic(Math.class, "rint", unary)),
+                Map.entry("fract", lookup.findStatic(Expression.class, "fract", unary)),
+                Map.entry("min", lookup.findStatic(Math.class, "min", binary)),
+                Map.entry("max", lookup.findStatic(Math.class, "max", binary)),
+                Map.entry("clamp", lookup.findStatic(Expression.class, "clamp", ternary)),
+                Map.entry("mix", lookup.findStatic(Expression.class, "mix", ternary)),
+                Map.entry("step", lookup.findStatic(Expression.class, "step", binary)),
+                Map.entry("smoothstep", lookup.findStatic(Expression.class, "smoothstep", ternary)),
+                Map.entry("mod", MOD),
+                Map.entry("hypot", lookup.findStatic(Math.class, "hypot", binary)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final String source;
+    private final List<String> variables;
+    private final BitSet used;
+    private final MethodHandle handle;
+    private final Double constant;
+
+    private Expression(String source, List<String> variables, Term term) {
+        this.source = source;
+        this.variables = variables;
+        this.used = term.used;
+        this.handle = term.handle();
+        this.constant = term.isConstant() ? term.value : null;
+    }
+
+    /**
+     * Parse and compile an expression.
+     * @param source The text of the expression
+     * @param variables The names of the variables the expression may use, in the order of their values
+     * @return The compiled expression
+     * @throws IllegalArgumentException If the expression is invalid, or uses an unknown variable or function
+     */
+    public static Expression compile(String source, List<String> variables) {
+        Parser parser = new Parser(source, variables);
+        Term term = parser.parseExpression();
+        parser.skipSpaces();
+        if (parser.position < source.length()) {
+            throw parser.error("Unexpected '" + source.charAt(parser.position) + "'");
+        }
+        return new Expression(source, List.copyOf(variables), term);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * Check whether the expression reads a variable.
+     * @param variable The index of the variable in {@link #getVariables()}
+     * @return True if the value of the expression may depend on the variable
+     */
+    public boolean uses(int variable) {
+        return used.get(variable);
+    }
+
+    /**
+     * Check whether the expression reads a variable.
+     * @param name The name of the variable
+     * @return True if the value of the expression may depend on the variable
+     */
+    public boolean uses(String name) {
+        int index = variables.indexOf(name);
+        return index >= 0 && used.get(index);
+    }
+
+    /**
+     * Check whether the expression reads no variable, in which case it was computed when compiled.
+     */
+    public boolean isConstant() {
+        return constant != null;
+    }
+
+    /**
+     * Retrieve the compiled expression, for callers combining it into their own method handles.
+     * @return A handle of type {@code (double[])double}, taking the values of the variables
+     */
+    public MethodHandle getHandle() {
+        return handle;
+    }
+
+    /**
+     * Evaluate the expression.
+     * @param values The values of the variables, in the order of {@link #getVariables()}
+     * @return The value of the expression
+     */
+    public double evaluate(double[] values) {
+        if (constant != null) {
+            return constant;
+        }
+        try {
+            return (double) handle.invokeExact(values);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    private static double add(double a, double b) {
+        return a + b;
+    }
+
+    private static double subtract(double a, double b) {
+        return a - b;
+    }
+
+    private static double multiply(double a, double b) {
+        return a * b;
+    }
+
+    private static double divide(double a, double b) {
+        return a / b;
+    }
+
+    private static double negate(double a) {
+        return -a;
+    }
+
+    private static double not(double a) {
+        return a != 0 ? 0 : 1;
+    }
+
+    private static boolean isTrue(double a) {
+        return a != 0;
+    }
+
+    private static double log2(double a) {
+        return Math.log(a) / Math.log(2);
+    }
+
+    private static double fract(double a) {
+        return a - Math.floor(a);
+    }
+
+    private static double mod(double a, double b) {
+        return a - b * Math.floor(a / b);
+    }
+
+    private static double clamp(double a, double min, double max) {
+        return Math.min(Math.max(a, min), max);
+    }
+
+    private static double mix(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+
+    private static double step(double edge, double a) {
+        return a < edge ? 0 : 1;
+    }
+
+    private static double smoothstep(double edge0, double edge1, double a) {
+        double t = clamp((a - edge0) / (edge1 - edge0), 0, 1);
+        return t * t * (3 - 2 * t);
+    }
+
+    private static double lessThan(double a, double b) {
+        return a < b ? 1 : 0;
+    }
+
+    private static double lessOrEqual(double a, double b) {
+        return a <= b ? 1 : 0;
+    }
+
+    private static double greaterThan(double a, double b) {
+        return a > b ? 1 : 0;
+    }
+
+    private static double greaterOrEqual(double a, double b) {
+        return a >= b ? 1 : 0;
+    }
+
+    private static double equal(double a, double b) {
+        return a == b ? 1 : 0;
+    }
+
+    private static double notEqual(double a, double b) {
+        return a != b ? 1 : 0;
+    }
+
+    private static double and(double a, double b) {
+        return a != 0 && b != 0 ? 1 : 0;
+    }
+
+    private static double or(double a, double b) {
+        return a != 0 || b != 0 ? 1 : 0;
+    }
+
+    /**
+     * Compiled subexpression: a constant value, or a handle of type {@code (double[])double}.
+     * @param used The variables read by the subexpression
+     */
+    private record Term(double value, MethodHandle variableHandle, BitSet used) {
+        static Term constant(double value) {
+            return new Term(value, null, new BitSet());
+        }
+
+        static Term variable(int index) {
+            MethodHandle getter = MethodHandles.insertArguments(MethodHandles.arrayElementGetter(double[].class), 1, index);
+            BitSet used = new BitSet();
+            used.set(index);
+            return new Term(0, getter, used);
+        }
+
+        boolean isConstant() {
+            return variableHandle == null;
+        }
+
+        MethodHandle handle() {
+            if (variableHandle != null) {
+                return variableHandle;
+            }
+            return MethodHandles.dropArguments(MethodHandles.constant(double.class, value), 0, double[].class);
+        }
+
+        /**
+         * Apply a function to some terms, computing it now when they are all constant.
+         * @param function A handle taking one double per term, and returning a double
+         */
+        static Term apply(MethodHandle function, Term... arguments) {
+            BitSet used = new BitSet();
+            boolean constant = true;
+            for (Term argument : arguments) {
+                used.or(argument.used);
+                constant &= argument.isConstant();
+            }
+
+            if (constant) {
+                Object[] values = new Object[arguments.length];
+                for (int i = 0; i < arguments.length; i++) {
+                    values[i] = arguments[i].value;
+                }
+                try {
+                    return constant((double) function.invokeWithArguments(values));
+                } catch (Throwable e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            // One double[] argument per term, all merged into a single one
+            MethodHandle[] filters = new MethodHandle[arguments.length];
+            for (int i = 0; i < arguments.length; i++) {
+                filters[i] = arguments[i].handle();
+            }
+            MethodHandle filtered = MethodHandles.filterArguments(function, 0, filters);
+            return new Term(0, MethodHandles.permuteArguments(filtered, EVALUATOR, new int[arguments.length]), used);
+        }
+
+        /**
+         * Choose between two terms, only evaluating the chosen one.
+         */
+        static Term select(Term condition, Term ifTrue, Term ifFalse) {
+            if (condition.isConstant()) {
+                return condition.value != 0 ? ifTrue : ifFalse;
+            }
+            BitSet used = (BitSet) condition.used.clone();
+            used.or(ifTrue.used);
+            used.or(ifFalse.used);
+            MethodHandle test = MethodHandles.filterReturnValue(condition.handle(), IS_TRUE);
+            return new Term(0, MethodHandles.guardWithTest(test, ifTrue.handle(), ifFalse.handle()), used);
+        }
+    }
+
+    /**
+     * Recursive descent parser, compiling each rule as it is parsed.
+     */
+    private static final class Parser {
+        private final String source;
+        private final List<String> variables;
+        private int position;
+
+        Parser(String source, List<String> variables) {
+            this.source = source;
+            this.variables = variables;
+        }
+
+        // expression := or ('?' expression ':' expression)?
+        Term parseExpression() {
+            Term condition = parseOr();
+            if (!accept("?")) {
+                return condition;
+            }
+            Term ifTrue = parseExpression();
+            expect(":");
+            Term ifFalse = parseExpression();
+            return Term.select(condition, ifTrue, ifFalse);
+        }
+
+        private Term parseOr() {
+            Term term = parseAnd();
+            while (accept("||")) {
+                term = Term.apply(OR, term, parseAnd());
+            }
+            return term;
+        }
+
+        private Term parseAnd() {
+            Term term = parseComparison();
+            while (accept("&&")) {
+                term = Term.apply(AND, term, parseComparison());
+            }
+            return term;
+        }
+
+        private Term parseComparison() {
+            Term term = parseSum();
+            while (true) {
+                // Two-character operators first, so that '<=' is not read as '<'
+                String operator = null;
+                for (String candidate : new String[]{"<=", ">=", "==", "!=", "<", ">"}) {
+                    if (accept(candidate)) {
+                        operator = candidate;
+                        break;
+                    }
+                }
+                if (operator == null) {
+                    return term;
+                }
+                term = Term.apply(COMPARISONS.get(operator), term, parseSum());
+            }
+        }
+
+        private Term parseSum() {
+            Term term = parseProduct();
+            while (true) {
+                if (accept("+")) {
+                    term = Term.apply(ADD, term, parseProduct());
+                } else if (accept("-")) {
+                    term = Term.apply(SUBTRACT, term, parseProduct());
+                } else {
+                    return term;
+                }
+            }
+        }
+
+        private Term parseProduct() {
+            Term term = parseUnary();
+            while (true) {
+                if (accept("*")) {
+                    term = Term.apply(MULTIPLY, term, parseUnary());
+                } else if (accept("/")) {
+                    term = Term.apply(DIVIDE, term, parseUnary());
+                } else if (accept("%")) {
+                    term = Term.apply(MOD, term, parseUnary());
+                } else {
+                    return term;
+                }
+            }
+        }
+
+        private Term parseUnary() {
+            if (accept("-")) {
+                return Term.apply(NEGATE, parseUnary());
+            } else if (accept("+")) {
+                return parseUnary();
+            } else if (!peek("!=") && accept("!")) {
+                return Term.apply(NOT, parseUnary());
+            }
+            return parsePower();
+        }
+
+        // Powers bind tighter than unary operators on their left, as in -2^2 = -4, and are right associative
+        private Term parsePower() {
+            Term base = parsePrimary();
+            if (accept("^")) {
+                return Term.apply(POW, base, parseUnary());
+            }
+            return base;
+        }
+
+        private Term parsePrimary() {
+            skipSpaces();
+            if (position >= source.length()) {
+                throw error("Unexpected end");
+            }
+            char c = source.charAt(position);
+            if (accept("(")) {
+                Term term = parseExpression();
+                expect(")");
+                return term;
+            } else if (Character.isDigit(c) || c == '.') {
+                return Term.constant(parseNumber());
+            } else if (Character.isLetter(c) || c == '_') {
+                return parseName();
+            }
+            throw error("Unexpected '" + c + "'");
+        }
+
+        private double parseNumber() {
+            int start = position;
+            while (position < source.length()
+                    && (Character.isDigit(source.charAt(position)) || source.charAt(position) == '.')) {
+                position++;
+            }
+            if (position < source.length() && (source.charAt(position) == 'e' || source.charAt(position) == 'E')) {
+                int exponent = position + 1;
+                if (exponent < source.length() && (source.charAt(exponent) == '+' || source.charAt(exponent) == '-')) {
+                    exponent++;
+                }
+                if (exponent < source.length() && Character.isDigit(source.charAt(exponent))) {
+                    position = exponent;
+                    while (position < source.length() && Character.isDigit(source.charAt(position))) {
+                        position++;
+                    }
+                }
+            }
+            try {
+                return Double.parseDouble(source.substring(start, position));
+            } catch (NumberFormatException e) {
+                position = start;
+                throw error("Invalid number");
+            }
+        }
+
+        private Term parseName() {
+            int start = position;
+            while (position < source.length()
+                    && (Character.isLetterOrDigit(source.charAt(position)) || source.charAt(position) == '_')) {
+                position++;
+            }
+            String name = source.substring(start, position);
+
+            if (accept("(")) {
+                MethodHandle function = FUNCTIONS.get(name.toLowerCase(Locale.ROOT));
+                if (function == null) {
+                    position = start;
+                    throw error("Unknown function '" + name + "'");
+                }
+                int arity = function.type().parameterCount();
+                Term[] arguments = new Term[arity];
+                for (int i = 0; i < arity; i++) {
+                    if (i > 0) {
+                        expect(",");
+                    }
+                    arguments[i] = parseExpression();
+                }
+                expect(")");
+                return Term.apply(function, arguments);
+            }
+
+            int index = variables.indexOf(name);
+            if (index >= 0) {
+                return Term.variable(index);
+            }
+            Double constant = CONSTANTS.get(name.toLowerCase(Locale.ROOT));
+            if (constant != null) {
+                return Term.constant(constant);
+            }
+            position = start;
+            throw error("Unknown variable '" + name + "'");
+        }
+
+        private boolean peek(String token) {
+            skipSpaces();
+            return source.startsWith(token, position);
+        }
+
+        private boolean accept(String token) {
+            if (peek(token)) {
+                position += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) {
+                throw error(position < source.length() ? "Expected '" + token + "'" : "Unexpected end");
+            }
+        }
+
+        private void skipSpaces() {
+            while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+                position++;
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at column " + (position + 1) + " of '" + source + "'");
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package violyte.nodes.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import violyte.nodes.model.GroupNode;
+import violyte.nodes.model.Node;
+import violyte.nodes.model.NodeGraph;
+import violyte.nodes.model.NodeGraph.Connection;
+import violyte.nodes.model.NodeGraph.NodeInstance;
+import violyte.nodes.model.NodeGraph.Snapshot;
+import violyte.nodes.model.NodeGroup;
+import violyte.nodes.model.NodeGroup.Port;
+import violyte.nodes.model.NodeInput;
+
+/**
+ * Reads and writes node graphs as line-based text files.
+ * <pre>
+ * # violyte graph 1
+ * node &lt;id&gt; &lt;node class&gt; &lt;x&gt; &lt;y&gt;
+ * param &lt;node id&gt; &lt;input index&gt; &lt;type&gt; &lt;value&gt;
+ * connect &lt;source id&gt; &lt;output index&gt; &lt;target id&gt; &lt;input index&gt;
+ * group &lt;key&gt; &lt;label&gt;
+ *   ...nodes, instances and connections of the group
+ * expose-input &lt;node id&gt; &lt;input index&gt; &lt;label&gt;
+ * expose-output &lt;node id&gt; &lt;output index&gt; &lt;label&gt;
+ * end
+ * instance &lt;id&gt; &lt;group key&gt; &lt;x&gt; &lt;y&gt;
+ * </pre>
+ * Node types are identified by their class name and must have a no-argument constructor.
+ * Groups are written before the graphs instantiating them, nested groups first, and their parameters
+ * are the ones of each instance.
+ * Parameter types are the ones named by {@link ParameterValues#typeName(Object)}.
+ */
+public final class GraphFile {
+    public static final String HEADER = "# violyte graph 1";
+
+    private GraphFile() {
+    }
+
+    /**
+     * Write a graph to a file.
+     * The graph is read from a snapshot, so it can be saved from a background thread while being edited.
+     * @param graph The graph to write
+     * @param path The file to write to
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(NodeGraph graph, Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            writeGraph(writer, graph.snapshot(), null, new IdentityHashMap<>());
+        }
+    }
+
+    /**
+     * Write some nodes of a graph and the connections between them as text, for example for the clipboard.
+     * The text has the format of a graph file, and the groups the nodes instantiate are written with them.
+     * @param graph The graph holding the nodes
+     * @param nodes The nodes to write
+     * @return The text, read back by {@link #fromText(String)}
+     */
+    public static String toText(NodeGraph graph, Collection<NodeInstance> nodes) {
+        Set<Integer> nodeIds = new HashSet<>();
+        for (NodeInstance instance : nodes) {
+            nodeIds.add(instance.getId());
+        }
+        StringWriter text = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(text)) {
+            writer.write(HEADER);
+            writer.newLine();
+            writeGraph(writer, graph.snapshot(), nodeIds, new IdentityHashMap<>());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Write the nodes and connections of a graph, after the groups it instantiates that are not written yet.
+     * @param nodeIds The IDs of the nodes to write, with the connections between them, or null for all
+     */
+    private static void writeGraph(BufferedWriter writer, Snapshot snapshot, Set<Integer> nodeIds,
+                                   Map<NodeGroup, String> keys) throws IOException {
+        List<NodeInstance> nodes = snapshot.getNodes();
+        if (nodeIds != null) {
+            nodes = nodes.stream().filter(instance -> nodeIds.contains(instance.getId())).toList();
+        }
+        for (NodeInstance instance : nodes) {
+            if (instance.getNode() instanceof GroupNode groupNode && !keys.containsKey(groupNode.getGroup())) {
+                writeGroup(writer, groupNode.getGroup(), keys);
+            }
+        }
+
+        for (NodeInstance instance : nodes) {
+            if (instance.getNode() instanceof GroupNode groupNode) {
+                writer.write("instance " + instance.getId() + " " + keys.get(groupNode.getGroup())
+                    + " " + instance.getX() + " " + instance.getY());
+            } else {
+                writer.write("node " + instance.getId() + " " + instance.getNode().getClass().getName()
+                    + " " + instance.getX() + " " + instance.getY());
+            }
+            writer.newLine();
+
+            NodeInput<?>[] inputs = instance.getNode().getInputs();
+            for (int i = 0; i < inputs.length; i++) {
+                Object value = inputs[i].getParameterValue();
+                if (value != null) {
+                    writer.write("param " + instance.getId() + " " + i + " " + ParameterValues.typeName(value)
+                        + " " + ParameterValues.escape(value));
+                    writer.newLine();
+                }
+            }
+        }
+
+        for (Connection connection : snapshot.getConnections()) {
+            if (nodeIds != null
+                    && !(nodeIds.contains(connection.getSourceNode()) && nodeIds.contains(connection.getTargetNode()))) {
+                continue;
+            }
+            writer.write("connect " + connection.getSourceNode() + " " + connection.getSourceOutput()
+                + " " + connection.getTargetNode() + " " + connection.getTargetInput());
+            writer.newLine();
+        }
+    }
+
+    private static void writeGroup(BufferedWriter writer, NodeGroup group, Map<NodeGroup, String> keys)
+            throws IOException {
+        String key = "g" + (keys.size() + 1);
+        keys.put(group, key);
+        writer.write("group " + key + " " + ParameterValues.escape(group.getLabel()));
+        writer.newLine();
+        writeGraph(writer, group.getGraph().snapshot(), null, keys);
+        for (Port port : group.getInputs()) {
+            writer.write("expose-input " + port.nodeId() + " " + port.index() + " " + ParameterValues.escape(port.label()));
+            writer.newLine();
+        }
+        for (Port port : group.getOutputs()) {
+            writer.write("expose-output " + port.nodeId() + " " + port.index() + " " + ParameterValues.escape(port.label()));
+            writer.newLine();
+        }
+        writer.write("end");
+        writer.newLine();
+    }
+
+    /**
+     * Read a graph from a file.
+     * @param path The file to read
+     * @return A new graph holding the nodes and connections of the file, with their original IDs
+     * @throws IOException If the file cannot be read or is malformed
+     */
+    public static NodeGraph read(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return read(reader, path.toString());
+        }
+    }
+
+    /**
+     * Read a graph from text written by {@link #toText(NodeGraph, Collection)}.
+     * Groups instantiated by the nodes are read as new groups.
+     * @param text The text to read
+     * @return A new graph holding the nodes and connections of the text, with their original IDs
+     * @throws IOException If the text is not a graph or is malformed
+     */
+    public static NodeGraph fromText(String text) throws IOException {
+        if (!text.startsWith(HEADER)) {
+            throw new IOException("Not a graph");
+        }
+        return read(new BufferedReader(new StringReader(text)), "text");
+    }
+
+    private static NodeGraph read(BufferedReader reader, String source) throws IOException {
+        Reader state = new Reader();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                state.readLine(line);
+            } catch (RuntimeException e) {
+                throw new IOException(source + ":" + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        if (!state.openGroups.isEmpty()) {
+            throw new IOException(source + ": group " + state.openGroups.peek().getLabel() + " has no end");
+        }
+        return state.root;
+    }
+
+    /**
+     * Parse and set the parameter value of an input of a node, using its current value as a type hint.
+     * @param graph The graph of the node
+     * @param instance The node
+     * @param inputIndex The index of the input to set
+     * @param text The value as text
+     */
+    public static void setParameter(NodeGraph graph, NodeInstance instance, int inputIndex, String text) {
+        NodeInput<?> input = instance.getNode().getInputs()[inputIndex];
+        graph.setParameter(instance, inputIndex, ParameterValues.parse(text, input.getParameterValue()));
+    }
+
+    private static NodeInstance findNode(NodeGraph graph, String id) {
+        NodeInstance instance = graph.getNodeById(Integer.parseInt(id));
+        if (instance == null) {
+            throw new IllegalArgumentException("Unknown node " + id);
+        }
+        return instance;
+    }
+
+    private static void requireFields(String[] fields, int count) {
+        if (fields.length < count) {
+            throw new IllegalArgumentException("Expected " + (count - 1) + " values after '" + fields[0] + "'");
+        }
+    }
+
+    private static Node<?> instantiate(String className) throws IOException {
+        try {
+            // Not initialized before the check, so that text naming any other class runs none of its code
+            Class<?> type = Class.forName(className, false, GraphFile.class.getClassLoader());
+            if (!Node.class.isAssignableFrom(type)) {
+                throw new IOException(className + " is not a node type");
+            }
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return (Node<?>) constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Cannot create node of type " + className, e);
+        }
+    }
+
+    /**
+     * State of a file being read: the graph receiving nodes, which is the one of the innermost open group,
+     * and the groups defined so far.
+     */
+    private static final class Reader {
+        final NodeGraph root = new NodeGraph();
+        final Deque<NodeGroup> openGroups = new ArrayDeque<>();
+        final Map<String, NodeGroup> groups = new HashMap<>();
+        NodeGraph graph = root;
+
+        void readLine(String line) throws IOException {
+            String[] parts = line.split(" ", 5);
+            switch (parts[0]) {
+                case "node" -> {
+                    String[] fields = line.split(" ");
+                    requireFields(fields, 5);
+                    graph.addNode(Integer.parseInt(fields[1]), instantiate(fields[2]),
+                        Double.parseDouble(fields[3]), Double.parseDouble(fields[4]));
+                }
+                case "instance" -> {
+                    String[] fields = line.split(" ");
+                    requireFields(fields, 5);
+                    NodeGroup group = groups.get(fields[2]);
+                    if (group == null) {
+                        throw new IllegalArgumentException("Unknown group " + fields[2]);
+                    }
+                    graph.addNode(Integer.parseInt(fields[1]), group.instantiate(),
+                        Double.parseDouble(fields[3]), Double.parseDouble(fields[4]));
+                }
+                case "param" -> {
+                    requireFields(parts, 5);
+                    graph.setParameter(findNode(graph, parts[1]), Integer.parseInt(parts[2]),
+                        ParameterValues.parse(ParameterValues.unescape(parts[4]), parts[3]));
+                }
+                case "connect" -> {
+                    String[] fields = line.split(" ");
+                    requireFields(fields, 5);
+                    graph.connectNodes(findNode(graph, fields[1]), Integer.parseInt(fields[2]),
+                        findNode(graph, fields[3]), Integer.parseInt(fields[4]));
+                }
+                case "group" -> {
+                    String[] fields = line.split(" ", 3);
+                    requireFields(fields, 3);
+                    NodeGroup group = new NodeGroup(ParameterValues.unescape(fields[2]), new NodeGraph());
+                    groups.put(fields[1], group);
+                    openGroups.push(group);
+                    graph = group.getGraph();
+                }
+                case "expose-input", "expose-output" -> {
+                    String[] fields = line.split(" ", 4);
+                    requireFields(fields, 4);
+                    NodeGroup group = openGroups.peek();
+                    if (group == null) {
+                        throw new IllegalArgumentException("'" + fields[0] + "' outside of a group");
+                    }
+                    String label = ParameterValues.unescape(fields[3]);
+                    if (fields[0].equals("expose-input")) {
+                        group.exposeInput(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), label);
+                    } else {
+                        group.exposeOutput(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), label);
+                    }
+                }
+                case "end" -> {
+                    if (openGroups.isEmpty()) {
+                        throw new IllegalArgumentException("'end' outside of a group");
+                    }
+                    openGroups.pop();
+                    graph = openGroups.isEmpty() ? root : openGroups.peek().getGraph();
+                }
+                default -> throw new IllegalArgumentException("Unknown entry '" + parts[0] + "'");
+            }
+        }
+    }
+}
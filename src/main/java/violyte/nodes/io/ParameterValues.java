@@ -0,0 +1,96 @@
+package violyte.nodes.io;
+
+/**
+ * Conversion of parameter values to and from text.
+ */
+public final class ParameterValues {
+
+    private ParameterValues() {
+    }
+
+    /**
+     * Parse a parameter value.
+     * The type of the value is taken from the current value of the parameter; text is kept as is when the
+     * parameter has no value yet or holds an unsupported type.
+     * @param text The text to parse
+     * @param current The current value of the parameter, used as a type hint, may be null
+     * @return The parsed value
+     * @throws IllegalArgumentException If the text is not a valid value of the expected type
+     */
+    public static Object parse(String text, Object current) {
+        return parse(text, typeName(current));
+    }
+
+    /**
+     * Parse a parameter value of a named type.
+     * @param text The text to parse
+     * @param typeName The name of the type, as returned by {@link #typeName(Object)}
+     * @return The parsed value
+     * @throws IllegalArgumentException If the text is not a valid value of the type
+     */
+    public static Object parse(String text, String typeName) {
+        return switch (typeName) {
+            case "int" -> Integer.valueOf(text.trim());
+            case "long" -> Long.valueOf(text.trim());
+            case "float" -> Float.valueOf(text.trim());
+            case "double" -> Double.valueOf(text.trim());
+            case "boolean" -> Boolean.valueOf(text.trim());
+            default -> text;
+        };
+    }
+
+    /**
+     * Retrieve the name of the type of a parameter value.
+     * @param value The parameter value, may be null
+     * @return One of {@code int}, {@code long}, {@code float}, {@code double}, {@code boolean} or {@code string}
+     */
+    public static String typeName(Object value) {
+        if (value instanceof Integer) {
+            return "int";
+        } else if (value instanceof Long) {
+            return "long";
+        } else if (value instanceof Float) {
+            return "float";
+        } else if (value instanceof Double) {
+            return "double";
+        } else if (value instanceof Boolean) {
+            return "boolean";
+        }
+        return "string";
+    }
+
+    /**
+     * Escape a value so that it fits on a single line.
+     * @param value The value to escape
+     * @return The escaped text
+     */
+    public static String escape(Object value) {
+        return String.valueOf(value)
+            .replace("\\", "\\\\")
+            .replace("\n", "\\n")
+            .replace("\r", "\\r");
+    }
+
+    /**
+     * Reverse {@link #escape(Object)}.
+     * @param text The escaped text
+     * @return The original text
+     */
+    public static String unescape(String text) {
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+                builder.append(switch (next) {
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> next;
+                });
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,525 @@
+package violyte.nodes.layout;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToDoubleFunction;
+
+import violyte.nodes.model.NodeGraph.Connection;
+import violyte.nodes.model.NodeGraph.NodeInstance;
+import violyte.nodes.model.NodeGraph.Snapshot;
+
+/**
+ * Layered layout of a graph, data flowing from left to right, in the manner of Sugiyama:
+ * <ol>
+ * <li>connections closing a cycle are reversed,</li>
+ * <li>nodes are assigned to columns by longest path, then pulled right next to their first consumer,</li>
+ * <li>connections spanning several columns are split by dummy nodes,</li>
+ * <li>the order of each column is swept by barycenter to reduce crossings, keeping the best order found,</li>
+ * <li>nodes are moved towards their neighbors without overlapping.</li>
+ * </ol>
+ * Every step is linear or n log n in the size of the graph, so that large graphs are laid out in well under a
+ * second. The layout only reads a {@link Snapshot}, so it can run on any thread.
+ */
+public class LayeredLayout {
+    public static final double DEFAULT_LAYER_GAP = 80;
+    public static final double DEFAULT_NODE_GAP = 30;
+    public static final int DEFAULT_SWEEPS = 8;
+
+    private double layerGap = DEFAULT_LAYER_GAP;
+    private double nodeGap = DEFAULT_NODE_GAP;
+    private int sweeps = DEFAULT_SWEEPS;
+    private ToDoubleFunction<NodeInstance> nodeWidth = instance -> 150;
+    private ToDoubleFunction<NodeInstance> nodeHeight = LayeredLayout::estimateHeight;
+
+    /**
+     * Positions computed for the nodes of a graph.
+     * @param nodeIds The IDs of the nodes
+     * @param x The new x coordinate of each node
+     * @param y The new y coordinate of each node
+     */
+    public record Placement(int[] nodeIds, double[] x, double[] y) {
+    }
+
+    public double getLayerGap() {
+        return layerGap;
+    }
+
+    /**
+     * Set the horizontal space between columns of nodes.
+     */
+    public void setLayerGap(double layerGap) {
+        this.layerGap = layerGap;
+    }
+
+    public double getNodeGap() {
+        return nodeGap;
+    }
+
+    /**
+     * Set the vertical space between nodes of a column.
+     */
+    public void setNodeGap(double nodeGap) {
+        this.nodeGap = nodeGap;
+    }
+
+    public int getSweeps() {
+        return sweeps;
+    }
+
+    /**
+     * Set the number of passes reordering columns to reduce crossings.
+     */
+    public void setSweeps(int sweeps) {
+        this.sweeps = sweeps;
+    }
+
+    /**
+     * Set how the size of a node is measured, for example from the view.
+     * @param width The width of each node
+     * @param height The height of each node
+     */
+    public void setNodeSize(ToDoubleFunction<NodeInstance> width, ToDoubleFunction<NodeInstance> height) {
+        this.nodeWidth = width;
+        this.nodeHeight = height;
+    }
+
+    /**
+     * Estimate the height of a node from its number of fields, as displayed by the editor.
+     */
+    public static double estimateHeight(NodeInstance instance) {
+        return 26 + 21 * (instance.getNode().getInputs().length + instance.getNode().getOutputs().length);
+    }
+
+    /**
+     * Lay out the nodes of a graph.
+     * The layout starts at the top-left corner of the current nodes, so that it does not jump away.
+     * @param graph The graph to lay out
+     * @return The position of every node of the graph
+     */
+    public Placement compute(Snapshot graph) {
+        List<NodeInstance> nodes = graph.getNodes();
+        int n = nodes.size();
+        int[] nodeIds = new int[n];
+        Map<Integer, Integer> indices = new HashMap<>(n * 2);
+        double originX = Double.POSITIVE_INFINITY;
+        double originY = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            NodeInstance instance = nodes.get(i);
+            nodeIds[i] = instance.getId();
+            indices.put(instance.getId(), i);
+            originX = Math.min(originX, instance.getX());
+            originY = Math.min(originY, instance.getY());
+        }
+        if (n == 0) {
+            return new Placement(nodeIds, new double[0], new double[0]);
+        }
+
+        int[][] edges = acyclicEdges(n, graph.getConnections(), indices);
+        int[] layers = assignLayers(n, edges);
+        Layering layering = new Layering(n, layers, edges);
+        layering.reduceCrossings(sweeps);
+
+        double[] heights = new double[layering.size];
+        double[] widths = new double[layering.layerCount];
+        for (int v = 0; v < n; v++) {
+            heights[v] = nodeHeight.applyAsDouble(nodes.get(v));
+            widths[layers[v]] = Math.max(widths[layers[v]], nodeWidth.applyAsDouble(nodes.get(v)));
+        }
+        double[] y = layering.placeVertically(heights, nodeGap);
+
+        double[] layerX = new double[layering.layerCount];
+        for (int l = 1; l < layerX.length; l++) {
+            layerX[l] = layerX[l - 1] + widths[l - 1] + layerGap;
+        }
+        double minY = Double.POSITIVE_INFINITY;
+        for (int v = 0; v < n; v++) {
+            minY = Math.min(minY, y[v]);
+        }
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int v = 0; v < n; v++) {
+            xs[v] = originX + layerX[layers[v]];
+            ys[v] = originY + y[v] - minY;
+        }
+        return new Placement(nodeIds, xs, ys);
+    }
+
+    /**
+     * Collect the distinct edges between nodes, reversing those that close a cycle, found by depth-first search.
+     * @return The sources and the targets of the edges
+     */
+    private static int[][] acyclicEdges(int n, List<Connection> connections, Map<Integer, Integer> indices) {
+        Set<Long> seen = new HashSet<>();
+        int[] from = new int[connections.size()];
+        int[] to = new int[connections.size()];
+        int m = 0;
+        for (Connection connection : connections) {
+            Integer source = indices.get(connection.getSourceNode());
+            Integer target = indices.get(connection.getTargetNode());
+            if (source != null && target != null && !source.equals(target)
+                    && seen.add(((long) source << 32) | target)) {
+                from[m] = source;
+                to[m] = target;
+                m++;
+            }
+        }
+
+        int[] start = new int[n + 1];
+        for (int e = 0; e < m; e++) {
+            start[from[e] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            start[v + 1] += start[v];
+        }
+        int[] outgoing = new int[m];
+        int[] fill = Arrays.copyOf(start, n);
+        for (int e = 0; e < m; e++) {
+            outgoing[fill[from[e]]++] = e;
+        }
+
+        // Iterative depth-first search, an edge to a node on the stack closing a cycle
+        byte[] state = new byte[n];
+        int[] stack = new int[n];
+        int[] next = new int[n];
+        for (int root = 0; root < n; root++) {
+            if (state[root] != 0) {
+                continue;
+            }
+            int depth = 0;
+            stack[depth++] = root;
+            state[root] = 1;
+            next[root] = start[root];
+            while (depth > 0) {
+                int v = stack[depth - 1];
+                if (next[v] == start[v + 1]) {
+                    state[v] = 2;
+                    depth--;
+                    continue;
+                }
+                int e = outgoing[next[v]++];
+                int w = to[e];
+                if (state[w] == 1) {
+                    to[e] = v;
+                    from[e] = w;
+                } else if (state[w] == 0) {
+                    state[w] = 1;
+                    next[w] = start[w];
+                    stack[depth++] = w;
+                }
+            }
+        }
+        return new int[][]{Arrays.copyOf(from, m), Arrays.copyOf(to, m)};
+    }
+
+    /**
+     * Assign each node to the column after its furthest ancestor, then move nodes right next to the column
+     * of their nearest consumer, so that sources are not all stacked in the first column.
+     */
+    private static int[] assignLayers(int n, int[][] edges) {
+        int[] from = edges[0];
+        int[] to = edges[1];
+        int m = from.length;
+        int[] inDegree = new int[n];
+        int[] start = new int[n + 1];
+        for (int e = 0; e < m; e++) {
+            inDegree[to[e]]++;
+            start[from[e] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            start[v + 1] += start[v];
+        }
+        int[] successors = new int[m];
+        int[] fill = Arrays.copyOf(start, n);
+        for (int e = 0; e < m; e++) {
+            successors[fill[from[e]]++] = to[e];
+        }
+
+        int[] order = new int[n];
+        int head = 0;
+        int tail = 0;
+        for (int v = 0; v < n; v++) {
+            if (inDegree[v] == 0) {
+                order[tail++] = v;
+            }
+        }
+        int[] layers = new int[n];
+        while (head < tail) {
+            int v = order[head++];
+            for (int i = start[v]; i < start[v + 1]; i++) {
+                int w = successors[i];
+                layers[w] = Math.max(layers[w], layers[v] + 1);
+                if (--inDegree[w] == 0) {
+                    order[tail++] = w;
+                }
+            }
+        }
+
+        for (int k = n - 1; k >= 0; k--) {
+            int v = order[k];
+            if (start[v] < start[v + 1]) {
+                int nearest = Integer.MAX_VALUE;
+                for (int i = start[v]; i < start[v + 1]; i++) {
+                    nearest = Math.min(nearest, layers[successors[i]]);
+                }
+                layers[v] = nearest - 1;
+            }
+        }
+        return layers;
+    }
+
+    /**
+     * Nodes of the layout by column, including the dummy nodes splitting long edges, and the edges between
+     * consecutive columns.
+     */
+    private static final class Layering {
+        final int nodeCount;
+        final int size;
+        final int layerCount;
+        final int[] layer;
+        final int[][] columns;
+        final int[] position;
+        final int[][] upper;
+        final int[][] lower;
+
+        Layering(int n, int[] layers, int[][] edges) {
+            int[] from = edges[0];
+            int[] to = edges[1];
+            int dummies = 0;
+            int maxLayer = 0;
+            for (int e = 0; e < from.length; e++) {
+                dummies += layers[to[e]] - layers[from[e]] - 1;
+            }
+            for (int v = 0; v < n; v++) {
+                maxLayer = Math.max(maxLayer, layers[v]);
+            }
+            nodeCount = n;
+            size = n + dummies;
+            layerCount = maxLayer + 1;
+            layer = Arrays.copyOf(layers, size);
+
+            // Split long edges into segments between consecutive columns
+            int segmentCount = from.length + dummies;
+            int[] segmentFrom = new int[segmentCount];
+            int[] segmentTo = new int[segmentCount];
+            int s = 0;
+            int dummy = n;
+            for (int e = 0; e < from.length; e++) {
+                int previous = from[e];
+                for (int l = layers[from[e]] + 1; l < layers[to[e]]; l++) {
+                    layer[dummy] = l;
+                    segmentFrom[s] = previous;
+                    segmentTo[s++] = dummy;
+                    previous = dummy++;
+                }
+                segmentFrom[s] = previous;
+                segmentTo[s++] = to[e];
+            }
+            upper = adjacency(segmentTo, segmentFrom);
+            lower = adjacency(segmentFrom, segmentTo);
+
+            // Initial order of each column: the order in which the nodes were added
+            int[] counts = new int[layerCount];
+            for (int v = 0; v < size; v++) {
+                counts[layer[v]]++;
+            }
+            columns = new int[layerCount][];
+            for (int l = 0; l < layerCount; l++) {
+                columns[l] = new int[counts[l]];
+                counts[l] = 0;
+            }
+            position = new int[size];
+            for (int v = 0; v < size; v++) {
+                position[v] = counts[layer[v]];
+                columns[layer[v]][counts[layer[v]]++] = v;
+            }
+        }
+
+        private int[][] adjacency(int[] keys, int[] values) {
+            int[] counts = new int[size];
+            for (int key : keys) {
+                counts[key]++;
+            }
+            int[][] adjacency = new int[size][];
+            for (int v = 0; v < size; v++) {
+                adjacency[v] = new int[counts[v]];
+                counts[v] = 0;
+            }
+            for (int i = 0; i < keys.length; i++) {
+                adjacency[keys[i]][counts[keys[i]]++] = values[i];
+            }
+            return adjacency;
+        }
+
+        /**
+         * Reorder columns by the barycenter of the neighbors in the previous column, sweeping right then left,
+         * and keep the order with the fewest crossings. Sweeping stops early once two sweeps in a row did not
+         * reduce crossings.
+         */
+        void reduceCrossings(int sweeps) {
+            long best = countCrossings();
+            int[][] bestColumns = copyColumns();
+            int widest = 0;
+            for (int[] column : columns) {
+                widest = Math.max(widest, column.length);
+            }
+            long[] sorted = new long[widest];
+            int stale = 0;
+            for (int sweep = 0; sweep < sweeps && best > 0 && stale < 2; sweep++) {
+                for (int l = 1; l < layerCount; l++) {
+                    sortByBarycenter(columns[l], upper, sorted);
+                }
+                for (int l = layerCount - 2; l >= 0; l--) {
+                    sortByBarycenter(columns[l], lower, sorted);
+                }
+                long crossings = countCrossings();
+                if (crossings < best) {
+                    best = crossings;
+                    bestColumns = copyColumns();
+                    stale = 0;
+                } else {
+                    stale++;
+                }
+            }
+            for (int l = 0; l < layerCount; l++) {
+                columns[l] = bestColumns[l];
+                for (int i = 0; i < columns[l].length; i++) {
+                    position[columns[l][i]] = i;
+                }
+            }
+        }
+
+        /**
+         * Sort a column by barycenter, ties keeping their order. Each node is sorted as a long made of its key in
+         * fixed point, then its current position, which is much faster than sorting boxed indices.
+         */
+        private void sortByBarycenter(int[] column, int[][] neighbors, long[] sorted) {
+            for (int i = 0; i < column.length; i++) {
+                int v = column[i];
+                double key = position[v];
+                if (neighbors[v].length > 0) {
+                    long sum = 0;
+                    for (int w : neighbors[v]) {
+                        sum += position[w];
+                    }
+                    key = (double) sum / neighbors[v].length;
+                }
+                sorted[i] = ((long) (key * 1024) << 32) | i;
+            }
+            Arrays.sort(sorted, 0, column.length);
+            int[] previous = column.clone();
+            for (int i = 0; i < column.length; i++) {
+                column[i] = previous[(int) sorted[i]];
+                position[column[i]] = i;
+            }
+        }
+
+        /**
+         * Count the crossings between every pair of consecutive columns, as the inversions of the positions of
+         * the lower ends of the edges sorted by upper end, with a Fenwick tree.
+         */
+        long countCrossings() {
+            long crossings = 0;
+            for (int l = 0; l + 1 < layerCount; l++) {
+                int[] tree = new int[columns[l + 1].length + 1];
+                int count = 0;
+                for (int v : columns[l]) {
+                    int[] targets = lower[v].clone();
+                    for (int i = 0; i < targets.length; i++) {
+                        targets[i] = position[targets[i]];
+                    }
+                    Arrays.sort(targets);
+                    for (int target : targets) {
+                        // Edges seen so far ending after this one cross it
+                        int notAfter = 0;
+                        for (int i = target + 1; i > 0; i -= i & -i) {
+                            notAfter += tree[i];
+                        }
+                        crossings += count - notAfter;
+                        for (int i = target + 1; i < tree.length; i += i & -i) {
+                            tree[i]++;
+                        }
+                        count++;
+                    }
+                }
+            }
+            return crossings;
+        }
+
+        private int[][] copyColumns() {
+            int[][] copy = new int[layerCount][];
+            for (int l = 0; l < layerCount; l++) {
+                copy[l] = columns[l].clone();
+            }
+            return copy;
+        }
+
+        /**
+         * Place the nodes of each column top to bottom in their order, then move them towards the centers of
+         * their neighbors, alternating directions.
+         * @param heights The height of every real node, dummy nodes being zero
+         * @return The top coordinate of every node
+         */
+        double[] placeVertically(double[] heights, double gap) {
+            double[] y = new double[size];
+            for (int[] column : columns) {
+                double top = 0;
+                for (int v : column) {
+                    y[v] = top;
+                    top += heights[v] + spacing(v, gap);
+                }
+            }
+            double[] desired = new double[size];
+            for (int pass = 0; pass < 4; pass++) {
+                for (int l = 1; l < layerCount; l++) {
+                    align(columns[l], upper, y, heights, desired, gap);
+                }
+                for (int l = layerCount - 2; l >= 0; l--) {
+                    align(columns[l], lower, y, heights, desired, gap);
+                }
+            }
+            return y;
+        }
+
+        private double spacing(int v, double gap) {
+            // Dummy nodes only keep wires apart
+            return v < nodeCount ? gap : gap / 4;
+        }
+
+        /**
+         * Move the nodes of a column to the centers of their neighbors, then resolve overlaps twice, pushing
+         * down from the top and up from the bottom, and keep the average of both placements.
+         */
+        private void align(int[] column, int[][] neighbors, double[] y, double[] heights, double[] desired,
+                           double gap) {
+            for (int v : column) {
+                if (neighbors[v].length == 0) {
+                    desired[v] = y[v];
+                } else {
+                    double sum = 0;
+                    for (int w : neighbors[v]) {
+                        sum += y[w] + heights[w] / 2;
+                    }
+                    desired[v] = sum / neighbors[v].length - heights[v] / 2;
+                }
+            }
+            double[] down = new double[column.length];
+            double bottom = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < column.length; i++) {
+                int v = column[i];
+                down[i] = Math.max(desired[v], bottom);
+                bottom = down[i] + heights[v] + spacing(v, gap);
+            }
+            double top = Double.POSITIVE_INFINITY;
+            for (int i = column.length - 1; i >= 0; i--) {
+                int v = column[i];
+                double up = Math.min(desired[v], top - heights[v] - spacing(v, gap));
+                top = up;
+                y[v] = (down[i] + up) / 2;
+            }
+        }
+    }
+}
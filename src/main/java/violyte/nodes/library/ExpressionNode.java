@@ -0,0 +1,198 @@
+package violyte.nodes.library;
+
+import java.util.List;
+
+import violyte.image.ImageBuffer;
+import violyte.image.PixelFormat;
+import violyte.nodes.expression.Expression;
+import violyte.nodes.model.FrameTime;
+import violyte.nodes.model.Node;
+import violyte.nodes.model.NodeInput;
+
+/**
+ * Node computing a math {@link Expression} of its inputs, such as {@code a * 0.5 + sin(t)}.
+ * When no input is an image, the output is the value of the expression. Otherwise the expression is evaluated
+ * for every pixel and color channel, each image input standing for the value of that channel, and the alpha
+ * channel is taken from the first color image.
+ * <p>
+ * The variables are the inputs {@code a b c d}, the pixel coordinates {@code x y} from the top left, the pixel
+ * centers {@code u v} scaled to [0, 1], the image size {@code width height}, the {@code channel} being computed
+ * (0 for red, 1 for green, 2 for blue), the time {@code t} in seconds and the {@code frame}.
+ * The expression is compiled once, then reused as long as its text does not change.
+ * The node depends on time when the text it is given, possibly through a wire, reads {@code t} or {@code frame}.
+ */
+public class ExpressionNode extends Node<Object> {
+    /** Names of the variables, in the order of their values. */
+    public static final List<String> VARIABLES =
+        List.of("a", "b", "c", "d", "x", "y", "u", "v", "width", "height", "channel", "t", "frame");
+
+    private static final int X = 4;
+    private static final int Y = 5;
+    private static final int U = 6;
+    private static final int V = 7;
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 9;
+    private static final int CHANNEL = 10;
+    private static final int TIME = 11;
+    private static final int FRAME = 12;
+    private static final int[] ARGB_SHIFTS = {16, 8, 0, 24};
+
+    private final NodeInput<String> expression = new NodeInput<>("Expression", String.class, "a");
+    private final NodeInput<Object> a = new NodeInput<>("A", Object.class, 0.0);
+    private final NodeInput<Object> b = new NodeInput<>("B", Object.class, 0.0);
+    private final NodeInput<Object> c = new NodeInput<>("C", Object.class, 0.0);
+    private final NodeInput<Object> d = new NodeInput<>("D", Object.class, 0.0);
+
+    /** Last compiled expression, shared by the threads evaluating this node. */
+    private volatile Expression compiled;
+
+    @Override
+    public String getLabel() {
+        return "Expression";
+    }
+
+    @Override
+    public NodeInput<?>[] getInputs() {
+        return new NodeInput<?>[]{expression, a, b, c, d};
+    }
+
+    @Override
+    public boolean isTimeDependent() {
+        try {
+            Expression function = compile(expression.getValue());
+            return function != null && (function.uses(TIME) || function.uses(FRAME));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Evaluate the expression.
+     * @return A {@link Double}, or an {@link ImageBuffer} if an input is an image
+     */
+    @Override
+    public Object execute() {
+        Expression function = compile(expression.getValue());
+        if (function == null) {
+            throw new IllegalStateException("No expression");
+        }
+
+        double[] variables = new double[VARIABLES.size()];
+        FrameTime time = getTime();
+        variables[TIME] = time.seconds();
+        variables[FRAME] = time.frame();
+
+        NodeInput<?>[] inputs = {a, b, c, d};
+        ImageBuffer[] images = new ImageBuffer[inputs.length];
+        ImageBuffer first = null;
+        for (int i = 0; i < inputs.length; i++) {
+            Object value = inputs[i].getValue();
+            if (value instanceof Number number) {
+                variables[i] = number.doubleValue();
+            } else if (value instanceof ImageBuffer image) {
+                if (first == null) {
+                    first = image;
+                } else if (image.getWidth() != first.getWidth() || image.getHeight() != first.getHeight()) {
+                    throw new IllegalStateException("The images have different sizes");
+                }
+                images[i] = function.uses(i) ? image : null;
+            } else {
+                throw new IllegalStateException("Input " + inputs[i].getLabel() + " is neither a number nor an image");
+            }
+        }
+
+        if (first == null) {
+            return function.evaluate(variables);
+        }
+        return evaluateImage(function, variables, images, first);
+    }
+
+    /**
+     * Evaluate the expression for every pixel of the images.
+     * @param images The image inputs read by the expression, null for the others
+     */
+    private static ImageBuffer evaluateImage(Expression function, double[] variables, ImageBuffer[] images,
+                                             ImageBuffer first) {
+        int width = first.getWidth();
+        int height = first.getHeight();
+        ImageBuffer alphaSource = null;
+        for (ImageBuffer image : images) {
+            if (image != null && image.getFormat() != PixelFormat.GRAY_FLOAT && alphaSource == null) {
+                alphaSource = image;
+            }
+        }
+        boolean color = alphaSource != null;
+        // Gray inputs read the same value on every channel, so the expression is only evaluated once per pixel
+        // unless it reads the channel or a color image
+        boolean perChannel = color || function.uses(CHANNEL);
+
+        PixelFormat format = color ? PixelFormat.RGBA_FLOAT : PixelFormat.GRAY_FLOAT;
+        ImageBuffer result = ImageBuffer.allocate(width, height, format);
+        float[] pixels = result.getFloatData();
+        int stride = format.getChannels();
+        int channels = color ? 3 : 1;
+        variables[WIDTH] = width;
+        variables[HEIGHT] = height;
+
+        for (int y = 0, p = 0; y < height; y++) {
+            variables[Y] = y;
+            variables[V] = (y + 0.5) / height;
+            for (int x = 0; x < width; x++, p++) {
+                variables[X] = x;
+                variables[U] = (x + 0.5) / width;
+                int offset = p * stride;
+                if (perChannel) {
+                    for (int channel = 0; channel < channels; channel++) {
+                        variables[CHANNEL] = channel;
+                        for (int i = 0; i < images.length; i++) {
+                            if (images[i] != null) {
+                                variables[i] = sample(images[i], p, channel);
+                            }
+                        }
+                        pixels[offset + channel] = (float) function.evaluate(variables);
+                    }
+                } else {
+                    for (int i = 0; i < images.length; i++) {
+                        if (images[i] != null) {
+                            variables[i] = images[i].getFloatData()[p];
+                        }
+                    }
+                    pixels[offset] = (float) function.evaluate(variables);
+                }
+                if (color) {
+                    pixels[offset + 3] = (float) sample(alphaSource, p, 3);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read a channel of a pixel, gray images having the same value on every color channel and an opaque alpha.
+     */
+    private static double sample(ImageBuffer image, int pixel, int channel) {
+        return switch (image.getFormat()) {
+            case RGBA_FLOAT -> image.getFloatData()[pixel * 4 + channel];
+            case GRAY_FLOAT -> channel < 3 ? image.getFloatData()[pixel] : 1;
+            case ARGB_INT -> ((image.getIntData()[pixel] >>> ARGB_SHIFTS[channel]) & 0xff) / 255.0;
+        };
+    }
+
+    /**
+     * Compile an expression, or reuse the last one compiled when its text is the same.
+     * @return The compiled expression, or null if the text is empty
+     * @throws IllegalArgumentException If the expression is invalid
+     */
+    private Expression compile(String text) {
+        if (text == null || text.isBlank()) {
+            return null;
+        }
+        Expression last = compiled;
+        if (last != null && last.getSource().equals(text)) {
+            return last;
+        }
+        Expression expression = Expression.compile(text, VARIABLES);
+        compiled = expression;
+        return expression;
+    }
+}
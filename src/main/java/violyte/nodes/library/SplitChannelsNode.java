@@ -0,0 +1,107 @@
+package violyte.nodes.library;
+
+import java.util.Arrays;
+
+import violyte.image.ImageBuffer;
+import violyte.image.PixelFormat;
+import violyte.nodes.model.Node;
+import violyte.nodes.model.NodeInput;
+import violyte.nodes.model.NodeOutput;
+
+/**
+ * Node splitting an image into one grayscale image per channel.
+ * Only the channels connected to another node are extracted.
+ */
+public class SplitChannelsNode extends Node<ImageBuffer> {
+    private static final String[] CHANNELS = {"Red", "Green", "Blue", "Alpha"};
+
+    private final NodeInput<ImageBuffer> image = new NodeInput<>("Image", ImageBuffer.class);
+
+    @Override
+    public String getLabel() {
+        return "Split Channels";
+    }
+
+    @Override
+    public Class<?> getOutputType() {
+        return ImageBuffer.class;
+    }
+
+    @Override
+    public NodeOutput[] getOutputs() {
+        NodeOutput[] outputs = new NodeOutput[CHANNELS.length];
+        for (int i = 0; i < CHANNELS.length; i++) {
+            outputs[i] = new NodeOutput(CHANNELS[i], ImageBuffer.class);
+        }
+        return outputs;
+    }
+
+    @Override
+    public NodeInput<?>[] getInputs() {
+        return new NodeInput<?>[]{image};
+    }
+
+    /**
+     * Extract the red channel.
+     */
+    @Override
+    public ImageBuffer execute() {
+        Object[] outputs = new Object[CHANNELS.length];
+        execute(new boolean[]{true, false, false, false}, outputs);
+        return (ImageBuffer) outputs[0];
+    }
+
+    @Override
+    protected void execute(boolean[] requested, Object[] outputs) {
+        ImageBuffer source = image.getValue();
+        if (source == null) {
+            throw new IllegalStateException("No image to split");
+        }
+
+        int pixelCount = source.getWidth() * source.getHeight();
+        float[][] channels = new float[CHANNELS.length][];
+        for (int c = 0; c < CHANNELS.length; c++) {
+            if (requested[c]) {
+                ImageBuffer channel = ImageBuffer.allocate(source.getWidth(), source.getHeight(), PixelFormat.GRAY_FLOAT);
+                channels[c] = channel.getFloatData();
+                outputs[c] = channel;
+            }
+        }
+
+        switch (source.getFormat()) {
+            case RGBA_FLOAT -> {
+                float[] pixels = source.getFloatData();
+                for (int c = 0; c < CHANNELS.length; c++) {
+                    float[] channel = channels[c];
+                    if (channel != null) {
+                        for (int p = 0, offset = c; p < pixelCount; p++, offset += 4) {
+                            channel[p] = pixels[offset];
+                        }
+                    }
+                }
+            }
+            case GRAY_FLOAT -> {
+                float[] pixels = source.getFloatData();
+                for (int c = 0; c < CHANNELS.length; c++) {
+                    if (channels[c] != null && c < 3) {
+                        System.arraycopy(pixels, 0, channels[c], 0, pixelCount);
+                    } else if (channels[c] != null) {
+                        Arrays.fill(channels[c], 1f);
+                    }
+                }
+            }
+            case ARGB_INT -> {
+                int[] pixels = source.getIntData();
+                int[] shifts = {16, 8, 0, 24};
+                for (int c = 0; c < CHANNELS.length; c++) {
+                    float[] channel = channels[c];
+                    if (channel != null) {
+                        for (int p = 0; p < pixelCount; p++) {
+                            channel[p] = ((pixels[p] >>> shifts[c]) & 0xff) / 255f;
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
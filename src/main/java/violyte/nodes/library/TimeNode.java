@@ -0,0 +1,37 @@
+package violyte.nodes.library;
+
+import violyte.nodes.model.Node;
+import violyte.nodes.model.NodeInput;
+
+/**
+ * Node producing the current time, in seconds, scaled by a speed factor.
+ */
+public class TimeNode extends Node<Double> {
+    private final NodeInput<Double> speed = new NodeInput<>("Speed", 1.0);
+
+    @Override
+    public String getLabel() {
+        return "Time";
+    }
+
+    @Override
+    public Class<?> getOutputType() {
+        return Double.class;
+    }
+
+    @Override
+    public NodeInput<?>[] getInputs() {
+        return new NodeInput<?>[]{speed};
+    }
+
+    @Override
+    public boolean isTimeDependent() {
+        return true;
+    }
+
+    @Override
+    public Double execute() {
+        Double factor = speed.getValue();
+        return getTime().seconds() * (factor != null ? factor : 1.0);
+    }
+}
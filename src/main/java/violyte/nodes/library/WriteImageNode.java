@@ -0,0 +1,80 @@
+package violyte.nodes.library;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import violyte.image.ColorSpace;
+import violyte.image.FrameCache;
+import violyte.image.ImageBuffer;
+import violyte.image.ImageFiles;
+import violyte.nodes.model.Node;
+import violyte.nodes.model.NodeInput;
+
+/**
+ * Node writing its input image to a file, or to the current frame of an image sequence when the file name
+ * holds {@code #}. The extension of the file chooses its format, and pixels are converted from the linear working
+ * space to the color space named by its label, an empty color space standing for sRGB, or linear for float files.
+ */
+public class WriteImageNode extends Node<String> {
+    private final NodeInput<ImageBuffer> image = new NodeInput<>("Image", ImageBuffer.class);
+    private final NodeInput<String> file = new NodeInput<>("File", String.class, "");
+    private final NodeInput<String> colorSpace = new NodeInput<>("Color Space", String.class, "");
+
+    @Override
+    public String getLabel() {
+        return "Write Image";
+    }
+
+    @Override
+    public Class<?> getOutputType() {
+        return String.class;
+    }
+
+    @Override
+    public NodeInput<?>[] getInputs() {
+        return new NodeInput<?>[]{image, file, colorSpace};
+    }
+
+    @Override
+    public boolean isTimeDependent() {
+        return ImageFiles.isSequence(file.getParameterValue());
+    }
+
+    /**
+     * Writing is the point of this node, so its output is never taken from a cache.
+     */
+    @Override
+    protected String describeState() {
+        return null;
+    }
+
+    /**
+     * Write the image.
+     * @return The path of the written file
+     */
+    @Override
+    public String execute() {
+        ImageBuffer pixels = image.getValue();
+        String pattern = file.getValue();
+        if (pixels == null) {
+            throw new IllegalStateException("No image to write");
+        } else if (pattern == null || pattern.isEmpty()) {
+            throw new IllegalStateException("No file to write");
+        }
+
+        ColorSpace space = ReadImageNode.colorSpaceOf(colorSpace.getValue());
+        Path path = Path.of(ImageFiles.resolveFrame(pattern, getTime().frame()));
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            ImageFiles.write(pixels, path, space);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        FrameCache.getDefault().invalidate(path);
+        return path.toString();
+    }
+}
@@ -0,0 +1,20 @@
+package violyte.nodes.model;
+
+/**
+ * Point in time at which a graph is evaluated.
+ * @param frame The frame number
+ * @param seconds The time of the frame, in seconds
+ */
+public record FrameTime(int frame, double seconds) {
+    public static final FrameTime ZERO = new FrameTime(0, 0);
+
+    /**
+     * Retrieve the time of a frame at a given frame rate.
+     * @param frame The frame number
+     * @param frameRate The number of frames per second
+     * @return The time of the frame
+     */
+    public static FrameTime of(int frame, double frameRate) {
+        return new FrameTime(frame, frame / frameRate);
+    }
+}
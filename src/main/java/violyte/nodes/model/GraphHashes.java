@@ -0,0 +1,357 @@
+package violyte.nodes.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+import violyte.nodes.model.NodeGraph.Connection;
+import violyte.nodes.model.NodeGraph.NodeInstance;
+import violyte.nodes.model.NodeGroup.Port;
+
+/**
+ * Structural hashes of the nodes of a graph, kept up to date by the edits of {@link NodeGraph}.
+ * <p>
+ * Edits never wait for hashes being computed: the graph records the changes of an edit under its own lock and
+ * {@link #commit() commits} them as one batch. Batches are applied in order under the lock of the hashes, by
+ * readers before they compute a hash, or by the writer when no reader holds it, so a hash always reflects whole
+ * edits.
+ * <p>
+ * The local hash of a node combines its type and parameter values, and the inner graph and ports of a group.
+ * The upstream hash of a node combines its local hash with the upstream hashes of its sources, so it identifies
+ * the whole subgraph feeding the node, and the hash of the graph sums the upstream hashes of its nodes. Node IDs
+ * and positions take no part, and the hashes only use stable functions of names and values, so they are the same
+ * from one session to the next.
+ * <p>
+ * An edit costs constant time plus the nodes it invalidates: it updates the connection sets and marks the affected
+ * node invalid, along with the nodes downstream of it that are still valid. Upstream hashes are recomputed when
+ * requested, for the invalid nodes only. Graphs with cycles get hashes that depend on the order of the requests.
+ */
+final class GraphHashes {
+    private static final long OUTPUT_FACTOR = 0x9E3779B97F4A7C15L;
+    private static final long INPUT_FACTOR = 0xC2B2AE3D27D4EB4FL;
+    private static final long NULL_HASH = 0x27D4EB2F165667C5L;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Changes of the edit in progress, only touched by the writer of the graph under its lock. */
+    private List<Runnable> batch = new ArrayList<>();
+    /** Batches committed by the writer and not applied yet. */
+    private final Queue<List<Runnable>> committed = new ConcurrentLinkedQueue<>();
+
+    // Guarded by the lock
+    private final Map<Integer, Entry> entries = new HashMap<>();
+    private final Set<Entry> groups = new HashSet<>();
+    /** Entries to recompute before the hash of the graph is known, possibly recomputed or removed since. */
+    private final ArrayDeque<Entry> invalid = new ArrayDeque<>();
+    private long sum;
+
+    void nodeAdded(NodeInstance instance) {
+        batch.add(() -> applyNodeAdded(instance));
+    }
+
+    /**
+     * Forget a node. Its connections must have been removed first.
+     */
+    void nodeRemoved(NodeInstance instance) {
+        batch.add(() -> applyNodeRemoved(instance));
+    }
+
+    void connectionAdded(Connection connection) {
+        batch.add(() -> applyConnectionAdded(connection));
+    }
+
+    void connectionRemoved(Connection connection) {
+        batch.add(() -> applyConnectionRemoved(connection));
+    }
+
+    void parameterChanged(NodeInstance instance) {
+        batch.add(() -> applyParameterChanged(instance));
+    }
+
+    /**
+     * Commit the changes of the current edit, and apply the committed ones unless a reader is computing hashes.
+     */
+    void commit() {
+        if (lock.tryLock()) {
+            try {
+                applyCommitted();
+                for (Runnable change : batch) {
+                    change.run();
+                }
+                batch.clear();
+            } finally {
+                lock.unlock();
+            }
+        } else if (!batch.isEmpty()) {
+            committed.add(batch);
+            batch = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Retrieve the hash of the whole graph, as of the last committed edit.
+     */
+    long graphHash() {
+        lock.lock();
+        try {
+            applyCommitted();
+            refreshGroups();
+            Entry entry;
+            while ((entry = invalid.poll()) != null) {
+                if (!entry.valid && entries.get(entry.instance.getId()) == entry) {
+                    compute(entry);
+                }
+            }
+            return mix(sum + entries.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieve the upstream hash of a node, as of the last committed edit.
+     * @throws IllegalArgumentException If the node is not in the graph
+     */
+    long upstreamHash(int nodeId) {
+        lock.lock();
+        try {
+            applyCommitted();
+            Entry entry = entries.get(nodeId);
+            if (entry == null) {
+                throw new IllegalArgumentException("No node with ID " + nodeId);
+            }
+            refreshGroups();
+            if (!entry.valid) {
+                compute(entry);
+            }
+            return entry.upstream;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Apply the committed batches, in order. Must hold the lock.
+     */
+    private void applyCommitted() {
+        List<Runnable> changes;
+        while ((changes = committed.poll()) != null) {
+            for (Runnable change : changes) {
+                change.run();
+            }
+        }
+    }
+
+    private void applyNodeAdded(NodeInstance instance) {
+        Entry entry = new Entry(instance, localHash(instance.getNode()));
+        entries.put(instance.getId(), entry);
+        invalid.add(entry);
+        if (instance.getNode() instanceof GroupNode) {
+            groups.add(entry);
+        }
+    }
+
+    private void applyNodeRemoved(NodeInstance instance) {
+        Entry entry = entries.remove(instance.getId());
+        if (entry != null) {
+            sum -= entry.contribution;
+            groups.remove(entry);
+        }
+    }
+
+    private void applyConnectionAdded(Connection connection) {
+        Entry source = entries.get(connection.getSourceNode());
+        Entry target = entries.get(connection.getTargetNode());
+        source.outputs.add(connection);
+        target.inputs.add(connection);
+        invalidate(target);
+    }
+
+    private void applyConnectionRemoved(Connection connection) {
+        Entry source = entries.get(connection.getSourceNode());
+        Entry target = entries.get(connection.getTargetNode());
+        if (source != null) {
+            source.outputs.remove(connection);
+        }
+        if (target != null) {
+            target.inputs.remove(connection);
+            invalidate(target);
+        }
+    }
+
+    private void applyParameterChanged(NodeInstance instance) {
+        Entry entry = entries.get(instance.getId());
+        long local = localHash(instance.getNode());
+        if (entry != null && local != entry.local) {
+            entry.local = local;
+            invalidate(entry);
+        }
+    }
+
+    /**
+     * Invalidate the instances of groups edited since the last request, whose graphs do not notify this one.
+     */
+    private void refreshGroups() {
+        for (Entry entry : groups) {
+            long local = localHash(entry.instance.getNode());
+            if (local != entry.local) {
+                entry.local = local;
+                invalidate(entry);
+            }
+        }
+    }
+
+    /**
+     * Mark a node and the valid nodes downstream of it invalid.
+     * A valid node only has valid sources, so the walk stops at nodes already invalid.
+     */
+    private void invalidate(Entry start) {
+        ArrayDeque<Entry> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            Entry entry = stack.pop();
+            if (!entry.valid) {
+                continue;
+            }
+            entry.valid = false;
+            invalid.add(entry);
+            for (Connection connection : entry.outputs) {
+                stack.push(entries.get(connection.getTargetNode()));
+            }
+        }
+    }
+
+    /**
+     * Recompute the upstream hash of an invalid node, after those of its invalid sources, depth first.
+     * A source met again on the current path closes a cycle, and only its local hash is used.
+     */
+    private void compute(Entry root) {
+        ArrayDeque<Entry> path = new ArrayDeque<>();
+        root.onPath = true;
+        root.nextInput = root.inputs.iterator();
+        path.push(root);
+        while (!path.isEmpty()) {
+            Entry entry = path.peek();
+            if (entry.nextInput.hasNext()) {
+                Entry source = entries.get(entry.nextInput.next().getSourceNode());
+                if (!source.valid && !source.onPath) {
+                    source.onPath = true;
+                    source.nextInput = source.inputs.iterator();
+                    path.push(source);
+                }
+                continue;
+            }
+
+            path.pop();
+            entry.onPath = false;
+            entry.nextInput = null;
+            // Summed, so that the order of the connections does not matter
+            long inputs = 0;
+            for (Connection connection : entry.inputs) {
+                Entry source = entries.get(connection.getSourceNode());
+                long sourceHash = source.valid ? source.upstream : source.local;
+                inputs += mix(sourceHash + connection.getSourceOutput() * OUTPUT_FACTOR
+                    + connection.getTargetInput() * INPUT_FACTOR);
+            }
+            entry.upstream = mix(entry.local * OUTPUT_FACTOR + inputs);
+            entry.valid = true;
+            long contribution = mix(entry.upstream);
+            sum += contribution - entry.contribution;
+            entry.contribution = contribution;
+        }
+    }
+
+    /**
+     * Hash the type and parameter values of a node.
+     */
+    private static long localHash(Node<?> node) {
+        long hash = hash(node.getClass().getName());
+        if (node instanceof GroupNode groupNode) {
+            NodeGroup group = groupNode.getGroup();
+            hash = mix(hash + hash(group.getLabel()));
+            hash = mix(hash + group.getGraph().getStructuralHash());
+            for (List<Port> ports : List.of(group.getInputs(), group.getOutputs())) {
+                for (Port port : ports) {
+                    long portNode = group.getGraph().getUpstreamHash(port.nodeId());
+                    hash = mix(hash + portNode + port.index() * INPUT_FACTOR + hash(port.label()));
+                }
+                hash = mix(hash + ports.size());
+            }
+        }
+        for (NodeInput<?> input : node.getInputs()) {
+            hash = mix(hash * OUTPUT_FACTOR + valueHash(input.getParameterValue()));
+        }
+        return hash;
+    }
+
+    /**
+     * Hash a parameter value. Values of other types than strings, numbers, booleans and enums only contribute
+     * their type.
+     */
+    private static long valueHash(Object value) {
+        if (value == null) {
+            return NULL_HASH;
+        } else if (value instanceof String text) {
+            return hash(text);
+        } else if (value instanceof Double || value instanceof Float) {
+            return mix(hash(value.getClass().getName()) + Double.doubleToLongBits(((Number) value).doubleValue()));
+        } else if (value instanceof Number number) {
+            return mix(hash(value.getClass().getName()) + number.longValue());
+        } else if (value instanceof Boolean flag) {
+            return flag ? ~NULL_HASH : NULL_HASH * 3;
+        } else if (value instanceof Enum<?> constant) {
+            return mix(hash(constant.getDeclaringClass().getName()) + hash(constant.name()));
+        }
+        return hash(value.getClass().getName());
+    }
+
+    /**
+     * Hash a string with 64-bit FNV-1a over its UTF-8 bytes, then mix the result.
+     */
+    private static long hash(String text) {
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Scramble the bits of a value, with the finalizer of SplitMix64.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Hashes and connections of a node.
+     */
+    private static final class Entry {
+        final NodeInstance instance;
+        final Set<Connection> inputs = new LinkedHashSet<>(4);
+        final Set<Connection> outputs = new LinkedHashSet<>(4);
+        long local;
+        long upstream;
+        /** Part of the hash of the graph coming from this node, as of its last computation. */
+        long contribution;
+        boolean valid;
+        boolean onPath;
+        Iterator<Connection> nextInput;
+
+        Entry(NodeInstance instance, long local) {
+            this.instance = instance;
+            this.local = local;
+        }
+    }
+}
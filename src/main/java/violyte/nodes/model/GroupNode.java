@@ -0,0 +1,79 @@
+package violyte.nodes.model;
+
+import java.util.List;
+
+import violyte.nodes.model.NodeGroup.Port;
+
+/**
+ * Node standing for an instance of a {@link NodeGroup}.
+ * Its inputs and outputs are the ports exposed by the group, its parameter values are the ones of this instance.
+ * Evaluators expand it into the inner nodes of the group, it cannot be executed on its own.
+ */
+public class GroupNode extends Node<Object> {
+    private final NodeGroup group;
+    private final NodeInput<?>[] inputs;
+    private final NodeOutput[] outputs;
+
+    GroupNode(NodeGroup group) {
+        this.group = group;
+
+        List<Port> inputPorts = group.getInputs();
+        this.inputs = new NodeInput<?>[inputPorts.size()];
+        for (int i = 0; i < inputs.length; i++) {
+            Port port = inputPorts.get(i);
+            NodeInput<?> inner = group.getGraph().getNodeById(port.nodeId()).getNode().getInputs()[port.index()];
+            inputs[i] = copyInput(inner, port.label());
+        }
+
+        List<Port> outputPorts = group.getOutputs();
+        this.outputs = new NodeOutput[outputPorts.size()];
+        for (int i = 0; i < outputs.length; i++) {
+            Port port = outputPorts.get(i);
+            NodeOutput inner = group.getGraph().getNodeById(port.nodeId()).getNode().getOutputs()[port.index()];
+            outputs[i] = new NodeOutput(port.label(), inner.type());
+        }
+    }
+
+    public NodeGroup getGroup() {
+        return group;
+    }
+
+    @Override
+    public String getLabel() {
+        return group.getLabel();
+    }
+
+    @Override
+    public NodeInput<?>[] getInputs() {
+        return inputs.clone();
+    }
+
+    @Override
+    public NodeOutput[] getOutputs() {
+        return outputs.clone();
+    }
+
+    @Override
+    public Class<?> getOutputType() {
+        return outputs.length > 0 ? outputs[0].type() : Object.class;
+    }
+
+    @Override
+    public boolean isTimeDependent() {
+        return group.isTimeDependent();
+    }
+
+    /**
+     * Groups have no computation of their own.
+     * @throws IllegalStateException Always
+     */
+    @Override
+    public Object execute() {
+        throw new IllegalStateException("Group " + group.getLabel() + " must be expanded by an evaluator");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static NodeInput<?> copyInput(NodeInput<?> input, String label) {
+        return new NodeInput<>(label, (Class<Object>) input.getType(), input.getParameterValue());
+    }
+}
@@ -1,12 +1,25 @@
 package violyte.nodes.model;
 
+import java.util.Arrays;
+
 /**
  * Abstract base class for all nodes.
  * A node is a processing unit that takes inputs, performs some computation, and produces outputs.
  * Each node has metadata that describes its inputs, outputs, and other properties.
- * @param <T> The type of the output produced by this node
+ * <p>
+ * Most nodes have a single output, computed by {@link #execute()}. Nodes with several outputs describe them
+ * with {@link #getOutputs()} and compute them in {@link #execute(boolean[], Object[])}, where only the outputs
+ * something is connected to are requested.
+ * @param <T> The type of the first output produced by this node
  */
 public abstract class Node<T> {
+    /**
+     * Input values bound by the evaluations running on the current thread, innermost last.
+     */
+    private static final ThreadLocal<BindingStack> BINDINGS = ThreadLocal.withInitial(BindingStack::new);
+
+    private NodeInput<?>[] cachedInputs;
+
     /**
      * Retrieve the label of this node.
      * @return The label of this node
@@ -15,18 +28,236 @@ public abstract class Node<T> {
 
     /**
      * Retrieve all the input fields of this node.
+     * The inputs of a node must stay the same for its whole lifetime.
      * @return An array of input fields
      */
     public abstract NodeInput<?>[] getInputs();
 
-    /**]
+    /**
+     * Retrieve the type of the output of this node, checked against input types when a wire is connected.
+     * Untyped nodes return {@code Object}, and can be connected to any input.
+     * @return The output type
+     */
+    public Class<?> getOutputType() {
+        return Object.class;
+    }
+
+    /**
+     * Retrieve all the outputs of this node.
+     * Like inputs, the outputs of a node must stay the same for its whole lifetime.
+     * @return An array of outputs, a single output typed by {@link #getOutputType()} unless overridden
+     */
+    public NodeOutput[] getOutputs() {
+        return new NodeOutput[]{new NodeOutput("Output", getOutputType())};
+    }
+
+    /**
      * Execute the node's computation and return its output.
+     * Nodes with several outputs return their first output.
      * @return The output produced by this node
      */
     public abstract T execute();
 
+    /**
+     * Compute the requested outputs of this node.
+     * Nodes with several outputs override this to compute only the requested ones, sharing any work between them.
+     * @param requested One flag per output, in the same order as {@link #getOutputs()}
+     * @param outputs One value per output, to fill for each requested output
+     */
+    protected void execute(boolean[] requested, Object[] outputs) {
+        outputs[0] = execute();
+    }
+
+    /**
+     * Check whether the output of this node changes over time even when its inputs do not.
+     * Nodes reading {@link #getTime()} must override this to return true, so that their output is
+     * recomputed on every frame instead of being cached.
+     * Evaluators call it with the inputs bound, like {@link #execute()}, so a node can depend on time for some
+     * input values only. Unbound, {@link NodeInput#getValue()} returns the parameter values.
+     * @return True if this node depends on time
+     */
+    public boolean isTimeDependent() {
+        return false;
+    }
+
+    /**
+     * Check whether the output of this node changes over time, with the given input values.
+     * @param inputValues One value per input, in the same order as {@link #getInputs()}
+     * @param time The time at which the node is evaluated
+     * @return The result of {@link #isTimeDependent()}
+     */
+    public final boolean isTimeDependent(Object[] inputValues, FrameTime time) {
+        BindingStack bindings = bind(inputValues, time);
+        try {
+            return isTimeDependent();
+        } finally {
+            bindings.pop();
+        }
+    }
+
+    /**
+     * Describe what the outputs of this node depend on besides its input values and the time, such as the
+     * version of a file it reads. Persistent caches make it part of the key of the outputs.
+     * Called with the inputs bound, like {@link #execute()}.
+     * @return A description of that state, empty when the outputs only depend on the inputs, or null when
+     *         they must never be reused from a cache, for instance because the node writes files
+     */
+    protected String describeState() {
+        return "";
+    }
+
+    /**
+     * Describe the state the outputs of this node depend on, with the given input values.
+     * @param inputValues One value per input, in the same order as {@link #getInputs()}
+     * @param time The time at which the node is evaluated
+     * @return The result of {@link #describeState()}
+     */
+    public final String describeState(Object[] inputValues, FrameTime time) {
+        BindingStack bindings = bind(inputValues, time);
+        try {
+            return describeState();
+        } finally {
+            bindings.pop();
+        }
+    }
+
+    /**
+     * Retrieve the time at which this node is being evaluated.
+     * Only meaningful while {@link #execute()} runs.
+     * @return The time of the current evaluation, or {@link FrameTime#ZERO} outside of an evaluation
+     */
+    protected FrameTime getTime() {
+        Binding binding = BINDINGS.get().current();
+        return binding != null ? binding.time : FrameTime.ZERO;
+    }
+
+    /**
+     * Execute this node with the given input values, at time zero.
+     * @param inputValues One value per input, in the same order as {@link #getInputs()}
+     * @return The output produced by this node
+     */
+    public final T evaluate(Object[] inputValues) {
+        return evaluate(inputValues, FrameTime.ZERO);
+    }
+
+    /**
+     * Execute this node with the given input values.
+     * While {@link #execute()} runs, {@link NodeInput#getValue()} returns the value bound to each input
+     * for the current thread only, so the same node can be evaluated concurrently.
+     * @param inputValues One value per input, in the same order as {@link #getInputs()}
+     * @param time The time at which the node is evaluated
+     * @return The output produced by this node
+     */
+    public final T evaluate(Object[] inputValues, FrameTime time) {
+        BindingStack bindings = bind(inputValues, time);
+        try {
+            return execute();
+        } finally {
+            bindings.pop();
+        }
+    }
+
+    /**
+     * Compute some of the outputs of this node with the given input values.
+     * Binding works as with {@link #evaluate(Object[], FrameTime)}.
+     * @param inputValues One value per input, in the same order as {@link #getInputs()}
+     * @param time The time at which the node is evaluated
+     * @param requested One flag per output, in the same order as {@link #getOutputs()}
+     * @param outputs One value per output, filled for each requested output
+     */
+    public final void evaluate(Object[] inputValues, FrameTime time, boolean[] requested, Object[] outputs) {
+        BindingStack bindings = bind(inputValues, time);
+        try {
+            execute(requested, outputs);
+        } finally {
+            bindings.pop();
+        }
+    }
+
+    private BindingStack bind(Object[] inputValues, FrameTime time) {
+        // Inputs are fixed, so the array is kept instead of being rebuilt on every evaluation
+        if (cachedInputs == null) {
+            cachedInputs = getInputs();
+        }
+
+        BindingStack bindings = BINDINGS.get();
+        bindings.push(cachedInputs, inputValues, time);
+        return bindings;
+    }
+
+    /**
+     * Look up the value bound to an input by the evaluation running on the current thread.
+     * @param input The input to look up
+     * @return The binding holding the value, or null if the input is not being evaluated
+     */
+    static Binding bindingFor(NodeInput<?> input) {
+        Binding binding = BINDINGS.get().current();
+        if (binding != null && binding.indexOf(input) >= 0) {
+            return binding;
+        }
+        return null;
+    }
+
     @Override
     public String toString() {
         return getLabel();
     }
+
+    /**
+     * Input values of a node being evaluated on the current thread.
+     */
+    static final class Binding {
+        private NodeInput<?>[] inputs;
+        private Object[] values;
+        private FrameTime time;
+
+        int indexOf(NodeInput<?> input) {
+            for (int i = 0; i < inputs.length; i++) {
+                if (inputs[i] == input) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        Object valueOf(NodeInput<?> input) {
+            int index = indexOf(input);
+            return index < values.length ? values[index] : null;
+        }
+    }
+
+    /**
+     * Bindings of the nested evaluations running on a thread.
+     * Binding objects are reused so that evaluating a node does not allocate.
+     */
+    private static final class BindingStack {
+        private Binding[] bindings = new Binding[4];
+        private int depth;
+
+        void push(NodeInput<?>[] inputs, Object[] values, FrameTime time) {
+            if (depth == bindings.length) {
+                bindings = Arrays.copyOf(bindings, depth * 2);
+            }
+            Binding binding = bindings[depth];
+            if (binding == null) {
+                binding = new Binding();
+                bindings[depth] = binding;
+            }
+            binding.inputs = inputs;
+            binding.values = values;
+            binding.time = time;
+            depth++;
+        }
+
+        void pop() {
+            Binding binding = bindings[--depth];
+            binding.inputs = null;
+            binding.values = null;
+            binding.time = null;
+        }
+
+        Binding current() {
+            return depth > 0 ? bindings[depth - 1] : null;
+        }
+    }
 }
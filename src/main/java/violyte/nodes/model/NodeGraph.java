@@ -1,22 +1,77 @@
 package violyte.nodes.model;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import violyte.nodes.monitoring.ConnectionEditEvent;
+import violyte.nodes.monitoring.NodeEditEvent;
 
 /**
  * Model representing a node graph.
+ * <p>
+ * The graph is edited by a single writer, usually the UI thread, and can be read from any thread without
+ * locking. Nodes and connections are appended to logs, each entry recording the version of the graph that
+ * added it and the one that removed it, and every edit publishes an immutable {@link Snapshot} of the new
+ * version. A snapshot only reads the entries visible in its version, so background readers see a consistent
+ * graph while it keeps changing, and never delay the writer. Node positions are not versioned: moving a node
+ * publishes no new version, and a snapshot reads the latest position of its nodes.
+ * <p>
+ * Listeners subscribe to the kinds of {@link EventType events} they handle, optionally only for one node, so
+ * an event is only dispatched to the subscriptions interested in it: moving a node while dragging does not
+ * reach listeners that ignore moves. A subscription can also be delivered on an executor rather than on the
+ * editing thread.
  */
 public class NodeGraph {
-    private final List<NodeInstance> nodes;
-    private final List<Connection> connections;
-    private final List<NodeGraphListener> listeners;
+    private static final Subscription[][] NO_SUBSCRIPTIONS = new Subscription[EventType.values().length][0];
+
+    private volatile Subscription[][] subscriptions;
+    private final Map<Integer, Subscription[][]> nodeSubscriptions;
+    private final Map<Integer, NodeInstance> liveNodes;
+    private final Map<Integer, Connection> liveConnections;
+    /** Live connections by node port, see {@link #portKey(int, int, boolean)}. Written under the lock. */
+    private final Map<Long, Set<Connection>> portConnections;
+    private NodeInstance[] nodeLog;
+    private int nodeLogSize;
+    private int liveNodeCount;
+    private Connection[] connectionLog;
+    private int connectionLogSize;
+    private int liveConnectionCount;
+    private long version;
+    private volatile Snapshot snapshot;
     private int nextNodeId;
+    private int nextConnectionId;
+    private final GraphHashes hashes;
 
     public NodeGraph() {
-        this.nodes = new ArrayList<>();
-        this.connections = new ArrayList<>();
-        this.listeners = new ArrayList<>();
+        this.subscriptions = NO_SUBSCRIPTIONS;
+        this.nodeSubscriptions = new ConcurrentHashMap<>();
+        this.liveNodes = new ConcurrentHashMap<>();
+        this.liveConnections = new ConcurrentHashMap<>();
+        this.portConnections = new ConcurrentHashMap<>();
+        this.nodeLog = new NodeInstance[16];
+        this.connectionLog = new Connection[16];
+        this.snapshot = new Snapshot(0, nodeLog, 0, 0, connectionLog, 0, 0);
         this.nextNodeId = 1;
+        this.nextConnectionId = 1;
+        this.hashes = new GraphHashes();
     }
 
     /**
@@ -25,34 +80,121 @@ public class NodeGraph {
      * @return The NodeInstance with the given ID, or null if not found
      */
     public NodeInstance getNodeById(int nodeId) {
-        for (NodeInstance instance : nodes) {
-            if (instance.getId() == nodeId) {
-                return instance;
-            }
-        }
-        return null;
+        return liveNodes.get(nodeId);
     }
 
     /**
      * Add a node instance to the graph.
      */
     public NodeInstance addNode(Node<?> node, double x, double y) {
-        NodeInstance instance = new NodeInstance(nextNodeId++, node, x, y);
-        nodes.add(instance);
+        NodeInstance instance;
+        synchronized (this) {
+            instance = new NodeInstance(nextNodeId++, node, x, y);
+            appendNode(instance);
+        }
+        recordNodeEdit(NodeEditEvent.ADDED, instance);
         notifyNodeAdded(instance);
         return instance;
     }
 
     /**
-     * Remove a node instance from the graph.
+     * Add a node instance with a specific ID to the graph, for example when loading a saved graph.
+     * @throws IllegalArgumentException If a node with this ID already exists
+     */
+    public NodeInstance addNode(int nodeId, Node<?> node, double x, double y) {
+        NodeInstance instance;
+        synchronized (this) {
+            if (getNodeById(nodeId) != null) {
+                throw new IllegalArgumentException("A node with ID " + nodeId + " already exists");
+            }
+            instance = new NodeInstance(nodeId, node, x, y);
+            nextNodeId = Math.max(nextNodeId, nodeId + 1);
+            appendNode(instance);
+        }
+        recordNodeEdit(NodeEditEvent.ADDED, instance);
+        notifyNodeAdded(instance);
+        return instance;
+    }
+
+    /**
+     * Add every node and connection of another graph to this one, as a single version of the graph.
+     * The nodes get new IDs, and listeners are notified once through
+     * {@link NodeGraphListener#onSubgraphAdded(List, List)}, so that inserting thousands of nodes, for example
+     * when pasting, does not cost thousands of notifications.
+     * <p>
+     * The node objects are taken over rather than copied: the source graph is typically one just read from
+     * the clipboard, and must not be used afterwards.
+     * @param source The graph whose nodes and connections are inserted
+     * @param offsetX The offset added to the x coordinate of the nodes
+     * @param offsetY The offset added to the y coordinate of the nodes
+     * @return The inserted nodes, in the order of the source graph
+     */
+    public List<NodeInstance> insert(NodeGraph source, double offsetX, double offsetY) {
+        Snapshot inserted = source.snapshot();
+        List<NodeInstance> nodes = new ArrayList<>(inserted.getNodes().size());
+        List<Connection> connections = new ArrayList<>(inserted.getConnections().size());
+        synchronized (this) {
+            long added = ++version;
+            Map<Integer, Integer> ids = new HashMap<>();
+            for (NodeInstance original : inserted.getNodes()) {
+                NodeInstance instance = new NodeInstance(nextNodeId++, original.getNode(),
+                    original.getX() + offsetX, original.getY() + offsetY);
+                ids.put(original.getId(), instance.getId());
+                logNode(instance, added);
+                nodes.add(instance);
+            }
+            for (Connection original : inserted.getConnections()) {
+                Connection connection = new Connection(ids.get(original.getSourceNode()), original.getSourceOutput(),
+                    ids.get(original.getTargetNode()), original.getTargetInput());
+                logConnection(connection, added);
+                connections.add(connection);
+            }
+            publish();
+        }
+        for (NodeInstance instance : nodes) {
+            recordNodeEdit(NodeEditEvent.ADDED, instance);
+        }
+        for (Connection connection : connections) {
+            recordConnectionEdit(ConnectionEditEvent.ADDED, connection);
+        }
+        notifySubgraphAdded(nodes, connections);
+        return nodes;
+    }
+
+    /**
+     * Remove a node instance from the graph, along with its connections.
+     * Listeners are notified of the removal of each connection, then of the node.
      */
     public void removeNode(NodeInstance instance) {
-        // Remove all connections involving this node
-        connections.removeIf(conn -> 
-            conn.getSourceNode() == instance.getId() || 
-            conn.getTargetNode() == instance.getId()
-        );
-        nodes.remove(instance);
+        Set<Connection> removedConnections = new TreeSet<>(Comparator.comparingInt(Connection::getId));
+        synchronized (this) {
+            if (liveNodes.get(instance.getId()) != instance) {
+                return;
+            }
+            long removed = ++version;
+
+            Node<?> node = instance.getNode();
+            for (int i = 0; i < node.getInputs().length; i++) {
+                removedConnections.addAll(portConnections.getOrDefault(portKey(instance.getId(), i, true), Set.of()));
+            }
+            for (int o = 0; o < node.getOutputs().length; o++) {
+                removedConnections.addAll(portConnections.getOrDefault(portKey(instance.getId(), o, false), Set.of()));
+            }
+            for (Connection connection : removedConnections) {
+                unlinkConnection(connection, removed);
+            }
+            hashes.nodeRemoved(instance);
+            instance.removed = removed;
+            liveNodes.remove(instance.getId());
+            liveNodeCount--;
+            compact();
+            publish();
+        }
+        for (Connection connection : removedConnections) {
+            recordConnectionEdit(ConnectionEditEvent.REMOVED, connection);
+            notifyConnectionRemoved(connection);
+        }
+        recordNodeEdit(NodeEditEvent.REMOVED, instance);
         notifyNodeRemoved(instance);
     }
 
@@ -65,25 +207,173 @@ public class NodeGraph {
         }
     }
 
+    /**
+     * Replace nodes with a new one as a single version of the graph, for example when collapsing them into a group.
+     * The removed nodes lose their connections, and the given connections, which may link the new node, are added.
+     * Listeners are notified once the whole edit is visible: of the removal of each connection and node, then once
+     * through {@link NodeGraphListener#onSubgraphAdded(List, List)}.
+     * @param nodes The nodes to remove
+     * @param node The node added in their place
+     * @param x The x coordinate of the new node
+     * @param y The y coordinate of the new node
+     * @param connections Builds the connections to add from the instance of the new node
+     * @return The instance of the new node
+     * @throws IllegalArgumentException If a node to remove is not in the graph, or a connection links ports that
+     *                                  cannot be connected
+     */
+    public NodeInstance replaceNodes(Collection<NodeInstance> nodes, Node<?> node, double x, double y,
+                                     Function<NodeInstance, List<Connection>> connections) {
+        Set<NodeInstance> removed = new LinkedHashSet<>(nodes);
+        Set<Connection> removedConnections = new TreeSet<>(Comparator.comparingInt(Connection::getId));
+        NodeInstance instance;
+        List<Connection> added;
+        synchronized (this) {
+            Set<Integer> removedIds = new HashSet<>();
+            for (NodeInstance removedNode : removed) {
+                if (liveNodes.get(removedNode.getId()) != removedNode) {
+                    throw new IllegalArgumentException(removedNode.getNode() + " is not in the graph");
+                }
+                removedIds.add(removedNode.getId());
+            }
+            instance = new NodeInstance(nextNodeId, node, x, y);
+            added = connections.apply(instance);
+            for (Connection connection : added) {
+                NodeInstance source = connection.getSourceNode() == instance.getId()
+                    ? instance : liveNodes.get(connection.getSourceNode());
+                NodeInstance target = connection.getTargetNode() == instance.getId()
+                    ? instance : liveNodes.get(connection.getTargetNode());
+                if (source == null || target == null || removedIds.contains(source.getId())
+                        || removedIds.contains(target.getId())
+                        || !canConnect(source, connection.getSourceOutput(), target, connection.getTargetInput())) {
+                    throw new IllegalArgumentException("Cannot connect output " + connection.getSourceOutput()
+                        + " of node " + connection.getSourceNode() + " to input " + connection.getTargetInput()
+                        + " of node " + connection.getTargetNode());
+                }
+            }
+
+            long replaced = ++version;
+            nextNodeId++;
+            for (NodeInstance removedNode : removed) {
+                Node<?> removedType = removedNode.getNode();
+                for (int i = 0; i < removedType.getInputs().length; i++) {
+                    removedConnections.addAll(
+                        portConnections.getOrDefault(portKey(removedNode.getId(), i, true), Set.of()));
+                }
+                for (int o = 0; o < removedType.getOutputs().length; o++) {
+                    removedConnections.addAll(
+                        portConnections.getOrDefault(portKey(removedNode.getId(), o, false), Set.of()));
+                }
+            }
+            for (Connection connection : removedConnections) {
+                unlinkConnection(connection, replaced);
+            }
+            for (NodeInstance removedNode : removed) {
+                hashes.nodeRemoved(removedNode);
+                removedNode.removed = replaced;
+                liveNodes.remove(removedNode.getId());
+                liveNodeCount--;
+            }
+            logNode(instance, replaced);
+            for (Connection connection : added) {
+                logConnection(connection, replaced);
+            }
+            compact();
+            publish();
+        }
+        for (Connection connection : removedConnections) {
+            recordConnectionEdit(ConnectionEditEvent.REMOVED, connection);
+            notifyConnectionRemoved(connection);
+        }
+        for (NodeInstance removedNode : removed) {
+            recordNodeEdit(NodeEditEvent.REMOVED, removedNode);
+            notifyNodeRemoved(removedNode);
+        }
+        recordNodeEdit(NodeEditEvent.ADDED, instance);
+        for (Connection connection : added) {
+            recordConnectionEdit(ConnectionEditEvent.ADDED, connection);
+        }
+        notifySubgraphAdded(List.of(instance), added);
+        return instance;
+    }
+
     /**
      * Move a node to a new position.
      */
     public void moveNode(NodeInstance instance, double x, double y) {
-        instance.setX(x);
-        instance.setY(y);
+        instance.moveTo(x, y);
+        recordNodeEdit(NodeEditEvent.MOVED, instance);
         notifyNodeMoved(instance);
     }
 
+    /**
+     * Move several nodes at once, for example to apply a layout.
+     * Every node is moved before listeners are notified, once through
+     * {@link NodeGraphListener#onNodesMoved(List)}, so that none of them sees a partial move and applying a layout
+     * to thousands of nodes does not cost thousands of notifications. Nodes no longer in the graph are skipped.
+     * @param nodeIds The IDs of the nodes to move
+     * @param x The new x coordinate of each node
+     * @param y The new y coordinate of each node
+     */
+    public void moveNodes(int[] nodeIds, double[] x, double[] y) {
+        NodeEditEvent event = new NodeEditEvent();
+        event.begin();
+        List<NodeInstance> moved = new ArrayList<>(nodeIds.length);
+        for (int i = 0; i < nodeIds.length; i++) {
+            NodeInstance instance = liveNodes.get(nodeIds[i]);
+            if (instance != null) {
+                instance.moveTo(x[i], y[i]);
+                moved.add(instance);
+            }
+        }
+        if (moved.isEmpty()) {
+            return;
+        }
+        if (event.shouldCommit()) {
+            NodeInstance first = moved.get(0);
+            event.operation = NodeEditEvent.MOVED;
+            event.nodeId = first.getId();
+            event.label = first.getNode().getLabel();
+            event.x = first.getX();
+            event.y = first.getY();
+            event.count = moved.size();
+            event.commit();
+        }
+        notifyNodesMoved(Collections.unmodifiableList(moved));
+    }
+
+    /**
+     * Check whether an output can be connected to an input.
+     * @return True if both ports exist and the input type accepts the output type, directly or through an adapter
+     *         of {@link TypeAdapters#getDefault()}
+     */
+    public boolean canConnect(NodeInstance source, int outputIndex, NodeInstance target, int inputIndex) {
+        NodeOutput[] outputs = source.getNode().getOutputs();
+        NodeInput<?>[] inputs = target.getNode().getInputs();
+        if (outputIndex < 0 || outputIndex >= outputs.length || inputIndex < 0 || inputIndex >= inputs.length) {
+            return false;
+        }
+        return TypeAdapters.getDefault().canConvert(outputs[outputIndex].type(), inputs[inputIndex].getType());
+    }
+
     /**
      * Connect two nodes.
+     * @throws IllegalArgumentException If the output cannot be connected to the input
      */
     public Connection connectNodes(NodeInstance source, int outputIndex, 
                                    NodeInstance target, int inputIndex) {
+        if (!canConnect(source, outputIndex, target, inputIndex)) {
+            throw new IllegalArgumentException("Cannot connect output " + outputIndex + " of " + source.getNode()
+                + " to input " + inputIndex + " of " + target.getNode());
+        }
         Connection connection = new Connection(
             source.getId(), outputIndex,
             target.getId(), inputIndex
         );
-        connections.add(connection);
+        synchronized (this) {
+            logConnection(connection, ++version);
+            publish();
+        }
+        recordConnectionEdit(ConnectionEditEvent.ADDED, connection);
         notifyConnectionAdded(connection);
         return connection;
     }
@@ -92,67 +382,712 @@ public class NodeGraph {
      * Remove a connection.
      */
     public void removeConnection(Connection connection) {
-        connections.remove(connection);
+        synchronized (this) {
+            if (liveConnections.get(connection.getId()) != connection) {
+                return;
+            }
+            unlinkConnection(connection, ++version);
+            compact();
+            publish();
+        }
+        recordConnectionEdit(ConnectionEditEvent.REMOVED, connection);
         notifyConnectionRemoved(connection);
     }
 
+    /**
+     * Retrieve a connection of the current version by its ID.
+     * @param connectionId The ID of the connection, as given by {@link Connection#getId()}
+     * @return The connection, or null if there is no such connection in the graph
+     */
+    public Connection getConnectionById(int connectionId) {
+        return liveConnections.get(connectionId);
+    }
+
+    /**
+     * Retrieve the connections feeding an input, in constant time whatever the number of connections of the node.
+     * This does not lock, like reading a snapshot.
+     * @param nodeId The ID of the node
+     * @param inputIndex The index of the input
+     * @return The connections to the input, usually none or one, in the order they were made
+     */
+    public List<Connection> getConnectionsToInput(int nodeId, int inputIndex) {
+        return connectionsOf(portKey(nodeId, inputIndex, true));
+    }
+
+    /**
+     * Retrieve the connections leaving an output. This does not lock, like reading a snapshot.
+     * @param nodeId The ID of the node
+     * @param outputIndex The index of the output
+     * @return The connections from the output, in the order they were made
+     */
+    public List<Connection> getConnectionsFromOutput(int nodeId, int outputIndex) {
+        return connectionsOf(portKey(nodeId, outputIndex, false));
+    }
+
+    private List<Connection> connectionsOf(long port) {
+        Set<Connection> connections = portConnections.get(port);
+        if (connections == null) {
+            return List.of();
+        }
+        Connection[] array = connections.toArray(new Connection[0]);
+        // IDs are given in the order connections are made
+        Arrays.sort(array, Comparator.comparingInt(Connection::getId));
+        return List.of(array);
+    }
+
+    /**
+     * Set the parameter value of an input of a node, used when no wire is connected to it.
+     * Parameters changed directly on the {@link NodeInput} are not seen by the structural hashes nor by
+     * listeners, so editors go through this method.
+     * @param instance The node
+     * @param inputIndex The index of the input
+     * @param value The new value, of the type of the input
+     * @throws IllegalArgumentException If the node has no such input
+     */
+    @SuppressWarnings("unchecked")
+    public void setParameter(NodeInstance instance, int inputIndex, Object value) {
+        NodeInput<?>[] inputs = instance.getNode().getInputs();
+        if (inputIndex < 0 || inputIndex >= inputs.length) {
+            throw new IllegalArgumentException(instance.getNode() + " has no input " + inputIndex);
+        }
+        synchronized (this) {
+            ((NodeInput<Object>) inputs[inputIndex]).setValue(value);
+            if (liveNodes.get(instance.getId()) == instance) {
+                hashes.parameterChanged(instance);
+                hashes.commit();
+            }
+        }
+        recordNodeEdit(NodeEditEvent.PARAMETER_CHANGED, instance);
+        dispatch(EventType.PARAMETER_CHANGED, instance, instance.getId(), instance.getId());
+    }
+
+    /**
+     * Retrieve a hash of the structure of the graph: the type and parameters of its nodes and the connections
+     * between them, ignoring node IDs and positions. The hash is the same from one session to the next, and is
+     * updated incrementally, so comparing it with an earlier one is a cheap way to tell whether the graph changed.
+     * Computing it never delays edits, which only record what they changed.
+     * @return The hash of the current version of the graph
+     */
+    public long getStructuralHash() {
+        return hashes.graphHash();
+    }
+
+    /**
+     * Retrieve a hash of a node and of the subgraph upstream of it, which changes whenever anything the outputs
+     * of the node depend on changes, like {@link #getStructuralHash()} for the whole graph.
+     * @param nodeId The ID of the node
+     * @return The hash of the node and its upstream subgraph
+     * @throws IllegalArgumentException If there is no node with this ID
+     */
+    public long getUpstreamHash(int nodeId) {
+        return hashes.upstreamHash(nodeId);
+    }
+
+    /**
+     * Retrieve the nodes of the current version of the graph.
+     * @return An immutable list of the nodes, in the order they were added
+     */
     public List<NodeInstance> getNodes() {
-        return new ArrayList<>(nodes);
+        return snapshot.getNodes();
     }
 
+    /**
+     * Retrieve the connections of the current version of the graph.
+     * @return An immutable list of the connections, in the order they were made
+     */
     public List<Connection> getConnections() {
-        return new ArrayList<>(connections);
+        return snapshot.getConnections();
+    }
+
+    /**
+     * Take a consistent view of the current version of the graph.
+     * This never blocks, and the snapshot stays valid and unchanged while the graph is edited, so it can be
+     * read from any thread.
+     * @return The snapshot of the current version
+     */
+    public Snapshot snapshot() {
+        return snapshot;
     }
 
-    public void addListener(NodeGraphListener listener) {
-        listeners.add(listener);
+    /**
+     * Retrieve the current version of the graph, incremented by every structural edit.
+     */
+    public long getVersion() {
+        return snapshot.getVersion();
     }
 
+    /**
+     * Subscribe a listener to every event of the graph, delivered on the editing thread.
+     * @return The subscription, to cancel it
+     */
+    public Subscription addListener(NodeGraphListener listener) {
+        return addListener(listener, EnumSet.allOf(EventType.class));
+    }
+
+    /**
+     * Subscribe a listener to some kinds of events, delivered on the editing thread.
+     * @param types The kinds of events the listener handles
+     * @return The subscription, to cancel it
+     */
+    public Subscription addListener(NodeGraphListener listener, Set<EventType> types) {
+        return addListener(listener, types, null);
+    }
+
+    /**
+     * Subscribe a listener to some kinds of events.
+     * @param types The kinds of events the listener handles
+     * @param executor The executor delivering the events, in order, or null to deliver them on the editing thread
+     * @return The subscription, to cancel it
+     */
+    public Subscription addListener(NodeGraphListener listener, Set<EventType> types, Executor executor) {
+        Subscription subscription = new Subscription(this, listener, types, Subscription.ALL_NODES, executor);
+        synchronized (nodeSubscriptions) {
+            subscriptions = subscribe(subscriptions, subscription);
+        }
+        return subscription;
+    }
+
+    /**
+     * Subscribe a listener to the events of a single node: its own events, and those of the connections from
+     * or to it.
+     * @param nodeId The ID of the node, which may not exist yet
+     * @param types The kinds of events the listener handles
+     * @param executor The executor delivering the events, in order, or null to deliver them on the editing thread
+     * @return The subscription, to cancel it
+     */
+    public Subscription addNodeListener(int nodeId, NodeGraphListener listener, Set<EventType> types,
+                                        Executor executor) {
+        Subscription subscription = new Subscription(this, listener, types, nodeId, executor);
+        synchronized (nodeSubscriptions) {
+            nodeSubscriptions.put(nodeId,
+                subscribe(nodeSubscriptions.getOrDefault(nodeId, NO_SUBSCRIPTIONS), subscription));
+        }
+        return subscription;
+    }
+
+    /**
+     * Cancel every subscription of a listener.
+     */
     public void removeListener(NodeGraphListener listener) {
-        listeners.remove(listener);
+        synchronized (nodeSubscriptions) {
+            subscriptions = unsubscribe(subscriptions, s -> s.listener == listener);
+            nodeSubscriptions.replaceAll((id, byType) -> unsubscribe(byType, s -> s.listener == listener));
+            nodeSubscriptions.values().removeIf(byType -> byType == NO_SUBSCRIPTIONS);
+        }
+    }
+
+    private void cancel(Subscription subscription) {
+        synchronized (nodeSubscriptions) {
+            if (subscription.nodeId == Subscription.ALL_NODES) {
+                subscriptions = unsubscribe(subscriptions, s -> s == subscription);
+            } else {
+                Subscription[][] byType = nodeSubscriptions.get(subscription.nodeId);
+                if (byType != null) {
+                    byType = unsubscribe(byType, s -> s == subscription);
+                    if (byType == NO_SUBSCRIPTIONS) {
+                        nodeSubscriptions.remove(subscription.nodeId);
+                    } else {
+                        nodeSubscriptions.put(subscription.nodeId, byType);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy subscription arrays, by event type, with one more subscription.
+     */
+    private static Subscription[][] subscribe(Subscription[][] byType, Subscription subscription) {
+        Subscription[][] copy = byType.clone();
+        for (EventType type : subscription.types) {
+            Subscription[] current = copy[type.ordinal()];
+            copy[type.ordinal()] = Arrays.copyOf(current, current.length + 1);
+            copy[type.ordinal()][current.length] = subscription;
+        }
+        return copy;
+    }
+
+    /**
+     * Copy subscription arrays, by event type, without the matching subscriptions, which are cancelled.
+     * @return The copy, or {@link #NO_SUBSCRIPTIONS} if none is left
+     */
+    private static Subscription[][] unsubscribe(Subscription[][] byType,
+                                                Predicate<Subscription> matching) {
+        Subscription[][] copy = new Subscription[byType.length][];
+        boolean empty = true;
+        for (int t = 0; t < byType.length; t++) {
+            copy[t] = Arrays.stream(byType[t]).filter(s -> {
+                if (matching.test(s)) {
+                    s.cancelled = true;
+                    return false;
+                }
+                return true;
+            }).toArray(Subscription[]::new);
+            empty &= copy[t].length == 0;
+        }
+        return empty ? NO_SUBSCRIPTIONS : copy;
+    }
+
+    /**
+     * Append a new node to the log and publish the new version. Must hold the lock.
+     */
+    private void appendNode(NodeInstance instance) {
+        logNode(instance, ++version);
+        publish();
+    }
+
+    /**
+     * Append a node to the log, visible from a version. Must hold the lock.
+     */
+    private void logNode(NodeInstance instance, long added) {
+        instance.added = added;
+        if (nodeLogSize == nodeLog.length) {
+            nodeLog = Arrays.copyOf(nodeLog, nodeLogSize * 2);
+        }
+        nodeLog[nodeLogSize++] = instance;
+        liveNodes.put(instance.getId(), instance);
+        liveNodeCount++;
+        hashes.nodeAdded(instance);
+    }
+
+    /**
+     * Append a connection to the log, visible from a version. Must hold the lock.
+     */
+    private void logConnection(Connection connection, long added) {
+        connection.id = nextConnectionId++;
+        connection.added = added;
+        if (connectionLogSize == connectionLog.length) {
+            connectionLog = Arrays.copyOf(connectionLog, connectionLogSize * 2);
+        }
+        connectionLog[connectionLogSize++] = connection;
+        liveConnectionCount++;
+        liveConnections.put(connection.getId(), connection);
+        portConnections.computeIfAbsent(portKey(connection.getSourceNode(), connection.getSourceOutput(), false),
+            k -> ConcurrentHashMap.newKeySet()).add(connection);
+        portConnections.computeIfAbsent(portKey(connection.getTargetNode(), connection.getTargetInput(), true),
+            k -> ConcurrentHashMap.newKeySet()).add(connection);
+        hashes.connectionAdded(connection);
+    }
+
+    /**
+     * Mark a live connection removed from a version, and drop it from the indexes. Must hold the lock.
+     */
+    private void unlinkConnection(Connection connection, long removed) {
+        connection.removed = removed;
+        liveConnectionCount--;
+        liveConnections.remove(connection.getId());
+        unindex(portKey(connection.getSourceNode(), connection.getSourceOutput(), false), connection);
+        unindex(portKey(connection.getTargetNode(), connection.getTargetInput(), true), connection);
+        hashes.connectionRemoved(connection);
+    }
+
+    private void unindex(long port, Connection connection) {
+        Set<Connection> connections = portConnections.get(port);
+        if (connections != null && connections.remove(connection) && connections.isEmpty()) {
+            portConnections.remove(port);
+        }
+    }
+
+    /**
+     * Identify a port of a node, inputs and outputs being told apart by the lowest bit.
+     */
+    private static long portKey(int nodeId, int index, boolean input) {
+        return ((long) nodeId << 32) | ((long) index << 1) | (input ? 1 : 0);
+    }
+
+    /**
+     * Drop removed entries from the logs once they make up most of them. Must hold the lock.
+     * The logs are copied rather than compacted in place, since older snapshots may still read them.
+     */
+    private void compact() {
+        if (nodeLogSize - liveNodeCount > Math.max(64, liveNodeCount)) {
+            NodeInstance[] compacted = new NodeInstance[Math.max(16, liveNodeCount * 2)];
+            int size = 0;
+            for (int i = 0; i < nodeLogSize; i++) {
+                if (nodeLog[i].removed == Long.MAX_VALUE) {
+                    compacted[size++] = nodeLog[i];
+                }
+            }
+            nodeLog = compacted;
+            nodeLogSize = size;
+        }
+        if (connectionLogSize - liveConnectionCount > Math.max(64, liveConnectionCount)) {
+            Connection[] compacted = new Connection[Math.max(16, liveConnectionCount * 2)];
+            int size = 0;
+            for (int i = 0; i < connectionLogSize; i++) {
+                if (connectionLog[i].removed == Long.MAX_VALUE) {
+                    compacted[size++] = connectionLog[i];
+                }
+            }
+            connectionLog = compacted;
+            connectionLogSize = size;
+        }
+    }
+
+    /**
+     * Publish the current version to readers, and its changes to the hashes. Must hold the lock.
+     * Log entries are written before this volatile write, so readers of the snapshot see them.
+     */
+    private void publish() {
+        snapshot = new Snapshot(version, nodeLog, nodeLogSize, liveNodeCount,
+            connectionLog, connectionLogSize, liveConnectionCount);
+        hashes.commit();
+    }
+
+    // Flight Recorder events
+
+    private static void recordNodeEdit(String operation, NodeInstance instance) {
+        NodeEditEvent event = new NodeEditEvent();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.nodeId = instance.getId();
+            event.label = instance.getNode().getLabel();
+            event.x = instance.getX();
+            event.y = instance.getY();
+            event.commit();
+        }
+    }
+
+    private static void recordConnectionEdit(String operation, Connection connection) {
+        ConnectionEditEvent event = new ConnectionEditEvent();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.sourceNode = connection.getSourceNode();
+            event.sourceOutput = connection.getSourceOutput();
+            event.targetNode = connection.getTargetNode();
+            event.targetInput = connection.getTargetInput();
+            event.commit();
+        }
     }
 
     // Notification methods
-    
+
     private void notifyNodeAdded(NodeInstance instance) {
-        for (NodeGraphListener listener : listeners) {
-            listener.onNodeAdded(instance);
-        }
+        dispatch(EventType.NODE_ADDED, instance, instance.getId(), instance.getId());
     }
 
     private void notifyNodeRemoved(NodeInstance instance) {
-        for (NodeGraphListener listener : listeners) {
-            listener.onNodeRemoved(instance);
-        }
+        dispatch(EventType.NODE_REMOVED, instance, instance.getId(), instance.getId());
     }
 
     private void notifyNodeMoved(NodeInstance instance) {
-        for (NodeGraphListener listener : listeners) {
-            listener.onNodeMoved(instance);
-        }
+        dispatch(EventType.NODE_MOVED, instance, instance.getId(), instance.getId());
     }
 
     private void notifyConnectionAdded(Connection connection) {
-        for (NodeGraphListener listener : listeners) {
-            listener.onConnectionAdded(connection);
-        }
+        dispatch(EventType.CONNECTION_ADDED, connection, connection.getSourceNode(), connection.getTargetNode());
     }
 
     private void notifyConnectionRemoved(Connection connection) {
-        for (NodeGraphListener listener : listeners) {
-            listener.onConnectionRemoved(connection);
+        dispatch(EventType.CONNECTION_REMOVED, connection, connection.getSourceNode(), connection.getTargetNode());
+    }
+
+    /**
+     * Deliver inserted nodes and connections in one call to each subscription to any of them, and one by one
+     * to the subscriptions of single nodes.
+     */
+    private void notifySubgraphAdded(List<NodeInstance> nodes, List<Connection> connections) {
+        Subscription[][] byType = subscriptions;
+        Set<Subscription> notified = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (EventType type : List.of(EventType.NODE_ADDED, EventType.CONNECTION_ADDED)) {
+            for (Subscription subscription : byType[type.ordinal()]) {
+                if (notified.add(subscription)) {
+                    subscription.deliverSubgraph(nodes, connections);
+                }
+            }
+        }
+        if (nodeSubscriptions.isEmpty()) {
+            return;
+        }
+        for (NodeInstance instance : nodes) {
+            Subscription[][] byNode = nodeSubscriptions.get(instance.getId());
+            if (byNode != null) {
+                for (Subscription subscription : byNode[EventType.NODE_ADDED.ordinal()]) {
+                    subscription.deliver(EventType.NODE_ADDED, instance);
+                }
+            }
+        }
+        for (Connection connection : connections) {
+            for (int nodeId : new int[]{connection.getSourceNode(), connection.getTargetNode()}) {
+                Subscription[][] byNode = nodeSubscriptions.get(nodeId);
+                if (byNode != null) {
+                    for (Subscription subscription : byNode[EventType.CONNECTION_ADDED.ordinal()]) {
+                        subscription.deliver(EventType.CONNECTION_ADDED, connection);
+                    }
+                }
+                if (connection.getSourceNode() == connection.getTargetNode()) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Deliver moved nodes in one call to each subscription to moves, and one by one to the subscriptions of
+     * single nodes.
+     */
+    private void notifyNodesMoved(List<NodeInstance> nodes) {
+        for (Subscription subscription : subscriptions[EventType.NODE_MOVED.ordinal()]) {
+            subscription.deliverMoves(nodes);
+        }
+        if (nodeSubscriptions.isEmpty()) {
+            return;
+        }
+        for (NodeInstance instance : nodes) {
+            Subscription[][] byNode = nodeSubscriptions.get(instance.getId());
+            if (byNode != null) {
+                for (Subscription subscription : byNode[EventType.NODE_MOVED.ordinal()]) {
+                    subscription.deliver(EventType.NODE_MOVED, instance);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deliver an event to the subscriptions to its type, and to those of the nodes it concerns.
+     */
+    private void dispatch(EventType type, Object subject, int nodeId, int otherNodeId) {
+        for (Subscription subscription : subscriptions[type.ordinal()]) {
+            subscription.deliver(type, subject);
+        }
+        if (nodeSubscriptions.isEmpty()) {
+            return;
+        }
+        Subscription[][] byNode = nodeSubscriptions.get(nodeId);
+        if (byNode != null) {
+            for (Subscription subscription : byNode[type.ordinal()]) {
+                subscription.deliver(type, subject);
+            }
+        }
+        if (otherNodeId != nodeId && (byNode = nodeSubscriptions.get(otherNodeId)) != null) {
+            for (Subscription subscription : byNode[type.ordinal()]) {
+                subscription.deliver(type, subject);
+            }
         }
     }
 
     /**
      * Listener interface for node graph changes.
+     * Every method does nothing by default, so a listener only implements the events it subscribes to.
      */
     public interface NodeGraphListener {
-        void onNodeAdded(NodeInstance instance);
-        void onNodeRemoved(NodeInstance instance);
-        void onNodeMoved(NodeInstance instance);
-        void onConnectionAdded(Connection connection);
-        void onConnectionRemoved(Connection connection);
+        default void onNodeAdded(NodeInstance instance) {
+        }
+
+        default void onNodeRemoved(NodeInstance instance) {
+        }
+
+        default void onNodeMoved(NodeInstance instance) {
+        }
+
+        /**
+         * Called once when many nodes are moved at once through {@link #moveNodes(int[], double[], double[])},
+         * by default as if each node was moved on its own.
+         * @param instances The moved nodes, at their new positions
+         */
+        default void onNodesMoved(List<NodeInstance> instances) {
+            for (NodeInstance instance : instances) {
+                onNodeMoved(instance);
+            }
+        }
+
+        default void onConnectionAdded(Connection connection) {
+        }
+
+        default void onConnectionRemoved(Connection connection) {
+        }
+
+        /**
+         * Called when a parameter of a node is changed through {@link #setParameter(NodeInstance, int, Object)}.
+         */
+        default void onParameterChanged(NodeInstance instance) {
+        }
+
+        /**
+         * Called once when many nodes and the connections between them are added at once, by default as
+         * if each node then each connection was added on its own.
+         * A subscription to only one of the kinds of events receives an empty list for the other.
+         * @param nodes The added nodes
+         * @param connections The added connections
+         */
+        default void onSubgraphAdded(List<NodeInstance> nodes, List<Connection> connections) {
+            for (NodeInstance instance : nodes) {
+                onNodeAdded(instance);
+            }
+            for (Connection connection : connections) {
+                onConnectionAdded(connection);
+            }
+        }
+    }
+
+    /**
+     * Kinds of events a listener can subscribe to.
+     */
+    public enum EventType {
+        NODE_ADDED,
+        NODE_REMOVED,
+        NODE_MOVED,
+        CONNECTION_ADDED,
+        CONNECTION_REMOVED,
+        PARAMETER_CHANGED
+    }
+
+    /**
+     * Subscription of a listener to some events of a graph.
+     * Events delivered on an executor are queued and run one at a time, in the order they happened. Moves of
+     * a node still waiting to be delivered are merged into one, since the listener reads the latest position.
+     * The subscription is cancelled if its executor rejects a delivery, for example once shut down.
+     */
+    public static final class Subscription {
+        static final int ALL_NODES = Integer.MIN_VALUE;
+
+        private final NodeGraph graph;
+        private final NodeGraphListener listener;
+        private final Set<EventType> types;
+        private final int nodeId;
+        private final Executor executor;
+        private final ArrayDeque<Runnable> queue;
+        private final Set<NodeInstance> pendingMoves;
+        private boolean draining;
+        private volatile boolean cancelled;
+
+        private Subscription(NodeGraph graph, NodeGraphListener listener, Set<EventType> types, int nodeId,
+                             Executor executor) {
+            this.graph = graph;
+            this.listener = listener;
+            this.types = types.isEmpty() ? EnumSet.noneOf(EventType.class) : EnumSet.copyOf(types);
+            this.nodeId = nodeId;
+            this.executor = executor;
+            this.queue = executor != null ? new ArrayDeque<>() : null;
+            this.pendingMoves = executor != null ? new HashSet<>() : null;
+        }
+
+        public NodeGraphListener getListener() {
+            return listener;
+        }
+
+        public Set<EventType> getTypes() {
+            return Collections.unmodifiableSet(types);
+        }
+
+        /**
+         * Stop delivering events to the listener, including the queued ones not delivered yet.
+         */
+        public void cancel() {
+            graph.cancel(this);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void deliverSubgraph(List<NodeInstance> nodes, List<Connection> connections) {
+            List<NodeInstance> deliveredNodes = types.contains(EventType.NODE_ADDED) ? nodes : List.of();
+            List<Connection> deliveredConnections = types.contains(EventType.CONNECTION_ADDED) ? connections : List.of();
+            Runnable delivery = () -> {
+                if (!cancelled) {
+                    listener.onSubgraphAdded(deliveredNodes, deliveredConnections);
+                }
+            };
+            if (executor == null) {
+                delivery.run();
+            } else {
+                enqueue(delivery);
+            }
+        }
+
+        private void deliverMoves(List<NodeInstance> nodes) {
+            Runnable delivery = () -> {
+                if (!cancelled) {
+                    listener.onNodesMoved(nodes);
+                }
+            };
+            if (executor == null) {
+                delivery.run();
+            } else {
+                enqueue(delivery);
+            }
+        }
+
+        private void deliver(EventType type, Object subject) {
+            if (executor == null) {
+                if (!cancelled) {
+                    call(type, subject);
+                }
+                return;
+            }
+            synchronized (this) {
+                if (type == EventType.NODE_MOVED && !pendingMoves.add((NodeInstance) subject)) {
+                    return;
+                }
+            }
+            enqueue(() -> {
+                if (type == EventType.NODE_MOVED) {
+                    synchronized (this) {
+                        pendingMoves.remove(subject);
+                    }
+                }
+                if (!cancelled) {
+                    call(type, subject);
+                }
+            });
+        }
+
+        /**
+         * Queue a delivery, and start draining the queue on the executor unless it is already.
+         */
+        private void enqueue(Runnable delivery) {
+            synchronized (this) {
+                queue.add(delivery);
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                cancel();
+                synchronized (this) {
+                    queue.clear();
+                    pendingMoves.clear();
+                    draining = false;
+                }
+            }
+        }
+
+        /**
+         * Run the queued deliveries until none is left, on the executor.
+         */
+        private void drain() {
+            while (true) {
+                Runnable delivery;
+                synchronized (this) {
+                    delivery = queue.poll();
+                    if (delivery == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                try {
+                    delivery.run();
+                } catch (RuntimeException e) {
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                }
+            }
+        }
+
+        private void call(EventType type, Object subject) {
+            switch (type) {
+                case NODE_ADDED -> listener.onNodeAdded((NodeInstance) subject);
+                case NODE_REMOVED -> listener.onNodeRemoved((NodeInstance) subject);
+                case NODE_MOVED -> listener.onNodeMoved((NodeInstance) subject);
+                case CONNECTION_ADDED -> listener.onConnectionAdded((Connection) subject);
+                case CONNECTION_REMOVED -> listener.onConnectionRemoved((Connection) subject);
+                case PARAMETER_CHANGED -> listener.onParameterChanged((NodeInstance) subject);
+            }
+        }
     }
 
     /**
@@ -161,16 +1096,14 @@ public class NodeGraph {
     public static class NodeInstance {
         private final int id;
         private final Node<?> node;
-        private double x;
-        private double y;
-        private boolean selected;
+        private volatile Position position;
+        private long added;
+        private volatile long removed = Long.MAX_VALUE;
 
         public NodeInstance(int id, Node<?> node, double x, double y) {
             this.id = id;
             this.node = node;
-            this.x = x;
-            this.y = y;
-            this.selected = false;
+            this.position = new Position(x, y);
         }
 
         public int getId() {
@@ -182,27 +1115,33 @@ public class NodeGraph {
         }
 
         public double getX() {
-            return x;
+            return position.x();
         }
 
         public void setX(double x) {
-            this.x = x;
+            this.position = new Position(x, position.y());
         }
 
         public double getY() {
-            return y;
+            return position.y();
         }
 
         public void setY(double y) {
-            this.y = y;
+            this.position = new Position(position.x(), y);
         }
 
-        public boolean isSelected() {
-            return selected;
+        /**
+         * Change both coordinates at once, so that readers never see half of a move.
+         */
+        void moveTo(double x, double y) {
+            this.position = new Position(x, y);
         }
 
-        public void setSelected(boolean selected) {
-            this.selected = selected;
+        boolean isVisibleIn(long version) {
+            return added != 0 && added <= version && removed > version;
+        }
+
+        private record Position(double x, double y) {
         }
     }
 
@@ -210,10 +1149,13 @@ public class NodeGraph {
      * Represents a connection between two nodes.
      */
     public static class Connection {
+        private int id;
         private final int sourceNode;
         private final int sourceOutput;
         private final int targetNode;
         private final int targetInput;
+        private long added;
+        private volatile long removed = Long.MAX_VALUE;
 
         public Connection(int sourceNode, int sourceOutput, 
                          int targetNode, int targetInput) {
@@ -223,6 +1165,14 @@ public class NodeGraph {
             this.targetInput = targetInput;
         }
 
+        /**
+         * Retrieve the ID of this connection, unique within its graph.
+         * @return The ID given by the graph when the connection was made, or 0 if it was never added to a graph
+         */
+        public int getId() {
+            return id;
+        }
+
         public int getSourceNode() {
             return sourceNode;
         }
@@ -238,5 +1188,98 @@ public class NodeGraph {
         public int getTargetInput() {
             return targetInput;
         }
+
+        boolean isVisibleIn(long version) {
+            return added != 0 && added <= version && removed > version;
+        }
+    }
+
+    /**
+     * Immutable view of one version of a graph.
+     * Its lists are built from the logs of the graph the first time they are requested.
+     */
+    public static final class Snapshot {
+        private final long version;
+        private final NodeInstance[] nodeLog;
+        private final int nodeLogSize;
+        private final int nodeCount;
+        private final Connection[] connectionLog;
+        private final int connectionLogSize;
+        private final int connectionCount;
+        private volatile List<NodeInstance> nodes;
+        private volatile List<Connection> connections;
+        private volatile Map<Integer, NodeInstance> nodesById;
+
+        Snapshot(long version, NodeInstance[] nodeLog, int nodeLogSize, int nodeCount,
+                 Connection[] connectionLog, int connectionLogSize, int connectionCount) {
+            this.version = version;
+            this.nodeLog = nodeLog;
+            this.nodeLogSize = nodeLogSize;
+            this.nodeCount = nodeCount;
+            this.connectionLog = connectionLog;
+            this.connectionLogSize = connectionLogSize;
+            this.connectionCount = connectionCount;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Retrieve the nodes of this version.
+         * @return An immutable list of the nodes, in the order they were added
+         */
+        public List<NodeInstance> getNodes() {
+            List<NodeInstance> list = nodes;
+            if (list == null) {
+                NodeInstance[] visible = new NodeInstance[nodeCount];
+                int size = 0;
+                for (int i = 0; i < nodeLogSize && size < nodeCount; i++) {
+                    if (nodeLog[i].isVisibleIn(version)) {
+                        visible[size++] = nodeLog[i];
+                    }
+                }
+                list = Collections.unmodifiableList(Arrays.asList(visible));
+                nodes = list;
+            }
+            return list;
+        }
+
+        /**
+         * Retrieve the connections of this version.
+         * @return An immutable list of the connections, in the order they were made
+         */
+        public List<Connection> getConnections() {
+            List<Connection> list = connections;
+            if (list == null) {
+                Connection[] visible = new Connection[connectionCount];
+                int size = 0;
+                for (int i = 0; i < connectionLogSize && size < connectionCount; i++) {
+                    if (connectionLog[i].isVisibleIn(version)) {
+                        visible[size++] = connectionLog[i];
+                    }
+                }
+                list = Collections.unmodifiableList(Arrays.asList(visible));
+                connections = list;
+            }
+            return list;
+        }
+
+        /**
+         * Retrieve a node of this version by its ID.
+         * @param nodeId The ID of the node to retrieve
+         * @return The node instance, or null if there was no node with this ID in this version
+         */
+        public NodeInstance getNodeById(int nodeId) {
+            Map<Integer, NodeInstance> map = nodesById;
+            if (map == null) {
+                map = new HashMap<>();
+                for (NodeInstance instance : getNodes()) {
+                    map.put(instance.getId(), instance);
+                }
+                nodesById = map;
+            }
+            return map.get(nodeId);
+        }
     }
 }
@@ -0,0 +1,270 @@
+package violyte.nodes.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import violyte.nodes.model.NodeGraph.Connection;
+import violyte.nodes.model.NodeGraph.NodeInstance;
+
+/**
+ * Reusable definition of a group of nodes, instantiated in other graphs as {@link GroupNode}s.
+ * Some unconnected inputs of the inner nodes are exposed as inputs of the group, and some outputs of the inner
+ * nodes as outputs of the group. Evaluators expand each instance into the inner nodes, so a definition never
+ * executes anything itself, and instances of the same definition fed with the same inputs are evaluated once.
+ */
+public class NodeGroup {
+    private final String label;
+    private final NodeGraph graph;
+    private final List<Port> inputs;
+    private final List<Port> outputs;
+    private boolean instantiated;
+
+    /**
+     * Constructor.
+     * @param label The label of the group nodes
+     * @param graph The inner nodes of the group
+     */
+    public NodeGroup(String label, NodeGraph graph) {
+        this.label = label;
+        this.graph = graph;
+        this.inputs = new ArrayList<>();
+        this.outputs = new ArrayList<>();
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public NodeGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Retrieve the inner inputs exposed as inputs of the group, in order.
+     */
+    public List<Port> getInputs() {
+        return Collections.unmodifiableList(inputs);
+    }
+
+    /**
+     * Retrieve the inner outputs exposed as outputs of the group, in order.
+     */
+    public List<Port> getOutputs() {
+        return Collections.unmodifiableList(outputs);
+    }
+
+    /**
+     * Expose an input of an inner node as the next input of the group.
+     * @param nodeId The ID of the inner node
+     * @param inputIndex The index of the input on the inner node
+     * @param portLabel The label of the group input
+     * @throws IllegalArgumentException If the input does not exist or is connected inside the group
+     * @throws IllegalStateException If the group has already been instantiated
+     */
+    public void exposeInput(int nodeId, int inputIndex, String portLabel) {
+        NodeInstance instance = requireUninstantiated(nodeId);
+        if (inputIndex < 0 || inputIndex >= instance.getNode().getInputs().length) {
+            throw new IllegalArgumentException(instance.getNode() + " has no input " + inputIndex);
+        }
+        for (Connection connection : graph.getConnections()) {
+            if (connection.getTargetNode() == nodeId && connection.getTargetInput() == inputIndex) {
+                throw new IllegalArgumentException("Input " + inputIndex + " of " + instance.getNode()
+                    + " is connected inside the group");
+            }
+        }
+        inputs.add(new Port(nodeId, inputIndex, portLabel));
+    }
+
+    /**
+     * Expose an output of an inner node as the next output of the group.
+     * @param nodeId The ID of the inner node
+     * @param outputIndex The index of the output on the inner node
+     * @param portLabel The label of the group output
+     * @throws IllegalArgumentException If the output does not exist
+     * @throws IllegalStateException If the group has already been instantiated
+     */
+    public void exposeOutput(int nodeId, int outputIndex, String portLabel) {
+        NodeInstance instance = requireUninstantiated(nodeId);
+        if (outputIndex < 0 || outputIndex >= instance.getNode().getOutputs().length) {
+            throw new IllegalArgumentException(instance.getNode() + " has no output " + outputIndex);
+        }
+        outputs.add(new Port(nodeId, outputIndex, portLabel));
+    }
+
+    /**
+     * Create a node standing for this group in another graph.
+     * The ports of the group cannot change anymore afterwards, its inner nodes still can.
+     * @return A new group node
+     */
+    public GroupNode instantiate() {
+        instantiated = true;
+        return new GroupNode(this);
+    }
+
+    /**
+     * Check whether any inner node depends on time.
+     */
+    public boolean isTimeDependent() {
+        for (NodeInstance instance : graph.getNodes()) {
+            if (instance.getNode().isTimeDependent()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move nodes of a graph into a new group, and replace them with an instance of the group.
+     * Inputs connected from outside the selection and outputs connected outside of it become the ports of
+     * the group, and so does the first output of every selected node without downstream connection.
+     * @param graph The graph holding the nodes
+     * @param selection The nodes to collapse
+     * @param label The label of the new group
+     * The selection is replaced by the instance as a single edit of the graph.
+     * @return The instance of the group added to the graph, where the first selected node was
+     * @throws IllegalArgumentException If the selection is empty, or cannot be collapsed as told by
+     *                                  {@link #canCollapse(NodeGraph, Collection)}
+     */
+    public static NodeInstance collapse(NodeGraph graph, Collection<NodeInstance> selection, String label) {
+        if (selection.isEmpty()) {
+            throw new IllegalArgumentException("Cannot group an empty selection");
+        }
+        if (!canCollapse(graph, selection)) {
+            throw new IllegalArgumentException("Cannot group nodes connected through a node outside the selection");
+        }
+        Set<Integer> selected = new HashSet<>();
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        for (NodeInstance instance : selection) {
+            selected.add(instance.getId());
+            minX = Math.min(minX, instance.getX());
+            minY = Math.min(minY, instance.getY());
+        }
+
+        NodeGraph inner = new NodeGraph();
+        for (NodeInstance instance : selection) {
+            inner.addNode(instance.getId(), instance.getNode(), instance.getX() - minX, instance.getY() - minY);
+        }
+
+        // Sort connections into internal ones and the ones crossing the selection boundary
+        NodeGroup group = new NodeGroup(label, inner);
+        Map<Connection, Integer> incoming = new LinkedHashMap<>();
+        Map<Connection, Integer> outgoing = new LinkedHashMap<>();
+        Map<Long, Integer> exposedOutputs = new LinkedHashMap<>();
+        Set<Integer> upstream = new HashSet<>();
+        for (Connection connection : graph.getConnections()) {
+            boolean fromInside = selected.contains(connection.getSourceNode());
+            boolean toInside = selected.contains(connection.getTargetNode());
+            if (fromInside) {
+                upstream.add(connection.getSourceNode());
+            }
+            if (fromInside && toInside) {
+                inner.connectNodes(inner.getNodeById(connection.getSourceNode()), connection.getSourceOutput(),
+                    inner.getNodeById(connection.getTargetNode()), connection.getTargetInput());
+            } else if (toInside) {
+                NodeInstance target = inner.getNodeById(connection.getTargetNode());
+                incoming.put(connection, group.inputs.size());
+                group.exposeInput(target.getId(), connection.getTargetInput(),
+                    target.getNode().getInputs()[connection.getTargetInput()].getLabel());
+            } else if (fromInside) {
+                long key = ((long) connection.getSourceNode() << 32) | connection.getSourceOutput();
+                Integer output = exposedOutputs.get(key);
+                if (output == null) {
+                    NodeInstance source = inner.getNodeById(connection.getSourceNode());
+                    output = group.outputs.size();
+                    exposedOutputs.put(key, output);
+                    group.exposeOutput(source.getId(), connection.getSourceOutput(),
+                        source.getNode().getOutputs()[connection.getSourceOutput()].label());
+                }
+                outgoing.put(connection, output);
+            }
+        }
+        for (NodeInstance instance : selection) {
+            NodeOutput[] nodeOutputs = instance.getNode().getOutputs();
+            if (!upstream.contains(instance.getId()) && nodeOutputs.length > 0) {
+                group.exposeOutput(instance.getId(), 0, nodeOutputs[0].label());
+            }
+        }
+
+        // Replace the selection with an instance of the group
+        NodeInstance first = selection.iterator().next();
+        return graph.replaceNodes(selection, group.instantiate(), first.getX(), first.getY(), instance -> {
+            List<Connection> connections = new ArrayList<>();
+            for (Map.Entry<Connection, Integer> entry : incoming.entrySet()) {
+                connections.add(new Connection(entry.getKey().getSourceNode(), entry.getKey().getSourceOutput(),
+                    instance.getId(), entry.getValue()));
+            }
+            for (Map.Entry<Connection, Integer> entry : outgoing.entrySet()) {
+                connections.add(new Connection(instance.getId(), entry.getValue(),
+                    entry.getKey().getTargetNode(), entry.getKey().getTargetInput()));
+            }
+            return connections;
+        });
+    }
+
+    /**
+     * Check whether nodes can be collapsed into a group. They cannot when a path leaves the selection and comes
+     * back into it, since the instance of the group would then be part of a cycle.
+     * @param graph The graph holding the nodes
+     * @param selection The nodes to collapse
+     * @return True if no node outside the selection is both downstream and upstream of it
+     */
+    public static boolean canCollapse(NodeGraph graph, Collection<NodeInstance> selection) {
+        Set<Integer> selected = new HashSet<>();
+        for (NodeInstance instance : selection) {
+            selected.add(instance.getId());
+        }
+
+        // Walk downstream of the selection through outside nodes only
+        Set<Integer> visited = new HashSet<>();
+        Deque<Integer> pending = new ArrayDeque<>(selected);
+        while (!pending.isEmpty()) {
+            int nodeId = pending.pop();
+            NodeInstance instance = graph.getNodeById(nodeId);
+            if (instance == null) {
+                continue;
+            }
+            for (int output = 0; output < instance.getNode().getOutputs().length; output++) {
+                for (Connection connection : graph.getConnectionsFromOutput(nodeId, output)) {
+                    int target = connection.getTargetNode();
+                    if (selected.contains(target)) {
+                        if (!selected.contains(nodeId)) {
+                            return false;
+                        }
+                    } else if (visited.add(target)) {
+                        pending.push(target);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private NodeInstance requireUninstantiated(int nodeId) {
+        if (instantiated) {
+            throw new IllegalStateException("The ports of group " + label + " cannot change after it is instantiated");
+        }
+        NodeInstance instance = graph.getNodeById(nodeId);
+        if (instance == null) {
+            throw new IllegalArgumentException("Group " + label + " has no node " + nodeId);
+        }
+        return instance;
+    }
+
+    /**
+     * Port of an inner node exposed by a group.
+     * @param nodeId The ID of the inner node
+     * @param index The index of the input or output on the inner node
+     * @param label The label of the port on the group
+     */
+    public record Port(int nodeId, int index, String label) {
+    }
+}
@@ -2,21 +2,83 @@ package violyte.nodes.model;
 
 public class NodeInput<T> {
     private String label;
+    private Class<?> type;
     private T value;
 
+    /**
+     * Constructor.
+     * @param label The label of the input
+     * @param type The type of the values accepted by the input, checked when a wire is connected to it
+     * @param value The default parameter value
+     */
+    public NodeInput(String label, Class<T> type, T value) {
+        this.label = label;
+        this.type = type;
+        this.value = value;
+    }
+
+    public NodeInput(String label, Class<T> type) {
+        this(label, type, null);
+    }
+
+    /**
+     * Constructor for an input accepting values of the class of its default value.
+     * @param label The label of the input
+     * @param value The default parameter value, or null for an untyped input
+     */
     public NodeInput(String label, T value) {
         this.label = label;
+        this.type = value != null ? value.getClass() : Object.class;
+        this.value = value;
     }
 
+    /**
+     * Constructor for an untyped input without default value.
+     */
     public NodeInput(String label) {
-        this(label, null);
+        this(label, (T) null);
     }
 
     public String getLabel() {
         return label;
     }
-    
+
+    /**
+     * Retrieve the type of the values accepted by this input.
+     * @return The input type, {@code Object} if the input is untyped
+     */
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * Retrieve the value of this input.
+     * While its node is being evaluated, this is the value bound by the evaluation (the upstream output
+     * if the input is connected), otherwise it is the parameter value set on this input.
+     * @return The value of this input
+     */
+    @SuppressWarnings("unchecked")
     public T getValue() {
+        Node.Binding binding = Node.bindingFor(this);
+        if (binding != null) {
+            return (T) binding.valueOf(this);
+        }
+        return value;
+    }
+
+    /**
+     * Retrieve the parameter value of this input, ignoring any value bound by an evaluation.
+     * @return The parameter value of this input
+     */
+    public T getParameterValue() {
         return value;
     }
+
+    /**
+     * Set the parameter value of this input, used when no wire is connected to it.
+     * @param value The new parameter value
+     */
+    public void setValue(T value) {
+        this.value = value;
+    }
 }
@@ -0,0 +1,9 @@
+package violyte.nodes.model;
+
+/**
+ * Description of one of the outputs of a node.
+ * @param label The label of the output
+ * @param type The type of the values produced by the output, {@code Object} if the output is untyped
+ */
+public record NodeOutput(String label, Class<?> type) {
+}
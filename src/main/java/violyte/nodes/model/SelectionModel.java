@@ -0,0 +1,243 @@
+package violyte.nodes.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntConsumer;
+
+import violyte.nodes.model.NodeGraph.Connection;
+import violyte.nodes.model.NodeGraph.EventType;
+import violyte.nodes.model.NodeGraph.NodeGraphListener;
+import violyte.nodes.model.NodeGraph.NodeInstance;
+import violyte.nodes.model.NodeGraph.Snapshot;
+
+/**
+ * Selected nodes of a graph, as a bit set indexed by node ID.
+ * Every operation, including the bulk ones, notifies listeners once with the nodes it selected and deselected.
+ * Removed nodes leave the selection. The model is meant to be used from the editing thread only.
+ */
+public class SelectionModel {
+    private final NodeGraph graph;
+    private final List<SelectionListener> listeners;
+    private BitSet selected;
+    private int count;
+
+    /**
+     * Create an empty selection of the nodes of a graph.
+     * @param graph The graph whose nodes are selected
+     */
+    public SelectionModel(NodeGraph graph) {
+        this.graph = graph;
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.selected = new BitSet();
+        graph.addListener(new NodeGraphListener() {
+            @Override
+            public void onNodeRemoved(NodeInstance instance) {
+                deselect(instance.getId());
+            }
+        }, EnumSet.of(EventType.NODE_REMOVED));
+    }
+
+    public NodeGraph getGraph() {
+        return graph;
+    }
+
+    public boolean isSelected(int nodeId) {
+        return nodeId >= 0 && selected.get(nodeId);
+    }
+
+    /**
+     * Retrieve the number of selected nodes.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Retrieve the IDs of the selected nodes.
+     * @return The IDs, in ascending order
+     */
+    public int[] getSelectedIds() {
+        return selected.stream().toArray();
+    }
+
+    /**
+     * Call an action with the ID of every selected node, in ascending order, without allocating.
+     */
+    public void forEach(IntConsumer action) {
+        for (int id = selected.nextSetBit(0); id >= 0; id = selected.nextSetBit(id + 1)) {
+            action.accept(id);
+        }
+    }
+
+    /**
+     * Add a node to the selection.
+     */
+    public void select(int nodeId) {
+        if (nodeId < 0 || selected.get(nodeId)) {
+            return;
+        }
+        selected.set(nodeId);
+        count++;
+        BitSet changed = new BitSet();
+        changed.set(nodeId);
+        notifyChanged(changed, new BitSet());
+    }
+
+    /**
+     * Remove a node from the selection.
+     */
+    public void deselect(int nodeId) {
+        if (!isSelected(nodeId)) {
+            return;
+        }
+        selected.clear(nodeId);
+        count--;
+        BitSet changed = new BitSet();
+        changed.set(nodeId);
+        notifyChanged(new BitSet(), changed);
+    }
+
+    /**
+     * Replace the selection with some nodes.
+     * @param nodeIds The IDs of the nodes to select
+     */
+    public void setSelection(Collection<Integer> nodeIds) {
+        BitSet next = new BitSet();
+        for (int id : nodeIds) {
+            if (id >= 0) {
+                next.set(id);
+            }
+        }
+        apply(next);
+    }
+
+    /**
+     * Deselect every node.
+     */
+    public void clear() {
+        apply(new BitSet());
+    }
+
+    /**
+     * Select every node of the graph.
+     */
+    public void selectAll() {
+        apply(liveNodes(graph.snapshot()));
+    }
+
+    /**
+     * Select the nodes that are not selected, and deselect the others.
+     */
+    public void invert() {
+        BitSet next = liveNodes(graph.snapshot());
+        next.andNot(selected);
+        apply(next);
+    }
+
+    /**
+     * Add to the selection every node the selected nodes depend on, directly or not.
+     */
+    public void selectUpstream() {
+        extend(true);
+    }
+
+    /**
+     * Add to the selection every node depending on the selected nodes, directly or not.
+     */
+    public void selectDownstream() {
+        extend(false);
+    }
+
+    public void addListener(SelectionListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(SelectionListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Follow the connections from the selected nodes, in one direction, selecting every node reached.
+     */
+    private void extend(boolean upstream) {
+        Map<Integer, List<Integer>> neighbors = new HashMap<>();
+        for (Connection connection : graph.snapshot().getConnections()) {
+            int from = upstream ? connection.getTargetNode() : connection.getSourceNode();
+            int to = upstream ? connection.getSourceNode() : connection.getTargetNode();
+            neighbors.computeIfAbsent(from, k -> new ArrayList<>()).add(to);
+        }
+
+        BitSet next = (BitSet) selected.clone();
+        int[] stack = getSelectedIds();
+        int size = stack.length;
+        while (size > 0) {
+            List<Integer> reached = neighbors.get(stack[--size]);
+            if (reached == null) {
+                continue;
+            }
+            for (int id : reached) {
+                if (!next.get(id)) {
+                    next.set(id);
+                    if (size == stack.length) {
+                        stack = Arrays.copyOf(stack, size * 2 + 1);
+                    }
+                    stack[size++] = id;
+                }
+            }
+        }
+        apply(next);
+    }
+
+    private static BitSet liveNodes(Snapshot snapshot) {
+        BitSet nodes = new BitSet();
+        for (NodeInstance instance : snapshot.getNodes()) {
+            nodes.set(instance.getId());
+        }
+        return nodes;
+    }
+
+    /**
+     * Make a set of nodes the selection, notifying the difference with the current one.
+     */
+    private void apply(BitSet next) {
+        BitSet added = (BitSet) next.clone();
+        added.andNot(selected);
+        BitSet removed = (BitSet) selected.clone();
+        removed.andNot(next);
+        if (added.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        selected = next;
+        count = next.cardinality();
+        notifyChanged(added, removed);
+    }
+
+    private void notifyChanged(BitSet added, BitSet removed) {
+        for (SelectionListener listener : listeners) {
+            listener.onSelectionChanged(added, removed);
+        }
+    }
+
+    /**
+     * Listener interface for selection changes.
+     */
+    public interface SelectionListener {
+        /**
+         * Called once per change of the selection.
+         * @param selected The IDs of the nodes that were selected, not to be modified
+         * @param deselected The IDs of the nodes that were deselected, not to be modified
+         */
+        void onSelectionChanged(BitSet selected, BitSet deselected);
+    }
+}
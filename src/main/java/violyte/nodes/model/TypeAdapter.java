@@ -0,0 +1,16 @@
+package violyte.nodes.model;
+
+/**
+ * Conversion of a value flowing through a connection between ports of different types.
+ * @param <S> The type of the source output
+ * @param <T> The type of the target input
+ */
+@FunctionalInterface
+public interface TypeAdapter<S, T> {
+    /**
+     * Convert a value. Never called with null.
+     * @param value The value produced by the source node
+     * @return The value received by the target node
+     */
+    T adapt(S value);
+}
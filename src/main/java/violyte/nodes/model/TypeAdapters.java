@@ -0,0 +1,88 @@
+package violyte.nodes.model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the conversions allowed between port types.
+ * An output can be connected to an input when its type is assignable to the input type, when either type is
+ * {@code Object} (untyped), or when an adapter is registered from the output type, or one of its superclasses,
+ * to the input type. Adapters are looked up when a connection is made or a plan is compiled, never per value.
+ */
+public class TypeAdapters {
+    private static final TypeAdapters DEFAULT = createDefault();
+
+    private final Map<Class<?>, Map<Class<?>, TypeAdapter<?, ?>>> adapters = new ConcurrentHashMap<>();
+
+    /**
+     * Retrieve the registry used by node graphs and execution plans.
+     * It converts integers to wider numeric types and numbers to text.
+     */
+    public static TypeAdapters getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Register a conversion, replacing any conversion between the same types.
+     * @param from The output type
+     * @param to The input type
+     * @param adapter The conversion
+     */
+    public <S, T> void register(Class<S> from, Class<T> to, TypeAdapter<? super S, ? extends T> adapter) {
+        adapters.computeIfAbsent(from, type -> new ConcurrentHashMap<>()).put(to, adapter);
+    }
+
+    /**
+     * Check whether values of a type can flow into an input of another type.
+     * @param from The output type
+     * @param to The input type
+     * @return True if the values need no conversion or an adapter exists
+     */
+    public boolean canConvert(Class<?> from, Class<?> to) {
+        return isAssignable(from, to) || lookup(from, to) != null;
+    }
+
+    /**
+     * Find the conversion between two port types.
+     * @param from The output type
+     * @param to The input type
+     * @return The adapter to apply, or null if values can flow unchanged
+     * @throws IllegalArgumentException If values of the output type cannot flow into the input
+     */
+    @SuppressWarnings("unchecked")
+    public TypeAdapter<Object, Object> find(Class<?> from, Class<?> to) {
+        if (isAssignable(from, to)) {
+            return null;
+        }
+        TypeAdapter<?, ?> adapter = lookup(from, to);
+        if (adapter == null) {
+            throw new IllegalArgumentException("Cannot convert " + from.getSimpleName() + " to " + to.getSimpleName());
+        }
+        return (TypeAdapter<Object, Object>) adapter;
+    }
+
+    private static boolean isAssignable(Class<?> from, Class<?> to) {
+        return from == Object.class || to.isAssignableFrom(from);
+    }
+
+    private TypeAdapter<?, ?> lookup(Class<?> from, Class<?> to) {
+        for (Class<?> type = from; type != null; type = type.getSuperclass()) {
+            Map<Class<?>, TypeAdapter<?, ?>> targets = adapters.get(type);
+            if (targets != null && targets.containsKey(to)) {
+                return targets.get(to);
+            }
+        }
+        return null;
+    }
+
+    private static TypeAdapters createDefault() {
+        TypeAdapters registry = new TypeAdapters();
+        registry.register(Integer.class, Long.class, Integer::longValue);
+        registry.register(Integer.class, Float.class, Integer::floatValue);
+        registry.register(Integer.class, Double.class, Integer::doubleValue);
+        registry.register(Long.class, Double.class, Long::doubleValue);
+        registry.register(Float.class, Double.class, Float::doubleValue);
+        registry.register(Number.class, String.class, String::valueOf);
+        return registry;
+    }
+}
@@ -0,0 +1,32 @@
+package violyte.nodes.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event emitted when a cached node output is evicted.
+ */
+@Name("violyte.CacheEviction")
+@Label("Cache Eviction")
+@Category({"Violyte", "Evaluation"})
+@Description("A cached node output was discarded")
+@StackTrace(false)
+public class CacheEvictionEvent extends Event {
+    @Label("Cache")
+    public String cache;
+
+    @Label("Node ID")
+    public int nodeId;
+
+    @Label("Reason")
+    public String reason;
+
+    @Label("Size")
+    @DataAmount
+    public long size;
+}
@@ -0,0 +1,36 @@
+package violyte.nodes.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event emitted when a connection is added to or removed from a node graph.
+ */
+@Name("violyte.ConnectionEdit")
+@Label("Connection Edit")
+@Category({"Violyte", "Node Graph"})
+@Description("A connection between two nodes was added or removed")
+@StackTrace(false)
+public class ConnectionEditEvent extends Event {
+    public static final String ADDED = "added";
+    public static final String REMOVED = "removed";
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Source Node ID")
+    public int sourceNode;
+
+    @Label("Source Output")
+    public int sourceOutput;
+
+    @Label("Target Node ID")
+    public int targetNode;
+
+    @Label("Target Input")
+    public int targetInput;
+}
@@ -0,0 +1,44 @@
+package violyte.nodes.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event emitted when a node is added to, removed from or moved in a node graph, or when one of
+ * its parameters is changed. Nodes moved together, for example by a layout, are recorded as one event.
+ */
+@Name("violyte.NodeEdit")
+@Label("Node Edit")
+@Category({"Violyte", "Node Graph"})
+@Description("A node was added, removed, moved or had a parameter changed")
+@StackTrace(false)
+public class NodeEditEvent extends Event {
+    public static final String ADDED = "added";
+    public static final String REMOVED = "removed";
+    public static final String MOVED = "moved";
+    public static final String PARAMETER_CHANGED = "parameter changed";
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Node ID")
+    public int nodeId;
+
+    @Label("Node Label")
+    public String label;
+
+    @Label("X")
+    public double x;
+
+    @Label("Y")
+    public double y;
+
+    @Label("Node Count")
+    @Description("The number of nodes edited, more than one when nodes are moved together, in which case the "
+        + "other fields describe the first of them")
+    public int count = 1;
+}
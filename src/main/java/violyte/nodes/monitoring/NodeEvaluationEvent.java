@@ -0,0 +1,30 @@
+package violyte.nodes.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event spanning the execution of a single node.
+ */
+@Name("violyte.NodeEvaluation")
+@Label("Node Evaluation")
+@Category({"Violyte", "Evaluation"})
+@Description("Execution of a single node, excluding the evaluation of its upstream nodes")
+@StackTrace(false)
+public class NodeEvaluationEvent extends Event {
+    @Label("Node ID")
+    public int nodeId;
+
+    @Label("Node Label")
+    public String label;
+
+    @Label("Output Size")
+    @Description("Estimated size of the value produced by the node")
+    @DataAmount
+    public long outputSize;
+}
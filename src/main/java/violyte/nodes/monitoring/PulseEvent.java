@@ -0,0 +1,20 @@
+package violyte.nodes.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event spanning a JavaFX pulse of a scene, from the start of its CSS and layout pass
+ * until the scene graph is ready to be rendered.
+ */
+@Name("violyte.Pulse")
+@Label("UI Pulse")
+@Category({"Violyte", "User Interface"})
+@Description("CSS and layout pass of a scene before it is synchronized with the render thread")
+@StackTrace(false)
+public class PulseEvent extends Event {
+}
@@ -0,0 +1,41 @@
+package violyte.nodes.monitoring;
+
+import javafx.scene.Scene;
+
+/**
+ * Records a {@link PulseEvent} for every pulse of a scene.
+ * Rendering itself happens on the JavaFX render thread right after the recorded span, so long pulse events
+ * are what show up as a frozen editor.
+ */
+public class PulseMonitor {
+    private PulseEvent currentEvent;
+
+    private PulseMonitor() {
+    }
+
+    /**
+     * Start recording the pulses of a scene.
+     * @param scene The scene to monitor
+     */
+    public static void install(Scene scene) {
+        PulseMonitor monitor = new PulseMonitor();
+        scene.addPreLayoutPulseListener(monitor::onPulseStarted);
+        scene.addPostLayoutPulseListener(monitor::onPulseFinished);
+    }
+
+    private void onPulseStarted() {
+        PulseEvent event = new PulseEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            currentEvent = event;
+        }
+    }
+
+    private void onPulseFinished() {
+        PulseEvent event = currentEvent;
+        currentEvent = null;
+        if (event != null) {
+            event.commit();
+        }
+    }
+}
@@ -21,6 +21,16 @@ public interface NodeEditorContract {
          */
         void displayNode(NodeInstance instance);
 
+        /**
+         * Display many nodes at once, for example when pasting, at their positions.
+         * @param instances The node instances to display
+         */
+        default void displayNodes(List<NodeInstance> instances) {
+            for (NodeInstance instance : instances) {
+                displayNode(instance);
+            }
+        }
+
         /**
          * Remove a node from the display.
          * @param nodeId The ID of the node to remove
@@ -35,6 +45,16 @@ public interface NodeEditorContract {
          */
         void updateNodePosition(int nodeId, double x, double y);
 
+        /**
+         * Update the positions of many nodes at once, for example after a layout.
+         * @param instances The node instances to update, at their new positions
+         */
+        default void updateNodePositions(List<NodeInstance> instances) {
+            for (NodeInstance instance : instances) {
+                updateNodePosition(instance.getId(), instance.getX(), instance.getY());
+            }
+        }
+
         /**
          * Display a connection between two nodes.
          * @param connectionId The ID of the connection
@@ -96,6 +116,18 @@ public interface NodeEditorContract {
          * @return List of node IDs that intersect with the rectangle
          */
         List<Integer> getNodesInRectangle(double x, double y, double width, double height);
+
+        /**
+         * Get the text of the clipboard.
+         * @return The text, or null if the clipboard holds no text
+         */
+        String getClipboardText();
+
+        /**
+         * Replace the content of the clipboard with text.
+         * @param text The text to put in the clipboard
+         */
+        void setClipboardText(String text);
     }
 
     /**
@@ -157,6 +189,51 @@ public interface NodeEditorContract {
          */
         void onDeleteRequested();
 
+        /**
+         * User requested to collapse the selected nodes into a group.
+         */
+        void onGroupRequested();
+
+        /**
+         * User requested to select every node.
+         */
+        void onSelectAllRequested();
+
+        /**
+         * User requested to invert the selection.
+         */
+        void onInvertSelectionRequested();
+
+        /**
+         * User requested to add the nodes upstream of the selected nodes to the selection.
+         */
+        void onSelectUpstreamRequested();
+
+        /**
+         * User requested to add the nodes downstream of the selected nodes to the selection.
+         */
+        void onSelectDownstreamRequested();
+
+        /**
+         * User requested to arrange every node of the graph automatically.
+         */
+        void onAutoLayoutRequested();
+
+        /**
+         * User requested to copy the selected nodes, and the connections between them, to the clipboard.
+         */
+        void onCopyRequested();
+
+        /**
+         * User requested to paste the nodes of the clipboard.
+         */
+        void onPasteRequested();
+
+        /**
+         * User requested to duplicate the selected nodes, and the connections between them.
+         */
+        void onDuplicateRequested();
+
         /**
          * User started a selection rectangle.
          * @param x The x coordinate
@@ -1,25 +1,37 @@
 package violyte.nodes.presenter;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import violyte.nodes.io.GraphFile;
+import violyte.nodes.layout.LayeredLayout;
 
 import violyte.nodes.model.Node;
 import violyte.nodes.model.NodeGraph;
 import violyte.nodes.model.NodeGraph.Connection;
 import violyte.nodes.model.NodeGraph.NodeGraphListener;
 import violyte.nodes.model.NodeGraph.NodeInstance;
+import violyte.nodes.model.NodeGraph.Snapshot;
+import violyte.nodes.model.NodeGroup;
+import violyte.nodes.model.SelectionModel;
 
 /**
  * Presenter for the node editor.
  */
 public class NodeEditorPresenter implements NodeEditorContract.Presenter {
+    /** Offset of pasted and duplicated nodes from the originals. */
+    public static final double PASTE_OFFSET = 40;
+
     private final NodeEditorContract.View view;
     private final NodeGraph model;
     
     // Selection state
-    private final List<Integer> selectedNodeIds;
+    private final SelectionModel selection;
     
     // Wire creation state
     private Integer wireSourceNodeId;
@@ -30,14 +42,42 @@ public class NodeEditorPresenter implements NodeEditorContract.Presenter {
     private double selectionStartY;
     private boolean isSelectingRectangle;
 
+    // Automatic layout, computed in the background then applied on the UI thread
+    private final Executor uiExecutor;
+    private final LayeredLayout layout;
+    private boolean layoutPending;
+
+    /**
+     * Create a presenter applying background work, such as automatic layouts, on the calling thread.
+     */
     public NodeEditorPresenter(NodeEditorContract.View view, NodeGraph model, 
                               Set<Node<?>> availableNodeTypes) {
+        this(view, model, availableNodeTypes, Runnable::run);
+    }
+
+    /**
+     * Create a presenter.
+     * @param uiExecutor The executor running tasks on the UI thread, where the results of background work are
+     *                   applied to the model
+     */
+    public NodeEditorPresenter(NodeEditorContract.View view, NodeGraph model,
+                               Set<Node<?>> availableNodeTypes, Executor uiExecutor) {
         this.view = view;
         this.model = model;
-        this.selectedNodeIds = new ArrayList<>();
+        this.uiExecutor = uiExecutor;
+        this.layout = new LayeredLayout();
+        this.selection = new SelectionModel(model);
         
-        // Listen to model changes
+        // Listen to model and selection changes
         model.addListener(new ModelListener());
+        selection.addListener(this::onSelectionChanged);
+    }
+
+    /**
+     * Retrieve the selected nodes of the editor.
+     */
+    public SelectionModel getSelection() {
+        return selection;
     }
 
     @Override
@@ -48,28 +88,24 @@ public class NodeEditorPresenter implements NodeEditorContract.Presenter {
     @Override
     public void onNodeTypeSelected(Node<?> node, double x, double y) {
         NodeInstance instance = model.addNode(node, x, y);
-        clearSelection();
-        selectNode(instance.getId());
+        selection.setSelection(List.of(instance.getId()));
         view.hideNodeSelectionMenu();
     }
 
     @Override
     public void onNodeDragStarted(int nodeId, boolean multiSelect) {
-        if (!multiSelect) {
-            clearSelection();
-        }
-        selectNode(nodeId);
+        selectOnClick(nodeId, multiSelect);
     }
 
     @Override
     public void onNodeDragged(int nodeId, double deltaX, double deltaY) {
         // Move all selected nodes
-        for (int id : selectedNodeIds) {
+        selection.forEach(id -> {
             NodeInstance instance = model.getNodeById(id);
             if (instance != null) {
                 model.moveNode(instance, instance.getX() + deltaX, instance.getY() + deltaY);
             }
-        }
+        });
     }
 
     @Override
@@ -89,7 +125,13 @@ public class NodeEditorPresenter implements NodeEditorContract.Presenter {
             NodeInstance source = model.getNodeById(wireSourceNodeId);
             NodeInstance target = model.getNodeById(targetNodeId);
             
-            if (source != null && target != null) {
+            // Incompatible ports are rejected here, so that bad wires never reach an evaluation
+            if (source != null && target != null
+                    && model.canConnect(source, wireSourceOutputIndex, target, inputIndex)) {
+                // An input takes a single wire, so a new wire replaces the one already there
+                for (Connection replaced : model.getConnectionsToInput(targetNodeId, inputIndex)) {
+                    model.removeConnection(replaced);
+                }
                 model.connectNodes(source, wireSourceOutputIndex, target, inputIndex);
             }
             
@@ -99,15 +141,104 @@ public class NodeEditorPresenter implements NodeEditorContract.Presenter {
 
     @Override
     public void onDeleteRequested() {
-        List<NodeInstance> nodesToRemove = new ArrayList<>();
-        for (int id : selectedNodeIds) {
-            NodeInstance instance = model.getNodeById(id);
-            if (instance != null) {
-                nodesToRemove.add(instance);
-            }
+        // Removed nodes leave the selection
+        model.removeNodes(selectedInstances());
+    }
+
+    @Override
+    public void onGroupRequested() {
+        List<NodeInstance> nodesToGroup = selectedInstances();
+        if (nodesToGroup.isEmpty() || !NodeGroup.canCollapse(model, nodesToGroup)) {
+            return;
+        }
+        NodeInstance group = NodeGroup.collapse(model, nodesToGroup, "Group");
+        selection.setSelection(List.of(group.getId()));
+    }
+
+    @Override
+    public void onSelectAllRequested() {
+        selection.selectAll();
+    }
+
+    @Override
+    public void onInvertSelectionRequested() {
+        selection.invert();
+    }
+
+    @Override
+    public void onSelectUpstreamRequested() {
+        selection.selectUpstream();
+    }
+
+    @Override
+    public void onSelectDownstreamRequested() {
+        selection.selectDownstream();
+    }
+
+    @Override
+    public void onCopyRequested() {
+        List<NodeInstance> nodes = selectedInstances();
+        if (!nodes.isEmpty()) {
+            view.setClipboardText(GraphFile.toText(model, nodes));
+        }
+    }
+
+    @Override
+    public void onPasteRequested() {
+        String text = view.getClipboardText();
+        if (text == null) {
+            return;
+        }
+        try {
+            insert(GraphFile.fromText(text));
+        } catch (IOException e) {
+            // The clipboard holds something else than nodes
+        }
+    }
+
+    @Override
+    public void onDuplicateRequested() {
+        List<NodeInstance> nodes = selectedInstances();
+        if (nodes.isEmpty()) {
+            return;
+        }
+        try {
+            insert(GraphFile.fromText(GraphFile.toText(model, nodes)));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read back copied nodes", e);
+        }
+    }
+
+    /**
+     * Insert copied nodes next to the originals, as one change of the graph, and select them.
+     */
+    private void insert(NodeGraph copy) {
+        List<NodeInstance> inserted = model.insert(copy, PASTE_OFFSET, PASTE_OFFSET);
+        List<Integer> insertedIds = new ArrayList<>(inserted.size());
+        for (NodeInstance instance : inserted) {
+            insertedIds.add(instance.getId());
+        }
+        selection.setSelection(insertedIds);
+    }
+
+    @Override
+    public void onAutoLayoutRequested() {
+        if (layoutPending) {
+            return;
         }
-        model.removeNodes(nodesToRemove);
-        selectedNodeIds.clear();
+        layoutPending = true;
+        Snapshot snapshot = model.snapshot();
+        CompletableFuture.supplyAsync(() -> layout.compute(snapshot))
+            .whenCompleteAsync((placement, error) -> {
+                layoutPending = false;
+                if (placement != null) {
+                    // Nodes removed meanwhile are skipped, and nodes added meanwhile keep their place
+                    model.moveNodes(placement.nodeIds(), placement.x(), placement.y());
+                } else {
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, error);
+                }
+            }, uiExecutor);
     }
 
     @Override
@@ -130,11 +261,7 @@ public class NodeEditorPresenter implements NodeEditorContract.Presenter {
         
         view.updateSelectionRectangle(minX, minY, width, height);
 
-        clearSelection();
-        List<Integer> intersectingNodeIds = view.getNodesInRectangle(minX, minY, width, height);
-        for (int nodeId : intersectingNodeIds) {
-            selectNode(nodeId);
-        }
+        selection.setSelection(view.getNodesInRectangle(minX, minY, width, height));
     }
 
     @Override
@@ -145,44 +272,44 @@ public class NodeEditorPresenter implements NodeEditorContract.Presenter {
 
     @Override
     public void onNodeClicked(int nodeId, boolean multiSelect) {
-        if (!multiSelect) {
-            clearSelection();
-        }
-        selectNode(nodeId);
+        selectOnClick(nodeId, multiSelect);
     }
 
     @Override
     public void onBackgroundClicked() {
-        clearSelection();
+        selection.clear();
     }
 
     // Helper methods
     
-    private void selectNode(int nodeId) {
-        if (!selectedNodeIds.contains(nodeId)) {
-            selectedNodeIds.add(nodeId);
-            view.setNodeSelected(nodeId, true);
-            
-            NodeInstance instance = model.getNodeById(nodeId);
-            if (instance != null) {
-                instance.setSelected(true);
-            }
+    private void selectOnClick(int nodeId, boolean multiSelect) {
+        if (multiSelect) {
+            selection.select(nodeId);
+        } else {
+            selection.setSelection(List.of(nodeId));
         }
     }
 
-    private void deselectNode(int nodeId) {
-        selectedNodeIds.remove(Integer.valueOf(nodeId));
-        view.setNodeSelected(nodeId, false);
-        
-        NodeInstance instance = model.getNodeById(nodeId);
-        if (instance != null) {
-            instance.setSelected(false);
-        }
+    private List<NodeInstance> selectedInstances() {
+        List<NodeInstance> instances = new ArrayList<>(selection.getCount());
+        selection.forEach(id -> {
+            NodeInstance instance = model.getNodeById(id);
+            if (instance != null) {
+                instances.add(instance);
+            }
+        });
+        return instances;
     }
 
-    private void clearSelection() {
-        for (int id : new ArrayList<>(selectedNodeIds)) {
-            deselectNode(id);
+    /**
+     * Highlight the nodes whose selection changed, and only those.
+     */
+    private void onSelectionChanged(BitSet selected, BitSet deselected) {
+        for (int id = deselected.nextSetBit(0); id >= 0; id = deselected.nextSetBit(id + 1)) {
+            view.setNodeSelected(id, false);
+        }
+        for (int id = selected.nextSetBit(0); id >= 0; id = selected.nextSetBit(id + 1)) {
+            view.setNodeSelected(id, true);
         }
     }
 
@@ -200,33 +327,34 @@ public class NodeEditorPresenter implements NodeEditorContract.Presenter {
             view.removeNodeDisplay(instance.getId());
         }
 
+        @Override
+        public void onSubgraphAdded(List<NodeInstance> nodes, List<Connection> connections) {
+            view.displayNodes(nodes);
+            for (Connection connection : connections) {
+                onConnectionAdded(connection);
+            }
+        }
+
         @Override
         public void onNodeMoved(NodeInstance instance) {
             view.updateNodePosition(instance.getId(), instance.getX(), instance.getY());
         }
 
+        @Override
+        public void onNodesMoved(List<NodeInstance> instances) {
+            view.updateNodePositions(instances);
+        }
+
         @Override
         public void onConnectionAdded(Connection connection) {
-            int connectionId = generateConnectionId(connection);
-            view.displayConnection(connectionId, 
+            view.displayConnection(connection.getId(), 
                 connection.getSourceNode(), connection.getSourceOutput(),
                 connection.getTargetNode(), connection.getTargetInput());
         }
 
         @Override
         public void onConnectionRemoved(Connection connection) {
-            int connectionId = generateConnectionId(connection);
-            view.removeConnectionDisplay(connectionId);
-        }
-        
-        private int generateConnectionId(Connection connection) {
-            // Generate a unique connection ID by combining node IDs and port indices
-            return Objects.hash(
-                connection.getSourceNode(),
-                connection.getSourceOutput(),
-                connection.getTargetNode(),
-                connection.getTargetInput()
-            );
+            view.removeConnectionDisplay(connection.getId());
         }
     }
 }
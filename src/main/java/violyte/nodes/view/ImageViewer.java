@@ -0,0 +1,163 @@
+package violyte.nodes.view;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.StackPane;
+import violyte.image.ColorSpace;
+import violyte.image.ImageBuffer;
+import violyte.image.MemoryGovernor;
+
+/**
+ * Displays images produced by a graph, scaled to fit while keeping their aspect ratio.
+ * <p>
+ * The displayed image is backed by a {@link PixelBuffer} over direct memory, which the texture is uploaded from.
+ * A new frame goes through the display transform straight into that memory, without building a new image, and
+ * only the rectangle of pixels that differ from the previous frame is marked dirty, so a small change uploads a
+ * small region. The memory is only reallocated when the size of the frames changes, and is accounted for by the
+ * default {@link MemoryGovernor}.
+ */
+public class ImageViewer extends StackPane {
+    private final ImageView imageView = new ImageView();
+    private ColorSpace displaySpace = ColorSpace.SRGB;
+    private volatile PixelBuffer<IntBuffer> pixelBuffer;
+    private int[] row = new int[0];
+    private int[] previous = new int[0];
+    private final MemoryGovernor.Consumer memoryConsumer = new MemoryConsumer();
+
+    public ImageViewer() {
+        imageView.setPreserveRatio(true);
+        imageView.setSmooth(true);
+        imageView.fitWidthProperty().bind(widthProperty());
+        imageView.fitHeightProperty().bind(heightProperty());
+        setMinSize(0, 0);
+        getChildren().add(imageView);
+        getStyleClass().add("image-viewer");
+        MemoryGovernor.getDefault().register(memoryConsumer);
+    }
+
+    public ColorSpace getDisplaySpace() {
+        return displaySpace;
+    }
+
+    /**
+     * Change the color space of the display. Takes effect with the next frame displayed.
+     * @param displaySpace The color space images are converted to
+     */
+    public void setDisplaySpace(ColorSpace displaySpace) {
+        this.displaySpace = displaySpace;
+    }
+
+    /**
+     * Display a frame. Must be called on the JavaFX application thread.
+     * The frame is only read during the call, so it can be recycled afterwards.
+     * @param image The frame to display, in the working space
+     */
+    public void display(ImageBuffer image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (pixelBuffer == null || pixelBuffer.getWidth() != width || pixelBuffer.getHeight() != height) {
+            IntBuffer pixels = ByteBuffer.allocateDirect(width * height * Integer.BYTES)
+                .order(ByteOrder.nativeOrder()).asIntBuffer();
+            row = new int[width];
+            previous = new int[width];
+            for (int y = 0; y < height; y++) {
+                encode(image, y);
+                pixels.put(y * width, row);
+            }
+            pixelBuffer = new PixelBuffer<>(width, height, pixels, PixelFormat.getIntArgbPreInstance());
+            imageView.setImage(new WritableImage(pixelBuffer));
+            return;
+        }
+
+        // The buffer must only be written inside the callback, where the renderer does not read it
+        pixelBuffer.updateBuffer(buffer -> {
+            IntBuffer pixels = buffer.getBuffer();
+            int minX = width;
+            int maxX = -1;
+            int minY = -1;
+            int maxY = -1;
+            for (int y = 0; y < height; y++) {
+                encode(image, y);
+                pixels.get(y * width, previous);
+                int first = Arrays.mismatch(row, previous);
+                if (first < 0) {
+                    continue;
+                }
+                int last = width - 1;
+                while (row[last] == previous[last]) {
+                    last--;
+                }
+                pixels.put(y * width, row);
+                minX = Math.min(minX, first);
+                maxX = Math.max(maxX, last);
+                minY = minY < 0 ? y : minY;
+                maxY = y;
+            }
+            return minY >= 0 ? new Rectangle2D(minX, minY, maxX - minX + 1, maxY - minY + 1) : Rectangle2D.EMPTY;
+        });
+    }
+
+    /**
+     * Stop displaying any frame, releasing the pixel memory.
+     */
+    public void clear() {
+        imageView.setImage(null);
+        pixelBuffer = null;
+    }
+
+    /**
+     * Pixel memory of the viewer as seen by a memory governor, which cannot release it while it is displayed.
+     */
+    private final class MemoryConsumer implements MemoryGovernor.Consumer {
+        @Override
+        public String getName() {
+            return "viewer";
+        }
+
+        @Override
+        public int getPriority() {
+            return MemoryGovernor.PRIORITY_PINNED;
+        }
+
+        @Override
+        public boolean isOffHeap() {
+            return true;
+        }
+
+        @Override
+        public long getUsage() {
+            PixelBuffer<IntBuffer> buffer = pixelBuffer;
+            return buffer != null ? (long) buffer.getWidth() * buffer.getHeight() * Integer.BYTES : 0;
+        }
+
+        @Override
+        public long release(long bytes) {
+            return 0;
+        }
+    }
+
+    /**
+     * Convert a row of the image to premultiplied pixels of the display, into {@link #row}.
+     */
+    private void encode(ImageBuffer image, int y) {
+        displaySpace.encode(image, y, row);
+        for (int x = 0; x < row.length; x++) {
+            int argb = row[x];
+            int alpha = argb >>> 24;
+            if (alpha != 0xff) {
+                int r = ((argb >> 16) & 0xff) * alpha / 255;
+                int g = ((argb >> 8) & 0xff) * alpha / 255;
+                int b = (argb & 0xff) * alpha / 255;
+                row[x] = alpha << 24 | r << 16 | g << 8 | b;
+            }
+        }
+    }
+}
@@ -12,6 +12,7 @@ public class NodeBox extends VBox {
     private VBox fieldsBox;
     private ArrayList<NodeBoxInput> inputs;
     private ArrayList<NodeBoxOutput> outputs;
+    private boolean selected;
 
     public NodeBox(int nodeId, String title) {
         this.nodeId = nodeId;
@@ -93,6 +94,7 @@ public class NodeBox extends VBox {
      * @param selected True to mark this node as selected, false to unselect it
      */
     public void setSelected(boolean selected) {
+        this.selected = selected;
         if (selected) {
             if (!getStyleClass().contains("node-box-selected")) {
                 getStyleClass().add("node-box-selected");
@@ -101,4 +103,8 @@ public class NodeBox extends VBox {
             getStyleClass().remove("node-box-selected");
         }
     }
+
+    public boolean isSelected() {
+        return selected;
+    }
 }
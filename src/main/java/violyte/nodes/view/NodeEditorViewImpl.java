@@ -1,39 +1,71 @@
 package violyte.nodes.view;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.controlsfx.control.SearchableComboBox;
 
+import javafx.application.Platform;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.collections.FXCollections;
 import javafx.event.Event;
 import javafx.event.EventHandler;
+import javafx.geometry.Point2D;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.Pane;
 import javafx.scene.shape.Circle;
 import javafx.scene.shape.Rectangle;
+import javafx.scene.transform.Scale;
+import javafx.scene.transform.Translate;
 import violyte.nodes.model.Node;
 import violyte.nodes.model.NodeGraph.NodeInstance;
 import violyte.nodes.model.NodeInput;
+import violyte.nodes.model.NodeOutput;
 import violyte.nodes.presenter.NodeEditorContract;
 import violyte.nodes.utils.Utils;
 
 /**
  * View implementation for the Node Editor.
+ * <p>
+ * The editor zooms with the mouse wheel and pans with the middle button. Zoomed far out, the node boxes and
+ * wires leave the scene graph, so that they cost no CSS nor layout pass, and the graph is drawn by a
+ * {@link NodeOverview} instead. They come back once zoomed in again.
  */
 public class NodeEditorViewImpl extends Pane implements NodeEditorContract.View {
+    public static final double MIN_ZOOM = 0.05;
+    public static final double MAX_ZOOM = 4;
+    /** Zoom factor of one notch of the mouse wheel. */
+    public static final double ZOOM_STEP = 1.1;
+    /** Zoom below which the graph is drawn as an overview. */
+    public static final double OVERVIEW_ENTER_ZOOM = 0.35;
+    /** Zoom above which the overview is left, higher than the one entering it so that they do not flicker. */
+    public static final double OVERVIEW_EXIT_ZOOM = 0.45;
+
     private NodeEditorContract.Presenter presenter;
     
     // UI Components
+    private final Pane content;
     private final Pane nodesPane;
     private final Pane wiresPane;
+    private final NodeOverview overview;
     private final SearchableComboBox<Node<?>> searchBox;
     private final Rectangle selectionRect;
+
+    // Viewport state, the content being scaled then translated
+    private final Translate translate;
+    private final Scale scale;
+    private boolean overviewShown;
+    private boolean redrawPending;
+    private double menuX;
+    private double menuY;
     
     // Maps to track visual elements
     private final Map<Integer, NodeBox> nodeBoxes;
@@ -56,8 +88,27 @@ public class NodeEditorViewImpl extends Pane implements NodeEditorContract.View
         searchBox.setVisible(false);
         selectionRect.setVisible(false);
         selectionRect.getStyleClass().add("selection-rectangle");
+
+        translate = new Translate();
+        scale = new Scale(1, 1, 0, 0);
+        content = new Pane(wiresPane, nodesPane, selectionRect);
+        content.getTransforms().addAll(translate, scale);
+        content.setPickOnBounds(false);
+
+        overview = new NodeOverview();
+        overview.setManaged(false);
+        overview.setVisible(false);
+        overview.widthProperty().bind(widthProperty());
+        overview.heightProperty().bind(heightProperty());
+        overview.widthProperty().addListener((obs, oldVal, newVal) -> requestOverviewRedraw());
+        overview.heightProperty().addListener((obs, oldVal, newVal) -> requestOverviewRedraw());
+
+        Rectangle clip = new Rectangle();
+        clip.widthProperty().bind(widthProperty());
+        clip.heightProperty().bind(heightProperty());
+        setClip(clip);
         
-        getChildren().addAll(wiresPane, nodesPane, searchBox, selectionRect);
+        getChildren().addAll(overview, content, searchBox);
         getStyleClass().add("node-editor");
         
         setupEventHandlers();
@@ -71,21 +122,108 @@ public class NodeEditorViewImpl extends Pane implements NodeEditorContract.View
     }
 
     /**
-     * Setup all event handlers.
+     * Get the current zoom factor, 1 being the actual size of the nodes.
      */
-    private void setupEventHandlers() {
-        // Double-click on background to add node
-        nodesPane.addEventFilter(MouseEvent.MOUSE_CLICKED, event -> {
-            if (event.getButton() == MouseButton.PRIMARY && event.getClickCount() == 2) {
-                presenter.onAddNodeRequested(event.getX(), event.getY());
+    public double getZoom() {
+        return scale.getX();
+    }
+
+    /**
+     * Zoom around a point, keeping it in place.
+     * @param factor The factor multiplying the current zoom
+     * @param x The x coordinate of the point in this view
+     * @param y The y coordinate of the point in this view
+     */
+    public void zoomAt(double factor, double x, double y) {
+        double zoom = getZoom();
+        double newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * factor));
+        translate.setX(x - (x - translate.getX()) * newZoom / zoom);
+        translate.setY(y - (y - translate.getY()) * newZoom / zoom);
+        scale.setX(newZoom);
+        scale.setY(newZoom);
+        updateDetailLevel();
+    }
+
+    /**
+     * Move the content of the view.
+     * @param deltaX The horizontal offset, in view coordinates
+     * @param deltaY The vertical offset, in view coordinates
+     */
+    public void pan(double deltaX, double deltaY) {
+        translate.setX(translate.getX() + deltaX);
+        translate.setY(translate.getY() + deltaY);
+        requestOverviewRedraw();
+    }
+
+    /**
+     * Show the node boxes or the overview, depending on the zoom.
+     */
+    private void updateDetailLevel() {
+        if (!overviewShown && getZoom() < OVERVIEW_ENTER_ZOOM) {
+            overviewShown = true;
+            content.getChildren().removeAll(wiresPane, nodesPane);
+            overview.setVisible(true);
+        } else if (overviewShown && getZoom() > OVERVIEW_EXIT_ZOOM) {
+            overviewShown = false;
+            content.getChildren().addAll(0, List.of(wiresPane, nodesPane));
+            overview.setVisible(false);
+        }
+        requestOverviewRedraw();
+    }
+
+    /**
+     * Redraw the overview once at the next pulse, however many changes happen until then.
+     */
+    private void requestOverviewRedraw() {
+        if (!overviewShown || redrawPending) {
+            return;
+        }
+        redrawPending = true;
+        Platform.runLater(() -> {
+            redrawPending = false;
+            if (overviewShown) {
+                overview.redraw(nodeBoxes.values(), wires.values(), getZoom(), translate.getX(), translate.getY());
             }
         });
+    }
+
+    /**
+     * Convert the position of a mouse event to graph coordinates, whatever its target.
+     */
+    private Point2D toGraph(MouseEvent event) {
+        Point2D point = sceneToLocal(event.getSceneX(), event.getSceneY());
+        return new Point2D((point.getX() - translate.getX()) / getZoom(), (point.getY() - translate.getY()) / getZoom());
+    }
 
-        // Selection rectangle
+    /**
+     * Setup all event handlers.
+     */
+    private void setupEventHandlers() {
+        // Double-click on background to add node, and selection rectangle, in both levels of detail
         SelectionRectangleHandler selectionHandler = new SelectionRectangleHandler();
-        nodesPane.addEventFilter(MouseEvent.MOUSE_PRESSED, selectionHandler);
-        nodesPane.addEventFilter(MouseEvent.MOUSE_DRAGGED, selectionHandler);
-        nodesPane.addEventFilter(MouseEvent.MOUSE_RELEASED, selectionHandler);
+        for (javafx.scene.Node background : List.of(nodesPane, overview)) {
+            background.addEventFilter(MouseEvent.MOUSE_CLICKED, event -> {
+                if (event.getButton() == MouseButton.PRIMARY && event.getClickCount() == 2) {
+                    Point2D point = toGraph(event);
+                    presenter.onAddNodeRequested(point.getX(), point.getY());
+                }
+            });
+            background.addEventFilter(MouseEvent.MOUSE_PRESSED, selectionHandler);
+            background.addEventFilter(MouseEvent.MOUSE_DRAGGED, selectionHandler);
+            background.addEventFilter(MouseEvent.MOUSE_RELEASED, selectionHandler);
+        }
+
+        // Zoom around the cursor, and pan with the middle button
+        addEventHandler(ScrollEvent.SCROLL, event -> {
+            if (event.getDeltaY() != 0) {
+                Point2D point = sceneToLocal(event.getSceneX(), event.getSceneY());
+                zoomAt(Math.pow(ZOOM_STEP, event.getDeltaY() / 40), point.getX(), point.getY());
+            }
+            event.consume();
+        });
+        PanHandler panHandler = new PanHandler();
+        addEventFilter(MouseEvent.MOUSE_PRESSED, panHandler);
+        addEventFilter(MouseEvent.MOUSE_DRAGGED, panHandler);
 
         // SearchBox selection
         searchBox.setOnHidden(new SearchBoxHideHandler());
@@ -94,6 +232,24 @@ public class NodeEditorViewImpl extends Pane implements NodeEditorContract.View
         setOnKeyPressed(event -> {
             if (event.getCode() == KeyCode.DELETE) {
                 presenter.onDeleteRequested();
+            } else if (event.isShortcutDown() && event.getCode() == KeyCode.G) {
+                presenter.onGroupRequested();
+            } else if (event.isShortcutDown() && event.getCode() == KeyCode.C) {
+                presenter.onCopyRequested();
+            } else if (event.isShortcutDown() && event.getCode() == KeyCode.V) {
+                presenter.onPasteRequested();
+            } else if (event.isShortcutDown() && !event.isShiftDown() && event.getCode() == KeyCode.D) {
+                presenter.onDuplicateRequested();
+            } else if (event.isShortcutDown() && event.getCode() == KeyCode.L) {
+                presenter.onAutoLayoutRequested();
+            } else if (event.isShortcutDown() && event.getCode() == KeyCode.A) {
+                presenter.onSelectAllRequested();
+            } else if (event.isShortcutDown() && event.getCode() == KeyCode.I) {
+                presenter.onInvertSelectionRequested();
+            } else if (event.isShortcutDown() && event.isShiftDown() && event.getCode() == KeyCode.U) {
+                presenter.onSelectUpstreamRequested();
+            } else if (event.isShortcutDown() && event.isShiftDown() && event.getCode() == KeyCode.D) {
+                presenter.onSelectDownstreamRequested();
             }
         });
     }
@@ -102,6 +258,25 @@ public class NodeEditorViewImpl extends Pane implements NodeEditorContract.View
 
     @Override
     public void displayNode(NodeInstance instance) {
+        nodesPane.getChildren().add(createNodeBox(instance));
+        requestOverviewRedraw();
+    }
+
+    @Override
+    public void displayNodes(List<NodeInstance> instances) {
+        // A single change of the children list, rather than one per node
+        List<NodeBox> created = new java.util.ArrayList<>(instances.size());
+        for (NodeInstance instance : instances) {
+            created.add(createNodeBox(instance));
+        }
+        nodesPane.getChildren().addAll(created);
+        requestOverviewRedraw();
+    }
+
+    /**
+     * Create the node box of a node instance and register it, without adding it to the scene graph yet.
+     */
+    private NodeBox createNodeBox(NodeInstance instance) {
         NodeBox nodeBox = new NodeBox(instance.getId(), instance.getNode().getLabel());
         
         // Add inputs
@@ -120,15 +295,19 @@ public class NodeEditorViewImpl extends Pane implements NodeEditorContract.View
             });
         }
         
-        // Add output (TODO: support multiple outputs)
-        NodeBoxOutput outputField = nodeBox.addOutput("Output");
-        
-        // Setup wire creation start handler
-        outputField.getHandle().setOnDragDetected(event -> {
-            outputField.startFullDrag();
-            presenter.onWireCreationStarted(instance.getId(), 0);
-            event.consume();
-        });
+        // Add outputs
+        NodeOutput[] outputs = instance.getNode().getOutputs();
+        for (int i = 0; i < outputs.length; i++) {
+            int outputIndex = i;
+            NodeBoxOutput outputField = nodeBox.addOutput(outputs[i].label());
+            
+            // Setup wire creation start handler
+            outputField.getHandle().setOnDragDetected(event -> {
+                outputField.startFullDrag();
+                presenter.onWireCreationStarted(instance.getId(), outputIndex);
+                event.consume();
+            });
+        }
         
         // Setup node dragging
         nodeBox.setOnMousePressed(new NodeDragHandler(nodeBox));
@@ -137,7 +316,7 @@ public class NodeEditorViewImpl extends Pane implements NodeEditorContract.View
         nodeBox.setLayoutY(instance.getY());
         
         nodeBoxes.put(instance.getId(), nodeBox);
-        nodesPane.getChildren().add(nodeBox);
+        return nodeBox;
     }
 
     @Override
@@ -145,6 +324,17 @@ public class NodeEditorViewImpl extends Pane implements NodeEditorContract.View
         NodeBox nodeBox = nodeBoxes.remove(nodeId);
         if (nodeBox != null) {
             nodesPane.getChildren().remove(nodeBox);
+            // Connections are normally removed first, this only drops wires left behind
+            wires.values().removeIf(wire -> {
+                if (wire.getStartNode().getParentNodeBox() != nodeBox
+                        && wire.getEndNode().getParentNodeBox() != nodeBox) {
+                    return false;
+                }
+                wire.dispose();
+                wiresPane.getChildren().remove(wire);
+                return true;
+            });
+            requestOverviewRedraw();
         }
     }
 
@@ -154,9 +344,22 @@ public class NodeEditorViewImpl extends Pane implements NodeEditorContract.View
         if (nodeBox != null) {
             nodeBox.setLayoutX(x);
             nodeBox.setLayoutY(y);
+            requestOverviewRedraw();
         }
     }
 
+    @Override
+    public void updateNodePositions(List<NodeInstance> instances) {
+        for (NodeInstance instance : instances) {
+            NodeBox nodeBox = nodeBoxes.get(instance.getId());
+            if (nodeBox != null) {
+                nodeBox.setLayoutX(instance.getX());
+                nodeBox.setLayoutY(instance.getY());
+            }
+        }
+        requestOverviewRedraw();
+    }
+
     @Override
     public void displayConnection(int connectionId, int sourceNodeId, int sourceOutput,
                                   int targetNodeId, int targetInput) {
@@ -173,6 +376,7 @@ public class NodeEditorViewImpl extends Pane implements NodeEditorContract.View
             NodeWire wire = new NodeWire(source, target);
             wires.put(connectionId, wire);
             wiresPane.getChildren().add(wire);
+            requestOverviewRedraw();
         }
     }
 
@@ -180,7 +384,9 @@ public class NodeEditorViewImpl extends Pane implements NodeEditorContract.View
     public void removeConnectionDisplay(int connectionId) {
         NodeWire wire = wires.remove(connectionId);
         if (wire != null) {
+            wire.dispose();
             wiresPane.getChildren().remove(wire);
+            requestOverviewRedraw();
         }
     }
 
@@ -189,13 +395,17 @@ public class NodeEditorViewImpl extends Pane implements NodeEditorContract.View
         NodeBox nodeBox = nodeBoxes.get(nodeId);
         if (nodeBox != null) {
             nodeBox.setSelected(selected);
+            requestOverviewRedraw();
         }
     }
 
     @Override
     public void showNodeSelectionMenu(double x, double y) {
-        searchBox.setLayoutX(x);
-        searchBox.setLayoutY(y);
+        menuX = x;
+        menuY = y;
+        Point2D position = content.localToParent(x, y);
+        searchBox.setLayoutX(position.getX());
+        searchBox.setLayoutY(position.getY());
         searchBox.setVisible(true);
         searchBox.show();
     }
@@ -237,6 +447,19 @@ public class NodeEditorViewImpl extends Pane implements NodeEditorContract.View
         return intersectingNodes;
     }
 
+    @Override
+    public String getClipboardText() {
+        Clipboard clipboard = Clipboard.getSystemClipboard();
+        return clipboard.hasString() ? clipboard.getString() : null;
+    }
+
+    @Override
+    public void setClipboardText(String text) {
+        ClipboardContent content = new ClipboardContent();
+        content.putString(text);
+        Clipboard.getSystemClipboard().setContent(content);
+    }
+
     // ===== Event Handlers =====
 
     /**
@@ -251,7 +474,7 @@ public class NodeEditorViewImpl extends Pane implements NodeEditorContract.View
 
         @Override
         public void handle(MouseEvent event) {
-            if (!Utils.getLayoutBoundsInParent(nodeBox).contains(event.getSceneX(), event.getSceneY())) {
+            if (!nodeBox.getLayoutBounds().contains(event.getX(), event.getY())) {
                 return;
             }
 
@@ -266,8 +489,9 @@ public class NodeEditorViewImpl extends Pane implements NodeEditorContract.View
                     return;
                 }
                 
-                double deltaX = ev.getSceneX() - lastX.get();
-                double deltaY = ev.getSceneY() - lastY.get();
+                // Scene offsets are scaled by the zoom, unlike node positions
+                double deltaX = (ev.getSceneX() - lastX.get()) / getZoom();
+                double deltaY = (ev.getSceneY() - lastY.get()) / getZoom();
                 
                 presenter.onNodeDragged(nodeId, deltaX, deltaY);
                 
@@ -298,12 +522,13 @@ public class NodeEditorViewImpl extends Pane implements NodeEditorContract.View
                 return;
             }
 
+            Point2D point = toGraph(event);
             if (event.getEventType() == MouseEvent.MOUSE_PRESSED && 
-                event.getTarget() == nodesPane) {
+                (event.getTarget() == nodesPane || event.getTarget() == overview)) {
                 isDragging = true;
-                presenter.onSelectionRectangleStarted(event.getX(), event.getY());
+                presenter.onSelectionRectangleStarted(point.getX(), point.getY());
             } else if (event.getEventType() == MouseEvent.MOUSE_DRAGGED && isDragging) {
-                presenter.onSelectionRectangleDragged(event.getX(), event.getY());
+                presenter.onSelectionRectangleDragged(point.getX(), point.getY());
             } else if (event.getEventType() == MouseEvent.MOUSE_RELEASED) {
                 if (isDragging) {
                     presenter.onSelectionRectangleFinished();
@@ -313,6 +538,27 @@ public class NodeEditorViewImpl extends Pane implements NodeEditorContract.View
         }
     }
 
+    /**
+     * Handler panning the view while the middle button is dragged.
+     */
+    private class PanHandler implements EventHandler<MouseEvent> {
+        private double lastX;
+        private double lastY;
+
+        @Override
+        public void handle(MouseEvent event) {
+            if (event.getButton() != MouseButton.MIDDLE && !event.isMiddleButtonDown()) {
+                return;
+            }
+            if (event.getEventType() == MouseEvent.MOUSE_DRAGGED) {
+                pan(event.getSceneX() - lastX, event.getSceneY() - lastY);
+            }
+            lastX = event.getSceneX();
+            lastY = event.getSceneY();
+            event.consume();
+        }
+    }
+
     /**
      * Handler for search box hide event.
      */
@@ -326,8 +572,7 @@ public class NodeEditorViewImpl extends Pane implements NodeEditorContract.View
             
             Node<?> selectedNode = searchBox.getSelectionModel().getSelectedItem();
             if (selectedNode != null) {
-                presenter.onNodeTypeSelected(selectedNode, 
-                    searchBox.getLayoutX(), searchBox.getLayoutY());
+                presenter.onNodeTypeSelected(selectedNode, menuX, menuY);
             }
             
             searchBox.setVisible(false);
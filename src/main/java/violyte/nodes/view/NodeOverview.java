@@ -0,0 +1,80 @@
+package violyte.nodes.view;
+
+import java.util.Collection;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * Low-detail rendering of the graph used when the editor is zoomed far out.
+ * Node boxes are drawn as plain rectangles and wires as straight lines, all in one pass over a canvas, so that
+ * none of the styled controls of a {@link NodeBox} takes part in CSS or layout.
+ */
+public class NodeOverview extends Canvas {
+    public static final Color BACKGROUND_COLOR = Color.web("#1d1d1d");
+    public static final Color NODE_COLOR = Color.web("#eb4b3f");
+    public static final Color SELECTED_COLOR = Color.WHITE;
+    public static final Color WIRE_COLOR = Color.web("#909090");
+
+    /** Size of a node box never laid out, for example one added while zoomed out. */
+    public static final double DEFAULT_WIDTH = 100;
+    public static final double DEFAULT_FIELD_HEIGHT = 20;
+
+    /**
+     * Draw the nodes and wires visible in the canvas.
+     * @param nodeBoxes The node boxes, drawn at their layout position and size
+     * @param wires The wires, drawn between their end points
+     * @param zoom The scale from graph to canvas coordinates
+     * @param panX The x coordinate of the graph origin in the canvas
+     * @param panY The y coordinate of the graph origin in the canvas
+     */
+    public void redraw(Collection<NodeBox> nodeBoxes, Collection<NodeWire> wires, double zoom,
+                       double panX, double panY) {
+        GraphicsContext gc = getGraphicsContext2D();
+        gc.setTransform(1, 0, 0, 1, 0, 0);
+        gc.setFill(BACKGROUND_COLOR);
+        gc.fillRect(0, 0, getWidth(), getHeight());
+        gc.setTransform(zoom, 0, 0, zoom, panX, panY);
+
+        // Visible area in graph coordinates
+        double minX = -panX / zoom;
+        double minY = -panY / zoom;
+        double maxX = minX + getWidth() / zoom;
+        double maxY = minY + getHeight() / zoom;
+
+        gc.setStroke(WIRE_COLOR);
+        gc.setLineWidth(1 / zoom);
+        gc.beginPath();
+        for (NodeWire wire : wires) {
+            double x1 = wire.getStartX();
+            double y1 = wire.getStartY();
+            double x2 = wire.getEndX();
+            double y2 = wire.getEndY();
+            if (Math.max(x1, x2) >= minX && Math.min(x1, x2) <= maxX
+                    && Math.max(y1, y2) >= minY && Math.min(y1, y2) <= maxY) {
+                gc.moveTo(x1, y1);
+                gc.lineTo(x2, y2);
+            }
+        }
+        gc.stroke();
+
+        gc.setFill(NODE_COLOR);
+        gc.setStroke(SELECTED_COLOR);
+        gc.setLineWidth(2 / zoom);
+        for (NodeBox nodeBox : nodeBoxes) {
+            double x = nodeBox.getLayoutX();
+            double y = nodeBox.getLayoutY();
+            double width = nodeBox.getWidth() > 0 ? nodeBox.getWidth() : DEFAULT_WIDTH;
+            double height = nodeBox.getHeight() > 0 ? nodeBox.getHeight()
+                : DEFAULT_FIELD_HEIGHT * (1 + nodeBox.getInputs().size() + nodeBox.getOutputs().size());
+            if (x + width < minX || x > maxX || y + height < minY || y > maxY) {
+                continue;
+            }
+            gc.fillRect(x, y, width, height);
+            if (nodeBox.isSelected()) {
+                gc.strokeRect(x, y, width, height);
+            }
+        }
+    }
+}
@@ -1,12 +1,16 @@
 package violyte.nodes.view;
 
+import javafx.beans.value.ChangeListener;
 import javafx.geometry.Bounds;
+import javafx.scene.Parent;
 import javafx.scene.shape.CubicCurve;
 
 public class NodeWire extends CubicCurve {
     public static final double MIN_CONTROL_OFFSET = 60.0;
     private NodeBoxOutput startNode;
     private NodeBoxInput endNode;
+    private final ChangeListener<Object> startListener = (observable, oldValue, newValue) -> updateStartPos();
+    private final ChangeListener<Object> endListener = (observable, oldValue, newValue) -> updateEndPos();
 
     public NodeWire(NodeBoxOutput startNode, NodeBoxInput endNode) {
         this.startNode = startNode;
@@ -14,30 +18,43 @@ public class NodeWire extends CubicCurve {
         setStartNode(startNode);
         setEndNode(endNode);
 
-        // Listen to parent node box movements
-        startNode.getParentNodeBox().localToParentTransformProperty().addListener((obs, oldVal, newVal) -> {
-            updateStartPos();
-        });
-        endNode.getParentNodeBox().localToParentTransformProperty().addListener((obs, oldVal, newVal) -> {
-            updateEndPos();
-        });
-
         getStyleClass().add("node-wire");
     }
 
+    public NodeBoxOutput getStartNode() {
+        return startNode;
+    }
+
     public void setStartNode(NodeBoxOutput startNode) {
+        unwatch(this.startNode, startListener);
         this.startNode = startNode;
+        watch(startNode, startListener);
         updateStartPos();
     }
 
+    public NodeBoxInput getEndNode() {
+        return endNode;
+    }
+
     public void setEndNode(NodeBoxInput endNode) {
+        unwatch(this.endNode, endListener);
         this.endNode = endNode;
+        watch(endNode, endListener);
         updateEndPos();
     }
 
+    /**
+     * Stop following the node boxes of the wire, which would otherwise keep it alive and update it on every move.
+     * Call this when the wire is removed from the editor.
+     */
+    public void dispose() {
+        unwatch(startNode, startListener);
+        unwatch(endNode, endListener);
+    }
+
     public void updateStartPos() {
-        Bounds start = startNode.localToScene(startNode.getHandle().getBoundsInParent());
-        Bounds end = endNode.localToScene(endNode.getHandle().getBoundsInParent());
+        Bounds start = handleBounds(startNode);
+        Bounds end = handleBounds(endNode);
         double midX = Math.max(MIN_CONTROL_OFFSET, (end.getCenterX() - start.getCenterX()) / 2.0);
 
         setStartX(start.getCenterX());
@@ -49,8 +66,8 @@ public class NodeWire extends CubicCurve {
     }
 
     public void updateEndPos() {
-        Bounds start = startNode.localToScene(startNode.getHandle().getBoundsInParent());
-        Bounds end = endNode.localToScene(endNode.getHandle().getBoundsInParent());
+        Bounds start = handleBounds(startNode);
+        Bounds end = handleBounds(endNode);
         double midX = Math.max(MIN_CONTROL_OFFSET, (end.getCenterX() - start.getCenterX()) / 2.0);
 
         setEndX(end.getCenterX());
@@ -60,4 +77,31 @@ public class NodeWire extends CubicCurve {
         setControlX2(end.getCenterX() - midX);
         setControlY2(end.getCenterY());
     }
+
+    /**
+     * Follow the movements of the node box of a field, and the moves of the field within it when the node box
+     * is first laid out.
+     */
+    private static void watch(NodeBoxField field, ChangeListener<Object> listener) {
+        field.getParentNodeBox().localToParentTransformProperty().addListener(listener);
+        field.getParentNodeBox().layoutBoundsProperty().addListener(listener);
+    }
+
+    private static void unwatch(NodeBoxField field, ChangeListener<Object> listener) {
+        field.getParentNodeBox().localToParentTransformProperty().removeListener(listener);
+        field.getParentNodeBox().layoutBoundsProperty().removeListener(listener);
+    }
+
+    /**
+     * Get the bounds of the handle of a field in the coordinates of the pane holding the node boxes, which
+     * are those of the wire, whatever the zoom of the editor.
+     */
+    private static Bounds handleBounds(NodeBoxField field) {
+        NodeBox nodeBox = field.getParentNodeBox();
+        Bounds bounds = field.localToParent(field.getHandle().getBoundsInParent());
+        for (Parent parent = field.getParent(); parent != null && parent != nodeBox; parent = parent.getParent()) {
+            bounds = parent.localToParent(bounds);
+        }
+        return nodeBox.localToParent(bounds);
+    }
 }
@@ -0,0 +1,68 @@
+package violyte.nodes.eval;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DiskCacheTest {
+    private static final boolean[] REQUESTED = {true};
+    /** Size of the file of an integer output: the header, the type and the value. */
+    private static final long INTEGER_SIZE = 4 + 1 + 4;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void evictsLeastRecentlyUsedOutputs() {
+        DiskCache cache = new DiskCache(directory, 3 * INTEGER_SIZE);
+        cache.write("a", REQUESTED, new Object[]{1});
+        cache.write("b", REQUESTED, new Object[]{2});
+        cache.write("c", REQUESTED, new Object[]{3});
+
+        // Reading the oldest output makes it the most recently used, so the next one is evicted instead
+        Object[] outputs = new Object[1];
+        assertTrue(cache.read("a", REQUESTED, outputs));
+        cache.write("d", REQUESTED, new Object[]{4});
+
+        assertTrue(cache.read("a", REQUESTED, outputs));
+        assertArrayEquals(new Object[]{1}, outputs);
+        assertFalse(cache.read("b", REQUESTED, new Object[1]));
+        assertTrue(cache.read("c", REQUESTED, new Object[1]));
+        assertTrue(cache.read("d", REQUESTED, new Object[1]));
+    }
+
+    @Test
+    void readsOutputsWrittenByAnotherCache() {
+        DiskCache reader = new DiskCache(directory, 3 * INTEGER_SIZE);
+        DiskCache writer = new DiskCache(directory, 3 * INTEGER_SIZE);
+        writer.write("a", REQUESTED, new Object[]{1});
+
+        Object[] outputs = new Object[1];
+        assertTrue(reader.read("a", REQUESTED, outputs));
+        assertArrayEquals(new Object[]{1}, outputs);
+    }
+
+    @Test
+    void evictsOutputsWrittenByAnotherCache() throws IOException {
+        DiskCache first = new DiskCache(directory, 3 * INTEGER_SIZE);
+        DiskCache second = new DiskCache(directory, 3 * INTEGER_SIZE);
+        first.write("a", REQUESTED, new Object[]{1});
+        first.write("b", REQUESTED, new Object[]{2});
+        second.write("c", REQUESTED, new Object[]{3});
+        second.write("d", REQUESTED, new Object[]{4});
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(3, files.count());
+        }
+        assertTrue(second.read("d", REQUESTED, new Object[1]));
+    }
+}